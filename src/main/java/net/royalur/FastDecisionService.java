@@ -0,0 +1,387 @@
+package net.royalur;
+
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import net.royalur.agent.FastLUTDecider;
+import net.royalur.lut.GameEncoding;
+import net.royalur.lut.LUTLibrary;
+import net.royalur.lut.LUTRegistry;
+import net.royalur.lut.store.EntryLookup;
+import net.royalur.rules.simple.fast.FastSimpleGame;
+import net.royalur.rules.simple.fast.FastSimplePlayer;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.IntStream;
+
+/**
+ * Decides the moves for positions sent to the HTTP service without
+ * creating any {@link Game}, board, or piece objects. Positions are
+ * parsed from their JSON straight into a {@link FastSimpleGame} that
+ * is reused by each thread, and the move is chosen by a
+ * {@link FastLUTDecider} that is also reused by each thread.
+ */
+public class FastDecisionService {
+
+    /**
+     * The ruleset used for positions that do not name one.
+     */
+    public static final @Nonnull String DEFAULT_RULESET = "finkel";
+
+    private final @Nonnull LUTLibrary library;
+    private final @Nonnull ThreadLocal<Worker> workers;
+
+    public FastDecisionService(@Nonnull LUTLibrary library) {
+        this.library = library;
+        this.workers = ThreadLocal.withInitial(Worker::new);
+    }
+
+    /**
+     * Decides the move to make in the position in {@code json}, in the
+     * same format as the positions sent to {@code /jsonEndpoint}.
+     * @return The destination of the piece to move as "x,y", or
+     *         "null" if the piece is moved off the board.
+     * @throws IllegalArgumentException If the position or its ruleset is not valid.
+     * @throws IOException If the table of the ruleset could not be loaded.
+     */
+    public @Nonnull String decide(@Nonnull String json) throws IOException {
+        Worker worker = workers.get();
+        Position position = worker.position;
+        position.read(json);
+
+        LUTLibrary.Ruleset ruleset = library.getRuleset(position.getRulesetName());
+        LUTRegistry registry = ruleset.getRegistry();
+        try (LUTRegistry.Lease lease = registry.acquire()) {
+            return worker.decide(ruleset, registry.getEncoding(), lease.getStates(), position);
+        }
+    }
+
+    /**
+     * Decides the move to make in each of the positions in the JSON array
+     * {@code json}, using the threads of {@code pool}. The positions are split
+     * into one contiguous range per thread, and all positions of a ruleset are
+     * decided using the same table, even if a new table is swapped in while
+     * the batch is being decided.
+     * @throws IllegalArgumentException If {@code json} is not an array of positions.
+     */
+    public @Nonnull List<Decision> decideBatch(
+            @Nonnull String json,
+            @Nonnull ForkJoinPool pool
+    ) throws InterruptedException, ExecutionException {
+
+        Position[] positions = readPositions(json);
+        Decision[] decisions = new Decision[positions.length];
+        LUTLibrary.Ruleset[] rulesets = new LUTLibrary.Ruleset[positions.length];
+        Map<LUTLibrary.Ruleset, LUTRegistry.Lease> leases = new HashMap<>();
+        Map<LUTLibrary.Ruleset, GameEncoding> encodings = new HashMap<>();
+        try {
+            for (int index = 0; index < positions.length; ++index) {
+                try {
+                    LUTLibrary.Ruleset ruleset = library.getRuleset(positions[index].getRulesetName());
+                    if (!leases.containsKey(ruleset)) {
+                        LUTRegistry registry = ruleset.getRegistry();
+                        leases.put(ruleset, registry.acquire());
+                        encodings.put(ruleset, registry.getEncoding());
+                    }
+                    rulesets[index] = ruleset;
+                } catch (IllegalArgumentException | IOException e) {
+                    decisions[index] = Decision.error(e.getMessage());
+                }
+            }
+
+            int rangeCount = Math.max(1, Math.min(positions.length, pool.getParallelism()));
+            pool.submit(() -> IntStream.range(0, rangeCount).parallel().forEach((range) -> {
+                Worker worker = workers.get();
+                int start = (int) ((long) positions.length * range / rangeCount);
+                int end = (int) ((long) positions.length * (range + 1) / rangeCount);
+                for (int index = start; index < end; ++index) {
+                    LUTLibrary.Ruleset ruleset = rulesets[index];
+                    if (ruleset == null)
+                        continue;
+
+                    try {
+                        decisions[index] = Decision.move(worker.decide(
+                                ruleset, encodings.get(ruleset),
+                                leases.get(ruleset).getStates(), positions[index]
+                        ));
+                    } catch (RuntimeException e) {
+                        decisions[index] = Decision.error(String.valueOf(e.getMessage()));
+                    }
+                }
+            })).get();
+        } finally {
+            for (LUTRegistry.Lease lease : leases.values()) {
+                lease.close();
+            }
+        }
+        return Arrays.asList(decisions);
+    }
+
+    private static @Nonnull Position[] readPositions(@Nonnull String json) {
+        List<Position> positions = new ArrayList<>();
+        try (JsonReader reader = new JsonReader(new StringReader(json))) {
+            reader.beginArray();
+            while (reader.hasNext()) {
+                Position position = new Position();
+                position.read(reader);
+                positions.add(position);
+            }
+            reader.endArray();
+        } catch (IOException | IllegalStateException | NumberFormatException e) {
+            throw new IllegalArgumentException("Expected an array of positions: " + e.getMessage(), e);
+        }
+        return positions.toArray(new Position[0]);
+    }
+
+    /**
+     * The scratch space of one thread.
+     */
+    private static final class Worker {
+
+        private final @Nonnull Position position;
+
+        /**
+         * The game and decider for each ruleset that this thread has used.
+         */
+        private final @Nonnull Map<LUTLibrary.Ruleset, RulesetScratch> rulesets;
+
+        private Worker() {
+            this.position = new Position();
+            this.rulesets = new IdentityHashMap<>();
+        }
+
+        private @Nonnull String decide(
+                @Nonnull LUTLibrary.Ruleset ruleset,
+                @Nonnull GameEncoding encoding,
+                @Nonnull EntryLookup states,
+                @Nonnull Position position
+        ) {
+            RulesetScratch scratch = rulesets.get(ruleset);
+            if (scratch == null) {
+                scratch = new RulesetScratch(ruleset, encoding);
+                rulesets.put(ruleset, scratch);
+            }
+
+            FastSimpleGame game = scratch.game;
+            position.applyTo(game, scratch.maxRoll);
+            int pathIndex = scratch.decider.decideMove(states, game);
+            return formatDestination(game, pathIndex);
+        }
+    }
+
+    private static final class RulesetScratch {
+
+        private final @Nonnull FastSimpleGame game;
+        private final @Nonnull FastLUTDecider decider;
+        private final int maxRoll;
+
+        private RulesetScratch(@Nonnull LUTLibrary.Ruleset ruleset, @Nonnull GameEncoding encoding) {
+            this.game = new FastSimpleGame(ruleset.getSettings());
+            this.decider = new FastLUTDecider(ruleset.getSettings(), encoding);
+            this.maxRoll = ruleset.getSettings().getDice().createDice().getRollProbabilities().length - 1;
+        }
+    }
+
+    /**
+     * Formats the destination of moving the piece at {@code pathIndex}
+     * in {@code game} as in the responses of {@code /jsonEndpoint}.
+     */
+    private static @Nonnull String formatDestination(@Nonnull FastSimpleGame game, int pathIndex) {
+        int[] path = game.getTurnPlayer().path;
+        int destPathIndex = pathIndex + game.rollValue;
+        if (destPathIndex >= path.length)
+            return "null";
+
+        int destTileIndex = path[destPathIndex];
+        int width = game.board.width;
+        return (destTileIndex % width) + "," + (destTileIndex / width);
+    }
+
+    /**
+     * A position sent to the HTTP service. Positions are read from their
+     * JSON field by field, and are reused for every request of a thread.
+     */
+    static final class Position {
+
+        private @Nullable String settings;
+        private @Nullable String game;
+        private int roll;
+        private boolean lightTurn;
+        private int lightScore;
+        private int darkScore;
+        private int lightLeft;
+        private int darkLeft;
+
+        private void clear() {
+            settings = null;
+            game = null;
+            roll = 0;
+            lightTurn = false;
+            lightScore = 0;
+            darkScore = 0;
+            lightLeft = 0;
+            darkLeft = 0;
+        }
+
+        @Nonnull String getRulesetName() {
+            return settings != null ? settings : DEFAULT_RULESET;
+        }
+
+        void read(@Nonnull String json) {
+            try (JsonReader reader = new JsonReader(new StringReader(json))) {
+                read(reader);
+            } catch (IOException | IllegalStateException | NumberFormatException e) {
+                throw new IllegalArgumentException("Invalid position: " + e.getMessage(), e);
+            }
+        }
+
+        void read(@Nonnull JsonReader reader) throws IOException {
+            clear();
+            reader.beginObject();
+            while (reader.hasNext()) {
+                String name = reader.nextName();
+                if (reader.peek() == JsonToken.NULL) {
+                    reader.nextNull();
+                    continue;
+                }
+                switch (name) {
+                    case "settings" -> settings = reader.nextString();
+                    case "game" -> game = reader.nextString();
+                    case "roll" -> roll = reader.nextInt();
+                    case "light_turn" -> lightTurn = reader.nextBoolean();
+                    case "light_score" -> lightScore = reader.nextInt();
+                    case "dark_score" -> darkScore = reader.nextInt();
+                    case "light_left" -> lightLeft = reader.nextInt();
+                    case "dark_left" -> darkLeft = reader.nextInt();
+                    default -> reader.skipValue();
+                }
+            }
+            reader.endObject();
+        }
+
+        /**
+         * Sets {@code game} to this position. The game string lists every
+         * cell of the board row by row, e.g. A1, B1, C1, A2, ..., C8, where
+         * 'L' and 'D' mark the pieces of each player and spaces are ignored.
+         * Positions that could not occur in a game are rejected, as their
+         * keys could match other states of the table.
+         * @param maxRoll The largest roll of the dice of the game.
+         * @throws IllegalArgumentException If this position is not valid.
+         */
+        void applyTo(@Nonnull FastSimpleGame game, int maxRoll) {
+            if (this.game == null)
+                throw new IllegalArgumentException("Missing game");
+            if (roll <= 0 || roll > maxRoll)
+                throw new IllegalArgumentException("Expected a roll from 1 to " + maxRoll + ", but got " + roll);
+            if (lightLeft < 0 || darkLeft < 0 || lightScore < 0 || darkScore < 0)
+                throw new IllegalArgumentException("Piece counts and scores cannot be negative");
+
+            int[] pieces = game.board.pieces;
+            game.board.clear();
+            int tileIndex = 0;
+            int lightOnBoard = 0;
+            int darkOnBoard = 0;
+            for (int index = 0; index < this.game.length(); ++index) {
+                char c = this.game.charAt(index);
+                if (c == ' ')
+                    continue;
+                if (tileIndex >= pieces.length)
+                    throw new IllegalArgumentException("The game has more cells than the board");
+
+                if (c == 'L' || c == 'D') {
+                    FastSimplePlayer player = game.getPlayer(c == 'L');
+                    int pathIndex = indexOf(player.path, tileIndex);
+                    if (pathIndex < 0) {
+                        throw new IllegalArgumentException(
+                                "Cell " + tileIndex + " is not on the path of " + (c == 'L' ? "light" : "dark")
+                        );
+                    }
+                    pieces[tileIndex] = player.sign * (pathIndex + 1);
+                    if (c == 'L') {
+                        lightOnBoard += 1;
+                    } else {
+                        darkOnBoard += 1;
+                    }
+                }
+                tileIndex += 1;
+            }
+
+            int pieceCount = game.startingPieceCount;
+            if (lightLeft + lightScore + lightOnBoard != pieceCount) {
+                throw new IllegalArgumentException(
+                        "Light has " + lightLeft + " pieces left, " + lightScore + " scored and "
+                                + lightOnBoard + " on the board, but should have " + pieceCount + " pieces"
+                );
+            }
+            if (darkLeft + darkScore + darkOnBoard != pieceCount) {
+                throw new IllegalArgumentException(
+                        "Dark has " + darkLeft + " pieces left, " + darkScore + " scored and "
+                                + darkOnBoard + " on the board, but should have " + pieceCount + " pieces"
+                );
+            }
+            if (lightScore == pieceCount || darkScore == pieceCount)
+                throw new IllegalArgumentException("The game has already finished");
+
+            game.light.pieces = lightLeft;
+            game.light.score = lightScore;
+            game.dark.pieces = darkLeft;
+            game.dark.score = darkScore;
+            game.isLightTurn = lightTurn;
+            game.rollValue = roll;
+            game.isFinished = false;
+        }
+
+        private static int indexOf(@Nonnull int[] path, int tileIndex) {
+            for (int index = 0; index < path.length; ++index) {
+                if (path[index] == tileIndex)
+                    return index;
+            }
+            return -1;
+        }
+    }
+
+    /**
+     * The move chosen for one position of a batch, or the reason
+     * that no move could be chosen.
+     */
+    public static final class Decision {
+
+        private final @Nullable String move;
+        private final @Nullable String error;
+
+        private Decision(@Nullable String move, @Nullable String error) {
+            this.move = move;
+            this.error = error;
+        }
+
+        public static @Nonnull Decision move(@Nonnull String move) {
+            return new Decision(move, null);
+        }
+
+        public static @Nonnull Decision error(@Nonnull String error) {
+            return new Decision(null, error);
+        }
+
+        /**
+         * Returns the destination of the move, as returned by
+         * {@link #decide(String)}, or null if no move could be chosen.
+         */
+        public @Nullable String getMove() {
+            return move;
+        }
+
+        public @Nullable String getError() {
+            return error;
+        }
+    }
+}
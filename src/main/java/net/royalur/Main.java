@@ -2,7 +2,9 @@ package net.royalur;
 
 import net.royalur.agent.Agent;
 import net.royalur.agent.FinkelLUTAgent;
-import net.royalur.lut.StateLUT;
+import net.royalur.lut.LUTHeader;
+import net.royalur.lut.LUTLibrary;
+import net.royalur.lut.LUTRegistry;
 import net.royalur.model.Board;
 import net.royalur.model.GameSettings;
 import net.royalur.model.Move;
@@ -15,18 +17,23 @@ import net.royalur.model.shape.StandardBoardShape;
 import net.royalur.notation.FullStateSource;
 import net.royalur.rules.state.GameState;
 import net.royalur.rules.state.PlayableGameState;
-import net.royalur.lut.store.BigEntryStore;
 import com.google.gson.Gson;
 import spark.Request;
 import spark.Response;
 import static spark.Spark.*;
 
 import java.io.File;
+import java.io.FileNotFoundException;
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ForkJoinPool;
 
 public class Main {
 
+    private static final Gson GSON = new Gson();
+
     public static void main(String[] args) throws IOException {
         //Game<Piece, PlayerState, Roll> sample = Game.builder().finkel().build();
         //Board<Piece> board = sample.getBoard();
@@ -46,15 +53,24 @@ public class Main {
         //sample.addState(source.createWaitingForMoveState(sample.getRules(), PlayerType.DARK, sample.getDice().roll(1)));
         //System.out.println(board.toString());
 
-        StateLUT lut = new StateLUT(GameSettings.FINKEL);
-        BigEntryStore states = lut.readStateStore(new File("./finkel.rgu"));
-        String[] gamePath = new String[] {
-            "A1", "B1", "C1", "A2", "B2", "C2", "A3", "B3", "C3", 
-            "A4", "B4", "C4", "A5", "B5", "C5", "A6", "B6", "C6", 
-            "A7", "B7", "C7", "A8", "B8", "C8"
-        };
-        FinkelLUTAgent<Piece, PlayerState, Roll> flut = new FinkelLUTAgent<>(states);
-
+        // Tables are named by the fingerprint of their settings, and are mapped in the background.
+        // Requests for a ruleset are answered with 503 until its table has been loaded.
+        LUTLibrary library = LUTLibrary.createStandard(new File(args.length > 0 ? args[0] : "./luts"));
+        for (LUTLibrary.Ruleset ruleset : library.getRulesets()) {
+            File file = ruleset.getTableFile();
+            try {
+                ruleset.startLoading().whenComplete((table, error) -> {
+                    if (error != null) {
+                        System.err.println("Could not load " + file + ": " + error.getMessage());
+                    } else {
+                        System.out.println("Loaded " + table);
+                    }
+                });
+                System.out.println("Serving " + ruleset.getName() + " from " + file);
+            } catch (FileNotFoundException e) {
+                System.out.println("Not serving " + ruleset.getName() + ", as there is no table at " + file);
+            }
+        }
         //List<Move<Piece>> moves = sample.findAvailableMoves();
         //Move<Piece> pickedMove = flut.decideMove(sample, moves);
         
@@ -64,70 +80,116 @@ public class Main {
         // Set up the server on port 4567
         port(4567);
 
+        // Decides moves by parsing positions straight into a reused FastSimpleGame.
+        FastDecisionService decisions = new FastDecisionService(library);
+
         // Define a POST endpoint that accepts JSON
         post("/jsonEndpoint", "application/json", (request, response) -> {
             // Extract JSON from the request body
             String requestBody = request.body();
+            if (!"true".equals(request.queryParams("debug"))) {
+                try {
+                    return decisions.decide(requestBody);
+                } catch (IllegalArgumentException e) {
+                    response.status(400);
+                    return e.getMessage();
+                } catch (LUTLibrary.TableNotReadyException e) {
+                    response.status(503);
+                    return e.getMessage();
+                } catch (FileNotFoundException e) {
+                    response.status(404);
+                    return e.getMessage();
+                }
+            }
+
+            // Debug requests are decoded into a full Game, and print the board before and after the move.
             
             // Use Gson library to parse JSON into a Java object
-            Gson gson = new Gson();
-            YourClass yourClassObject = gson.fromJson(requestBody, YourClass.class);
+            YourClass yourClassObject = GSON.fromJson(requestBody, YourClass.class);
             
             // Do something with the parsed object (replace this with your logic)
             System.out.println("Received JSON object: " + yourClassObject.toString());
-            // TODO
-            // Decode game and set board state
-            Game<Piece, PlayerState, Roll> sample = Game.builder().finkel().build();
-            // A1, B1, C1, A2, B2, C2, A3, B3, C3, A4, B4, C4, A5, B5, C5, A6, B6, C6, A7, B7, C7, A8, B8, C8
-            // iterate all characters in game string
-            String rp = yourClassObject.game.replace(" ", "");
-            for (int i = 0; i < rp.length(); i++) {
-                // get character at index i
-                char c = rp.charAt(i);
-
-                if (c == 'L') {
-                    // find gamePath[i] in lightPath
-                    for (int j = 0; j < lightPath.length; j++) {
-                        if (lightPath[j].equals(gamePath[i])) {
-                            // set lightPath[j] to 1
-                            set(sample, lightPath, PlayerType.LIGHT, j);
-                            break;
-                        }
-                    }
-                }
-                if (c == 'D') {
-                    // find gamePath[i] in darkPath
-                    for (int j = 0; j < darkPath.length; j++) {
-                        if (darkPath[j].equals(gamePath[i])) {
-                            // set darkPath[j] to 1
-                            set(sample, darkPath, PlayerType.DARK, j);
-                            break;
-                        }
-                    }
+            LUTLibrary.Ruleset ruleset;
+            try {
+                ruleset = library.getRuleset(yourClassObject.settings != null ? yourClassObject.settings : "finkel");
+            } catch (IllegalArgumentException e) {
+                response.status(400);
+                return e.getMessage();
+            }
+            try {
+                return decideMove(ruleset, ruleset.getSettings(), yourClassObject);
+            } catch (LUTLibrary.TableNotReadyException e) {
+                response.status(503);
+                return e.getMessage();
+            } catch (FileNotFoundException e) {
+                response.status(404);
+                return e.getMessage();
+            }
+        });
+
+        // Decides the moves for many positions at once, splitting them across the decision pool.
+        ForkJoinPool decisionPool = new ForkJoinPool(Runtime.getRuntime().availableProcessors());
+        post("/decideBatch", "application/json", (request, response) -> {
+            List<FastDecisionService.Decision> batch;
+            try {
+                batch = decisions.decideBatch(request.body(), decisionPool);
+            } catch (IllegalArgumentException e) {
+                response.status(400);
+                return e.getMessage();
+            }
+            response.type("application/json");
+            return GSON.toJson(batch);
+        });
+
+        // Loads a new LUT in the background, and swaps it in once all of its contents have been checked.
+        // New tables must be renamed over the ruleset's table file, as the current table is mapped from it.
+        post("/reload", "application/json", (request, response) -> {
+            ReloadRequest reload = GSON.fromJson(request.body(), ReloadRequest.class);
+            LUTLibrary.Ruleset ruleset;
+            try {
+                ruleset = library.getRuleset(reload != null && reload.settings != null ? reload.settings : "finkel");
+            } catch (IllegalArgumentException e) {
+                response.status(400);
+                return e.getMessage();
+            }
+            // Only the ruleset's own table can be reloaded, so requests cannot map arbitrary files.
+            File file = ruleset.getTableFile();
+            Long checksum = null;
+            if (reload != null && reload.checksum != null) {
+                try {
+                    checksum = Long.parseUnsignedLong(reload.checksum, 16);
+                } catch (NumberFormatException e) {
+                    response.status(400);
+                    return "Invalid checksum: " + reload.checksum;
                 }
             }
-            Board<Piece> board = sample.getBoard();
-            System.out.println(board.toString());
-            FullStateSource<Piece, PlayerState, Roll> source = new FullStateSource<>(
-                sample.getBoard(),
-                new PlayerState(PlayerType.LIGHT, yourClassObject.light_left, yourClassObject.light_score),
-                new PlayerState(PlayerType.DARK, yourClassObject.dark_left, yourClassObject.dark_score)
-            );
-            sample.addState(source.createWaitingForMoveState(sample.getRules(), yourClassObject.light_turn ? PlayerType.LIGHT : PlayerType.DARK, sample.getDice().roll(yourClassObject.roll)));
-            //flut.playTurn(sample);
-            List<Move<Piece>> moves = sample.findAvailableMoves();
-            Move<Piece> pickedMove = flut.decideMove(sample, moves);
-            // Send a response (replace this with your response logic)
-            Tile dest = pickedMove.getDestOrNull();
-            if (dest == null) {
-                return "null";
+
+            CompletableFuture<LUTRegistry.Table> loading;
+            try {
+                loading = ruleset.reload(checksum, LUTHeader.Verification.FULL);
+            } catch (FileNotFoundException e) {
+                response.status(404);
+                return e.getMessage();
             }
-            board = sample.getBoard();
-            //System.out.println(board.toString());
-            pickedMove.apply(board);
-            System.out.println(board.toString());
+            loading.whenComplete((table, error) -> {
+                if (error != null) {
+                    System.err.println("Could not reload " + file + ": " + error.getMessage());
+                } else {
+                    System.out.println("Reloaded " + table);
+                }
+            });
+            response.status(202);
+            return "Reloading " + file;
+        });
 
-            return dest.getXIndex() + "," + dest.getYIndex();
+        // Reports the tables that are mapped into memory, and how much of the address space they map.
+        get("/tables", (request, response) -> {
+            List<TableStatus> tables = new ArrayList<>();
+            for (LUTLibrary.Ruleset ruleset : library.getRulesets()) {
+                tables.add(new TableStatus(ruleset));
+            }
+            response.type("application/json");
+            return GSON.toJson(new TablesResponse(tables, library.getMappedByteCount()));
         });
         //RGUStatistics.main(args);
     }
@@ -141,6 +203,7 @@ public class Main {
         private int dark_score;
         private int light_left;
         private int dark_left;
+        private String settings; // The name of the ruleset, defaulting to finkel
 
         // Add getters and setters
 
@@ -154,12 +217,119 @@ public class Main {
                     ", dark_score=" + dark_score +
                     ", light_left=" + light_left +
                     ", dark_left=" + dark_left +
+                    ", settings='" + settings + '\'' +
                     '}';
         }
     }
 
+    public static class ReloadRequest {
+        private String settings; // The name of the ruleset to reload, defaulting to finkel
+        private String checksum; // The CRC32C of the file in hex, or null to skip the check
+    }
+
+    public static class TableStatus {
+        private final String name;
+        private final String file;
+        private final boolean loaded;
+        private final long version;
+        private final int entries;
+        private final long mapped_bytes;
+        private final String checksum;
+
+        public TableStatus(LUTLibrary.Ruleset ruleset) {
+            LUTRegistry.Table table = ruleset.getCurrentTable();
+            this.name = ruleset.getName();
+            this.file = (table != null ? table.getFile() : ruleset.getTableFile()).getPath();
+            this.loaded = (table != null);
+            this.version = (table != null ? table.getVersion() : 0);
+            this.entries = (table != null ? table.getEntryCount() : 0);
+            this.mapped_bytes = (table != null ? table.getMappedByteCount() : 0);
+            Long checksum = (table != null ? table.getChecksum() : null);
+            this.checksum = (checksum != null ? LUTRegistry.formatChecksum(checksum) : null);
+        }
+    }
+
+    public static class TablesResponse {
+        private final List<TableStatus> tables;
+        private final long mapped_bytes;
+
+        public TablesResponse(List<TableStatus> tables, long mappedBytes) {
+            this.tables = tables;
+            this.mapped_bytes = mappedBytes;
+        }
+    }
+
+    /**
+     * Decodes the position in {@code request} as a game of {@code settings},
+     * and picks the move to make using the table of {@code ruleset}.
+     */
+    static <R extends Roll> String decideMove(
+            LUTLibrary.Ruleset ruleset,
+            GameSettings<R> settings,
+            YourClass request
+    ) throws IOException {
+        Game<Piece, PlayerState, R> sample = decodeGame(settings, request);
+        Board<Piece> board = sample.getBoard();
+        System.out.println(board.toString());
+        List<Move<Piece>> moves = sample.findAvailableMoves();
+        Move<Piece> pickedMove;
+        LUTRegistry registry = ruleset.getRegistry();
+        try (LUTRegistry.Lease lease = registry.acquire()) {
+            // Agents hold scratch space, so each request uses its own.
+            FinkelLUTAgent<Piece, PlayerState, R> flut = new FinkelLUTAgent<>(
+                    settings, lease.getStates(), registry.getEncoding()
+            );
+            pickedMove = flut.decideMove(sample, moves);
+        }
+        Tile dest = pickedMove.getDestOrNull();
+        if (dest == null) {
+            return "null";
+        }
+        board = sample.getBoard();
+        pickedMove.apply(board);
+        System.out.println(board.toString());
+
+        return dest.getXIndex() + "," + dest.getYIndex();
+    }
+
+    /**
+     * Decodes the position in {@code request} as a game of {@code settings}.
+     */
+    static <R extends Roll> Game<Piece, PlayerState, R> decodeGame(
+            GameSettings<R> settings,
+            YourClass request
+    ) {
+        // Decode game and set board state
+        Game<Piece, PlayerState, R> sample = Game.builder().replaceSettings(settings).build();
+        // The game string lists every cell of the board row by row, e.g. A1, B1, C1, A2, ..., C8
+        int width = settings.getBoardShape().getWidth();
+        String rp = request.game.replace(" ", "");
+        for (int i = 0; i < rp.length(); i++) {
+            char c = rp.charAt(i);
+            PlayerType player = (c == 'L' ? PlayerType.LIGHT : (c == 'D' ? PlayerType.DARK : null));
+            if (player == null)
+                continue;
+
+            Tile tile = Tile.fromIndices(i % width, i / width);
+            int pathIndex = settings.getPaths().get(player).indexOf(tile);
+            if (pathIndex >= 0) {
+                set(sample, tile, player, pathIndex);
+            }
+        }
+        FullStateSource<Piece, PlayerState, R> source = new FullStateSource<>(
+            sample.getBoard(),
+            new PlayerState(PlayerType.LIGHT, request.light_left, request.light_score),
+            new PlayerState(PlayerType.DARK, request.dark_left, request.dark_score)
+        );
+        sample.addState(source.createWaitingForMoveState(sample.getRules(), request.light_turn ? PlayerType.LIGHT : PlayerType.DARK, sample.getDice().roll(request.roll)));
+        return sample;
+    }
+
     public static void set(Game<Piece, PlayerState, Roll> sample, String[] path, PlayerType playerType, int pathIndex) {
-        Tile tile = Tile.fromString(path[pathIndex]);
+        set(sample, Tile.fromString(path[pathIndex]), playerType, pathIndex);
+    }
+
+    public static <R extends Roll> void set(Game<Piece, PlayerState, R> sample, Tile tile, PlayerType playerType, int pathIndex) {
         Board<Piece> board = sample.getBoard();
         Piece p = sample.getRules().getPieceProvider().create(
             playerType, pathIndex
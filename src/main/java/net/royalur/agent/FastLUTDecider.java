@@ -0,0 +1,98 @@
+package net.royalur.agent;
+
+import net.royalur.lut.GameEncoding;
+import net.royalur.lut.StateLUT;
+import net.royalur.lut.ValueCodec;
+import net.royalur.lut.store.EntryLookup;
+import net.royalur.lut.store.KeyBatch;
+import net.royalur.model.GameSettings;
+import net.royalur.rules.simple.fast.FastSimpleGame;
+import net.royalur.rules.simple.fast.FastSimpleMoveList;
+
+import javax.annotation.Nonnull;
+
+/**
+ * Decides moves in the same way as {@link FinkelLUTAgent}, but works
+ * directly on a {@link FastSimpleGame}. The decider reuses its scratch
+ * space for every decision, so deciding a move does not allocate memory.
+ * Deciders are not thread-safe, and should be used by one thread at a time.
+ */
+public class FastLUTDecider {
+
+    private final @Nonnull GameEncoding encoding;
+    private final @Nonnull FastSimpleGame moveGame;
+    private final @Nonnull FastSimpleMoveList moveList;
+    private final @Nonnull KeyBatch batch;
+    private @Nonnull boolean[] mirrored;
+
+    /**
+     * Instantiates a decider for games with {@code settings}.
+     * @param settings The settings of the games that the states were solved for.
+     * @param encoding The encoding used to create keys for the states.
+     */
+    public FastLUTDecider(@Nonnull GameSettings<?> settings, @Nonnull GameEncoding encoding) {
+        this.encoding = encoding;
+        this.moveGame = new FastSimpleGame(settings);
+        this.moveList = new FastSimpleMoveList();
+        this.batch = new KeyBatch();
+        this.mirrored = new boolean[8];
+    }
+
+    /**
+     * Decides the move to make in {@code game}, which must be waiting for a move.
+     * @param states The values of all states, keyed by the encoding of this decider.
+     * @return The path index of the piece to move, as in {@link FastSimpleMoveList#moves}.
+     * @throws IllegalStateException If there are no available moves, or if the
+     *                               state after a move is not in {@code states}.
+     */
+    public int decideMove(@Nonnull EntryLookup states, @Nonnull FastSimpleGame game) {
+        FastSimpleMoveList moveList = this.moveList;
+        game.findAvailableMoves(moveList);
+        int moveCount = moveList.moveCount;
+        if (moveCount == 0)
+            throw new IllegalStateException("There are no available moves");
+        if (moveCount == 1)
+            return moveList.moves[0];
+
+        // Look up the states after every move together.
+        if (mirrored.length < moveCount) {
+            mirrored = new boolean[2 * moveCount];
+        }
+        // Encodings that support it calculate the keys after each move
+        // from the key of the game, instead of applying the move.
+        boolean encodeMoves = encoding.supportsMoveEncoding();
+        long key = (encodeMoves ? encoding.encodeGameLong(game) : 0);
+        batch.clear();
+        for (int moveIndex = 0; moveIndex < moveCount; ++moveIndex) {
+            int move = moveList.moves[moveIndex];
+            if (encodeMoves) {
+                int index = batch.add(encoding.encodeMoveLong(key, game, move));
+                mirrored[index] = false;
+                continue;
+            }
+            moveGame.copyFrom(game);
+            moveGame.applyMove(move);
+            int index = batch.add(encoding.encodeGameLong(moveGame));
+            mirrored[index] = encoding.isMirrored(moveGame);
+        }
+        states.lookupBatch(batch, StateLUT.MISSING_VALUE_BITS);
+        ValueCodec codec = ValueCodec.forValueType(states.getValueType());
+
+        float bestScore = Float.NEGATIVE_INFINITY;
+        int bestMove = moveList.moves[0];
+        for (int index = 0; index < moveCount; ++index) {
+            long valueBits = batch.getValue(index);
+            if (valueBits == StateLUT.MISSING_VALUE_BITS)
+                throw new IllegalStateException("State does not exist in map: " + batch.getKey(index));
+
+            float score = codec.decode(valueBits);
+            score *= (mirrored[index] ? -1 : 1);
+            score *= (game.isLightTurn ? 1 : -1);
+            if (score > bestScore) {
+                bestScore = score;
+                bestMove = moveList.moves[index];
+            }
+        }
+        return bestMove;
+    }
+}
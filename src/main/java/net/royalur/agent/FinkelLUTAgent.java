@@ -2,7 +2,11 @@ package net.royalur.agent;
 
 import net.royalur.Game;
 import net.royalur.lut.FinkelGameEncoding;
-import net.royalur.lut.store.BigEntryStore;
+import net.royalur.lut.GameEncoding;
+import net.royalur.lut.StateLUT;
+import net.royalur.lut.ValueCodec;
+import net.royalur.lut.store.EntryLookup;
+import net.royalur.lut.store.KeyBatch;
 import net.royalur.model.*;
 import net.royalur.model.dice.Roll;
 import net.royalur.rules.simple.fast.FastSimpleGame;
@@ -19,14 +23,46 @@ public class FinkelLUTAgent<
         R extends Roll
 > extends BaseAgent<P, S, R> {
 
-    private final @Nonnull BigEntryStore states;
-    private final @Nonnull FinkelGameEncoding encoding;
+    private final @Nonnull EntryLookup states;
+    private final @Nonnull GameEncoding encoding;
     private final @Nonnull FastSimpleGame fastGame;
+    private final @Nonnull KeyBatch batch;
+    private @Nonnull boolean[] mirrored;
+
+    /**
+     * Instantiates an agent that looks up states using {@code encoding}.
+     * @param states The values of all states, keyed by {@code encoding}.
+     * @param encoding The encoding used to create keys for {@code states}.
+     *                 For example, a {@link net.royalur.lut.StateRanking}
+     *                 can be used with a {@link net.royalur.lut.store.DenseStateTable}.
+     */
+    public FinkelLUTAgent(@Nonnull EntryLookup states, @Nonnull GameEncoding encoding) {
+        this(GameSettings.FINKEL, states, encoding);
+    }
+
+    /**
+     * Instantiates an agent that plays games with {@code settings}.
+     * @param settings The settings of the games that the states were solved for.
+     * @param states The values of all states, keyed by {@code encoding}.
+     * @param encoding The encoding used to create keys for {@code states}.
+     */
+    public FinkelLUTAgent(
+            @Nonnull GameSettings<?> settings,
+            @Nonnull EntryLookup states,
+            @Nonnull GameEncoding encoding
+    ) {
+        if (states.getKeyType() != encoding.getKeyType())
+            throw new IllegalArgumentException("The keys of states do not match the encoding");
 
-    public FinkelLUTAgent(@Nonnull BigEntryStore states) {
         this.states = states;
-        this.encoding = new FinkelGameEncoding();
-        this.fastGame = new FastSimpleGame(GameSettings.FINKEL);
+        this.encoding = encoding;
+        this.fastGame = new FastSimpleGame(settings);
+        this.batch = new KeyBatch();
+        this.mirrored = new boolean[8];
+    }
+
+    public FinkelLUTAgent(@Nonnull EntryLookup states) {
+        this(states, new FinkelGameEncoding());
     }
 
     @Override
@@ -39,26 +75,48 @@ public class FinkelLUTAgent<
         if (availableMoves.size() == 1)
             return availableMoves.get(0);
 
+        // Look up the states after every move together.
+        if (mirrored.length < availableMoves.size()) {
+            mirrored = new boolean[2 * availableMoves.size()];
+        }
+        batch.clear();
+        if (encoding.supportsMoveEncoding()) {
+            // Calculate the keys after each move from the key of the game.
+            fastGame.copyFrom(game);
+            long key = encoding.encodeGameLong(fastGame);
+            for (Move<P> move : availableMoves) {
+                int pathIndex = (move.hasSource() ? move.getSourcePiece().getPathIndex() : -1);
+                int index = batch.add(encoding.encodeMoveLong(key, fastGame, pathIndex));
+                mirrored[index] = false;
+            }
+        } else {
+            for (Move<P> move : availableMoves) {
+                Game<P, S, R> moveGame = game.copy();
+                moveGame.makeMove(move);
+
+                fastGame.copyFrom(moveGame);
+                int index = batch.add(encoding.encodeGameLong(fastGame));
+                mirrored[index] = encoding.isMirrored(fastGame);
+            }
+        }
+        states.lookupBatch(batch, StateLUT.MISSING_VALUE_BITS);
+        ValueCodec codec = ValueCodec.forValueType(states.getValueType());
+
         Float bestScore = null;
         Move<P> bestMove = null;
-        for (Move<P> move : availableMoves) {
-            Game<P, S, R> moveGame = game.copy();
-            moveGame.makeMove(move);
-
-            fastGame.copyFrom(moveGame);
-            int key = encoding.encode(fastGame);
-            Integer scoreBits = states.getInt(key);
-            if (scoreBits == null)
-                throw new IllegalStateException("State does not exist in map!");
+        for (int index = 0; index < availableMoves.size(); ++index) {
+            long valueBits = batch.getValue(index);
+            if (valueBits == StateLUT.MISSING_VALUE_BITS)
+                throw new IllegalStateException("State does not exist in map: " + batch.getKey(index));
 
-            float score = Float.intBitsToFloat(scoreBits);
+            float score = codec.decode(valueBits);
+            score *= (mirrored[index] ? -1 : 1);
             score *= (game.getTurn() == PlayerType.DARK ? -1 : 1);
             if (bestScore == null || score > bestScore) {
                 bestScore = score;
-                bestMove = move;
+                bestMove = availableMoves.get(index);
             }
         }
-        System.out.println("Best score: " + bestScore);
         return bestMove;
     }
 }
@@ -43,10 +43,10 @@ public class LikelihoodAgent<
     private final float likelihoodThreshold;
 
     /**
-     * Game objects used to hold the state of games
-     * while exploring the game tree.
+     * The game used to explore the game tree. Rolls and moves
+     * are applied to it and undone as the tree is explored.
      */
-    private @Nonnull FastSimpleGame[] gameHolders;
+    private final @Nonnull FastSimpleGame game;
 
     /**
      * Move lists used to hold available moves while
@@ -74,31 +74,11 @@ public class LikelihoodAgent<
         this.rules = rules;
         this.utilityFunction = utilityFunction;
         this.likelihoodThreshold = likelihoodThreshold;
-        this.gameHolders = new FastSimpleGame[0];
+        this.game = rules.createCompatibleFastGame();
         this.moveListHolders = new FastSimpleMoveList[0];
         this.diceHolders = Cast.unsafeCast(new Dice[0]);
     }
 
-    /**
-     * Gets a holding object that can be used to store the state of a game.
-     * @param depth The depth to find the holding object for.
-     * @return A holding object for storing the state of a game.
-     */
-    private @Nonnull FastSimpleGame getGameHolder(int depth) {
-        if (depth >= gameHolders.length) {
-            int newLength = Math.max(4, gameHolders.length * 2);
-            while (depth >= newLength) {
-                newLength *= 2;
-            }
-            int previousLength = gameHolders.length;
-            gameHolders = Arrays.copyOf(gameHolders, newLength);
-            for (int index = previousLength; index < newLength; ++index) {
-                gameHolders[index] = rules.createCompatibleFastGame();
-            }
-        }
-        return gameHolders[depth];
-    }
-
     /**
      * Gets a holding object that can be used to store available moves.
      * @param depth The depth to find the holding object for.
@@ -140,55 +120,60 @@ public class LikelihoodAgent<
         return diceHolders[depth];
     }
 
+    /**
+     * Calculates the utility of the best move in {@link #game}.
+     * The game is left in the same state that it was given in.
+     */
     private float calculateBestMoveUtility(
-            @Nonnull FastSimpleGame precedingGame,
             @Nonnull FastSimpleMoveList availableMoves,
             @Nonnull Dice<R> dice,
             float likelihood,
             int depth
     ) {
-        if (!precedingGame.isWaitingForMove())
+        if (!game.isWaitingForMove())
             throw new IllegalArgumentException("Game is not waiting for a move");
 
         float maxUtility = Float.NEGATIVE_INFINITY;
 
         int[] moves = availableMoves.moves;
         int moveCount = availableMoves.moveCount;
-
-        FastSimpleGame game = getGameHolder(depth);
+        boolean isLightTurn = game.isLightTurn;
 
         for (int moveIndex = 0; moveIndex < moveCount; ++moveIndex) {
-            game.copyFrom(precedingGame);
-            game.applyMove(moves[moveIndex]);
+            int undoToken = game.applyMove(moves[moveIndex]);
 
             float utility = calculateProbabilityWeightedUtility(
-                    game, dice, likelihood, depth + 1
+                    dice, likelihood, depth + 1
             );
-            if (game.isLightTurn != precedingGame.isLightTurn) {
+            if (game.isLightTurn != isLightTurn) {
                 utility = -utility;
             }
             if (utility > maxUtility) {
                 maxUtility = utility;
             }
+            game.undoMove(undoToken);
         }
         return maxUtility;
      }
 
+    /**
+     * Calculates the expected utility of rolling the dice in {@link #game}.
+     * The game is left in the same state that it was given in.
+     */
     private float calculateProbabilityWeightedUtility(
-            @Nonnull FastSimpleGame precedingGame,
             @Nonnull Dice<R> precedingDice,
             float likelihood,
             int depth
     ) {
-        if (precedingGame.isFinished || likelihood < likelihoodThreshold)
-            return utilityFunction.scoreGame(precedingGame);
-        if (!precedingGame.isWaitingForRoll())
+        if (game.isFinished || likelihood < likelihoodThreshold)
+            return utilityFunction.scoreGame(game);
+        if (!game.isWaitingForRoll())
             throw new IllegalArgumentException("Game is not waiting for a roll of the dice");
 
         float utility = 0.0f;
         float[] probabilities = precedingDice.getRollProbabilities();
+        boolean isLightTurn = game.isLightTurn;
 
-        FastSimpleGame game = getGameHolder(depth);
         FastSimpleMoveList moveList = getMoveListHolder(depth);
         Dice<R> dice = getDiceHolder(depth);
 
@@ -202,26 +187,26 @@ public class LikelihoodAgent<
             dice.recordRoll(roll);
 
             // Update the state of the game.
-            game.copyFrom(precedingGame);
-            game.applyRoll(roll, moveList);
+            int undoToken = game.applyRoll(roll, moveList);
 
             // Recurse!
             float rollLikelihood = prob * likelihood;
             float rollUtility;
             if (!game.isWaitingForMove()) {
                 rollUtility = calculateProbabilityWeightedUtility(
-                        game, dice, rollLikelihood, depth + 1
+                        dice, rollLikelihood, depth + 1
                 );
 
             } else {
                 rollUtility = calculateBestMoveUtility(
-                        game, moveList, dice, rollLikelihood, depth + 1
+                        moveList, dice, rollLikelihood, depth + 1
                 );
             }
-            if (game.isLightTurn != precedingGame.isLightTurn) {
+            if (game.isLightTurn != isLightTurn) {
                 rollUtility = -rollUtility;
             }
             utility += prob * rollUtility;
+            game.undoRoll(undoToken);
         }
         return utility;
     }
@@ -239,16 +224,15 @@ public class LikelihoodAgent<
         Move<P> bestMove = null;
         float bestUtility = 0.0f;
 
-        FastSimpleGame gameHolder = getGameHolder(0);
         Dice<R> diceHolder = getDiceHolder(0);
         for (Move<P> move : moves) {
             Game<P, S, R> newGame = game.copy();
             newGame.makeMove(move);
-            gameHolder.copyFrom(newGame);
+            this.game.copyFrom(newGame);
             diceHolder.copyFrom(newGame.getDice());
 
             float utility = calculateProbabilityWeightedUtility(
-                    gameHolder, diceHolder, 1.0f, 1
+                    diceHolder, 1.0f, 1
             );
             if (game.getTurn() != newGame.getTurn()) {
                 utility = -utility;
@@ -5,6 +5,7 @@ import java.io.IOException;
 import java.nio.ByteBuffer;
 import java.nio.channels.FileChannel;
 import java.util.function.Consumer;
+import java.util.zip.CRC32C;
 
 /**
  * Provides an interface to write binary data.
@@ -42,4 +43,37 @@ public abstract class DataSink {
                 throw new IOException("Whole buffer was not written!");
         }
     }
+
+    /**
+     * Computes the CRC32C of binary data instead of storing it.
+     */
+    public static class ChecksumDataSink extends DataSink {
+
+        private final @Nonnull ByteBuffer workingBuffer;
+        private final @Nonnull CRC32C crc;
+
+        public ChecksumDataSink(@Nonnull ByteBuffer workingBuffer) {
+            this.workingBuffer = workingBuffer;
+            this.crc = new CRC32C();
+        }
+
+        public void reset() {
+            crc.reset();
+        }
+
+        public int getChecksum() {
+            return (int) crc.getValue();
+        }
+
+        public void write(@Nonnull Consumer<ByteBuffer> writeFn) {
+            workingBuffer.position(0);
+            workingBuffer.limit(workingBuffer.capacity());
+
+            writeFn.accept(workingBuffer);
+
+            workingBuffer.limit(workingBuffer.position());
+            workingBuffer.position(0);
+            crc.update(workingBuffer);
+        }
+    }
 }
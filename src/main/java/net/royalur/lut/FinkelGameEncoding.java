@@ -2,18 +2,66 @@ package net.royalur.lut;
 
 import net.royalur.rules.simple.fast.FastSimpleBoard;
 import net.royalur.rules.simple.fast.FastSimpleGame;
+import net.royalur.rules.simple.fast.FastSimplePlayer;
 
 import javax.annotation.Nonnull;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
 
-public class FinkelGameEncoding {
+public class FinkelGameEncoding extends GameEncoding {
+
+    private static final int TURN_BIT = 1;
+    private static final int MIDDLE_LANE_SHIFT = 7;
+    private static final int MIDDLE_LANE_MASK = 0x1fff;
+    private static final int DARK_PIECES_SHIFT = 26;
+    private static final int LIGHT_PIECES_SHIFT = 29;
+
+    private static final int DARK_OCCUPANT = 1;
+    private static final int LIGHT_OCCUPANT = 2;
+
+    /**
+     * The middle lane is compressed by ranking its base-3 value, where
+     * the occupant of its first tile is the most significant digit. The
+     * only value that is skipped below the all-light lane is this lane
+     * where every tile holds a dark piece, as there are only 7 pieces.
+     */
+    private static final int ALL_DARK_MIDDLE_LANE = 3280;
+
+    /**
+     * The bit of the key that is set when a piece is on each
+     * tile of a side lane, or zero for tiles of the middle lane.
+     */
+    private static final int[] TILE_SIDE_BITS = new int[24];
+
+    /**
+     * The weight of the occupant of each tile of the middle lane
+     * in its base-3 value, or zero for tiles of the side lanes.
+     */
+    private static final int[] TILE_MIDDLE_WEIGHTS = new int[24];
+
+    static {
+        for (int boardY = 0; boardY < 8; ++boardY) {
+            int middleWeight = 1;
+            for (int index = boardY; index < 7; ++index) {
+                middleWeight *= 3;
+            }
+            TILE_MIDDLE_WEIGHTS[1 + 3 * boardY] = middleWeight;
+            if (boardY >= 4 && boardY < 6)
+                continue;
+
+            int sideIndex = (boardY >= 6 ? boardY - 2 : boardY);
+            TILE_SIDE_BITS[3 * boardY] = 1 << (20 + sideIndex);
+            TILE_SIDE_BITS[2 + 3 * boardY] = 1 << (1 + sideIndex);
+        }
+    }
 
     private final int[] middleLaneCompression;
+    private final int[] middleLaneDecompression;
 
     public FinkelGameEncoding() {
         this.middleLaneCompression = generateMiddleLaneCompression();
+        this.middleLaneDecompression = generateMiddleLaneDecompression(middleLaneCompression);
 
         int maxCompressed = 0;
         for (int compressed : middleLaneCompression) {
@@ -40,6 +88,22 @@ public class FinkelGameEncoding {
         return middleLaneCompression;
     }
 
+    private static int[] generateMiddleLaneDecompression(int[] middleLaneCompression) {
+        int maxCompressed = 0;
+        for (int compressed : middleLaneCompression) {
+            maxCompressed = Math.max(maxCompressed, compressed);
+        }
+
+        int[] middleLaneDecompression = new int[maxCompressed + 1];
+        for (int state = 0; state < middleLaneCompression.length; ++state) {
+            int compressed = middleLaneCompression[state];
+            if (compressed >= 0) {
+                middleLaneDecompression[compressed] = state;
+            }
+        }
+        return middleLaneDecompression;
+    }
+
     private static void addMiddleLaneStates(
             @Nonnull List<Integer> states, int state, int lightPieces, int darkPieces, int index
     ) {
@@ -120,4 +184,148 @@ public class FinkelGameEncoding {
         state |= lightPieces << 29;
         return state;
     }
+
+    /**
+     * Calculates the key of the state after moving the piece at
+     * {@code pathIndex} in {@code game}, from {@code state}, the key of
+     * {@code game}, without applying the move. A move changes at most two
+     * tiles and the piece counts, so only those parts of the key are
+     * updated, and the middle lane is re-ranked arithmetically instead
+     * of using the compression tables.
+     */
+    public int encodeMove(int state, @Nonnull FastSimpleGame game, int pathIndex) {
+        FastSimplePlayer player = game.getTurnPlayer();
+        boolean isLight = player.isLight;
+        int[] path = player.path;
+        int occupant = (isLight ? LIGHT_OCCUPANT : DARK_OCCUPANT);
+
+        int middleRank = (state >>> MIDDLE_LANE_SHIFT) & MIDDLE_LANE_MASK;
+        int middleLane = middleRank + (middleRank >= ALL_DARK_MIDDLE_LANE ? 1 : 0);
+
+        if (pathIndex >= 0) {
+            // Moving a piece on the board.
+            int sourceTileIndex = path[pathIndex];
+            state ^= TILE_SIDE_BITS[sourceTileIndex];
+            middleLane -= occupant * TILE_MIDDLE_WEIGHTS[sourceTileIndex];
+        } else {
+            // Introducing a piece to the board.
+            state -= 1 << (isLight ? LIGHT_PIECES_SHIFT : DARK_PIECES_SHIFT);
+        }
+
+        int destPathIndex = pathIndex + game.rollValue;
+        int destTileIndex = -1;
+        int capturedPiece = 0;
+        boolean isFinished = false;
+        if (destPathIndex < path.length) {
+            destTileIndex = path[destPathIndex];
+            capturedPiece = game.board.pieces[destTileIndex];
+            if (capturedPiece != 0) {
+                // Only tiles of the middle lane can hold an opponent's piece.
+                boolean capturedLight = (capturedPiece > 0);
+                middleLane -= (capturedLight ? LIGHT_OCCUPANT : DARK_OCCUPANT)
+                        * TILE_MIDDLE_WEIGHTS[destTileIndex];
+                state += 1 << (capturedLight ? LIGHT_PIECES_SHIFT : DARK_PIECES_SHIFT);
+            }
+            state ^= TILE_SIDE_BITS[destTileIndex];
+            middleLane += occupant * TILE_MIDDLE_WEIGHTS[destTileIndex];
+        } else {
+            // The turn does not pass when a piece wins the game.
+            isFinished = (player.score + 1 >= game.startingPieceCount);
+        }
+
+        if (!isFinished && !game.shouldGrantRoll(destTileIndex, capturedPiece)) {
+            state ^= TURN_BIT;
+        }
+
+        middleRank = middleLane - (middleLane > ALL_DARK_MIDDLE_LANE ? 1 : 0);
+        state &= ~(MIDDLE_LANE_MASK << MIDDLE_LANE_SHIFT);
+        return state | (middleRank << MIDDLE_LANE_SHIFT);
+    }
+
+    @Override
+    public int getEncodingId() {
+        return 1;
+    }
+
+    @Override
+    public boolean supportsMoveEncoding() {
+        return true;
+    }
+
+    @Override
+    public long encodeMoveLong(long key, @Nonnull FastSimpleGame game, int pathIndex) {
+        return Integer.toUnsignedLong(encodeMove((int) key, game, pathIndex));
+    }
+
+    @Override
+    public int encodeGame(@Nonnull FastSimpleGame game) {
+        return encode(game);
+    }
+
+    @Override
+    public void decodeGame(long key, @Nonnull FastSimpleGame game) {
+        decode((int) key, game);
+    }
+
+    private static boolean isSideLaneOccupied(int sideLane, int boardY) {
+        if (boardY >= 4 && boardY < 6)
+            return false;
+
+        int index = (boardY >= 6 ? boardY - 2 : boardY);
+        return ((sideLane >> index) & 1) != 0;
+    }
+
+    private void decodePlayer(
+            @Nonnull FastSimpleGame game,
+            @Nonnull FastSimplePlayer player,
+            int sideLane,
+            int middleLane
+    ) {
+        FastSimpleBoard board = game.board;
+        int sideBoardX = (player.isLight ? 0 : 2);
+        int middleOccupant = (player.isLight ? 2 : 1);
+
+        int onBoard = 0;
+        for (int pathIndex = 0; pathIndex < player.path.length; ++pathIndex) {
+            int tileIndex = player.path[pathIndex];
+            int boardX = tileIndex % board.width;
+            int boardY = tileIndex / board.width;
+
+            boolean occupied;
+            if (boardX == 1) {
+                occupied = ((middleLane >> (2 * boardY)) & 0b11) == middleOccupant;
+            } else {
+                occupied = (boardX == sideBoardX && isSideLaneOccupied(sideLane, boardY));
+            }
+            if (occupied) {
+                board.set(tileIndex, player.sign * (pathIndex + 1));
+                onBoard += 1;
+            }
+        }
+        player.score = game.startingPieceCount - player.pieces - onBoard;
+    }
+
+    /**
+     * Sets {@code game} to the state that is represented by {@code state},
+     * which must have been created by {@link #encode(FastSimpleGame)}.
+     * The game is left waiting for a roll.
+     */
+    public void decode(int state, @Nonnull FastSimpleGame game) {
+        int board = (state >>> 1) & 0x1ffffff;
+        int rightLane = board & 0b111111;
+        int middleLane = middleLaneDecompression[(board >>> 6) & 0x1fff];
+        int leftLane = (board >>> 19) & 0b111111;
+
+        game.board.clear();
+        game.isLightTurn = (state & 1) != 0;
+        game.rollValue = -1;
+        game.dark.pieces = (state >>> 26) & 0b111;
+        game.light.pieces = (state >>> 29) & 0b111;
+
+        decodePlayer(game, game.light, leftLane, middleLane);
+        decodePlayer(game, game.dark, rightLane, middleLane);
+
+        int pieceCount = game.startingPieceCount;
+        game.isFinished = (game.light.score == pieceCount || game.dark.score == pieceCount);
+    }
 }
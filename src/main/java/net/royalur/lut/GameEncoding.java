@@ -1,10 +1,75 @@
 package net.royalur.lut;
 
+import net.royalur.lut.buffer.ValueType;
 import net.royalur.rules.simple.fast.FastSimpleGame;
 
 import javax.annotation.Nonnull;
 
+/**
+ * Encodes the state of games into keys for use in lookup tables.
+ */
 public abstract class GameEncoding {
 
+    /**
+     * Returns the type of the keys that are generated by this encoding.
+     */
+    public @Nonnull ValueType getKeyType() {
+        return ValueType.INT;
+    }
+
+    /**
+     * Returns an ID for the format of the keys of this encoding. It is
+     * written into the headers of lookup table files, so that a table
+     * is never read using a different encoding than it was written with.
+     */
+    public abstract int getEncodingId();
+
+    /**
+     * Encodes {@code game} into a key. This is only supported
+     * by encodings that use int keys.
+     */
     public abstract int encodeGame(@Nonnull FastSimpleGame game);
+
+    /**
+     * Encodes {@code game} into a key, which is unsigned if this
+     * encoding uses int keys. This is supported by all encodings.
+     */
+    public long encodeGameLong(@Nonnull FastSimpleGame game) {
+        return Integer.toUnsignedLong(encodeGame(game));
+    }
+
+    /**
+     * Sets {@code game} to the state represented by {@code key},
+     * as generated by {@link #encodeGameLong(FastSimpleGame)}.
+     * The game is left waiting for a roll.
+     */
+    public void decodeGame(long key, @Nonnull FastSimpleGame game) {
+        throw new UnsupportedOperationException("This encoding does not support decoding");
+    }
+
+    /**
+     * Returns whether {@link #encodeMoveLong(long, FastSimpleGame, int)}
+     * is supported. Encodings that support it never mirror states.
+     */
+    public boolean supportsMoveEncoding() {
+        return false;
+    }
+
+    /**
+     * Calculates the key of the state after moving the piece at
+     * {@code pathIndex} in {@code game}, from {@code key}, the key of
+     * {@code game}, without applying the move. The game must be waiting
+     * for a move, and is left unchanged.
+     */
+    public long encodeMoveLong(long key, @Nonnull FastSimpleGame game, int pathIndex) {
+        throw new UnsupportedOperationException("This encoding does not support encoding moves");
+    }
+
+    /**
+     * Returns whether {@code game} shares its key with its colour-mirrored
+     * state, so that its value is the negation of the value stored for its key.
+     */
+    public boolean isMirrored(@Nonnull FastSimpleGame game) {
+        return false;
+    }
 }
@@ -0,0 +1,352 @@
+package net.royalur.lut;
+
+import net.royalur.lut.store.BigEntryStore;
+import net.royalur.lut.store.StoreLayout;
+import net.royalur.model.GameSettings;
+import net.royalur.model.Tile;
+import net.royalur.model.shape.BoardShape;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.IntStream;
+import java.util.zip.CRC32C;
+
+/**
+ * The header that is written before the state store in lookup table
+ * files. It identifies the rules and the encoding that the table was
+ * solved for, and holds the number of entries in the table and a
+ * CRC32C of every chunk of the store, so that truncated, corrupt,
+ * or mismatched tables are rejected when they are read.
+ * <p>
+ * The header is made up of the magic number, the version, the encoding
+ * ID, the hash of the game settings, the entry count, the chunk count,
+ * the checksum of each chunk, and finally a checksum of the header.
+ */
+public final class LUTHeader {
+
+    /**
+     * Identifies lookup table files with headers. Spells "RGUL" in ASCII.
+     */
+    public static final int MAGIC = 0x5247554C;
+
+    public static final int VERSION = 1;
+
+    private static final int FIXED_BYTES = 4 + 4 + 4 + 8 + 8 + 4;
+
+    private static final long FNV_OFFSET_BASIS = 0xcbf29ce484222325L;
+    private static final long FNV_PRIME = 0x100000001b3L;
+
+    private final int encodingId;
+    private final long settingsHash;
+    private final long entryCount;
+    private final @Nonnull int[] chunkChecksums;
+
+    public LUTHeader(int encodingId, long settingsHash, long entryCount, @Nonnull int[] chunkChecksums) {
+        this.encodingId = encodingId;
+        this.settingsHash = settingsHash;
+        this.entryCount = entryCount;
+        this.chunkChecksums = chunkChecksums;
+    }
+
+    /**
+     * Creates the header for {@code states}, checksumming its chunks in parallel.
+     */
+    public static @Nonnull LUTHeader create(
+            @Nonnull BigEntryStore states,
+            @Nonnull GameSettings<?> settings,
+            @Nonnull GameEncoding encoding
+    ) {
+        return new LUTHeader(
+                encoding.getEncodingId(),
+                computeSettingsHash(settings),
+                states.getEntryCount(),
+                states.computeChunkChecksums()
+        );
+    }
+
+    public int getEncodingId() {
+        return encodingId;
+    }
+
+    public long getSettingsHash() {
+        return settingsHash;
+    }
+
+    public long getEntryCount() {
+        return entryCount;
+    }
+
+    public int getChunkCount() {
+        return chunkChecksums.length;
+    }
+
+    public int getChunkChecksum(int chunkIndex) {
+        return chunkChecksums[chunkIndex];
+    }
+
+    /**
+     * Returns the position in the file of the state store that follows this header.
+     */
+    public long getStoreOffset() {
+        return getByteCount(chunkChecksums.length);
+    }
+
+    private static long getByteCount(int chunkCount) {
+        return FIXED_BYTES + 4L * chunkCount + 4;
+    }
+
+    /**
+     * Writes this header at the current position of {@code channel}.
+     */
+    public void write(@Nonnull FileChannel channel) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(Math.toIntExact(getStoreOffset()));
+        buffer.putInt(MAGIC);
+        buffer.putInt(VERSION);
+        buffer.putInt(encodingId);
+        buffer.putLong(settingsHash);
+        buffer.putLong(entryCount);
+        buffer.putInt(chunkChecksums.length);
+        for (int checksum : chunkChecksums) {
+            buffer.putInt(checksum);
+        }
+        buffer.putInt(computeChecksum(buffer, buffer.position()));
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+    }
+
+    /**
+     * Returns whether the file in {@code channel} starts with a header.
+     * Files that were written before headers were added start with the
+     * state store, which never starts with {@link #MAGIC}.
+     */
+    public static boolean hasHeader(@Nonnull FileChannel channel) throws IOException {
+        if (channel.size() < 4)
+            return false;
+
+        return StoreLayout.readFully(channel, 0, 4).getInt() == MAGIC;
+    }
+
+    /**
+     * Reads the header at the start of {@code channel}, and checks that
+     * the header itself is not corrupt.
+     * @throws IOException If the file does not start with a valid header.
+     */
+    public static @Nonnull LUTHeader read(@Nonnull FileChannel channel) throws IOException {
+        long fileSize = channel.size();
+        if (fileSize < FIXED_BYTES)
+            throw new IOException("The file is too short to be a lookup table");
+
+        ByteBuffer fixed = StoreLayout.readFully(channel, 0, FIXED_BYTES);
+        if (fixed.getInt() != MAGIC)
+            throw new IOException("The file is not a lookup table");
+
+        int version = fixed.getInt();
+        if (version != VERSION)
+            throw new IOException("Unsupported lookup table version " + version);
+
+        int encodingId = fixed.getInt();
+        long settingsHash = fixed.getLong();
+        long entryCount = fixed.getLong();
+        int chunkCount = fixed.getInt();
+        if (chunkCount < 0 || getByteCount(chunkCount) > fileSize)
+            throw new IOException("The header of the lookup table is corrupt");
+
+        ByteBuffer header = StoreLayout.readFully(channel, 0, Math.toIntExact(getByteCount(chunkCount)));
+        int headerChecksum = header.getInt(header.limit() - 4);
+        if (computeChecksum(header, header.limit() - 4) != headerChecksum)
+            throw new IOException("The header of the lookup table is corrupt");
+
+        int[] chunkChecksums = new int[chunkCount];
+        header.position(FIXED_BYTES);
+        for (int index = 0; index < chunkCount; ++index) {
+            chunkChecksums[index] = header.getInt();
+        }
+        return new LUTHeader(encodingId, settingsHash, entryCount, chunkChecksums);
+    }
+
+    private static int computeChecksum(@Nonnull ByteBuffer buffer, int length) {
+        CRC32C crc = new CRC32C();
+        crc.update(buffer.duplicate().position(0).limit(length));
+        return (int) crc.getValue();
+    }
+
+    /**
+     * Checks that the table in {@code channel} was solved for {@code settings}
+     * using {@code encoding}, and that the file holds the store described by
+     * this header. {@link Verification#FULL} also checks the contents of
+     * every chunk, using multiple threads.
+     * @param encoding The encoding that the table is expected to use,
+     *                 or null to accept any encoding.
+     * @throws IOException If the table does not match, or is corrupt.
+     */
+    public void verify(
+            @Nonnull FileChannel channel,
+            @Nonnull GameSettings<?> settings,
+            @Nullable GameEncoding encoding,
+            @Nonnull Verification verification
+    ) throws IOException {
+
+        if (settingsHash != computeSettingsHash(settings))
+            throw new IOException("The lookup table was solved for different game settings");
+        if (encoding != null && encodingId != encoding.getEncodingId())
+            throw new IOException("The lookup table was written with a different encoding");
+
+        StoreLayout layout = StoreLayout.read(channel, getStoreOffset());
+        if (layout.getChunkCount() != chunkChecksums.length)
+            throw new IOException("The lookup table does not have the chunks listed in its header");
+        if (layout.getEndOffset() != channel.size())
+            throw new IOException("The lookup table has unexpected data after its last chunk");
+
+        if (verification == Verification.FULL) {
+            verifyChunks(channel, layout);
+        }
+    }
+
+    private void verifyChunks(@Nonnull FileChannel channel, @Nonnull StoreLayout layout) throws IOException {
+        int[] checksums = new int[chunkChecksums.length];
+        long storedEntryCount = checksumChunks(channel, layout, checksums);
+        for (int index = 0; index < checksums.length; ++index) {
+            if (checksums[index] != chunkChecksums[index])
+                throw new IOException("Chunk " + index + " of the lookup table is corrupt");
+        }
+        if (storedEntryCount != entryCount)
+            throw new IOException("The lookup table does not have the entry count listed in its header");
+    }
+
+    /**
+     * Creates the header for a file that was written before headers were
+     * added, which starts with its state store, by reading every chunk.
+     * @throws IOException If the store in the file is truncated or corrupt.
+     */
+    public static @Nonnull LUTHeader createForLegacyFile(
+            @Nonnull FileChannel channel,
+            @Nonnull GameSettings<?> settings,
+            @Nonnull GameEncoding encoding
+    ) throws IOException {
+        if (hasHeader(channel))
+            throw new IOException("The file already has a header");
+
+        StoreLayout layout = StoreLayout.read(channel, 0);
+        if (layout.getKeyType() != encoding.getKeyType())
+            throw new IOException("The keys of the store do not match the encoding");
+        if (layout.getEndOffset() != channel.size())
+            throw new IOException("The store has unexpected data after its last chunk");
+
+        int[] checksums = new int[layout.getChunkCount()];
+        long entryCount = checksumChunks(channel, layout, checksums);
+        return new LUTHeader(encoding.getEncodingId(), computeSettingsHash(settings), entryCount, checksums);
+    }
+
+    /**
+     * Reads every chunk of {@code layout} in parallel, storing the CRC32C
+     * of each in {@code checksums}.
+     * @return The total number of entries that the chunks hold.
+     */
+    private static long checksumChunks(
+            @Nonnull FileChannel channel,
+            @Nonnull StoreLayout layout,
+            @Nonnull int[] checksums
+    ) throws IOException {
+        int chunkBytes = Math.toIntExact(layout.getChunkBytes());
+        ThreadLocal<ByteBuffer> buffers = ThreadLocal.withInitial(() -> ByteBuffer.allocateDirect(chunkBytes));
+        ThreadLocal<CRC32C> crcs = ThreadLocal.withInitial(CRC32C::new);
+        AtomicLong storedEntryCount = new AtomicLong();
+        try {
+            IntStream.range(0, checksums.length).parallel().forEach((index) -> {
+                ByteBuffer buffer = buffers.get();
+                buffer.clear();
+                try {
+                    long position = layout.getChunkOffset(index);
+                    while (buffer.hasRemaining()) {
+                        if (channel.read(buffer, position + buffer.position()) < 0)
+                            throw new IOException("The lookup table is truncated");
+                    }
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+                buffer.flip();
+                storedEntryCount.addAndGet(buffer.getInt(0));
+
+                CRC32C crc = crcs.get();
+                crc.reset();
+                crc.update(buffer);
+                checksums[index] = (int) crc.getValue();
+            });
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+        return storedEntryCount.get();
+    }
+
+    /**
+     * Computes a hash of everything in {@code settings} that affects the
+     * values of states. Unlike {@link Object#hashCode()}, this hash is the
+     * same in every run, so it can be stored in files.
+     */
+    public static long computeSettingsHash(@Nonnull GameSettings<?> settings) {
+        long hash = FNV_OFFSET_BASIS;
+        BoardShape shape = settings.getBoardShape();
+        hash = mix(hash, shape.getWidth());
+        hash = mix(hash, shape.getHeight());
+        for (Tile tile : shape.getTilesByRow()) {
+            hash = mix(hash, tile.getXIndex());
+            hash = mix(hash, tile.getYIndex());
+            hash = mix(hash, shape.isRosette(tile) ? 1 : 0);
+        }
+        for (Tile tile : settings.getPaths().getLightWithStartEnd()) {
+            hash = mix(hash, tile.getXIndex());
+            hash = mix(hash, tile.getYIndex());
+        }
+        hash = mix(hash, -1);
+        for (Tile tile : settings.getPaths().getDarkWithStartEnd()) {
+            hash = mix(hash, tile.getXIndex());
+            hash = mix(hash, tile.getYIndex());
+        }
+        hash = mix(hash, -1);
+        for (float probability : settings.getDice().createDice().getRollProbabilities()) {
+            hash = mix(hash, Float.floatToIntBits(probability));
+        }
+        hash = mix(hash, -1);
+        hash = mix(hash, settings.getStartingPieceCount());
+        hash = mix(hash, settings.areRosettesSafe() ? 1 : 0);
+        hash = mix(hash, settings.doRosettesGrantExtraRolls() ? 1 : 0);
+        hash = mix(hash, settings.doCapturesGrantExtraRolls() ? 1 : 0);
+        return hash;
+    }
+
+    /**
+     * Mixes the bytes of {@code value} into {@code hash} using FNV-1a.
+     */
+    private static long mix(long hash, int value) {
+        for (int shift = 0; shift < 32; shift += 8) {
+            hash ^= (value >>> shift) & 0xFF;
+            hash *= FNV_PRIME;
+        }
+        return hash;
+    }
+
+    /**
+     * How thoroughly lookup tables are checked when they are read.
+     */
+    public enum Verification {
+        /**
+         * Checks the header, and that the size of the file matches the
+         * chunks it describes. This catches truncated files and tables
+         * for other rules, without reading the chunks.
+         */
+        HEADER,
+
+        /**
+         * Also checks the checksum and entry count of every chunk,
+         * reading the chunks in parallel.
+         */
+        FULL
+    }
+}
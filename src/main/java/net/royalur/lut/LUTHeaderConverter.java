@@ -0,0 +1,36 @@
+package net.royalur.lut;
+
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * Converts lookup tables that were written before headers were added,
+ * which {@link LUTRegistry} no longer serves. The header is added to a
+ * copy of the table that is written into a library directory under the
+ * name that {@link LUTLibrary} serves the ruleset's table from.
+ * <p>
+ * Usage: {@code LUTHeaderConverter <ruleset> <legacy table> <library directory>},
+ * where the ruleset is one of the rulesets of {@link LUTLibrary#createStandard(File)}.
+ */
+public class LUTHeaderConverter {
+
+    public static void main(String[] args) throws IOException {
+        if (args.length != 3) {
+            System.err.println("Usage: LUTHeaderConverter <ruleset> <legacy table> <library directory>");
+            System.exit(1);
+        }
+
+        File legacyFile = new File(args[1]);
+        File directory = new File(args[2]);
+        LUTLibrary library = LUTLibrary.createStandard(directory);
+        LUTLibrary.Ruleset ruleset = library.getRuleset(args[0]);
+
+        StateLUT lut = new StateLUT(ruleset.getSettings());
+        File outputFile = ruleset.getTableFile();
+        long start = System.nanoTime();
+        lut.addHeader(legacyFile, lut.createEncoding(), outputFile);
+        long durationMs = (System.nanoTime() - start) / 1_000_000;
+        System.out.println("Wrote " + outputFile + " from " + legacyFile + " in " + durationMs + " ms");
+        library.close();
+    }
+}
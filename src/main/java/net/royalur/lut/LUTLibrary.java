@@ -0,0 +1,286 @@
+package net.royalur.lut;
+
+import net.royalur.model.GameSettings;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+
+/**
+ * Serves the lookup tables of several rulesets from one process. Each
+ * ruleset is registered under a name, and its table is read from the
+ * file in the library's directory that is named by the fingerprint of
+ * its settings, as given by {@link #getTableFileName(GameSettings)}.
+ * Tables are mapped into memory in the background, either when the
+ * server starts or once they are first used, and each is held by its
+ * own {@link LUTRegistry} so that it can be reloaded independently of
+ * the others. To publish a new table, write it to a temporary file in
+ * the directory and rename it over the table's file, and then reload
+ * the ruleset. Tables must never be written in place, as requests may
+ * still be reading the old table from its mapped file.
+ */
+public class LUTLibrary implements Closeable {
+
+    private final @Nonnull File directory;
+    private final @Nonnull Map<String, Ruleset> rulesets;
+    private boolean closed = false;
+
+    public LUTLibrary(@Nonnull File directory) {
+        this.directory = directory;
+        this.rulesets = new LinkedHashMap<>();
+    }
+
+    /**
+     * Creates a library that serves the Finkel, Masters, Blitz and Aseb
+     * rulesets from the tables in {@code directory}.
+     */
+    public static @Nonnull LUTLibrary createStandard(@Nonnull File directory) {
+        LUTLibrary library = new LUTLibrary(directory);
+        library.register("finkel", GameSettings.FINKEL);
+        library.register("masters", GameSettings.MASTERS);
+        library.register("blitz", GameSettings.BLITZ);
+        library.register("aseb", GameSettings.ASEB);
+        return library;
+    }
+
+    public @Nonnull File getDirectory() {
+        return directory;
+    }
+
+    /**
+     * Returns the name of the file that holds the table for {@code settings}.
+     */
+    public static @Nonnull String getTableFileName(@Nonnull GameSettings<?> settings) {
+        return String.format("%016x.rgu", LUTHeader.computeSettingsHash(settings));
+    }
+
+    public @Nonnull File getTableFile(@Nonnull GameSettings<?> settings) {
+        return new File(directory, getTableFileName(settings));
+    }
+
+    /**
+     * Registers the ruleset with {@code settings} under {@code name}.
+     * Its table is not read until it is first used, or until
+     * {@link Ruleset#startLoading()} is called.
+     */
+    public synchronized void register(@Nonnull String name, @Nonnull GameSettings<?> settings) {
+        if (closed)
+            throw new IllegalStateException("The library has been closed");
+        if (rulesets.containsKey(name))
+            throw new IllegalArgumentException("A ruleset named " + name + " is already registered");
+
+        rulesets.put(name, new Ruleset(name, settings));
+    }
+
+    /**
+     * Returns the ruleset registered under {@code name}.
+     * @throws IllegalArgumentException If there is no ruleset with the name.
+     */
+    public synchronized @Nonnull Ruleset getRuleset(@Nonnull String name) {
+        Ruleset ruleset = rulesets.get(name);
+        if (ruleset == null)
+            throw new IllegalArgumentException("Unknown ruleset " + name);
+
+        return ruleset;
+    }
+
+    public synchronized @Nonnull List<Ruleset> getRulesets() {
+        return Collections.unmodifiableList(new ArrayList<>(rulesets.values()));
+    }
+
+    /**
+     * Returns the tables that are currently mapped into memory.
+     */
+    public @Nonnull List<LUTRegistry.Table> getMappedTables() {
+        List<LUTRegistry.Table> tables = new ArrayList<>();
+        for (Ruleset ruleset : getRulesets()) {
+            LUTRegistry.Table table = ruleset.getCurrentTable();
+            if (table != null) {
+                tables.add(table);
+            }
+        }
+        return tables;
+    }
+
+    /**
+     * Returns the total number of bytes mapped to hold the current tables.
+     * This is the address space that the tables use, and not the memory
+     * they use, as only the pages that are read are kept resident.
+     */
+    public long getMappedByteCount() {
+        long byteCount = 0;
+        for (LUTRegistry.Table table : getMappedTables()) {
+            byteCount += table.getMappedByteCount();
+        }
+        return byteCount;
+    }
+
+    /**
+     * Takes a lease on the table of the ruleset registered under
+     * {@code name}, starting to load the table if it has not been used yet.
+     * @throws TableNotReadyException If the table is still being loaded.
+     */
+    public @Nonnull LUTRegistry.Lease acquire(@Nonnull String name) throws IOException {
+        return getRuleset(name).getRegistry().acquire();
+    }
+
+    /**
+     * Releases the tables of all rulesets once their leases are closed.
+     */
+    @Override
+    public void close() {
+        List<Ruleset> closing;
+        synchronized (this) {
+            closed = true;
+            closing = new ArrayList<>(rulesets.values());
+        }
+        for (Ruleset ruleset : closing) {
+            ruleset.close();
+        }
+    }
+
+    /**
+     * Thrown when the table of a ruleset is used while it is still
+     * being loaded in the background.
+     */
+    public static class TableNotReadyException extends IOException {
+        public TableNotReadyException(@Nonnull String message) {
+            super(message);
+        }
+    }
+
+    /**
+     * A ruleset that is served by the library.
+     */
+    public final class Ruleset {
+
+        private final @Nonnull String name;
+        private final @Nonnull GameSettings<?> settings;
+        private volatile @Nullable LUTRegistry registry;
+        private @Nullable CompletableFuture<LUTRegistry.Table> loading;
+
+        private Ruleset(@Nonnull String name, @Nonnull GameSettings<?> settings) {
+            this.name = name;
+            this.settings = settings;
+        }
+
+        public @Nonnull String getName() {
+            return name;
+        }
+
+        public @Nonnull GameSettings<?> getSettings() {
+            return settings;
+        }
+
+        public @Nonnull File getTableFile() {
+            return LUTLibrary.this.getTableFile(settings);
+        }
+
+        /**
+         * Returns the current table of this ruleset, or null if its
+         * table has not been loaded.
+         */
+        public @Nullable LUTRegistry.Table getCurrentTable() {
+            LUTRegistry registry = this.registry;
+            return registry != null ? registry.getCurrent() : null;
+        }
+
+        /**
+         * Starts loading the table of this ruleset in the background,
+         * unless it has already been loaded or started loading.
+         * @return A future that completes once the table has been loaded.
+         * @throws FileNotFoundException If there is no table for this ruleset.
+         */
+        public synchronized @Nonnull CompletableFuture<LUTRegistry.Table> startLoading() throws FileNotFoundException {
+            if (loading != null)
+                return loading;
+
+            return reload(null, LUTHeader.Verification.HEADER);
+        }
+
+        /**
+         * Loads the table of this ruleset from the library's directory
+         * in the background, and swaps it in once it has been validated.
+         * The current table is used until then. The new table must have
+         * been renamed over the table's file, as the file of the current
+         * table is still mapped, and the load fails if it has not been.
+         * @param expectedChecksum The CRC32C of the file, or null to rely
+         *                         on the checksums in its header.
+         * @return A future that completes once the table has been loaded.
+         * @throws FileNotFoundException If there is no table for this ruleset.
+         */
+        public synchronized @Nonnull CompletableFuture<LUTRegistry.Table> reload(
+                @Nullable Long expectedChecksum,
+                @Nonnull LUTHeader.Verification verification
+        ) throws FileNotFoundException {
+            synchronized (LUTLibrary.this) {
+                if (closed)
+                    throw new IllegalStateException("The library has been closed");
+            }
+
+            File file = getTableFile();
+            if (!file.exists())
+                throw new FileNotFoundException("There is no table for " + name + " at " + file);
+
+            LUTRegistry registry = this.registry;
+            if (registry == null) {
+                StateLUT lut = new StateLUT(settings);
+                registry = new LUTRegistry(lut, lut.createEncoding());
+                this.registry = registry;
+            }
+            loading = registry.loadInBackground(file, expectedChecksum, verification);
+            return loading;
+        }
+
+        /**
+         * Returns the registry that holds the table of this ruleset. If
+         * this is the first time it has been used, its table is loaded
+         * in the background, and this throws until it has been loaded.
+         * @throws TableNotReadyException If the table is still being loaded.
+         * @throws FileNotFoundException If there is no table for this ruleset.
+         * @throws IOException If the table could not be loaded.
+         */
+        public @Nonnull LUTRegistry getRegistry() throws IOException {
+            LUTRegistry registry = this.registry;
+            if (registry != null && registry.getCurrent() != null)
+                return registry;
+
+            CompletableFuture<LUTRegistry.Table> loading = startLoading();
+            if (!loading.isDone())
+                throw new TableNotReadyException("The table for " + name + " is still loading");
+
+            try {
+                loading.join();
+            } catch (CompletionException e) {
+                Throwable cause = e.getCause();
+                if (cause instanceof RuntimeException runtime)
+                    throw runtime;
+
+                throw new IOException("Could not load the table for " + name + ": " + cause.getMessage(), cause);
+            }
+            return Objects.requireNonNull(this.registry);
+        }
+
+        private synchronized void close() {
+            if (registry != null) {
+                registry.close();
+            }
+        }
+
+        @Override
+        public String toString() {
+            return name + " (" + getTableFileName(settings) + ")";
+        }
+    }
+}
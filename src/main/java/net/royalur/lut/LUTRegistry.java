@@ -0,0 +1,415 @@
+package net.royalur.lut;
+
+import net.royalur.lut.store.EntryLookup;
+import net.royalur.lut.store.MappedBigEntryStore;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.zip.CRC32C;
+
+/**
+ * Holds the state store that is used to serve lookups, and replaces it
+ * with new state stores without interrupting the lookups. New stores are
+ * mapped and validated in the background, and are then swapped in
+ * atomically. Lookups hold a {@link Lease} on the store they started
+ * with, so they finish on that store, and an old store is released
+ * once its last lease is closed.
+ * <p>
+ * Stores are mapped from their files, so the file of a table that is
+ * in use must never be written to. New tables must be written to a
+ * temporary file and then renamed over the old file, as
+ * {@link StateLUT#writeStateStore} does, which leaves the old file
+ * mapped until its last lease is closed. Loading the same file as the
+ * current table is rejected, as it means the file was written in place.
+ */
+public class LUTRegistry implements Closeable {
+
+    private final @Nonnull StateLUT lut;
+    private final @Nonnull GameEncoding encoding;
+    private final @Nonnull ExecutorService loader;
+    private final @Nonnull AtomicReference<Table> current;
+    private long lastVersion = 0;
+    private boolean closed = false;
+
+    public LUTRegistry(@Nonnull StateLUT lut, @Nonnull GameEncoding encoding) {
+        this.lut = lut;
+        this.encoding = encoding;
+        this.loader = Executors.newSingleThreadExecutor((runnable) -> {
+            Thread thread = new Thread(runnable, "lut-loader");
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.current = new AtomicReference<>();
+    }
+
+    public @Nonnull GameEncoding getEncoding() {
+        return encoding;
+    }
+
+    /**
+     * Returns the table that new leases are taken on, or null if no
+     * table has been loaded. The table may be released at any time
+     * unless a lease is held on it.
+     */
+    public @Nullable Table getCurrent() {
+        return current.get();
+    }
+
+    /**
+     * Takes a lease on the current table, which keeps the table from being
+     * released until the lease is closed, even if a new table is swapped in.
+     * @throws IllegalStateException If no table has been loaded.
+     */
+    public @Nonnull Lease acquire() {
+        while (true) {
+            Table table = current.get();
+            if (table == null)
+                throw new IllegalStateException("No LUT has been loaded");
+
+            // The registry holds a reference to the current table, so this
+            // only fails if the table was swapped out and drained since it
+            // was read, in which case there is a new current table.
+            if (table.retain())
+                return new Lease(table);
+        }
+    }
+
+    /**
+     * Maps and validates the state store in {@code file}, checking only
+     * its header, and then swaps it in as the current table.
+     * @param expectedChecksum The CRC32C of the file, or null to rely on
+     *                         the checksums in the header of the file.
+     *                         Checking it reads the whole file.
+     * @throws IOException If the file could not be read, or is not valid.
+     */
+    public @Nonnull Table load(
+            @Nonnull File file,
+            @Nullable Long expectedChecksum
+    ) throws IOException {
+        return load(file, expectedChecksum, LUTHeader.Verification.HEADER);
+    }
+
+    /**
+     * Maps and validates the state store in {@code file}, and then swaps
+     * it in as the current table. The contents of the file are read at
+     * most once: if {@code expectedChecksum} is given, it covers the whole
+     * file and the chunk checksums are not checked again.
+     * @param expectedChecksum The CRC32C of the file, or null to rely on
+     *                         the checksums in the header of the file.
+     * @param verification How much of the file to check against the
+     *                     checksums in its header.
+     * @throws IOException If the file could not be read, is not valid, or
+     *                     has no {@link LUTHeader}. Tables written before
+     *                     headers were added must first be converted using
+     *                     {@link LUTHeaderConverter}.
+     */
+    public synchronized @Nonnull Table load(
+            @Nonnull File file,
+            @Nullable Long expectedChecksum,
+            @Nonnull LUTHeader.Verification verification
+    ) throws IOException {
+
+        if (closed)
+            throw new IllegalStateException("The registry has been closed");
+
+        if (expectedChecksum != null) {
+            long checksum = computeChecksum(file);
+            if (checksum != expectedChecksum) {
+                throw new IOException(
+                        "The checksum of " + file + " is " + formatChecksum(checksum)
+                                + ", but " + formatChecksum(expectedChecksum) + " was expected"
+                );
+            }
+            verification = LUTHeader.Verification.HEADER;
+        }
+
+        // Files without headers cannot be checked, so they could hold truncated tables or tables for other rules.
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            if (!LUTHeader.hasHeader(channel)) {
+                throw new IOException(
+                        file + " has no header, so it cannot be checked. Tables that were written"
+                                + " before headers were added must be converted using LUTHeaderConverter"
+                );
+            }
+        }
+
+        Object fileKey = Files.readAttributes(file.toPath(), BasicFileAttributes.class).fileKey();
+        Table table = current.get();
+        if (fileKey != null && table != null && fileKey.equals(table.fileKey)) {
+            throw new IOException(
+                    file + " is the file that the current table is mapped from. New tables must be"
+                            + " renamed over the old file, rather than written to it in place"
+            );
+        }
+
+        MappedBigEntryStore states = lut.mapStateStore(file, encoding, verification);
+        Table next = new Table(
+                file, fileKey, states, expectedChecksum, lastVersion + 1, states.getMappedByteCount()
+        );
+        try {
+            validate(next);
+        } catch (IOException e) {
+            next.release();
+            throw e;
+        }
+
+        lastVersion = next.version;
+        Table previous = current.getAndSet(next);
+        if (previous != null) {
+            previous.release();
+        }
+        return next;
+    }
+
+    /**
+     * Loads {@code file} on a background thread, checking only its header,
+     * as in {@link #load(File, Long)}.
+     */
+    public @Nonnull CompletableFuture<Table> loadInBackground(
+            @Nonnull File file,
+            @Nullable Long expectedChecksum
+    ) {
+        return loadInBackground(file, expectedChecksum, LUTHeader.Verification.HEADER);
+    }
+
+    /**
+     * Loads {@code file} on a background thread, as in
+     * {@link #load(File, Long, LUTHeader.Verification)}. Loads are
+     * performed one at a time, in the order they are requested.
+     */
+    public @Nonnull CompletableFuture<Table> loadInBackground(
+            @Nonnull File file,
+            @Nullable Long expectedChecksum,
+            @Nonnull LUTHeader.Verification verification
+    ) {
+        CompletableFuture<Table> future = new CompletableFuture<>();
+        loader.execute(() -> {
+            try {
+                future.complete(load(file, expectedChecksum, verification));
+            } catch (Throwable e) {
+                future.completeExceptionally(e);
+            }
+        });
+        return future;
+    }
+
+    /**
+     * Checks that a newly loaded table can replace the current table.
+     */
+    private void validate(@Nonnull Table next) throws IOException {
+        EntryLookup states = next.states;
+        if (states.getKeyType() != encoding.getKeyType())
+            throw new IOException("The keys of " + next.file + " do not match the encoding");
+        if (states.getEntryCount() == 0)
+            throw new IOException(next.file + " contains no states");
+
+        // Tables for the same rules contain the same states, and differ only in their values.
+        Table table = current.get();
+        if (table != null && states.getEntryCount() != table.getEntryCount()) {
+            throw new IOException(
+                    next.file + " contains " + states.getEntryCount() + " states, but the current table contains "
+                            + table.getEntryCount() + " states"
+            );
+        }
+    }
+
+    /**
+     * Computes the CRC32C of the contents of {@code file}.
+     */
+    public static long computeChecksum(@Nonnull File file) throws IOException {
+        CRC32C crc = new CRC32C();
+        ByteBuffer buffer = ByteBuffer.allocateDirect(1024 * 1024);
+        try (FileInputStream fis = new FileInputStream(file); FileChannel channel = fis.getChannel()) {
+            while (channel.read(buffer) >= 0) {
+                buffer.flip();
+                crc.update(buffer);
+                buffer.clear();
+            }
+        }
+        return crc.getValue();
+    }
+
+    public static @Nonnull String formatChecksum(long checksum) {
+        return String.format("%08x", checksum);
+    }
+
+    /**
+     * Stops loading new tables, and releases the current table once
+     * all leases on it are closed.
+     */
+    @Override
+    public void close() {
+        synchronized (this) {
+            closed = true;
+        }
+        loader.shutdown();
+        Table previous = current.getAndSet(null);
+        if (previous != null) {
+            previous.release();
+        }
+    }
+
+    /**
+     * A state store that has been loaded into the registry.
+     */
+    public static final class Table {
+
+        private final @Nonnull File file;
+
+        /**
+         * Identifies the file that this table is mapped from, even after
+         * another file is renamed over it, or null if this is not known.
+         */
+        private final @Nullable Object fileKey;
+
+        private final @Nonnull EntryLookup states;
+        private final @Nullable Long checksum;
+        private final long version;
+        private final long mappedByteCount;
+
+        /**
+         * The number of open leases, plus one while the table is current.
+         */
+        private final @Nonnull AtomicInteger references;
+
+        private Table(
+                @Nonnull File file,
+                @Nullable Object fileKey,
+                @Nonnull EntryLookup states,
+                @Nullable Long checksum,
+                long version,
+                long mappedByteCount
+        ) {
+            this.file = file;
+            this.fileKey = fileKey;
+            this.states = states;
+            this.checksum = checksum;
+            this.version = version;
+            this.mappedByteCount = mappedByteCount;
+            this.references = new AtomicInteger(1);
+        }
+
+        public @Nonnull File getFile() {
+            return file;
+        }
+
+        /**
+         * Returns the CRC32C of the file that this table was loaded
+         * from, or null if it was not checked when it was loaded.
+         */
+        public @Nullable Long getChecksum() {
+            return checksum;
+        }
+
+        /**
+         * Returns the number of tables that had been loaded into the
+         * registry when this table was loaded, including this table.
+         */
+        public long getVersion() {
+            return version;
+        }
+
+        public int getEntryCount() {
+            return states.getEntryCount();
+        }
+
+        /**
+         * Returns the number of bytes of the file that are mapped to hold
+         * the states of this table. Only the pages that are read are kept
+         * resident, so this is an upper bound on the memory it uses.
+         */
+        public long getMappedByteCount() {
+            return mappedByteCount;
+        }
+
+        /**
+         * Returns whether this table has been released, after which its
+         * states must no longer be used.
+         */
+        public boolean isReleased() {
+            return references.get() == 0;
+        }
+
+        /**
+         * Adds a reference to this table, unless it has already been released.
+         */
+        private boolean retain() {
+            while (true) {
+                int count = references.get();
+                if (count == 0)
+                    return false;
+                if (references.compareAndSet(count, count + 1))
+                    return true;
+            }
+        }
+
+        private void release() {
+            if (references.decrementAndGet() != 0)
+                return;
+
+            // Mapped stores are unmapped by the garbage collector once
+            // they are no longer referenced, but other stores may hold
+            // resources that should be freed straight away.
+            if (states instanceof AutoCloseable closeable) {
+                try {
+                    closeable.close();
+                } catch (Exception e) {
+                    System.err.println("Could not release " + file + ": " + e);
+                }
+            }
+        }
+
+        @Override
+        public String toString() {
+            return file + " (version " + version + ", " + getEntryCount()
+                    + " states" + (checksum != null ? ", checksum " + formatChecksum(checksum) : "") + ")";
+        }
+    }
+
+    /**
+     * Keeps a table from being released while it is being used.
+     */
+    public static final class Lease implements AutoCloseable {
+
+        private final @Nonnull Table table;
+        private boolean closed = false;
+
+        private Lease(@Nonnull Table table) {
+            this.table = table;
+        }
+
+        public @Nonnull Table getTable() {
+            return table;
+        }
+
+        public @Nonnull EntryLookup getStates() {
+            if (closed)
+                throw new IllegalStateException("The lease has been closed");
+
+            return table.states;
+        }
+
+        @Override
+        public void close() {
+            if (closed)
+                return;
+
+            closed = true;
+            table.release();
+        }
+    }
+}
@@ -0,0 +1,192 @@
+package net.royalur.lut;
+
+import net.royalur.lut.buffer.ValueType;
+import net.royalur.model.GameSettings;
+import net.royalur.model.Tile;
+import net.royalur.model.path.PathPair;
+import net.royalur.model.shape.BoardShape;
+import net.royalur.rules.simple.fast.FastSimpleGame;
+
+import javax.annotation.Nonnull;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Encodes the state of games played with any board shape and paths.
+ * Each key is a mixed-radix number, with one digit for whose turn it is,
+ * one digit for the pieces each player has left to play, and one digit
+ * for the occupant of every tile that pieces can be placed on. Tiles
+ * that are only on one player's path take one bit, and tiles that are
+ * shared by both paths take a base-3 digit. Int keys are used if every
+ * key fits in 32 bits, otherwise long keys are used.
+ */
+public class SimpleGameEncoding extends GameEncoding {
+
+    private final int pieceCount;
+
+    /**
+     * The board indices of the tiles that pieces may be placed on.
+     */
+    private final @Nonnull int[] tileIndices;
+
+    /**
+     * The number of occupants that each tile may have, including empty.
+     */
+    private final @Nonnull int[] tileRadices;
+
+    /**
+     * The digit used for a light piece on each tile, or -1 if
+     * light pieces cannot be placed on the tile.
+     */
+    private final @Nonnull int[] lightDigits;
+
+    /**
+     * The digit used for a dark piece on each tile, or -1 if
+     * dark pieces cannot be placed on the tile.
+     */
+    private final @Nonnull int[] darkDigits;
+
+    /**
+     * The path index + 1 of each tile on the light path, or 0.
+     */
+    private final @Nonnull int[] lightPathIndices;
+
+    /**
+     * The path index + 1 of each tile on the dark path, or 0.
+     */
+    private final @Nonnull int[] darkPathIndices;
+
+    private final long keyCount;
+    private final @Nonnull ValueType keyType;
+
+    public SimpleGameEncoding(@Nonnull GameSettings<?> settings) {
+        this.pieceCount = settings.getStartingPieceCount();
+
+        BoardShape shape = settings.getBoardShape();
+        PathPair paths = settings.getPaths();
+        List<Tile> lightPath = paths.getLight();
+        List<Tile> darkPath = paths.getDark();
+        int width = shape.getWidth();
+
+        List<Integer> tileIndices = new ArrayList<>();
+        for (int boardY = 0; boardY < shape.getHeight(); ++boardY) {
+            for (int boardX = 0; boardX < width; ++boardX) {
+                Tile tile = Tile.fromIndices(boardX, boardY);
+                if (lightPath.contains(tile) || darkPath.contains(tile)) {
+                    tileIndices.add(boardX + width * boardY);
+                }
+            }
+        }
+
+        int tileCount = tileIndices.size();
+        this.tileIndices = new int[tileCount];
+        this.tileRadices = new int[tileCount];
+        this.lightDigits = new int[tileCount];
+        this.darkDigits = new int[tileCount];
+        this.lightPathIndices = new int[tileCount];
+        this.darkPathIndices = new int[tileCount];
+
+        long keyCount = 2L * (pieceCount + 1) * (pieceCount + 1);
+        for (int index = 0; index < tileCount; ++index) {
+            int tileIndex = tileIndices.get(index);
+            Tile tile = Tile.fromIndices(tileIndex % width, tileIndex / width);
+            int lightPathIndex = lightPath.indexOf(tile);
+            int darkPathIndex = darkPath.indexOf(tile);
+
+            int radix = 1;
+            lightDigits[index] = (lightPathIndex >= 0 ? radix++ : -1);
+            darkDigits[index] = (darkPathIndex >= 0 ? radix++ : -1);
+
+            this.tileIndices[index] = tileIndex;
+            tileRadices[index] = radix;
+            lightPathIndices[index] = lightPathIndex + 1;
+            darkPathIndices[index] = darkPathIndex + 1;
+            try {
+                keyCount = Math.multiplyExact(keyCount, radix);
+            } catch (ArithmeticException e) {
+                throw new IllegalArgumentException("The board has too many tiles to be encoded", e);
+            }
+        }
+        this.keyCount = keyCount;
+        this.keyType = (keyCount <= (1L << 32) ? ValueType.INT : ValueType.LONG);
+    }
+
+    /**
+     * Returns the number of distinct keys that may be generated.
+     * Not all keys represent reachable states.
+     */
+    public long getKeyCount() {
+        return keyCount;
+    }
+
+    @Override
+    public int getEncodingId() {
+        return 2;
+    }
+
+    @Override
+    public @Nonnull ValueType getKeyType() {
+        return keyType;
+    }
+
+    @Override
+    public long encodeGameLong(@Nonnull FastSimpleGame game) {
+        int[] pieces = game.board.pieces;
+        long key = 0;
+        for (int index = 0; index < tileIndices.length; ++index) {
+            int piece = pieces[tileIndices[index]];
+            int digit = (piece == 0 ? 0 : (piece > 0 ? lightDigits[index] : darkDigits[index]));
+            if (digit < 0)
+                throw new IllegalArgumentException("Illegal board state!");
+
+            key = key * tileRadices[index] + digit;
+        }
+        key = key * (pieceCount + 1) + game.dark.pieces;
+        key = key * (pieceCount + 1) + game.light.pieces;
+        key = key * 2 + (game.isLightTurn ? 1 : 0);
+        return key;
+    }
+
+    @Override
+    public int encodeGame(@Nonnull FastSimpleGame game) {
+        if (keyType != ValueType.INT)
+            throw new UnsupportedOperationException("This encoding uses long keys");
+
+        return (int) encodeGameLong(game);
+    }
+
+    @Override
+    public void decodeGame(long key, @Nonnull FastSimpleGame game) {
+        game.isLightTurn = (key % 2) != 0;
+        key /= 2;
+        game.light.pieces = (int) (key % (pieceCount + 1));
+        key /= (pieceCount + 1);
+        game.dark.pieces = (int) (key % (pieceCount + 1));
+        key /= (pieceCount + 1);
+
+        int lightOnBoard = 0;
+        int darkOnBoard = 0;
+        int[] pieces = game.board.pieces;
+        game.board.clear();
+        for (int index = tileIndices.length - 1; index >= 0; --index) {
+            int radix = tileRadices[index];
+            int digit = (int) (key % radix);
+            key /= radix;
+            if (digit == 0)
+                continue;
+
+            if (digit == lightDigits[index]) {
+                pieces[tileIndices[index]] = lightPathIndices[index];
+                lightOnBoard += 1;
+            } else {
+                pieces[tileIndices[index]] = -darkPathIndices[index];
+                darkOnBoard += 1;
+            }
+        }
+
+        game.rollValue = -1;
+        game.light.score = pieceCount - game.light.pieces - lightOnBoard;
+        game.dark.score = pieceCount - game.dark.pieces - darkOnBoard;
+        game.isFinished = (game.light.score == pieceCount || game.dark.score == pieceCount);
+    }
+}
@@ -0,0 +1,214 @@
+package net.royalur.lut;
+
+import net.royalur.lut.buffer.BufferStorage;
+import net.royalur.lut.store.BigEntryStore;
+
+import javax.annotation.Nonnull;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * A snapshot of the values of all states during value iteration,
+ * along with the position that the solver should continue from.
+ * Checkpoints also record the sweep that the solver was using, and the
+ * settings and encoding that it was solving for, so that a solve is
+ * resumed the same way that it was started, and only for the same game.
+ */
+public class SolverCheckpoint {
+
+    /**
+     * Identifies checkpoint files. Spells "RGUC" in ASCII.
+     */
+    private static final int MAGIC = 0x52475543;
+
+    private static final int VERSION = 2;
+
+    /**
+     * The ways that the solver can sweep over the states.
+     */
+    public enum SweepMode {
+        SERIAL,
+        PARALLEL,
+        ORDERED
+    }
+
+    private final @Nonnull BigEntryStore states;
+    private final @Nonnull SweepMode sweepMode;
+    private final long settingsHash;
+    private final int encodingId;
+    private final int minScore;
+    private final int maxScore;
+    private final int iteration;
+    private final int fullSweeps;
+    private final float lastMaxDelta;
+
+    /**
+     * @param states The values of all states.
+     * @param sweepMode The sweep that the solver is using.
+     * @param settingsHash The hash of the settings being solved, from
+     *                     {@link LUTHeader#computeSettingsHash}.
+     * @param encodingId The ID of the encoding of the keys of {@code states}.
+     * @param minScore The lowest score of the next layer to sweep,
+     *                 or -1 if all layers have converged.
+     * @param maxScore The highest score of the next layer to sweep.
+     * @param iteration The number of layer sweeps that have been performed.
+     * @param fullSweeps The number of full sweeps that have been performed.
+     * @param lastMaxDelta The max change in value from the last sweep.
+     */
+    public SolverCheckpoint(
+            @Nonnull BigEntryStore states,
+            @Nonnull SweepMode sweepMode,
+            long settingsHash,
+            int encodingId,
+            int minScore,
+            int maxScore,
+            int iteration,
+            int fullSweeps,
+            float lastMaxDelta
+    ) {
+        this.states = states;
+        this.sweepMode = sweepMode;
+        this.settingsHash = settingsHash;
+        this.encodingId = encodingId;
+        this.minScore = minScore;
+        this.maxScore = maxScore;
+        this.iteration = iteration;
+        this.fullSweeps = fullSweeps;
+        this.lastMaxDelta = lastMaxDelta;
+    }
+
+    /**
+     * Returns the file that checkpoints are written to
+     * while solving states into {@code outputFile}.
+     */
+    public static @Nonnull File getCheckpointFile(@Nonnull File outputFile) {
+        return new File(outputFile.getPath() + ".checkpoint");
+    }
+
+    public @Nonnull BigEntryStore getStates() {
+        return states;
+    }
+
+    public @Nonnull SweepMode getSweepMode() {
+        return sweepMode;
+    }
+
+    public long getSettingsHash() {
+        return settingsHash;
+    }
+
+    public int getEncodingId() {
+        return encodingId;
+    }
+
+    public int getMinScore() {
+        return minScore;
+    }
+
+    public int getMaxScore() {
+        return maxScore;
+    }
+
+    /**
+     * Returns whether all score layers have converged,
+     * and only full sweeps remain.
+     */
+    public boolean areLayersFinished() {
+        return minScore < 0;
+    }
+
+    public int getIteration() {
+        return iteration;
+    }
+
+    public int getFullSweeps() {
+        return fullSweeps;
+    }
+
+    public float getLastMaxDelta() {
+        return lastMaxDelta;
+    }
+
+    public void write(@Nonnull FileChannel channel) throws IOException {
+        int maxBytesPerKeyOrValue = Math.max(
+                states.getKeyType().getByteCount(),
+                states.getValueType().getByteCount()
+        );
+        int requiredBytes = Math.max(1024, states.getEntriesPerChunk() * maxBytesPerKeyOrValue);
+        DataSink output = new DataSink.FileDataSink(
+                channel,
+                ByteBuffer.allocateDirect(requiredBytes)
+        );
+
+        output.write((buffer) -> {
+            buffer.putInt(MAGIC);
+            buffer.putInt(VERSION);
+            buffer.putInt(sweepMode.ordinal());
+            buffer.putLong(settingsHash);
+            buffer.putInt(encodingId);
+            buffer.putInt(minScore);
+            buffer.putInt(maxScore);
+            buffer.putInt(iteration);
+            buffer.putInt(fullSweeps);
+            buffer.putFloat(lastMaxDelta);
+        });
+        states.write(output);
+    }
+
+    public static @Nonnull SolverCheckpoint read(@Nonnull FileChannel channel) throws IOException {
+        return read(channel, BufferStorage.HEAP);
+    }
+
+    /**
+     * Reads a checkpoint, storing the values of its states using {@code storage}.
+     */
+    public static @Nonnull SolverCheckpoint read(
+            @Nonnull FileChannel channel,
+            @Nonnull BufferStorage storage
+    ) throws IOException {
+        ByteBuffer workingBuffer = ByteBuffer.allocateDirect(1024 * 1024);
+        DataSource input = new DataSource.FileDataSource(channel, workingBuffer);
+
+        if (input.readInt() != MAGIC)
+            throw new IOException("The file is not a solver checkpoint");
+
+        int version = input.readInt();
+        if (version != VERSION)
+            throw new IOException("Unsupported checkpoint version " + version);
+
+        int sweepModeIndex = input.readInt();
+        SweepMode[] sweepModes = SweepMode.values();
+        if (sweepModeIndex < 0 || sweepModeIndex >= sweepModes.length)
+            throw new IOException("Unknown sweep mode " + sweepModeIndex);
+
+        SweepMode sweepMode = sweepModes[sweepModeIndex];
+        long settingsHash = input.readLong();
+        int encodingId = input.readInt();
+        int minScore = input.readInt();
+        int maxScore = input.readInt();
+        int iteration = input.readInt();
+        int fullSweeps = input.readInt();
+        float lastMaxDelta = Float.intBitsToFloat(input.readInt());
+        BigEntryStore states = BigEntryStore.read(input, storage);
+        return new SolverCheckpoint(
+                states, sweepMode, settingsHash, encodingId,
+                minScore, maxScore, iteration, fullSweeps, lastMaxDelta
+        );
+    }
+
+    public static @Nonnull SolverCheckpoint read(@Nonnull File file) throws IOException {
+        return read(file, BufferStorage.HEAP);
+    }
+
+    public static @Nonnull SolverCheckpoint read(
+            @Nonnull File file,
+            @Nonnull BufferStorage storage
+    ) throws IOException {
+        try (FileInputStream fis = new FileInputStream(file)) {
+            return read(fis.getChannel(), storage);
+        }
+    }
+}
@@ -0,0 +1,62 @@
+package net.royalur.lut;
+
+import javax.annotation.Nonnull;
+import java.io.File;
+import java.text.DecimalFormat;
+
+/**
+ * Receives progress updates from the value iteration in {@link StateLUT}.
+ */
+public interface SolverListener {
+
+    /**
+     * Called after each sweep over the states of a score layer,
+     * or over all unfinished states.
+     */
+    void onSweep(@Nonnull SweepStats stats);
+
+    /**
+     * Called after the state store has been written to {@code file}.
+     */
+    default void onWrite(@Nonnull File file, double durationMs) {}
+
+    /**
+     * Creates a listener that prints a line to standard output for each event.
+     */
+    static @Nonnull SolverListener printing() {
+        DecimalFormat msDuration = new DecimalFormat("#,###");
+        return new SolverListener() {
+            @Override
+            public void onSweep(@Nonnull SweepStats stats) {
+                if (stats.isFullSweep()) {
+                    if (stats.getIteration() == 0) {
+                        System.out.println();
+                        System.out.println("Finished progressive value iteration!");
+                        System.out.println("Starting full value iteration...");
+                    }
+                    System.out.printf(
+                            "%d. max diff = %.3f, mean diff = %.5f (%s ms)\n",
+                            stats.getIteration() + 1,
+                            stats.getMaxDelta(),
+                            stats.getMeanDelta(),
+                            msDuration.format(stats.getDurationMs())
+                    );
+                } else {
+                    System.out.printf(
+                            "%d. scores = [%d, %d], max diff = %.3f, mean diff = %.5f (%s ms)\n",
+                            stats.getIteration() + 1,
+                            stats.getMinScore(), stats.getMaxScore(),
+                            stats.getMaxDelta(),
+                            stats.getMeanDelta(),
+                            msDuration.format(stats.getDurationMs())
+                    );
+                }
+            }
+
+            @Override
+            public void onWrite(@Nonnull File file, double durationMs) {
+                System.out.println("Write took " + msDuration.format(durationMs) + " ms");
+            }
+        };
+    }
+}
@@ -1,8 +1,17 @@
 package net.royalur.lut;
 
 import net.royalur.Game;
+import net.royalur.lut.LUTHeader.Verification;
+import net.royalur.lut.SolverCheckpoint.SweepMode;
+import net.royalur.lut.buffer.BufferStorage;
 import net.royalur.lut.buffer.ValueType;
 import net.royalur.lut.store.BigEntryStore;
+import net.royalur.lut.store.CompressedEntryStore;
+import net.royalur.lut.store.DenseStateTable;
+import net.royalur.lut.store.EntryLookup;
+import net.royalur.lut.store.KeyBatch;
+import net.royalur.lut.store.KeyIndex;
+import net.royalur.lut.store.MappedBigEntryStore;
 import net.royalur.model.*;
 import net.royalur.model.dice.Roll;
 import net.royalur.model.path.PathPair;
@@ -14,11 +23,22 @@ import net.royalur.rules.simple.fast.FastSimpleMoveList;
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
 import java.io.*;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
 import java.text.DecimalFormat;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
 import java.util.concurrent.atomic.AtomicLong;
-import java.util.concurrent.atomic.AtomicReference;
 import java.util.function.Consumer;
+import java.util.function.Predicate;
+import java.util.function.ToIntFunction;
 
 /**
  * A lookup table based upon game states.
@@ -34,6 +54,41 @@ public class StateLUT {
     private static final int DARK_PATH_INDEX_SHIFT = 8;
     private static final int DARK_PATH_INDEX_MASK = 0b11111;
 
+    /**
+     * The number of tiles whose occupants are used to split
+     * the game states into partitions for parallel loops.
+     */
+    private static final int PARTITION_TILES = 3;
+
+    /**
+     * Each score layer is swept until no state changes
+     * in value by more than this threshold.
+     */
+    private static final float CONVERGENCE_THRESHOLD = 0.01f;
+
+    /**
+     * The number of sweeps over all states that are
+     * performed after every score layer has converged.
+     */
+    private static final int FULL_SWEEP_COUNT = 10;
+
+    /**
+     * The storage of the states that are solved by {@link #main} and
+     * {@link #resume(File)}. The states of Finkel take a few GB, which
+     * is kept off the heap so that the garbage collector does not scan
+     * it. Off-heap memory is limited by {@code -XX:MaxDirectMemorySize},
+     * which defaults to the max heap size, so the solver should be run
+     * with a limit that is large enough to hold the states.
+     */
+    public static final BufferStorage SOLVER_STORAGE = BufferStorage.OFF_HEAP;
+
+    /**
+     * The value to pass when looking up states that may be missing from
+     * a table. Stored values are unsigned and never longs, so this never
+     * matches the bits of a stored value.
+     */
+    public static final long MISSING_VALUE_BITS = -1;
+
     private final @Nonnull GameSettings<?> settings;
     private final @Nonnull BoardShape shape;
     private final @Nonnull PathPair paths;
@@ -55,6 +110,8 @@ public class StateLUT {
 
         List<Tile> lightPath = paths.getLight();
         List<Tile> darkPath = paths.getDark();
+        if (lightPath.size() > LIGHT_PATH_INDEX_MASK + 1 || darkPath.size() > DARK_PATH_INDEX_MASK + 1)
+            throw new IllegalArgumentException("Paths longer than 32 tiles are not supported");
         for (int boardX = 0; boardX < width; ++boardX) {
             for (int boardY = 0; boardY < height; ++boardY) {
                 Tile tile = Tile.fromIndices(boardX, boardY);
@@ -103,12 +160,21 @@ public class StateLUT {
         }
     }
 
-    public int countStates() {
-        if (settings.getStartingPieceCount() > 7)
-            throw new IllegalStateException("Starting piece count > 7 is not supported");
-        if (shape.getTiles().size() >= 27)
-            throw new IllegalArgumentException("Board area too big");
+    /**
+     * Creates the encoding that is used by default for the states of
+     * this lookup table. The Finkel rules use {@link FinkelGameEncoding}
+     * for compatibility with existing tables, and all other rules use
+     * a {@link SimpleGameEncoding}.
+     */
+    public @Nonnull GameEncoding createEncoding() {
+        boolean isFinkel = shape.isEquivalent(GameSettings.FINKEL.getBoardShape())
+                && paths.isEquivalent(GameSettings.FINKEL.getPaths())
+                && settings.getStartingPieceCount() <= GameSettings.FINKEL.getStartingPieceCount();
 
+        return isFinkel ? new FinkelGameEncoding() : new SimpleGameEncoding(settings);
+    }
+
+    public int countStates() {
         AtomicLong stateCount = new AtomicLong();
         loopGameStates((game) -> stateCount.incrementAndGet());
         return Math.toIntExact(stateCount.get());
@@ -120,73 +186,228 @@ public class StateLUT {
 
         for (int lightPieces = 0; lightPieces <= pieceCount; ++lightPieces) {
             for (int darkPieces = 0; darkPieces <= pieceCount; ++darkPieces) {
-                // Reset the game.
-                game.board.clear();
-                game.light.pieces = lightPieces;
-                game.light.score = pieceCount - lightPieces;
-                game.dark.pieces = darkPieces;
-                game.dark.score = pieceCount - darkPieces;
-
+                resetGame(game, lightPieces, darkPieces);
                 loopBoardStates(gameConsumer, game, 0);
             }
         }
     }
 
-    private void loopBoardStates(
-            Consumer<FastSimpleGame> gameConsumer,
+    private void resetGame(FastSimpleGame game, int lightPieces, int darkPieces) {
+        int pieceCount = settings.getStartingPieceCount();
+        game.board.clear();
+        game.light.pieces = lightPieces;
+        game.light.score = pieceCount - lightPieces;
+        game.dark.pieces = darkPieces;
+        game.dark.score = pieceCount - darkPieces;
+    }
+
+    /**
+     * Places the given occupant on a tile, taking the piece from the
+     * score of its owner.
+     * @return Whether the occupant could be placed.
+     */
+    private boolean placeOccupant(
             FastSimpleGame game,
-            int boardIndex
+            int boardIndex,
+            int occupant,
+            int originalLightScore,
+            int originalDarkScore
     ) {
-        int pieceCount = settings.getStartingPieceCount();
         int tileFlag = tileFlags[boardIndex];
         boolean lightOnly = (tileFlag & LIGHT_ONLY_FLAG) != 0;
-        int occupants = tileFlag & OCCUPANTS_MASK;
         int lightIndex = (tileFlag >> LIGHT_PATH_INDEX_SHIFT) & LIGHT_PATH_INDEX_MASK;
         int darkIndex = (tileFlag >> DARK_PATH_INDEX_SHIFT) & DARK_PATH_INDEX_MASK;
+
+        int newLightScore = originalLightScore;
+        int newDarkScore = originalDarkScore;
+        int newPiece = 0;
+        if (occupant == 1) {
+            if (lightOnly) {
+                newPiece = lightIndex + 1;
+                newLightScore -= 1;
+            } else {
+                newPiece = -(darkIndex + 1);
+                newDarkScore -= 1;
+            }
+        } else if (occupant == 2) {
+            newPiece = lightIndex + 1;
+            newLightScore -= 1;
+        }
+        if (newLightScore < 0 || newDarkScore < 0)
+            return false;
+
+        game.board.set(boardIndex, newPiece);
+        game.light.score = newLightScore;
+        game.dark.score = newDarkScore;
+        return true;
+    }
+
+    private void loopTurns(Consumer<FastSimpleGame> gameConsumer, FastSimpleGame game) {
+        int pieceCount = settings.getStartingPieceCount();
+        int lightScore = game.light.score;
+        int darkScore = game.dark.score;
+        game.isFinished = (lightScore == pieceCount || darkScore == pieceCount);
+
+        for (int isLightTurn = 0; isLightTurn <= 1; ++isLightTurn) {
+            // When the game is finished, the winner must have all pieces scored!
+            if (isLightTurn == 0 && lightScore == pieceCount)
+                continue;
+            if (isLightTurn == 1 && darkScore == pieceCount)
+                continue;
+
+            game.isLightTurn = (isLightTurn == 1);
+            gameConsumer.accept(game);
+        }
+    }
+
+    private void loopBoardStates(
+            Consumer<FastSimpleGame> gameConsumer,
+            FastSimpleGame game,
+            int boardIndex
+    ) {
+        int occupants = tileFlags[boardIndex] & OCCUPANTS_MASK;
         int nextBoardIndex = nextBoardIndices[boardIndex];
 
         int originalLightScore = game.light.score;
         int originalDarkScore = game.dark.score;
 
         for (int occupant = 0; occupant < occupants; ++occupant) {
-            int newLightScore = originalLightScore;
-            int newDarkScore = originalDarkScore;
-            int newPiece = 0;
-            if (occupant == 1) {
-                if (lightOnly) {
-                    newPiece = lightIndex + 1;
-                    newLightScore -= 1;
-                } else {
-                    newPiece = -(darkIndex + 1);
-                    newDarkScore -= 1;
-                }
-            } else if (occupant == 2) {
-                newPiece = lightIndex + 1;
-                newLightScore -= 1;
+            if (!placeOccupant(game, boardIndex, occupant, originalLightScore, originalDarkScore))
+                continue;
+
+            if (nextBoardIndex >= area) {
+                loopTurns(gameConsumer, game);
+            } else {
+                loopBoardStates(gameConsumer, game, nextBoardIndex);
+            }
+        }
+    }
+
+    /**
+     * Splits the game states into partitions that can be looped over
+     * independently. Each partition is described by the number of light
+     * and dark pieces off the board, followed by the occupants of the
+     * first {@link #PARTITION_TILES} tiles that are visited.
+     */
+    private @Nonnull List<int[]> createPartitions() {
+        int pieceCount = settings.getStartingPieceCount();
+        List<int[]> partitions = new ArrayList<>();
+        FastSimpleGame game = new FastSimpleGame(settings);
+
+        for (int lightPieces = 0; lightPieces <= pieceCount; ++lightPieces) {
+            for (int darkPieces = 0; darkPieces <= pieceCount; ++darkPieces) {
+                int[] partition = new int[2 + PARTITION_TILES];
+                partition[0] = lightPieces;
+                partition[1] = darkPieces;
+                resetGame(game, lightPieces, darkPieces);
+                addPartitions(partitions, partition, game, 0, 0);
             }
-            if (newLightScore < 0 || newDarkScore < 0)
+        }
+        return partitions;
+    }
+
+    private void addPartitions(
+            @Nonnull List<int[]> partitions,
+            @Nonnull int[] partition,
+            @Nonnull FastSimpleGame game,
+            int boardIndex,
+            int depth
+    ) {
+        if (depth >= PARTITION_TILES || boardIndex >= area) {
+            partitions.add(Arrays.copyOf(partition, partition.length));
+            return;
+        }
+
+        int occupants = tileFlags[boardIndex] & OCCUPANTS_MASK;
+        int originalLightScore = game.light.score;
+        int originalDarkScore = game.dark.score;
+        for (int occupant = 0; occupant < occupants; ++occupant) {
+            if (!placeOccupant(game, boardIndex, occupant, originalLightScore, originalDarkScore))
                 continue;
 
-            game.board.set(boardIndex, newPiece);
-            game.light.score = newLightScore;
-            game.dark.score = newDarkScore;
+            partition[2 + depth] = occupant;
+            addPartitions(partitions, partition, game, nextBoardIndices[boardIndex], depth + 1);
+        }
+        game.light.score = originalLightScore;
+        game.dark.score = originalDarkScore;
+    }
 
-            if (nextBoardIndex >= area) {
-                game.isFinished = (newLightScore == pieceCount || newDarkScore == pieceCount);
+    private void loopPartition(
+            @Nonnull Consumer<FastSimpleGame> gameConsumer,
+            @Nonnull FastSimpleGame game,
+            @Nonnull int[] partition
+    ) {
+        resetGame(game, partition[0], partition[1]);
 
-                for (int isLightTurn = 0; isLightTurn <= 1; ++isLightTurn) {
-                    // When the game is finished, the winner must have all pieces scored!
-                    if (isLightTurn == 0 && newLightScore == pieceCount)
-                        continue;
-                    if (isLightTurn == 1 && newDarkScore == pieceCount)
-                        continue;
+        int boardIndex = 0;
+        for (int depth = 0; depth < PARTITION_TILES; ++depth) {
+            if (boardIndex >= area)
+                break;
+
+            int occupant = partition[2 + depth];
+            placeOccupant(game, boardIndex, occupant, game.light.score, game.dark.score);
+            boardIndex = nextBoardIndices[boardIndex];
+        }
 
-                    game.isLightTurn = (isLightTurn == 1);
-                    gameConsumer.accept(game);
+        if (boardIndex >= area) {
+            loopTurns(gameConsumer, game);
+        } else {
+            loopBoardStates(gameConsumer, game, boardIndex);
+        }
+    }
+
+    /**
+     * Loops through all game states using the threads of {@code pool}. The
+     * states are visited in no particular order, and {@code gameConsumer}
+     * may be called concurrently from several threads. Each thread is given
+     * its own game, which is only valid until the consumer returns.
+     */
+    public void loopGameStatesInParallel(
+            @Nonnull ForkJoinPool pool,
+            @Nonnull Consumer<FastSimpleGame> gameConsumer
+    ) {
+        List<int[]> partitions = createPartitions();
+        pool.invoke(new PartitionTask(gameConsumer, partitions, 0, partitions.size()));
+    }
+
+    /**
+     * Recursively splits a range of partitions until
+     * each task loops through a single partition.
+     */
+    private class PartitionTask extends RecursiveAction {
+
+        private final @Nonnull Consumer<FastSimpleGame> gameConsumer;
+        private final @Nonnull List<int[]> partitions;
+        private final int start;
+        private final int end;
+
+        private PartitionTask(
+                @Nonnull Consumer<FastSimpleGame> gameConsumer,
+                @Nonnull List<int[]> partitions,
+                int start,
+                int end
+        ) {
+            this.gameConsumer = gameConsumer;
+            this.partitions = partitions;
+            this.start = start;
+            this.end = end;
+        }
+
+        @Override
+        protected void compute() {
+            if (end - start <= 1) {
+                FastSimpleGame game = new FastSimpleGame(settings);
+                for (int index = start; index < end; ++index) {
+                    loopPartition(gameConsumer, game, partitions.get(index));
                 }
-            } else {
-                loopBoardStates(gameConsumer, game, nextBoardIndex);
+                return;
             }
+
+            int middle = start + (end - start) / 2;
+            invokeAll(
+                    new PartitionTask(gameConsumer, partitions, start, middle),
+                    new PartitionTask(gameConsumer, partitions, middle, end)
+            );
         }
     }
 
@@ -196,210 +417,980 @@ public class StateLUT {
         FinkelGameEncoding encoding = new FinkelGameEncoding();
 
         File outputFile = new File("./finkel.rgu");
-        BigEntryStore states = lut.readOrPopulateStateStore(encoding, outputFile);
+        BigEntryStore states = lut.readOrPopulateStateStore(encoding, outputFile, SOLVER_STORAGE);
 
         FastSimpleGame game = new FastSimpleGame(settings);
         game.copyFrom(new Game<>(new SimpleRuleSetProvider().create(settings, new GameMetadata())));
-        System.out.println(Float.intBitsToFloat(states.getInt(encoding.encode(game))));
+        System.out.println(lookupValue(encoding, states, game));
 //        lut.iterate(settings, encoding, states, outputFile);
     }
 
-    private void writeStateStore(
+    /**
+     * Writes to a temporary file next to {@code file}, and then moves
+     * it over {@code file}, so that a crash part-way through a write
+     * never leaves a corrupt file behind.
+     */
+    private void writeAtomically(@Nonnull File file, @Nonnull ChannelWriter writer) throws IOException {
+        File directory = file.getAbsoluteFile().getParentFile();
+        File tempFile = File.createTempFile(file.getName(), ".tmp", directory);
+        try {
+            try (FileOutputStream fos = new FileOutputStream(tempFile)) {
+                writer.write(fos.getChannel());
+                fos.getChannel().force(true);
+            }
+            Files.move(
+                    tempFile.toPath(), file.toPath(),
+                    StandardCopyOption.ATOMIC_MOVE,
+                    StandardCopyOption.REPLACE_EXISTING
+            );
+        } finally {
+            Files.deleteIfExists(tempFile.toPath());
+        }
+    }
+
+    @FunctionalInterface
+    private interface ChannelWriter {
+        void write(@Nonnull FileChannel channel) throws IOException;
+    }
+
+    /**
+     * Writes {@code states} to {@code outputFile}, preceded by a
+     * {@link LUTHeader} that identifies the rules and encoding that
+     * the states were solved for.
+     */
+    public void writeStateStore(
             @Nonnull BigEntryStore states,
+            @Nonnull GameEncoding encoding,
             @Nonnull File outputFile
     ) throws IOException {
+        LUTHeader header = LUTHeader.create(states, settings, encoding);
+        writeAtomically(outputFile, (channel) -> {
+            header.write(channel);
+            states.write(channel);
+        });
+    }
+
+    private void writeStateStore(
+            @Nonnull BigEntryStore states,
+            @Nonnull GameEncoding encoding,
+            @Nonnull File outputFile,
+            @Nonnull SolverListener listener
+    ) throws IOException {
 
         long start = System.nanoTime();
-        try (FileOutputStream fos = new FileOutputStream(outputFile)) {
-            states.write(fos.getChannel());
-        }
+        writeStateStore(states, encoding, outputFile);
         double durationMs = (System.nanoTime() - start) / 1e6;
-        System.out.println("Write took " + MS_DURATION.format(durationMs) + " ms");
+        listener.onWrite(outputFile, durationMs);
+    }
+
+    private void writeCheckpoint(
+            @Nonnull SolverCheckpoint checkpoint,
+            @Nonnull File outputFile,
+            @Nonnull SolverListener listener
+    ) throws IOException {
+
+        File checkpointFile = SolverCheckpoint.getCheckpointFile(outputFile);
+        long start = System.nanoTime();
+        writeAtomically(checkpointFile, checkpoint::write);
+        double durationMs = (System.nanoTime() - start) / 1e6;
+        listener.onWrite(checkpointFile, durationMs);
+    }
+
+    private static void checkStateStoreTypes(@Nonnull EntryLookup states) throws IOException {
+        if (states.getKeyType() != ValueType.INT && states.getKeyType() != ValueType.LONG)
+            throw new IOException("Expected int or long keys");
+        if (states.getValueType() == ValueType.LONG)
+            throw new IOException("Expected int, short or byte values");
+    }
+
+    /**
+     * Copies {@code states} into a new store whose values are encoded
+     * using {@code codec}. Quantised stores can be used to look up the
+     * values of states, but they cannot be solved further.
+     */
+    public @Nonnull BigEntryStore quantiseStateStore(
+            @Nonnull BigEntryStore states,
+            @Nonnull ValueCodec codec
+    ) {
+        ValueCodec sourceCodec = ValueCodec.forValueType(states.getValueType());
+        return states.copyWithValues(
+                codec.getValueType(),
+                (value) -> codec.encode(sourceCodec.decode(value))
+        );
     }
 
     public @Nonnull BigEntryStore readStateStore(@Nonnull File file) throws IOException {
+        return readStateStore(file, BufferStorage.HEAP);
+    }
+
+    public @Nonnull BigEntryStore readStateStore(
+            @Nonnull File file,
+            @Nonnull BufferStorage storage
+    ) throws IOException {
+        return readStateStore(file, null, storage, Verification.HEADER);
+    }
+
+    /**
+     * Reads the state store in {@code file}, storing its entries using
+     * {@code storage}. Stores that are read off of the heap should be
+     * closed when they are no longer needed, to free their memory.
+     * The {@link LUTHeader} of the file is checked using {@code verification}.
+     * Files that were written before headers were added are read unchecked.
+     * @param encoding The encoding that the states are expected to use,
+     *                 or null to accept any encoding.
+     */
+    public @Nonnull BigEntryStore readStateStore(
+            @Nonnull File file,
+            @Nullable GameEncoding encoding,
+            @Nonnull BufferStorage storage,
+            @Nonnull Verification verification
+    ) throws IOException {
         try (FileInputStream fis = new FileInputStream(file)) {
-            BigEntryStore states = BigEntryStore.read(fis.getChannel());
+            FileChannel channel = fis.getChannel();
+            LUTHeader header = readHeader(channel, encoding, verification);
+            if (header != null) {
+                channel.position(header.getStoreOffset());
+            }
+
+            BigEntryStore states = BigEntryStore.read(channel, storage);
+            try {
+                checkStateStore(states, header);
+            } catch (IOException e) {
+                states.close();
+                throw e;
+            }
+            return states;
+        }
+    }
+
+    public @Nonnull MappedBigEntryStore mapStateStore(@Nonnull File file) throws IOException {
+        return mapStateStore(file, null, Verification.HEADER);
+    }
 
-            if (states.getKeyType() != ValueType.INT)
-                throw new IOException("Expected int keys");
-            if (states.getValueType() != ValueType.INT)
-                throw new IOException("Expected int values");
+    /**
+     * Maps the state store in {@code file} into memory. This is much
+     * faster than {@link #readStateStore(File)}, and keeps the states
+     * off of the heap, but the returned store cannot be updated.
+     * The {@link LUTHeader} of the file is checked using {@code verification}.
+     * @param encoding The encoding that the states are expected to use,
+     *                 or null to accept any encoding.
+     */
+    public @Nonnull MappedBigEntryStore mapStateStore(
+            @Nonnull File file,
+            @Nullable GameEncoding encoding,
+            @Nonnull Verification verification
+    ) throws IOException {
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            LUTHeader header = readHeader(channel, encoding, verification);
+            long offset = (header != null ? header.getStoreOffset() : 0);
+            MappedBigEntryStore states = MappedBigEntryStore.map(channel, offset);
 
+            checkStateStore(states, header);
             return states;
         }
     }
 
+    /**
+     * Reads and verifies the header of the file in {@code channel},
+     * or returns null if the file was written without a header.
+     */
+    private @Nullable LUTHeader readHeader(
+            @Nonnull FileChannel channel,
+            @Nullable GameEncoding encoding,
+            @Nonnull Verification verification
+    ) throws IOException {
+        if (!LUTHeader.hasHeader(channel))
+            return null;
+
+        LUTHeader header = LUTHeader.read(channel);
+        header.verify(channel, settings, encoding, verification);
+        return header;
+    }
+
+    private static void checkStateStore(
+            @Nonnull EntryLookup states,
+            @Nullable LUTHeader header
+    ) throws IOException {
+        checkStateStoreTypes(states);
+        if (header != null && states.getEntryCount() != header.getEntryCount()) {
+            throw new IOException(
+                    "Expected " + header.getEntryCount() + " states, "
+                            + "but the store contains " + states.getEntryCount()
+            );
+        }
+    }
+
+    /**
+     * Copies {@code legacyFile}, a state store that was written before
+     * headers were added, to {@code outputFile} with a {@link LUTHeader},
+     * so that it can be served by a {@link LUTRegistry}. The states must
+     * have been solved for the settings of this LUT using {@code encoding},
+     * as that cannot be checked from the legacy file.
+     * @throws IOException If the legacy file already has a header, or
+     *                     if its store is truncated or corrupt.
+     */
+    public void addHeader(
+            @Nonnull File legacyFile,
+            @Nonnull GameEncoding encoding,
+            @Nonnull File outputFile
+    ) throws IOException {
+        try (FileChannel input = FileChannel.open(legacyFile.toPath(), StandardOpenOption.READ)) {
+            LUTHeader header = LUTHeader.createForLegacyFile(input, settings, encoding);
+            writeAtomically(outputFile, (output) -> {
+                header.write(output);
+                long size = input.size();
+                long position = 0;
+                while (position < size) {
+                    position += input.transferTo(position, size - position, output);
+                }
+            });
+        }
+    }
+
+    /**
+     * Writes the states to {@code file} as a {@link CompressedEntryStore}.
+     */
+    public void writeCompressedStateStore(
+            @Nonnull BigEntryStore states,
+            @Nonnull File file
+    ) throws IOException {
+        writeAtomically(file, (channel) -> CompressedEntryStore.write(
+                states, channel, CompressedEntryStore.DEFAULT_ENTRIES_PER_BLOCK
+        ));
+    }
+
+    /**
+     * Opens a state store that was written by
+     * {@link #writeCompressedStateStore(BigEntryStore, File)}.
+     * Only the index of its blocks is read until states are looked up.
+     */
+    public @Nonnull CompressedEntryStore openCompressedStateStore(@Nonnull File file) throws IOException {
+        CompressedEntryStore states = CompressedEntryStore.open(file.toPath());
+        try {
+            checkStateStoreTypes(states);
+        } catch (IOException e) {
+            states.close();
+            throw e;
+        }
+        return states;
+    }
+
+    /**
+     * Copies the values of all states in {@code states} into a table
+     * that is directly indexed by the rank of each state.
+     */
+    public @Nonnull DenseStateTable createDenseStateTable(
+            @Nonnull StateRanking ranking,
+            @Nonnull GameEncoding encoding,
+            @Nonnull EntryLookup states
+    ) {
+        ValueCodec codec = ValueCodec.forValueType(states.getValueType());
+        DenseStateTable table = new DenseStateTable(codec.getValueType(), ranking.getStateCount());
+        loopGameStates((game) -> {
+            float value = lookupValue(encoding, states, game);
+            table.setValue(ranking.rank(game), codec.encode(value));
+        });
+        return table;
+    }
+
+    public void writeDenseStateTable(
+            @Nonnull DenseStateTable table,
+            @Nonnull File outputFile
+    ) throws IOException {
+        try (FileOutputStream fos = new FileOutputStream(outputFile)) {
+            table.write(fos.getChannel());
+        }
+    }
+
+    public @Nonnull DenseStateTable readDenseStateTable(@Nonnull File file) throws IOException {
+        try (FileInputStream fis = new FileInputStream(file)) {
+            DenseStateTable table = DenseStateTable.read(fis.getChannel());
+
+            long expectedStateCount = new StateRanking(settings).getStateCount();
+            if (table.getEntryCountLong() != expectedStateCount) {
+                throw new IOException(
+                        "Expected " + expectedStateCount + " states, "
+                                + "but the table contains " + table.getEntryCountLong()
+                );
+            }
+            return table;
+        }
+    }
+
     public @Nonnull BigEntryStore readOrPopulateStateStore(
-            @Nonnull FinkelGameEncoding encoding,
+            @Nonnull GameEncoding encoding,
             @Nonnull File file
     ) throws IOException {
+        return readOrPopulateStateStore(encoding, file, BufferStorage.HEAP);
+    }
+
+    /**
+     * Reads the state store in {@code file}, or populates a new store
+     * of every state and writes it to {@code file} if it does not exist.
+     * The entries are stored using {@code storage}, and stores that are
+     * off of the heap should be closed when they are no longer needed.
+     */
+    public @Nonnull BigEntryStore readOrPopulateStateStore(
+            @Nonnull GameEncoding encoding,
+            @Nonnull File file,
+            @Nonnull BufferStorage storage
+    ) throws IOException {
 
-        if (file.exists())
-            return readStateStore(file);
+        if (file.exists()) {
+            BigEntryStore states = readStateStore(file, encoding, storage, Verification.HEADER);
+            if (states.getKeyType() != encoding.getKeyType())
+                throw new IOException("The keys of the state store do not match the encoding");
+
+            states.buildKeyIndex(KeyIndex.Type.PIECEWISE_LINEAR);
+            return states;
+        }
 
         System.out.println("Populating map...");
 
-        // Populate the map.
-        BigEntryStore states = new BigEntryStore(ValueType.INT, ValueType.INT);
+        // Populate the map. The builder sorts states in runs of bounded
+        // size, so it does not need to know how many states there are.
+        BigEntryStore.Builder builder = new BigEntryStore.Builder(
+                encoding.getKeyType(),
+                ValueCodec.FLOAT32.getValueType(),
+                BigEntryStore.DEFAULT_ENTRIES_PER_CHUNK,
+                0,
+                storage
+        );
 
         long start1 = System.nanoTime();
         loopGameStates((game) -> {
-            int key = encoding.encode(game);
+            // Mirrored states share the entry of their mirror.
+            if (encoding.isMirrored(game))
+                return;
+
+            long key = encoding.encodeGameLong(game);
             float score = (game.isFinished ? 100 * (game.isLightTurn ? 1 : -1) : 0);
-            states.addEntry(key, Float.floatToRawIntBits(score));
+            builder.add(key, ValueCodec.FLOAT32.encode(score));
         });
         double duration1Ms = (System.nanoTime() - start1) / 1e6;
         System.out.println("Population took " + MS_DURATION.format(duration1Ms) + " ms");
 
         long start2 = System.nanoTime();
-        double overlapsPerChunkBeforeSort = states.getOverlapsPerChunk();
-        states.sort();
-        double overlapsPerChunkAfterSort = states.getOverlapsPerChunk();
+        BigEntryStore states = builder.build();
         double duration2Ms = (System.nanoTime() - start2) / 1e6;
         System.out.println("Sort took " + MS_DURATION.format(duration2Ms) + " ms");
 
-        writeStateStore(states, file);
+        writeStateStore(states, encoding, file, SolverListener.printing());
+        states.buildKeyIndex(KeyIndex.Type.PIECEWISE_LINEAR);
         return states;
     }
 
+    /**
+     * Looks up the value of the state of {@code game}, negating the
+     * stored value if the game is stored as its colour-mirror. The
+     * values are decoded using the {@link ValueCodec} for the type of
+     * the values in {@code states}.
+     * @throws IllegalStateException If the state is not in {@code states}.
+     */
+    public static float lookupValue(
+            @Nonnull GameEncoding encoding,
+            @Nonnull EntryLookup states,
+            @Nonnull FastSimpleGame game
+    ) {
+        long key = encoding.encodeGameLong(game);
+        long valueBits = states.getLongOrDefault(key, MISSING_VALUE_BITS);
+        if (valueBits == MISSING_VALUE_BITS)
+            throw new IllegalStateException("State does not exist in map: " + Long.toBinaryString(key));
+
+        float value = ValueCodec.forValueType(states.getValueType()).decode(valueBits);
+        return encoding.isMirrored(game) ? -value : value;
+    }
+
+    /**
+     * Adds the key of {@code game} to the batch of {@code scratch},
+     * and records whether the game is stored as its colour-mirror.
+     */
+    private static void addToBatch(
+            @Nonnull GameEncoding encoding,
+            @Nonnull FastSimpleGame game,
+            @Nonnull IterationScratch scratch
+    ) {
+        addToBatch(encoding.encodeGameLong(game), encoding.isMirrored(game), scratch);
+    }
+
+    private static void addToBatch(long key, boolean mirrored, @Nonnull IterationScratch scratch) {
+        int index = scratch.batch.add(key);
+        if (index >= scratch.mirrored.length) {
+            scratch.mirrored = Arrays.copyOf(scratch.mirrored, 2 * scratch.mirrored.length);
+        }
+        scratch.mirrored[index] = mirrored;
+    }
+
+    private static float getBatchValue(@Nonnull IterationScratch scratch, int index) {
+        long valueBits = scratch.batch.getValue(index);
+        if (valueBits == MISSING_VALUE_BITS) {
+            long key = scratch.batch.getKey(index);
+            throw new IllegalStateException("State does not exist in map: " + Long.toBinaryString(key));
+        }
+
+        float value = ValueCodec.FLOAT32.decode(valueBits);
+        return scratch.mirrored[index] ? -value : value;
+    }
+
     private float iterateState(
             @Nonnull FastSimpleGame game,
-            @Nonnull FinkelGameEncoding encoding,
+            @Nonnull GameEncoding encoding,
             @Nonnull BigEntryStore states,
             float[] probabilities,
-            @Nonnull FastSimpleGame rollGame,
-            @Nonnull FastSimpleGame moveGame,
-            @Nonnull FastSimpleMoveList moveList
+            @Nonnull IterationScratch scratch
     ) {
-        int key = encoding.encode(game);
+        long key = encoding.encodeGameLong(game);
+        boolean encodeMoves = encoding.supportsMoveEncoding();
+        FastSimpleMoveList moveList = scratch.moveList;
+
+        // Collect the keys of the states after every roll and move,
+        // so that they can all be looked up together. Each roll and
+        // move is undone after its key is added, so that game is left
+        // unchanged without copying it. Encodings that support it
+        // calculate the keys after moves from the key of the state,
+        // which is unchanged by rolls that leave moves to be made.
+        scratch.batch.clear();
+        for (int roll = 0; roll < probabilities.length; ++roll) {
+            int rollUndo = game.applyRoll(roll, moveList);
+            scratch.rollStarts[roll] = scratch.batch.size();
+            scratch.rollWaitingForMove[roll] = game.isWaitingForMove();
+            scratch.rollLightTurn[roll] = game.isLightTurn;
+
+            if (game.isWaitingForMove()) {
+                for (int moveIndex = 0; moveIndex < moveList.moveCount; ++moveIndex) {
+                    int move = moveList.moves[moveIndex];
+                    if (encodeMoves) {
+                        addToBatch(encoding.encodeMoveLong(key, game, move), false, scratch);
+                        continue;
+                    }
+                    int moveUndo = game.applyMove(move);
+                    addToBatch(encoding, game, scratch);
+                    game.undoMove(moveUndo);
+                }
+            } else {
+                addToBatch(encoding, game, scratch);
+            }
+            game.undoRoll(rollUndo);
+        }
+        scratch.rollStarts[probabilities.length] = scratch.batch.size();
+        states.lookupBatch(scratch.batch, MISSING_VALUE_BITS);
 
         float newValue = 0.0f;
-        for (int roll = 0; roll <= 4; ++roll) {
+        for (int roll = 0; roll < probabilities.length; ++roll) {
             float prob = probabilities[roll];
-
-            rollGame.copyFrom(game);
-            rollGame.applyRoll(roll, moveList);
+            int start = scratch.rollStarts[roll];
+            int end = scratch.rollStarts[roll + 1];
 
             float bestValue;
-            if (rollGame.isWaitingForMove()) {
-                bestValue = (rollGame.isLightTurn ? Float.NEGATIVE_INFINITY : Float.POSITIVE_INFINITY);
-
-                for (int moveIndex = 0; moveIndex < moveList.moveCount; ++moveIndex) {
-                    moveGame.copyFrom(rollGame);
-                    moveGame.applyMove(moveList.moves[moveIndex]);
-                    int moveKey = encoding.encode(moveGame);
-                    Integer moveValueBits = states.getInt(moveKey);
-                    if (moveValueBits == null)
-                        throw new NullPointerException(Integer.toBinaryString(moveKey));
-
-                    float moveValue = Float.intBitsToFloat(moveValueBits);
+            if (scratch.rollWaitingForMove[roll]) {
+                boolean lightTurn = scratch.rollLightTurn[roll];
+                bestValue = (lightTurn ? Float.NEGATIVE_INFINITY : Float.POSITIVE_INFINITY);
 
-                    if (rollGame.isLightTurn) {
+                for (int index = start; index < end; ++index) {
+                    float moveValue = getBatchValue(scratch, index);
+                    if (lightTurn) {
                         bestValue = Math.max(bestValue, moveValue);
                     } else {
                         bestValue = Math.min(bestValue, moveValue);
                     }
                 }
             } else {
-                int rollKey = encoding.encode(rollGame);
-                Integer rollValueBits = states.getInt(rollKey);
-                if (rollValueBits == null)
-                    throw new NullPointerException(Integer.toBinaryString(rollKey));
-
-                bestValue = Float.intBitsToFloat(rollValueBits);
+                bestValue = getBatchValue(scratch, start);
             }
             newValue += prob * bestValue;
         }
 
-        int lastValueBits = states.updateEntry(key, Float.floatToRawIntBits(newValue));
-        float lastValue = Float.intBitsToFloat(lastValueBits);
+        long lastValueBits = states.updateEntry(key, ValueCodec.FLOAT32.encode(newValue));
+        float lastValue = ValueCodec.FLOAT32.decode(lastValueBits);
         return Math.abs(lastValue - newValue);
     }
 
+    /**
+     * Scratch objects used to iterate states, so that
+     * each iteration does not need to allocate memory.
+     */
+    private static class IterationScratch {
+        private final @Nonnull FastSimpleMoveList moveList;
+        private final @Nonnull SweepStats.Accumulator stats;
+        private final @Nonnull KeyBatch batch;
+        private boolean[] mirrored;
+        private final int[] rollStarts;
+        private final boolean[] rollWaitingForMove;
+        private final boolean[] rollLightTurn;
+
+        private IterationScratch(@Nonnull GameSettings<?> settings) {
+            int rollCount = settings.getDice().createDice().getRollProbabilities().length;
+            this.moveList = new FastSimpleMoveList();
+            this.stats = new SweepStats.Accumulator();
+            this.batch = new KeyBatch();
+            this.mirrored = new boolean[64];
+            this.rollStarts = new int[rollCount + 1];
+            this.rollWaitingForMove = new boolean[rollCount];
+            this.rollLightTurn = new boolean[rollCount];
+        }
+    }
+
+    /**
+     * Performs sweeps of value iteration over unfinished states.
+     */
+    private interface Sweep {
+        /**
+         * Returns the mode that is recorded in checkpoints, so that
+         * a resumed solve uses the same sweep.
+         */
+        @Nonnull SweepMode getMode();
+
+        /**
+         * Iterates all unfinished states whose lowest and highest
+         * scores match {@code minScore} and {@code maxScore}.
+         */
+        void sweepLayer(int minScore, int maxScore, @Nonnull SweepStats.Accumulator stats);
+
+        /**
+         * Iterates all unfinished states.
+         */
+        void sweepAll(@Nonnull SweepStats.Accumulator stats);
+    }
+
+    private static boolean isInScoreLayer(@Nonnull FastSimpleGame game, int minScore, int maxScore) {
+        if (Math.min(game.light.score, game.dark.score) != minScore)
+            return false;
+        return Math.max(game.light.score, game.dark.score) == maxScore;
+    }
+
+    /**
+     * Sweeps over states in the order that they are looped through
+     * by {@link #loopGameStates(Consumer)}.
+     */
+    private class SerialSweep implements Sweep {
+
+        private final @Nonnull GameEncoding encoding;
+        private final @Nonnull BigEntryStore states;
+        private final @Nonnull float[] probabilities;
+        private final @Nonnull IterationScratch scratch;
+
+        private SerialSweep(
+                @Nonnull GameEncoding encoding,
+                @Nonnull BigEntryStore states
+        ) {
+            this.encoding = encoding;
+            this.states = states;
+            this.probabilities = settings.getDice().createDice().getRollProbabilities();
+            this.scratch = new IterationScratch(settings);
+        }
+
+        private void run(@Nonnull Predicate<FastSimpleGame> filter, @Nonnull SweepStats.Accumulator stats) {
+            loopGameStates((game) -> {
+                if (game.isFinished || encoding.isMirrored(game) || !filter.test(game))
+                    return;
+
+                stats.add(iterateState(
+                        game, encoding, states, probabilities, scratch
+                ));
+            });
+        }
+
+        @Override
+        public void sweepLayer(int minScore, int maxScore, @Nonnull SweepStats.Accumulator stats) {
+            run((game) -> isInScoreLayer(game, minScore, maxScore), stats);
+        }
+
+        @Override
+        public void sweepAll(@Nonnull SweepStats.Accumulator stats) {
+            run((game) -> true, stats);
+        }
+
+        @Override
+        public @Nonnull SweepMode getMode() {
+            return SweepMode.SERIAL;
+        }
+    }
+
+    /**
+     * Sweeps over states using the threads of a pool. Each worker
+     * accumulates its own stats, which are merged after each sweep.
+     */
+    private class ParallelSweep implements Sweep {
+
+        private final @Nonnull GameEncoding encoding;
+        private final @Nonnull BigEntryStore states;
+        private final @Nonnull ForkJoinPool pool;
+        private final @Nonnull float[] probabilities;
+        private final @Nonnull Queue<IterationScratch> allScratches;
+        private final @Nonnull ThreadLocal<IterationScratch> scratches;
+
+        private ParallelSweep(
+                @Nonnull GameEncoding encoding,
+                @Nonnull BigEntryStore states,
+                @Nonnull ForkJoinPool pool
+        ) {
+            this.encoding = encoding;
+            this.states = states;
+            this.pool = pool;
+            this.probabilities = settings.getDice().createDice().getRollProbabilities();
+            this.allScratches = new ConcurrentLinkedQueue<>();
+            this.scratches = ThreadLocal.withInitial(() -> {
+                IterationScratch scratch = new IterationScratch(settings);
+                allScratches.add(scratch);
+                return scratch;
+            });
+        }
+
+        private void run(@Nonnull Predicate<FastSimpleGame> filter, @Nonnull SweepStats.Accumulator stats) {
+            for (IterationScratch scratch : allScratches) {
+                scratch.stats.reset();
+            }
+            loopGameStatesInParallel(pool, (game) -> {
+                if (game.isFinished || encoding.isMirrored(game) || !filter.test(game))
+                    return;
+
+                IterationScratch scratch = scratches.get();
+                scratch.stats.add(iterateState(
+                        game, encoding, states, probabilities, scratch
+                ));
+            });
+            for (IterationScratch scratch : allScratches) {
+                stats.addAll(scratch.stats);
+            }
+        }
+
+        @Override
+        public void sweepLayer(int minScore, int maxScore, @Nonnull SweepStats.Accumulator stats) {
+            run((game) -> isInScoreLayer(game, minScore, maxScore), stats);
+        }
+
+        @Override
+        public void sweepAll(@Nonnull SweepStats.Accumulator stats) {
+            run((game) -> true, stats);
+        }
+
+        @Override
+        public @Nonnull SweepMode getMode() {
+            return SweepMode.PARALLEL;
+        }
+    }
+
+    /**
+     * Sweeps over the states of each score layer in descending order of
+     * how far their pieces have advanced. Most moves advance a piece, so
+     * most states are iterated after the states that they lead to, and
+     * read values that have already been updated during the same sweep.
+     * The orders of all layers are created together in one pass over the
+     * states when they are first needed, and are stored as one array of
+     * keys that is reused by every later sweep.
+     */
+    private class OrderedSweep implements Sweep {
+
+        private final @Nonnull GameEncoding encoding;
+        private final @Nonnull BigEntryStore states;
+        private final @Nonnull float[] probabilities;
+        private final @Nonnull IterationScratch scratch;
+        private final @Nonnull FastSimpleGame game;
+
+        /**
+         * The keys of every unfinished state, grouped by score layer, and
+         * the index in {@link #order} where the keys of each layer start.
+         */
+        private @Nullable long[] order = null;
+        private @Nullable int[] layerStarts = null;
+
+        private OrderedSweep(
+                @Nonnull GameEncoding encoding,
+                @Nonnull BigEntryStore states
+        ) {
+            this.encoding = encoding;
+            this.states = states;
+            this.probabilities = settings.getDice().createDice().getRollProbabilities();
+            this.scratch = new IterationScratch(settings);
+            this.game = new FastSimpleGame(settings);
+        }
+
+        private int calculateAdvancement(@Nonnull FastSimpleGame game) {
+            int advancement = 0;
+            for (int piece : game.board.pieces) {
+                advancement += Math.abs(piece);
+            }
+            return advancement;
+        }
+
+        private int getLayerIndex(int minScore, int maxScore) {
+            return minScore * settings.getStartingPieceCount() + maxScore;
+        }
+
+        /**
+         * Creates the order of the states of every score layer, using a
+         * counting sort of their keys by layer and descending advancement.
+         */
+        private void createOrder() {
+            int pieceCount = settings.getStartingPieceCount();
+            int pathLength = Math.max(paths.getLight().size(), paths.getDark().size());
+            int maxAdvancement = 2 * pieceCount * pathLength;
+            int bucketsPerLayer = maxAdvancement + 1;
+            int layerCount = pieceCount * pieceCount;
+
+            ToIntFunction<FastSimpleGame> getBucket = (game) -> {
+                int minScore = Math.min(game.light.score, game.dark.score);
+                int maxScore = Math.max(game.light.score, game.dark.score);
+                int layerIndex = getLayerIndex(minScore, maxScore);
+                return layerIndex * bucketsPerLayer + maxAdvancement - calculateAdvancement(game);
+            };
+
+            int[] offsets = new int[layerCount * bucketsPerLayer + 1];
+            loopGameStates((game) -> {
+                if (!game.isFinished && !encoding.isMirrored(game)) {
+                    offsets[getBucket.applyAsInt(game) + 1] += 1;
+                }
+            });
+            for (int index = 1; index < offsets.length; ++index) {
+                offsets[index] += offsets[index - 1];
+            }
+
+            int[] layerStarts = new int[layerCount + 1];
+            for (int layerIndex = 0; layerIndex <= layerCount; ++layerIndex) {
+                layerStarts[layerIndex] = offsets[layerIndex * bucketsPerLayer];
+            }
+
+            long[] order = new long[offsets[offsets.length - 1]];
+            loopGameStates((game) -> {
+                if (!game.isFinished && !encoding.isMirrored(game)) {
+                    order[offsets[getBucket.applyAsInt(game)]++] = encoding.encodeGameLong(game);
+                }
+            });
+            this.order = order;
+            this.layerStarts = layerStarts;
+        }
+
+        @Override
+        public void sweepLayer(int minScore, int maxScore, @Nonnull SweepStats.Accumulator stats) {
+            if (order == null) {
+                createOrder();
+            }
+
+            long[] order = this.order;
+            int layerIndex = getLayerIndex(minScore, maxScore);
+            int end = layerStarts[layerIndex + 1];
+            for (int index = layerStarts[layerIndex]; index < end; ++index) {
+                encoding.decodeGame(order[index], game);
+                stats.add(iterateState(
+                        game, encoding, states, probabilities, scratch
+                ));
+            }
+        }
+
+        @Override
+        public void sweepAll(@Nonnull SweepStats.Accumulator stats) {
+            int maxUnfinishedScore = settings.getStartingPieceCount() - 1;
+            for (int minScore = maxUnfinishedScore; minScore >= 0; --minScore) {
+                for (int maxScore = maxUnfinishedScore; maxScore >= minScore; --maxScore) {
+                    sweepLayer(minScore, maxScore, stats);
+                }
+            }
+        }
+
+        @Override
+        public @Nonnull SweepMode getMode() {
+            return SweepMode.ORDERED;
+        }
+    }
+
     public void iterate(
             @Nonnull GameSettings<?> settings,
-            @Nonnull FinkelGameEncoding encoding,
+            @Nonnull GameEncoding encoding,
             @Nonnull BigEntryStore states,
             @Nonnull File outputFile
     ) throws IOException {
+        iterate(settings, encoding, states, outputFile, SolverListener.printing());
+    }
+
+    public void iterate(
+            @Nonnull GameSettings<?> settings,
+            @Nonnull GameEncoding encoding,
+            @Nonnull BigEntryStore states,
+            @Nonnull File outputFile,
+            @Nonnull SolverListener listener
+    ) throws IOException {
+        iterate(states, encoding, outputFile, new SerialSweep(encoding, states), listener);
+    }
+
+    /**
+     * Performs the same value iteration as {@link #iterate}, but splits
+     * each sweep over the states across the threads of {@code pool}.
+     * States are updated in place as they are visited, so the exact
+     * values that are reached may differ slightly from {@link #iterate}.
+     */
+    public void iterateInParallel(
+            @Nonnull GameSettings<?> settings,
+            @Nonnull GameEncoding encoding,
+            @Nonnull BigEntryStore states,
+            @Nonnull File outputFile,
+            @Nonnull ForkJoinPool pool
+    ) throws IOException {
+        iterateInParallel(settings, encoding, states, outputFile, pool, SolverListener.printing());
+    }
+
+    public void iterateInParallel(
+            @Nonnull GameSettings<?> settings,
+            @Nonnull GameEncoding encoding,
+            @Nonnull BigEntryStore states,
+            @Nonnull File outputFile,
+            @Nonnull ForkJoinPool pool,
+            @Nonnull SolverListener listener
+    ) throws IOException {
+        iterate(states, encoding, outputFile, new ParallelSweep(encoding, states, pool), listener);
+    }
+
+    /**
+     * Performs the same value iteration as {@link #iterate}, but visits
+     * the states of each score layer with the most advanced pieces first.
+     * This lets most states read values of their successors that were
+     * already updated in the same sweep, so fewer sweeps are needed to
+     * converge. The order of the states is held in memory for the whole
+     * solve, which takes eight bytes per unfinished state. The encoding must
+     * support {@link GameEncoding#decodeGame(long, FastSimpleGame)}.
+     */
+    public void iterateOrdered(
+            @Nonnull GameSettings<?> settings,
+            @Nonnull GameEncoding encoding,
+            @Nonnull BigEntryStore states,
+            @Nonnull File outputFile,
+            @Nonnull SolverListener listener
+    ) throws IOException {
+        iterate(states, encoding, outputFile, new OrderedSweep(encoding, states), listener);
+    }
+
+    /**
+     * Resumes the value iteration that was solving states into
+     * {@code outputFile} from the last checkpoint that it wrote,
+     * using the same sweep that the solve was started with.
+     */
+    public void resume(@Nonnull File outputFile) throws IOException {
+        resume(outputFile, createEncoding(), ForkJoinPool.commonPool(), SOLVER_STORAGE, SolverListener.printing());
+    }
+
+    public void resume(
+            @Nonnull File outputFile,
+            @Nonnull GameEncoding encoding,
+            @Nonnull SolverListener listener
+    ) throws IOException {
+        resume(outputFile, encoding, ForkJoinPool.commonPool(), BufferStorage.HEAP, listener);
+    }
+
+    /**
+     * Resumes a solve as in {@link #resume(File)}. If the solve was
+     * started using {@link #iterateInParallel}, it is resumed using
+     * the threads of {@code pool}. The values of the states are read
+     * from the checkpoint into {@code storage}.
+     * @throws IOException If the checkpoint was written for different
+     *                     settings, or with a different encoding.
+     */
+    public void resume(
+            @Nonnull File outputFile,
+            @Nonnull GameEncoding encoding,
+            @Nonnull ForkJoinPool pool,
+            @Nonnull BufferStorage storage,
+            @Nonnull SolverListener listener
+    ) throws IOException {
+        File checkpointFile = SolverCheckpoint.getCheckpointFile(outputFile);
+        if (!checkpointFile.exists())
+            throw new FileNotFoundException("There is no checkpoint at " + checkpointFile);
+
+        SolverCheckpoint checkpoint = SolverCheckpoint.read(checkpointFile, storage);
+        if (checkpoint.getSettingsHash() != LUTHeader.computeSettingsHash(settings))
+            throw new IOException("The checkpoint was written for different game settings");
+        if (checkpoint.getEncodingId() != encoding.getEncodingId())
+            throw new IOException("The checkpoint was written with a different encoding");
+
+        BigEntryStore states = checkpoint.getStates();
+        checkStateStoreTypes(states);
+        if (states.getKeyType() != encoding.getKeyType())
+            throw new IOException("The keys of the checkpoint do not match the encoding");
 
-        AtomicReference<Float> maxChange = new AtomicReference<>(0f);
-        FastSimpleGame rollGame = new FastSimpleGame(settings);
-        FastSimpleGame moveGame = new FastSimpleGame(settings);
-        FastSimpleMoveList moveList = new FastSimpleMoveList();
-        float[] probabilities = settings.getDice().createDice().getRollProbabilities();
-
-        int iteration = 0;
-        for (int minScore = 6; minScore >= 0; --minScore) {
-            for (int maxScore = 6; maxScore >= minScore; --maxScore) {
-                do {
-                    long start = System.nanoTime();
-                    maxChange.set(0.0f);
-
-                    int minScoreThreshold = minScore;
-                    int maxScoreThreshold = maxScore;
-                    loopGameStates((game) -> {
-                        if (game.isFinished)
-                            return;
-                        if (Math.min(game.light.score, game.dark.score) != minScoreThreshold)
-                            return;
-                        if (Math.max(game.light.score, game.dark.score) != maxScoreThreshold)
-                            return;
-
-                        float difference = iterateState(
-                                game, encoding, states, probabilities,
-                                rollGame, moveGame, moveList
-                        );
-                        if (difference > maxChange.get()) {
-                            maxChange.set(difference);
-                        }
-                    });
-                    double durationMs = (System.nanoTime() - start) / 1e6;
-                    System.out.printf(
-                            "%d. scores = [%d, %d], max diff = %.3f (%s ms)\n",
-                            iteration + 1,
-                            minScoreThreshold, maxScoreThreshold,
-                            maxChange.get(),
-                            MS_DURATION.format(durationMs)
-                    );
-                    iteration += 1;
-
-                    if (iteration % 10 == 0) {
-                        writeStateStore(states, outputFile);
+        Sweep sweep = switch (checkpoint.getSweepMode()) {
+            case SERIAL -> new SerialSweep(encoding, states);
+            case PARALLEL -> new ParallelSweep(encoding, states, pool);
+            case ORDERED -> new OrderedSweep(encoding, states);
+        };
+        iterate(checkpoint, encoding, outputFile, sweep, listener);
+    }
+
+    private void iterate(
+            @Nonnull BigEntryStore states,
+            @Nonnull GameEncoding encoding,
+            @Nonnull File outputFile,
+            @Nonnull Sweep sweep,
+            @Nonnull SolverListener listener
+    ) throws IOException {
+
+        int maxUnfinishedScore = settings.getStartingPieceCount() - 1;
+        SolverCheckpoint start = new SolverCheckpoint(
+                states, sweep.getMode(), LUTHeader.computeSettingsHash(settings), encoding.getEncodingId(),
+                maxUnfinishedScore, maxUnfinishedScore,
+                0, 0, Float.POSITIVE_INFINITY
+        );
+        iterate(start, encoding, outputFile, sweep, listener);
+    }
+
+    private void iterate(
+            @Nonnull SolverCheckpoint checkpoint,
+            @Nonnull GameEncoding encoding,
+            @Nonnull File outputFile,
+            @Nonnull Sweep sweep,
+            @Nonnull SolverListener listener
+    ) throws IOException {
+
+        BigEntryStore states = checkpoint.getStates();
+        if (states.getValueType() != ValueCodec.FLOAT32.getValueType())
+            throw new IllegalArgumentException("Only stores of float values can be solved");
+
+        SweepStats.Accumulator stats = new SweepStats.Accumulator();
+        int maxUnfinishedScore = settings.getStartingPieceCount() - 1;
+        int minScore = checkpoint.getMinScore();
+        int maxScore = checkpoint.getMaxScore();
+        int iteration = checkpoint.getIteration();
+        float lastMaxDelta = checkpoint.getLastMaxDelta();
+
+        // Progressive value iteration over each layer of scores.
+        if (!checkpoint.areLayersFinished()) {
+            while (minScore >= 0) {
+                long start = System.nanoTime();
+                stats.reset();
+                sweep.sweepLayer(minScore, maxScore, stats);
+                long durationNanos = System.nanoTime() - start;
+                listener.onSweep(stats.build(iteration, minScore, maxScore, false, durationNanos));
+                iteration += 1;
+                lastMaxDelta = (float) stats.getMaxDelta();
+
+                if (lastMaxDelta <= CONVERGENCE_THRESHOLD) {
+                    maxScore -= 1;
+                    if (maxScore < minScore) {
+                        minScore -= 1;
+                        maxScore = maxUnfinishedScore;
                     }
-                } while (maxChange.get() > 0.01f);
+                }
+                if (iteration % 10 == 0 || minScore < 0) {
+                    writeCheckpoint(new SolverCheckpoint(
+                            states, checkpoint.getSweepMode(), checkpoint.getSettingsHash(),
+                            checkpoint.getEncodingId(), minScore, maxScore, iteration, 0, lastMaxDelta
+                    ), outputFile, listener);
+                }
             }
+            writeStateStore(states, encoding, outputFile, listener);
         }
 
-        writeStateStore(states, outputFile);
-
-        System.out.println();
-        System.out.println("Finished progressive value iteration!");
-        System.out.println("Starting full value iteration for 10 steps...");
-        for (int index = 0; index < 10; ++index) {
+        // Finish with full value iteration.
+        for (int fullSweeps = checkpoint.getFullSweeps(); fullSweeps < FULL_SWEEP_COUNT; ++fullSweeps) {
             long start = System.nanoTime();
-            maxChange.set(0.0f);
-            loopGameStates((game) -> {
-                if (game.isFinished)
-                    return;
+            stats.reset();
+            sweep.sweepAll(stats);
+            long durationNanos = System.nanoTime() - start;
+            listener.onSweep(stats.build(fullSweeps, 0, maxUnfinishedScore, true, durationNanos));
+            lastMaxDelta = (float) stats.getMaxDelta();
 
-                float difference = iterateState(
-                        game, encoding, states, probabilities,
-                        rollGame, moveGame, moveList
-                );
-                if (difference > maxChange.get()) {
-                    maxChange.set(difference);
-                }
-            });
-            double durationMs = (System.nanoTime() - start) / 1e6;
-            System.out.printf(
-                    "%d. max diff = %.3f (%s ms)\n",
-                    index + 1,
-                    maxChange.get(),
-                    MS_DURATION.format(durationMs)
-            );
+            writeCheckpoint(new SolverCheckpoint(
+                    states, checkpoint.getSweepMode(), checkpoint.getSettingsHash(),
+                    checkpoint.getEncodingId(), minScore, maxScore, iteration, fullSweeps + 1, lastMaxDelta
+            ), outputFile, listener);
         }
-        writeStateStore(states, outputFile);
+        writeStateStore(states, encoding, outputFile, listener);
     }
 }
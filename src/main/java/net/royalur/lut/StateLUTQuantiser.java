@@ -0,0 +1,145 @@
+package net.royalur.lut;
+
+import net.royalur.lut.store.BigEntryStore;
+import net.royalur.lut.store.EntryLookup;
+import net.royalur.model.GameSettings;
+import net.royalur.rules.simple.fast.FastSimpleGame;
+import net.royalur.rules.simple.fast.FastSimpleMoveList;
+
+import javax.annotation.Nonnull;
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * Converts lookup tables of float values into quantised tables,
+ * and reports how many move decisions are changed by the conversion.
+ */
+public class StateLUTQuantiser {
+
+    private final @Nonnull GameSettings<?> settings;
+    private final @Nonnull StateLUT lut;
+
+    public StateLUTQuantiser(@Nonnull GameSettings<?> settings) {
+        this.settings = settings;
+        this.lut = new StateLUT(settings);
+    }
+
+    /**
+     * The number of move decisions that differ between two tables.
+     */
+    public static class DecisionReport {
+
+        private final long decisionCount;
+        private final long changedCount;
+
+        public DecisionReport(long decisionCount, long changedCount) {
+            this.decisionCount = decisionCount;
+            this.changedCount = changedCount;
+        }
+
+        /**
+         * Returns the number of rolls in unfinished states
+         * that gave a choice of more than one move.
+         */
+        public long getDecisionCount() {
+            return decisionCount;
+        }
+
+        /**
+         * Returns the number of decisions where a different move was picked.
+         */
+        public long getChangedCount() {
+            return changedCount;
+        }
+
+        public double getChangedFraction() {
+            return decisionCount > 0 ? (double) changedCount / decisionCount : 0;
+        }
+    }
+
+    private static int findBestMove(
+            @Nonnull GameEncoding encoding,
+            @Nonnull EntryLookup states,
+            @Nonnull FastSimpleGame rollGame,
+            @Nonnull FastSimpleGame moveGame,
+            @Nonnull FastSimpleMoveList moveList
+    ) {
+        int bestMoveIndex = -1;
+        float bestValue = 0;
+        for (int moveIndex = 0; moveIndex < moveList.moveCount; ++moveIndex) {
+            moveGame.copyFrom(rollGame);
+            moveGame.applyMove(moveList.moves[moveIndex]);
+
+            float value = StateLUT.lookupValue(encoding, states, moveGame);
+            value *= (rollGame.isLightTurn ? 1 : -1);
+            if (bestMoveIndex < 0 || value > bestValue) {
+                bestMoveIndex = moveIndex;
+                bestValue = value;
+            }
+        }
+        return bestMoveIndex;
+    }
+
+    /**
+     * Compares the moves that would be picked using {@code original} and
+     * {@code quantised} for every roll in every unfinished state.
+     */
+    public @Nonnull DecisionReport compareDecisions(
+            @Nonnull GameEncoding encoding,
+            @Nonnull EntryLookup original,
+            @Nonnull EntryLookup quantised
+    ) {
+        int rollCount = settings.getDice().createDice().getRollProbabilities().length;
+        FastSimpleGame rollGame = new FastSimpleGame(settings);
+        FastSimpleGame moveGame = new FastSimpleGame(settings);
+        FastSimpleMoveList moveList = new FastSimpleMoveList();
+        long[] counts = new long[2];
+
+        lut.loopGameStates((game) -> {
+            if (game.isFinished)
+                return;
+
+            for (int roll = 0; roll < rollCount; ++roll) {
+                rollGame.copyFrom(game);
+                rollGame.applyRoll(roll, moveList);
+                if (!rollGame.isWaitingForMove() || moveList.moveCount < 2)
+                    continue;
+
+                int originalMove = findBestMove(encoding, original, rollGame, moveGame, moveList);
+                int quantisedMove = findBestMove(encoding, quantised, rollGame, moveGame, moveList);
+                counts[0] += 1;
+                if (originalMove != quantisedMove) {
+                    counts[1] += 1;
+                }
+            }
+        });
+        return new DecisionReport(counts[0], counts[1]);
+    }
+
+    /**
+     * Converts the Finkel float table in args[0] into a table quantised using
+     * the codec named in args[1], and writes the quantised table to args[2].
+     */
+    public static void main(String[] args) throws IOException {
+        if (args.length != 3) {
+            System.err.println("Usage: StateLUTQuantiser <input.rgu> <FIXED16|FIXED8> <output.rgu>");
+            System.exit(1);
+        }
+        GameSettings<?> settings = GameSettings.FINKEL;
+        StateLUTQuantiser quantiser = new StateLUTQuantiser(settings);
+        GameEncoding encoding = quantiser.lut.createEncoding();
+        ValueCodec codec = ValueCodec.valueOf(args[1]);
+
+        BigEntryStore original = quantiser.lut.readStateStore(new File(args[0]));
+        BigEntryStore quantised = quantiser.lut.quantiseStateStore(original, codec);
+        quantiser.lut.writeStateStore(quantised, encoding, new File(args[2]));
+
+        DecisionReport report = quantiser.compareDecisions(encoding, original, quantised);
+        System.out.printf(
+                "%,d of %,d move decisions changed (%.4f%%)\n",
+                report.getChangedCount(),
+                report.getDecisionCount(),
+                100 * report.getChangedFraction()
+        );
+    }
+}
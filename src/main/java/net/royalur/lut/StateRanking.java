@@ -0,0 +1,235 @@
+package net.royalur.lut;
+
+import net.royalur.lut.buffer.ValueType;
+import net.royalur.model.GameSettings;
+import net.royalur.model.Tile;
+import net.royalur.model.path.PathPair;
+import net.royalur.model.shape.BoardShape;
+import net.royalur.rules.simple.fast.FastSimpleGame;
+
+import javax.annotation.Nonnull;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A minimal perfect ranking of game states. Every state visited by
+ * {@link StateLUT#loopGameStates} is mapped to its index in that
+ * enumeration, so the ranks of all states are exactly the range
+ * [0, {@link #getStateCount()}). This allows values for every state
+ * to be stored in a flat array without storing any keys.
+ */
+public class StateRanking extends GameEncoding {
+
+    private static final int OCCUPANT_LIGHT = 1;
+    private static final int OCCUPANT_DARK = 2;
+
+    private final int pieceCount;
+
+    /**
+     * The board indices of the tiles that pieces may be placed on,
+     * in the order they are visited by {@link StateLUT#loopGameStates}.
+     */
+    private final @Nonnull int[] tileIndices;
+
+    /**
+     * The occupants that may be placed on each tile, in the order they are
+     * visited by {@link StateLUT#loopGameStates}, excluding empty tiles.
+     */
+    private final @Nonnull int[][] tileOccupants;
+
+    /**
+     * The number of states that can be reached from each position in
+     * the enumeration. See {@link #completionIndex}.
+     */
+    private final @Nonnull long[] completions;
+
+    /**
+     * The rank of the first state with each number of light and dark
+     * pieces off the board. Indexed by lightPieces * (pieceCount + 1) + darkPieces.
+     */
+    private final @Nonnull long[] pieceCountOffsets;
+    private final long stateCount;
+
+    public StateRanking(@Nonnull GameSettings<?> settings) {
+        this.pieceCount = settings.getStartingPieceCount();
+
+        BoardShape shape = settings.getBoardShape();
+        PathPair paths = settings.getPaths();
+        List<Tile> lightPath = paths.getLight();
+        List<Tile> darkPath = paths.getDark();
+        int width = shape.getWidth();
+
+        List<Integer> tileIndices = new ArrayList<>();
+        List<int[]> tileOccupants = new ArrayList<>();
+        for (int boardX = 0; boardX < width; ++boardX) {
+            for (int boardY = 0; boardY < shape.getHeight(); ++boardY) {
+                Tile tile = Tile.fromIndices(boardX, boardY);
+                boolean isLight = lightPath.contains(tile);
+                boolean isDark = darkPath.contains(tile);
+                if (!isLight && !isDark)
+                    continue;
+
+                int[] occupants;
+                if (isLight && isDark) {
+                    occupants = new int[] {OCCUPANT_DARK, OCCUPANT_LIGHT};
+                } else {
+                    occupants = new int[] {isLight ? OCCUPANT_LIGHT : OCCUPANT_DARK};
+                }
+                tileIndices.add(boardX + width * boardY);
+                tileOccupants.add(occupants);
+            }
+        }
+        this.tileIndices = tileIndices.stream().mapToInt(Integer::intValue).toArray();
+        this.tileOccupants = tileOccupants.toArray(new int[0][]);
+
+        this.completions = new long[completionIndex(this.tileIndices.length + 1, 0, 0, 0)];
+        for (int position = this.tileIndices.length; position >= 0; --position) {
+            for (int lightBudget = 0; lightBudget <= pieceCount; ++lightBudget) {
+                for (int darkBudget = 0; darkBudget <= pieceCount; ++darkBudget) {
+                    for (int flags = 0; flags < 4; ++flags) {
+                        completions[completionIndex(position, lightBudget, darkBudget, flags)]
+                                = countCompletions(position, lightBudget, darkBudget, flags);
+                    }
+                }
+            }
+        }
+
+        this.pieceCountOffsets = new long[(pieceCount + 1) * (pieceCount + 1)];
+        long offset = 0;
+        for (int lightPieces = 0; lightPieces <= pieceCount; ++lightPieces) {
+            for (int darkPieces = 0; darkPieces <= pieceCount; ++darkPieces) {
+                pieceCountOffsets[lightPieces * (pieceCount + 1) + darkPieces] = offset;
+                offset += completions[completionIndex(
+                        0, pieceCount - lightPieces, pieceCount - darkPieces,
+                        initialFlags(lightPieces, darkPieces)
+                )];
+            }
+        }
+        this.stateCount = offset;
+    }
+
+    /**
+     * The flags track whether each player has all of their pieces
+     * scored so far, as the game is finished if they do.
+     * Bit 0 is set if light has all pieces scored, and bit 1 for dark.
+     */
+    private static int initialFlags(int lightPieces, int darkPieces) {
+        return (lightPieces == 0 ? 1 : 0) | (darkPieces == 0 ? 2 : 0);
+    }
+
+    private int completionIndex(int position, int lightBudget, int darkBudget, int flags) {
+        int budgets = pieceCount + 1;
+        return ((position * budgets + lightBudget) * budgets + darkBudget) * 4 + flags;
+    }
+
+    private long countCompletions(int position, int lightBudget, int darkBudget, int flags) {
+        if (position == tileIndices.length) {
+            // The player that has won cannot be waiting for their opponent to play.
+            boolean lightWon = (flags & 1) != 0;
+            boolean darkWon = (flags & 2) != 0;
+            return (lightWon ? 0 : 1) + (darkWon ? 0 : 1);
+        }
+
+        long count = completions[completionIndex(position + 1, lightBudget, darkBudget, flags)];
+        for (int occupant : tileOccupants[position]) {
+            count += countOccupantCompletions(position, lightBudget, darkBudget, flags, occupant);
+        }
+        return count;
+    }
+
+    private long countOccupantCompletions(
+            int position, int lightBudget, int darkBudget, int flags, int occupant
+    ) {
+        if (occupant == OCCUPANT_LIGHT) {
+            if (lightBudget == 0)
+                return 0;
+
+            return completions[completionIndex(position + 1, lightBudget - 1, darkBudget, flags & ~1)];
+        } else {
+            if (darkBudget == 0)
+                return 0;
+
+            return completions[completionIndex(position + 1, lightBudget, darkBudget - 1, flags & ~2)];
+        }
+    }
+
+    /**
+     * Returns the number of distinct states that can be ranked.
+     */
+    public long getStateCount() {
+        return stateCount;
+    }
+
+    /**
+     * Calculates the rank of the state of {@code game}.
+     * @return A unique index in the range [0, {@link #getStateCount()}).
+     */
+    public long rank(@Nonnull FastSimpleGame game) {
+        int lightPieces = game.light.pieces;
+        int darkPieces = game.dark.pieces;
+        int lightBudget = pieceCount - lightPieces;
+        int darkBudget = pieceCount - darkPieces;
+        int flags = initialFlags(lightPieces, darkPieces);
+        long rank = pieceCountOffsets[lightPieces * (pieceCount + 1) + darkPieces];
+
+        int[] pieces = game.board.pieces;
+        for (int position = 0; position < tileIndices.length; ++position) {
+            int piece = pieces[tileIndices[position]];
+            if (piece == 0)
+                continue;
+
+            // Skip all states where this tile is empty.
+            rank += completions[completionIndex(position + 1, lightBudget, darkBudget, flags)];
+
+            int occupant = (piece > 0 ? OCCUPANT_LIGHT : OCCUPANT_DARK);
+            boolean validOccupant = false;
+            for (int previousOccupant : tileOccupants[position]) {
+                if (previousOccupant == occupant) {
+                    validOccupant = true;
+                    break;
+                }
+                rank += countOccupantCompletions(position, lightBudget, darkBudget, flags, previousOccupant);
+            }
+            if (!validOccupant)
+                throw new IllegalArgumentException("Illegal board state!");
+
+            if (occupant == OCCUPANT_LIGHT) {
+                lightBudget -= 1;
+                flags &= ~1;
+            } else {
+                darkBudget -= 1;
+                flags &= ~2;
+            }
+            if (lightBudget < 0 || darkBudget < 0)
+                throw new IllegalArgumentException("Illegal board state!");
+        }
+
+        if (game.isLightTurn && (flags & 1) == 0) {
+            rank += 1;
+        }
+        return rank;
+    }
+
+    @Override
+    public int getEncodingId() {
+        return 3;
+    }
+
+    @Override
+    public @Nonnull ValueType getKeyType() {
+        return stateCount > Integer.toUnsignedLong(-1) ? ValueType.LONG : ValueType.INT;
+    }
+
+    @Override
+    public int encodeGame(@Nonnull FastSimpleGame game) {
+        if (getKeyType() != ValueType.INT)
+            throw new UnsupportedOperationException("This encoding uses long keys");
+
+        return (int) rank(game);
+    }
+
+    @Override
+    public long encodeGameLong(@Nonnull FastSimpleGame game) {
+        return rank(game);
+    }
+}
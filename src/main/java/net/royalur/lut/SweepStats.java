@@ -0,0 +1,186 @@
+package net.royalur.lut;
+
+import javax.annotation.Nonnull;
+import java.util.Arrays;
+
+/**
+ * Telemetry about a single sweep of value iteration over game states.
+ */
+public class SweepStats {
+
+    /**
+     * The upper bounds of the buckets of the residual histogram. Any
+     * residuals at or above the last threshold go in a final bucket.
+     */
+    private static final @Nonnull double[] RESIDUAL_THRESHOLDS = {
+            1e-4, 1e-3, 1e-2, 1e-1, 1, 10
+    };
+
+    private final int iteration;
+    private final int minScore;
+    private final int maxScore;
+    private final boolean fullSweep;
+    private final long stateCount;
+    private final double maxDelta;
+    private final double totalDelta;
+    private final long durationNanos;
+    private final @Nonnull long[] residualHistogram;
+
+    public SweepStats(
+            int iteration,
+            int minScore,
+            int maxScore,
+            boolean fullSweep,
+            long stateCount,
+            double maxDelta,
+            double totalDelta,
+            long durationNanos,
+            @Nonnull long[] residualHistogram
+    ) {
+        if (residualHistogram.length != RESIDUAL_THRESHOLDS.length + 1)
+            throw new IllegalArgumentException("Unexpected number of histogram buckets");
+
+        this.iteration = iteration;
+        this.minScore = minScore;
+        this.maxScore = maxScore;
+        this.fullSweep = fullSweep;
+        this.stateCount = stateCount;
+        this.maxDelta = maxDelta;
+        this.totalDelta = totalDelta;
+        this.durationNanos = durationNanos;
+        this.residualHistogram = Arrays.copyOf(residualHistogram, residualHistogram.length);
+    }
+
+    /**
+     * Returns the upper bound of each bucket of the residual histogram,
+     * except for the final bucket, which has no upper bound.
+     */
+    public static @Nonnull double[] getResidualThresholds() {
+        return Arrays.copyOf(RESIDUAL_THRESHOLDS, RESIDUAL_THRESHOLDS.length);
+    }
+
+    /**
+     * Returns the number of sweeps that have been performed before this one.
+     * Full sweeps are counted separately from layer sweeps.
+     */
+    public int getIteration() {
+        return iteration;
+    }
+
+    /**
+     * Returns the lowest score of the layer of states that was swept.
+     */
+    public int getMinScore() {
+        return minScore;
+    }
+
+    /**
+     * Returns the highest score of the layer of states that was swept.
+     */
+    public int getMaxScore() {
+        return maxScore;
+    }
+
+    /**
+     * Returns whether every unfinished state was swept,
+     * instead of a single layer of scores.
+     */
+    public boolean isFullSweep() {
+        return fullSweep;
+    }
+
+    public long getStateCount() {
+        return stateCount;
+    }
+
+    public double getMaxDelta() {
+        return maxDelta;
+    }
+
+    public double getMeanDelta() {
+        return stateCount > 0 ? totalDelta / stateCount : 0;
+    }
+
+    public long getDurationNanos() {
+        return durationNanos;
+    }
+
+    public double getDurationMs() {
+        return durationNanos / 1e6;
+    }
+
+    public double getStatesPerSecond() {
+        return durationNanos > 0 ? stateCount * 1e9 / durationNanos : 0;
+    }
+
+    /**
+     * Returns the number of states whose value changed by an amount in
+     * each bucket. Bucket {@code i} counts changes below
+     * {@code getResidualThresholds()[i]}, and at or above the previous
+     * threshold.
+     */
+    public @Nonnull long[] getResidualHistogram() {
+        return Arrays.copyOf(residualHistogram, residualHistogram.length);
+    }
+
+    /**
+     * Accumulates the changes in the values of states during a sweep.
+     * Accumulators are not thread-safe, so parallel sweeps give each
+     * worker its own accumulator and merge them once the sweep is done.
+     */
+    static class Accumulator {
+
+        private long stateCount;
+        private double maxDelta;
+        private double totalDelta;
+        private final @Nonnull long[] residualHistogram = new long[RESIDUAL_THRESHOLDS.length + 1];
+
+        public void reset() {
+            stateCount = 0;
+            maxDelta = 0;
+            totalDelta = 0;
+            Arrays.fill(residualHistogram, 0);
+        }
+
+        public void add(float delta) {
+            stateCount += 1;
+            totalDelta += delta;
+            if (delta > maxDelta) {
+                maxDelta = delta;
+            }
+
+            int bucket = 0;
+            while (bucket < RESIDUAL_THRESHOLDS.length && delta >= RESIDUAL_THRESHOLDS[bucket]) {
+                bucket += 1;
+            }
+            residualHistogram[bucket] += 1;
+        }
+
+        public void addAll(@Nonnull Accumulator other) {
+            stateCount += other.stateCount;
+            totalDelta += other.totalDelta;
+            maxDelta = Math.max(maxDelta, other.maxDelta);
+            for (int index = 0; index < residualHistogram.length; ++index) {
+                residualHistogram[index] += other.residualHistogram[index];
+            }
+        }
+
+        public double getMaxDelta() {
+            return maxDelta;
+        }
+
+        public @Nonnull SweepStats build(
+                int iteration,
+                int minScore,
+                int maxScore,
+                boolean fullSweep,
+                long durationNanos
+        ) {
+            return new SweepStats(
+                    iteration, minScore, maxScore, fullSweep,
+                    stateCount, maxDelta, totalDelta,
+                    durationNanos, residualHistogram
+            );
+        }
+    }
+}
@@ -0,0 +1,139 @@
+package net.royalur.lut;
+
+import net.royalur.lut.buffer.ValueType;
+import net.royalur.model.GameSettings;
+import net.royalur.model.Tile;
+import net.royalur.model.path.PathPair;
+import net.royalur.rules.simple.fast.FastSimpleBoard;
+import net.royalur.rules.simple.fast.FastSimpleGame;
+
+import javax.annotation.Nonnull;
+import java.util.List;
+
+/**
+ * Encodes states so that only states where it is light's turn have keys.
+ * A state where it is dark's turn is the colour-mirror of a state where
+ * it is light's turn, found by reflecting the board horizontally and
+ * swapping the light and dark pieces. The value of a dark-to-move state
+ * is the negation of the value of its mirror, so lookup tables only need
+ * to store half of all states. This is only supported for rules where
+ * the dark path is the reflection of the light path.
+ */
+public class SymmetricGameEncoding extends GameEncoding {
+
+    private final @Nonnull GameEncoding encoding;
+
+    public SymmetricGameEncoding(@Nonnull GameSettings<?> settings, @Nonnull GameEncoding encoding) {
+        if (!isSymmetric(settings))
+            throw new IllegalArgumentException("The paths of the settings are not reflections of one another");
+
+        this.encoding = encoding;
+    }
+
+    /**
+     * Checks whether the dark path of {@code settings} is the
+     * horizontal reflection of its light path.
+     */
+    public static boolean isSymmetric(@Nonnull GameSettings<?> settings) {
+        int width = settings.getBoardShape().getWidth();
+        PathPair paths = settings.getPaths();
+        List<Tile> lightPath = paths.getLight();
+        List<Tile> darkPath = paths.getDark();
+        if (lightPath.size() != darkPath.size())
+            return false;
+
+        for (int index = 0; index < lightPath.size(); ++index) {
+            Tile light = lightPath.get(index);
+            Tile dark = darkPath.get(index);
+            if (dark.getXIndex() != width - 1 - light.getXIndex() || dark.getYIndex() != light.getYIndex())
+                return false;
+        }
+        return true;
+    }
+
+    /**
+     * Replaces the state of {@code game} with its colour-mirror.
+     * Mirroring a game twice restores its original state.
+     */
+    public static void mirror(@Nonnull FastSimpleGame game) {
+        FastSimpleBoard board = game.board;
+        int[] pieces = board.pieces;
+        int width = board.width;
+        for (int boardY = 0; boardY < board.height; ++boardY) {
+            int rowStart = boardY * width;
+            for (int boardX = 0; boardX < (width + 1) / 2; ++boardX) {
+                int index = rowStart + boardX;
+                int mirrorIndex = rowStart + width - 1 - boardX;
+                int piece = pieces[index];
+                pieces[index] = -pieces[mirrorIndex];
+                pieces[mirrorIndex] = -piece;
+            }
+        }
+
+        int lightPieces = game.light.pieces;
+        int lightScore = game.light.score;
+        game.light.pieces = game.dark.pieces;
+        game.light.score = game.dark.score;
+        game.dark.pieces = lightPieces;
+        game.dark.score = lightScore;
+        game.isLightTurn = !game.isLightTurn;
+    }
+
+    @Override
+    public int getEncodingId() {
+        // The keys are the keys of the wrapped encoding for light-to-move states.
+        return 4 | (encoding.getEncodingId() << 8);
+    }
+
+    @Override
+    public @Nonnull ValueType getKeyType() {
+        return encoding.getKeyType();
+    }
+
+    @Override
+    public boolean isMirrored(@Nonnull FastSimpleGame game) {
+        return !game.isLightTurn;
+    }
+
+    /**
+     * Encodes the light-to-move mirror of {@code game} if it is dark's turn.
+     * The game is mirrored in place while it is encoded, and is then restored.
+     */
+    @Override
+    public int encodeGame(@Nonnull FastSimpleGame game) {
+        if (game.isLightTurn)
+            return encoding.encodeGame(game);
+
+        mirror(game);
+        try {
+            return encoding.encodeGame(game);
+        } finally {
+            mirror(game);
+        }
+    }
+
+    /**
+     * Encodes the light-to-move mirror of {@code game} if it is dark's turn.
+     * The game is mirrored in place while it is encoded, and is then restored.
+     */
+    @Override
+    public long encodeGameLong(@Nonnull FastSimpleGame game) {
+        if (game.isLightTurn)
+            return encoding.encodeGameLong(game);
+
+        mirror(game);
+        try {
+            return encoding.encodeGameLong(game);
+        } finally {
+            mirror(game);
+        }
+    }
+
+    /**
+     * Decodes a key into the light-to-move state that it represents.
+     */
+    @Override
+    public void decodeGame(long key, @Nonnull FastSimpleGame game) {
+        encoding.decodeGame(key, game);
+    }
+}
@@ -0,0 +1,98 @@
+package net.royalur.lut;
+
+import net.royalur.lut.buffer.ValueType;
+
+import javax.annotation.Nonnull;
+
+/**
+ * Converts the values of states to and from the bits that are stored
+ * in lookup tables. Values are bounded by {@link #MAX_VALUE}, so they
+ * can be quantised to fixed-point numbers with little loss in precision.
+ * Stored bits are unsigned, matching the entries of the stores.
+ */
+public enum ValueCodec {
+
+    /**
+     * Stores the raw bits of 32-bit floats.
+     */
+    FLOAT32(ValueType.INT) {
+        @Override
+        public long encode(float value) {
+            return Integer.toUnsignedLong(Float.floatToRawIntBits(value));
+        }
+
+        @Override
+        public float decode(long bits) {
+            return Float.intBitsToFloat((int) bits);
+        }
+    },
+
+    /**
+     * Stores values as signed 16-bit fixed-point numbers.
+     */
+    FIXED16(ValueType.SHORT) {
+        @Override
+        public long encode(float value) {
+            return Short.toUnsignedLong((short) quantise(value, Short.MAX_VALUE));
+        }
+
+        @Override
+        public float decode(long bits) {
+            return (short) bits * MAX_VALUE / Short.MAX_VALUE;
+        }
+    },
+
+    /**
+     * Stores values as signed 8-bit fixed-point numbers.
+     */
+    FIXED8(ValueType.BYTE) {
+        @Override
+        public long encode(float value) {
+            return Byte.toUnsignedLong((byte) quantise(value, Byte.MAX_VALUE));
+        }
+
+        @Override
+        public float decode(long bits) {
+            return (byte) bits * MAX_VALUE / Byte.MAX_VALUE;
+        }
+    };
+
+    /**
+     * The maximum absolute value of any state.
+     */
+    public static final float MAX_VALUE = 100.0f;
+
+    private final @Nonnull ValueType valueType;
+
+    ValueCodec(@Nonnull ValueType valueType) {
+        this.valueType = valueType;
+    }
+
+    private static int quantise(float value, int maxQuantised) {
+        float clamped = Math.max(-MAX_VALUE, Math.min(MAX_VALUE, value));
+        return Math.round(clamped / MAX_VALUE * maxQuantised);
+    }
+
+    /**
+     * Returns the type of the values that this codec stores.
+     */
+    public @Nonnull ValueType getValueType() {
+        return valueType;
+    }
+
+    public abstract long encode(float value);
+
+    public abstract float decode(long bits);
+
+    /**
+     * Returns the codec that is used for stores with values of type {@code valueType}.
+     */
+    public static @Nonnull ValueCodec forValueType(@Nonnull ValueType valueType) {
+        return switch (valueType) {
+            case INT -> FLOAT32;
+            case SHORT -> FIXED16;
+            case BYTE -> FIXED8;
+            default -> throw new IllegalArgumentException("No codec stores values of type " + valueType);
+        };
+    }
+}
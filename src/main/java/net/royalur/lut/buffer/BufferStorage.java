@@ -0,0 +1,20 @@
+package net.royalur.lut.buffer;
+
+/**
+ * Where the memory of value buffers is allocated.
+ */
+public enum BufferStorage {
+    /**
+     * Buffers are backed by Java arrays on the heap.
+     */
+    HEAP,
+
+    /**
+     * Buffers are backed by direct memory outside the heap, which is
+     * not scanned or copied by the garbage collector, and which is
+     * freed when the buffers are closed. The total size of these buffers
+     * is limited by {@code -XX:MaxDirectMemorySize}, which defaults to
+     * the max heap size, so the limit must be raised to hold large stores.
+     */
+    OFF_HEAP
+}
@@ -0,0 +1,296 @@
+package net.royalur.lut.buffer;
+
+import net.royalur.lut.DataSink;
+import net.royalur.lut.DataSource;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.io.IOException;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * A value buffer that is backed by direct memory outside the heap.
+ * Values of every type are stored in the same way, with each value read
+ * and written as an unsigned long at the width of the buffer's type.
+ * The memory is freed when the buffer is closed, or otherwise when
+ * the buffer is garbage collected. A closed buffer must not be used,
+ * and must not be closed while other threads are reading from it.
+ */
+public final class OffHeapValueBuffer extends ValueBuffer {
+
+    private static final int BINARY_TO_LINEAR_SEARCH_THRESHOLD = 32;
+
+    private static final @Nullable Object UNSAFE;
+    private static final @Nullable Method INVOKE_CLEANER;
+
+    static {
+        Object unsafe = null;
+        Method invokeCleaner = null;
+        try {
+            Class<?> unsafeClass = Class.forName("sun.misc.Unsafe");
+            Field field = unsafeClass.getDeclaredField("theUnsafe");
+            field.setAccessible(true);
+            unsafe = field.get(null);
+            invokeCleaner = unsafeClass.getMethod("invokeCleaner", ByteBuffer.class);
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            // The memory will be freed by the garbage collector instead.
+            unsafe = null;
+            invokeCleaner = null;
+        }
+        UNSAFE = unsafe;
+        INVOKE_CLEANER = invokeCleaner;
+    }
+
+    /**
+     * The number of bytes of each value, and the mask of the bits that
+     * a value of this buffer's type may have set.
+     */
+    private final int byteCount;
+    private final long valueMask;
+
+    private @Nullable ByteBuffer memory;
+
+    /**
+     * The view that values are read from. It is replaced by an empty
+     * view when the buffer is closed, so that any later use of the
+     * buffer fails instead of reading memory that has been freed.
+     */
+    private @Nonnull ByteBuffer buffer;
+
+    public OffHeapValueBuffer(@Nonnull ValueType type, int capacity) {
+        super(type, capacity);
+        this.byteCount = type.getByteCount();
+        this.valueMask = (byteCount == 8 ? -1L : (1L << (8 * byteCount)) - 1);
+        this.memory = ByteBuffer.allocateDirect(Math.multiplyExact(capacity, byteCount))
+                .order(ByteOrder.nativeOrder());
+        this.buffer = memory;
+    }
+
+    /**
+     * Reads the value at {@code index} as an unsigned long.
+     */
+    private long get(int index) {
+        ByteBuffer buffer = this.buffer;
+        return switch (byteCount) {
+            case 1 -> Byte.toUnsignedLong(buffer.get(index));
+            case 2 -> Short.toUnsignedLong(buffer.getShort(index << 1));
+            case 4 -> Integer.toUnsignedLong(buffer.getInt(index << 2));
+            default -> buffer.getLong(index << 3);
+        };
+    }
+
+    private void put(int index, long value) {
+        ByteBuffer buffer = this.buffer;
+        switch (byteCount) {
+            case 1 -> buffer.put(index, (byte) value);
+            case 2 -> buffer.putShort(index << 1, (short) value);
+            case 4 -> buffer.putInt(index << 2, (int) value);
+            default -> buffer.putLong(index << 3, value);
+        }
+    }
+
+    private void checkValue(long value) {
+        if ((value & ~valueMask) != 0)
+            throw new ArithmeticException("value cannot be represented in " + (8 * byteCount) + " bits");
+    }
+
+    /**
+     * Checks that values of {@code accessByteCount} bytes can hold the values of this buffer.
+     */
+    private void checkAccess(int accessByteCount) {
+        if (accessByteCount < byteCount) {
+            throw new UnsupportedOperationException(
+                    "This is a " + getType().name().toLowerCase() + " buffer"
+            );
+        }
+    }
+
+    private long swap(int index, long value) {
+        long lastValue = get(index);
+        put(index, value);
+        return lastValue;
+    }
+
+    @Override
+    public long set(int index, long value) {
+        checkValue(value);
+        return swap(index, value);
+    }
+
+    @Override
+    public int set(int index, int value) {
+        checkAccess(4);
+        long unsigned = Integer.toUnsignedLong(value);
+        checkValue(unsigned);
+        return (int) swap(index, unsigned);
+    }
+
+    @Override
+    public short set(int index, short value) {
+        checkAccess(2);
+        long unsigned = Short.toUnsignedLong(value);
+        checkValue(unsigned);
+        return (short) swap(index, unsigned);
+    }
+
+    @Override
+    public byte set(int index, byte value) {
+        checkAccess(1);
+        return (byte) swap(index, Byte.toUnsignedLong(value));
+    }
+
+    @Override
+    public long getLong(int index) {
+        return get(index);
+    }
+
+    @Override
+    public int getInt(int index) {
+        checkAccess(4);
+        return (int) get(index);
+    }
+
+    @Override
+    public short getShort(int index) {
+        checkAccess(2);
+        return (short) get(index);
+    }
+
+    @Override
+    public byte getByte(int index) {
+        checkAccess(1);
+        return (byte) get(index);
+    }
+
+    @Override
+    public int indexOf(long value, int startIndex, int endIndex) {
+        checkValue(value);
+        for (int index = startIndex; index < endIndex; ++index) {
+            if (get(index) == value)
+                return index;
+        }
+        return -1;
+    }
+
+    @Override
+    public int indexOf(int value, int startIndex, int endIndex) {
+        return indexOf(Integer.toUnsignedLong(value), startIndex, endIndex);
+    }
+
+    @Override
+    public int indexOf(short value, int startIndex, int endIndex) {
+        return indexOf(Short.toUnsignedLong(value), startIndex, endIndex);
+    }
+
+    @Override
+    public int indexOf(byte value, int startIndex, int endIndex) {
+        return indexOf(Byte.toUnsignedLong(value), startIndex, endIndex);
+    }
+
+    @Override
+    public int indexOfBinarySearch(long value, int startIndex, int endIndex) {
+        checkValue(value);
+        int lower = startIndex;
+        int upper = endIndex;
+        while (upper > lower + BINARY_TO_LINEAR_SEARCH_THRESHOLD) {
+            int middleIndex = lower + (upper - lower) / 2;
+            long current = get(middleIndex);
+            if (current == value)
+                return middleIndex;
+
+            if (Long.compareUnsigned(current, value) > 0) {
+                upper = middleIndex;
+            } else {
+                lower = middleIndex + 1;
+            }
+        }
+        return indexOf(value, lower, upper);
+    }
+
+    @Override
+    public int indexOfBinarySearch(int value, int startIndex, int endIndex) {
+        return indexOfBinarySearch(Integer.toUnsignedLong(value), startIndex, endIndex);
+    }
+
+    @Override
+    public int indexOfBinarySearch(short value, int startIndex, int endIndex) {
+        return indexOfBinarySearch(Short.toUnsignedLong(value), startIndex, endIndex);
+    }
+
+    @Override
+    public int indexOfBinarySearch(byte value, int startIndex, int endIndex) {
+        return indexOfBinarySearch(Byte.toUnsignedLong(value), startIndex, endIndex);
+    }
+
+    @Override
+    public int moveIntoSortedPlace(int index) {
+        long value = get(index);
+        for (int targetIndex = index; targetIndex > 0; targetIndex--) {
+            long compareValue = get(targetIndex - 1);
+            if (Long.compareUnsigned(value, compareValue) >= 0) {
+                put(targetIndex, value);
+                return targetIndex;
+            }
+            put(targetIndex, compareValue);
+        }
+        put(0, value);
+        return 0;
+    }
+
+    @Override
+    public void moveIntoPlace(int index, int targetIndex) {
+        long value = get(index);
+        for (int moveIndex = index; moveIndex > targetIndex; moveIndex--) {
+            put(moveIndex, get(moveIndex - 1));
+        }
+        put(targetIndex, value);
+    }
+
+    @Override
+    public void writeContents(@Nonnull DataSink output) throws IOException {
+        output.write((outputBuffer) -> {
+            for (int index = 0; index < getCapacity(); ++index) {
+                long value = get(index);
+                switch (byteCount) {
+                    case 1 -> outputBuffer.put((byte) value);
+                    case 2 -> outputBuffer.putShort((short) value);
+                    case 4 -> outputBuffer.putInt((int) value);
+                    default -> outputBuffer.putLong(value);
+                }
+            }
+        });
+    }
+
+    @Override
+    public void readContents(@Nonnull DataSource input) throws IOException {
+        for (int index = 0; index < getCapacity(); ++index) {
+            long value = switch (byteCount) {
+                case 1 -> input.readByte();
+                case 2 -> input.readShort();
+                case 4 -> input.readInt();
+                default -> input.readLong();
+            };
+            put(index, value);
+        }
+    }
+
+    @Override
+    public void close() {
+        ByteBuffer memory = this.memory;
+        if (memory == null)
+            return;
+
+        this.memory = null;
+        this.buffer = ByteBuffer.allocate(0);
+        if (INVOKE_CLEANER != null) {
+            try {
+                INVOKE_CLEANER.invoke(UNSAFE, memory);
+            } catch (ReflectiveOperationException e) {
+                throw new IllegalStateException("Could not free the memory of the buffer", e);
+            }
+        }
+    }
+}
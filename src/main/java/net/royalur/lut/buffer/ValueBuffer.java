@@ -9,7 +9,7 @@ import java.io.*;
 /**
  * Stores binary values and provides efficient methods to manipulate it.
  */
-public abstract class ValueBuffer {
+public abstract class ValueBuffer implements AutoCloseable {
 
     private final @Nonnull ValueType type;
     private final int capacity;
@@ -84,4 +84,13 @@ public abstract class ValueBuffer {
     public abstract void writeContents(@Nonnull DataSink output) throws IOException;
 
     public abstract void readContents(@Nonnull DataSource input) throws IOException;
+
+    /**
+     * Frees any memory of this buffer that is held outside the heap.
+     * Buffers on the heap are left to the garbage collector.
+     */
+    @Override
+    public void close() {
+        // Nothing to free.
+    }
 }
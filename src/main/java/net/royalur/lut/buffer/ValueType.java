@@ -21,7 +21,14 @@ public enum ValueType {
     }
 
     public @Nonnull ValueBuffer create(int capacity) {
-        ValueBuffer result = builderFn.apply(capacity);
+        return create(capacity, BufferStorage.HEAP);
+    }
+
+    public @Nonnull ValueBuffer create(int capacity, @Nonnull BufferStorage storage) {
+        ValueBuffer result = switch (storage) {
+            case HEAP -> builderFn.apply(capacity);
+            case OFF_HEAP -> new OffHeapValueBuffer(this, capacity);
+        };
         if (result == null)
             throw new NullPointerException();
 
@@ -2,44 +2,69 @@ package net.royalur.lut.store;
 
 import net.royalur.lut.DataSink;
 import net.royalur.lut.DataSource;
+import net.royalur.lut.buffer.BufferStorage;
 import net.royalur.lut.buffer.ValueType;
 
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
+import java.io.Closeable;
 import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.nio.ByteBuffer;
 import java.nio.channels.FileChannel;
+import java.nio.file.Path;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Iterator;
 import java.util.List;
 import java.util.NoSuchElementException;
+import java.util.concurrent.ForkJoinPool;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.function.Consumer;
+import java.util.function.LongUnaryOperator;
+import java.util.stream.IntStream;
 
 /**
  * A big store of key-value entries that is built to reduce memory usage
- * by packing the keys and values together tightly in arrays.
+ * by packing the keys and values together tightly in arrays. The arrays
+ * may be stored outside the heap, in which case they are freed when the
+ * store is closed.
  */
-public class BigEntryStore implements Iterable<BigEntryStore.Entry> {
+public class BigEntryStore implements EntryLookup, Iterable<BigEntryStore.Entry>, Closeable {
 
     public static final int DEFAULT_ENTRIES_PER_CHUNK = 8 * 1024;
 
+    private static final int MIN_ENTRIES_PER_MERGE_PARTITION = 64 * 1024;
+    private static final int MERGE_SAMPLES_PER_PARTITION = 16;
+
     private final int entriesPerChunk;
     private final @Nonnull ValueType keyType;
     private final @Nonnull ValueType valueType;
+    private final @Nonnull BufferStorage storage;
     private final @Nonnull List<ChunkSet> chunkSets;
+    private @Nullable KeyIndex keyIndex = null;
 
     public BigEntryStore(
             @Nonnull ValueType keyType,
             @Nonnull ValueType valueType,
-            int entriesPerChunk
+            int entriesPerChunk,
+            @Nonnull BufferStorage storage
     ) {
         this.entriesPerChunk = entriesPerChunk;
         this.keyType = keyType;
         this.valueType = valueType;
+        this.storage = storage;
         this.chunkSets = new ArrayList<>();
     }
 
+    public BigEntryStore(
+            @Nonnull ValueType keyType,
+            @Nonnull ValueType valueType,
+            int entriesPerChunk
+    ) {
+        this(keyType, valueType, entriesPerChunk, BufferStorage.HEAP);
+    }
+
     public BigEntryStore(
             @Nonnull ValueType keyType,
             @Nonnull ValueType valueType
@@ -51,10 +76,16 @@ public class BigEntryStore implements Iterable<BigEntryStore.Entry> {
         return entriesPerChunk;
     }
 
+    public @Nonnull BufferStorage getStorage() {
+        return storage;
+    }
+
+    @Override
     public @Nonnull ValueType getKeyType() {
         return keyType;
     }
 
+    @Override
     public @Nonnull ValueType getValueType() {
         return valueType;
     }
@@ -63,6 +94,7 @@ public class BigEntryStore implements Iterable<BigEntryStore.Entry> {
         return chunkSets.size() <= 1;
     }
 
+    @Override
     public int getEntryCount() {
         int count = 0;
         for (ChunkSet set : chunkSets) {
@@ -87,55 +119,184 @@ public class BigEntryStore implements Iterable<BigEntryStore.Entry> {
         return new ChunkSet(this, chunkSet);
     }
 
-    private ChunkSet mergeSortedChunkSets(ChunkSet input1, ChunkSet input2) {
-        int chunkCount = input1.getChunkCount() + input2.getChunkCount();
+    /**
+     * Merges sorted chunk sets into one new sorted chunk set using a
+     * k-way heap merge. Large merges are split into ranges of keys that
+     * are merged in parallel into disjoint ranges of the output.
+     */
+    private ChunkSet mergeSortedChunkSets(@Nonnull List<ChunkSet> inputList) {
+        ChunkSet[] inputs = inputList.toArray(new ChunkSet[0]);
+        int[] inputSizes = new int[inputs.length];
+        long totalEntryCount = 0;
+        for (int index = 0; index < inputs.length; ++index) {
+            inputSizes[index] = inputs[index].getEntryCount();
+            totalEntryCount += inputSizes[index];
+        }
+        int outputSize = Math.toIntExact(totalEntryCount);
+        int chunkCount = Math.max(1, Math.toIntExact((totalEntryCount + entriesPerChunk - 1) / entriesPerChunk));
         ChunkSet output = allocateChunkSet(chunkCount);
 
-        int chunk1Size = input1.getEntryCount();
-        int chunk2Size = input2.getEntryCount();
+        // The start of each partition in each input.
+        long[] splitKeys = selectMergeSplitKeys(inputs, inputSizes, outputSize);
+        int partitionCount = splitKeys.length + 1;
+        int[][] bounds = new int[partitionCount + 1][];
+        bounds[0] = new int[inputs.length];
+        bounds[partitionCount] = inputSizes;
+        for (int partition = 1; partition < partitionCount; ++partition) {
+            bounds[partition] = new int[inputs.length];
+            for (int index = 0; index < inputs.length; ++index) {
+                bounds[partition][index] = lowerBound(inputs[index], inputSizes[index], splitKeys[partition - 1]);
+            }
+        }
 
-        int index1 = 0;
-        int index2 = 0;
-        long key1 = input1.getKeyLong(index1);
-        long key2 = input2.getKeyLong(index2);
-        int outputSize = chunk1Size + chunk2Size;
+        if (partitionCount == 1) {
+            mergePartition(inputs, bounds[0], bounds[1], output);
+        } else {
+            IntStream.range(0, partitionCount).parallel().forEach(
+                    (partition) -> mergePartition(inputs, bounds[partition], bounds[partition + 1], output)
+            );
+        }
+        output.finishWriting(outputSize);
+        return output;
+    }
 
-        for (int outputIndex = 0; outputIndex < outputSize; ++outputIndex) {
-            if (Long.compareUnsigned(key1, key2) <= 0) {
-                long value = input1.getValueLong(index1);
-                output.addEntry(key1, value);
+    /**
+     * Selects the keys that split a merge into partitions of roughly
+     * equal size, by sampling keys from each input in proportion to
+     * its size.
+     */
+    private static long[] selectMergeSplitKeys(ChunkSet[] inputs, int[] inputSizes, int outputSize) {
+        int parallelism = ForkJoinPool.getCommonPoolParallelism();
+        int partitionCount = Math.min(4 * parallelism, outputSize / MIN_ENTRIES_PER_MERGE_PARTITION);
+        if (partitionCount <= 1)
+            return new long[0];
 
-                index1 += 1;
-                if (index1 >= chunk1Size)
-                    break;
+        int targetSampleCount = partitionCount * MERGE_SAMPLES_PER_PARTITION;
+        long[] samples = new long[targetSampleCount + inputs.length];
+        int sampleCount = 0;
+        for (int index = 0; index < inputs.length; ++index) {
+            int inputSize = inputSizes[index];
+            int inputSampleCount = (int) ((long) inputSize * targetSampleCount / outputSize);
+            for (int sample = 0; sample < inputSampleCount; ++sample) {
+                int entryIndex = (int) ((long) sample * inputSize / inputSampleCount);
+                // Flip the sign bit so that a signed sort orders the keys as unsigned.
+                samples[sampleCount++] = inputs[index].getKeyLong(entryIndex) ^ Long.MIN_VALUE;
+            }
+        }
+        if (sampleCount == 0)
+            return new long[0];
 
-                key1 = input1.getKeyLong(index1);
+        Arrays.sort(samples, 0, sampleCount);
 
+        long[] splitKeys = new long[partitionCount - 1];
+        for (int partition = 1; partition < partitionCount; ++partition) {
+            int sampleIndex = (int) ((long) partition * sampleCount / partitionCount);
+            splitKeys[partition - 1] = samples[sampleIndex] ^ Long.MIN_VALUE;
+        }
+        return splitKeys;
+    }
+
+    /**
+     * Returns the index of the first entry in {@code set} with a
+     * key that is not less than {@code key}.
+     */
+    private static int lowerBound(ChunkSet set, int size, long key) {
+        int lower = 0;
+        int upper = size;
+        while (lower < upper) {
+            int middle = (lower + upper) >>> 1;
+            if (Long.compareUnsigned(set.getKeyLong(middle), key) < 0) {
+                lower = middle + 1;
             } else {
-                long value = input2.getValueLong(index2);
-                output.addEntry(key2, value);
+                upper = middle;
+            }
+        }
+        return lower;
+    }
+
+    /**
+     * Merges the entries in the ranges [{@code from[i]}, {@code to[i]})
+     * of each input into {@code output}, starting from the sum of the
+     * indices in {@code from}.
+     */
+    private static void mergePartition(ChunkSet[] inputs, int[] from, int[] to, ChunkSet output) {
+        int[] indices = from.clone();
+        int outputIndex = 0;
+        for (int index : from) {
+            outputIndex += index;
+        }
 
-                index2 += 1;
-                if (index2 >= chunk2Size)
-                    break;
+        // A min-heap of the inputs, ordered by their next key.
+        int[] heap = new int[inputs.length];
+        long[] heapKeys = new long[inputs.length];
+        int heapSize = 0;
+        for (int input = 0; input < inputs.length; ++input) {
+            if (indices[input] >= to[input])
+                continue;
 
-                key2 = input2.getKeyLong(index2);
+            heap[heapSize] = input;
+            heapKeys[heapSize] = inputs[input].getKeyLong(indices[input]);
+            heapSize += 1;
+            siftUp(heap, heapKeys, heapSize - 1);
+        }
+
+        while (heapSize > 0) {
+            int input = heap[0];
+            int entryIndex = indices[input];
+            output.setEntry(outputIndex, heapKeys[0], inputs[input].getValueLong(entryIndex));
+            outputIndex += 1;
+
+            entryIndex += 1;
+            indices[input] = entryIndex;
+            if (entryIndex < to[input]) {
+                heapKeys[0] = inputs[input].getKeyLong(entryIndex);
+            } else {
+                heapSize -= 1;
+                heap[0] = heap[heapSize];
+                heapKeys[0] = heapKeys[heapSize];
             }
+            siftDown(heap, heapKeys, heapSize);
         }
+    }
+
+    private static void siftUp(int[] heap, long[] heapKeys, int index) {
+        while (index > 0) {
+            int parent = (index - 1) / 2;
+            if (Long.compareUnsigned(heapKeys[parent], heapKeys[index]) <= 0)
+                return;
 
-        while (index1 < chunk1Size) {
-            long key = input1.getKeyLong(index1);
-            long value = input1.getValueLong(index1);
-            index1 += 1;
-            output.addEntry(key, value);
+            swapHeapEntries(heap, heapKeys, parent, index);
+            index = parent;
         }
-        while (index2 < chunk2Size) {
-            long key = input2.getKeyLong(index2);
-            long value = input2.getValueLong(index2);
-            index2 += 1;
-            output.addEntry(key, value);
+    }
+
+    private static void siftDown(int[] heap, long[] heapKeys, int heapSize) {
+        int index = 0;
+        while (true) {
+            int smallest = index;
+            int left = 2 * index + 1;
+            int right = left + 1;
+            if (left < heapSize && Long.compareUnsigned(heapKeys[left], heapKeys[smallest]) < 0) {
+                smallest = left;
+            }
+            if (right < heapSize && Long.compareUnsigned(heapKeys[right], heapKeys[smallest]) < 0) {
+                smallest = right;
+            }
+            if (smallest == index)
+                return;
+
+            swapHeapEntries(heap, heapKeys, smallest, index);
+            index = smallest;
         }
-        return output;
+    }
+
+    private static void swapHeapEntries(int[] heap, long[] heapKeys, int index1, int index2) {
+        int input = heap[index1];
+        heap[index1] = heap[index2];
+        heap[index2] = input;
+        long key = heapKeys[index1];
+        heapKeys[index1] = heapKeys[index2];
+        heapKeys[index2] = key;
     }
 
     private ChunkSet getNextChunkSet() {
@@ -150,14 +311,13 @@ public class BigEntryStore implements Iterable<BigEntryStore.Entry> {
         // Merge sort full chunks!
         while (chunkSets.size() >= 2) {
             int size = chunkSets.size();
-            ChunkSet set1 = chunkSets.get(size - 1);
-            ChunkSet set2 = chunkSets.get(size - 2);
-            if (set1.getChunkCount() != set2.getChunkCount())
+            List<ChunkSet> lastTwo = chunkSets.subList(size - 2, size);
+            if (lastTwo.get(0).getChunkCount() != lastTwo.get(1).getChunkCount())
                 break;
 
-            ChunkSet sorted = mergeSortedChunkSets(set1, set2);
-            chunkSets.remove(size - 1);
-            chunkSets.remove(size - 2);
+            ChunkSet sorted = mergeSortedChunkSets(lastTwo);
+            lastTwo.forEach(ChunkSet::close);
+            lastTwo.clear();
             chunkSets.add(sorted);
         }
 
@@ -168,25 +328,104 @@ public class BigEntryStore implements Iterable<BigEntryStore.Entry> {
     }
 
     public void sort() {
-        while (chunkSets.size() >= 2) {
-            int size = chunkSets.size();
-            ChunkSet set1 = chunkSets.get(size - 1);
-            ChunkSet set2 = chunkSets.get(size - 2);
-            ChunkSet sorted = mergeSortedChunkSets(set1, set2);
-            chunkSets.remove(size - 1);
-            chunkSets.remove(size - 2);
-            chunkSets.add(sorted);
+        if (chunkSets.size() <= 1)
+            return;
+
+        ChunkSet sorted = mergeSortedChunkSets(chunkSets);
+        chunkSets.forEach(ChunkSet::close);
+        chunkSets.clear();
+        chunkSets.add(sorted);
+        keyIndex = null;
+    }
+
+    /**
+     * Copies the entries of this store into a new store whose values are
+     * of {@code valueType}, replacing each value with {@code mapValue}
+     * applied to it. The entries of a sorted store are appended to the
+     * copy in order, so the copy does not need to be sorted again.
+     */
+    public @Nonnull BigEntryStore copyWithValues(
+            @Nonnull ValueType valueType,
+            @Nonnull LongUnaryOperator mapValue
+    ) {
+        BigEntryStore copy = new BigEntryStore(keyType, valueType, entriesPerChunk, storage);
+        if (!isKnownSorted()) {
+            for (Entry entry : this) {
+                copy.addEntry(entry.key, mapValue.applyAsLong(entry.value));
+            }
+            copy.sort();
+            return copy;
         }
+
+        int entryCount = getEntryCount();
+        if (entryCount == 0)
+            return copy;
+
+        int chunkCount = Math.toIntExact((entryCount + (long) entriesPerChunk - 1) / entriesPerChunk);
+        ChunkSet chunkSet = copy.allocateChunkSet(chunkCount);
+        for (Entry entry : this) {
+            chunkSet.appendSortedEntry(entry.key, mapValue.applyAsLong(entry.value));
+        }
+        copy.chunkSets.add(chunkSet);
+        return copy;
+    }
+
+    /**
+     * Removes all entries from this store, and frees their memory if
+     * it is stored outside the heap. Any key index is also cleared.
+     */
+    @Override
+    public void close() {
+        keyIndex = null;
+        chunkSets.forEach(ChunkSet::close);
+        chunkSets.clear();
     }
 
     public void addEntry(int key, int value) {
+        keyIndex = null;
         getNextChunkSet().addEntry(key, value);
     }
 
     public void addEntry(long key, long value) {
+        keyIndex = null;
         getNextChunkSet().addEntry(key, value);
     }
 
+    /**
+     * Builds an index of the given type that is used to look up keys
+     * until entries are next added to this store.
+     */
+    public void buildKeyIndex(@Nonnull KeyIndex.Type type) {
+        keyIndex = createKeyIndex(type);
+    }
+
+    /**
+     * Creates an index of the given type over the entries in this store,
+     * without using it for the lookups of this store.
+     */
+    public @Nonnull KeyIndex createKeyIndex(@Nonnull KeyIndex.Type type) {
+        if (!isKnownSorted())
+            throw new IllegalStateException("The entry store must be sorted to build an index");
+
+        Chunk[] chunks = (chunkSets.isEmpty() ? new Chunk[0] : chunkSets.get(0).getChunks());
+        int nonEmptyChunks = 0;
+        while (nonEmptyChunks < chunks.length && chunks[nonEmptyChunks].getEntryCount() > 0) {
+            nonEmptyChunks += 1;
+        }
+        if (nonEmptyChunks == 0)
+            throw new IllegalStateException("Cannot build an index over an empty store");
+
+        return type.build(Arrays.copyOf(chunks, nonEmptyChunks));
+    }
+
+    public @Nullable KeyIndex getKeyIndex() {
+        return keyIndex;
+    }
+
+    public void clearKeyIndex() {
+        keyIndex = null;
+    }
+
     /**
      * Returns the last value.
      */
@@ -194,6 +433,41 @@ public class BigEntryStore implements Iterable<BigEntryStore.Entry> {
         if (!isKnownSorted())
             throw new IllegalStateException("The entry store must be sorted to update entries");
 
+        KeyIndex index = keyIndex;
+        if (index != null) {
+            long location = index.locate(Integer.toUnsignedLong(key));
+            if (location == KeyIndex.NOT_FOUND)
+                throw new NoSuchElementException();
+
+            Chunk chunk = index.getChunk(KeyIndex.getChunkIndex(location));
+            return chunk.updateValue(KeyIndex.getSlot(location), newValue);
+        }
+
+        for (ChunkSet chunkSet : chunkSets) {
+            Chunk chunk = chunkSet.getPossibleChunk(key);
+            if (chunk != null)
+                return chunk.updateEntry(key, newValue);
+        }
+        throw new NoSuchElementException();
+    }
+
+    /**
+     * Returns the last value.
+     */
+    public long updateEntry(long key, long newValue) {
+        if (!isKnownSorted())
+            throw new IllegalStateException("The entry store must be sorted to update entries");
+
+        KeyIndex index = keyIndex;
+        if (index != null) {
+            long location = index.locate(key);
+            if (location == KeyIndex.NOT_FOUND)
+                throw new NoSuchElementException();
+
+            Chunk chunk = index.getChunk(KeyIndex.getChunkIndex(location));
+            return chunk.updateValue(KeyIndex.getSlot(location), newValue);
+        }
+
         for (ChunkSet chunkSet : chunkSets) {
             Chunk chunk = chunkSet.getPossibleChunk(key);
             if (chunk != null)
@@ -202,7 +476,17 @@ public class BigEntryStore implements Iterable<BigEntryStore.Entry> {
         throw new NoSuchElementException();
     }
 
+    @Override
     public @Nullable Integer getInt(int key) {
+        KeyIndex index = keyIndex;
+        if (index != null) {
+            long location = index.locate(Integer.toUnsignedLong(key));
+            if (location == KeyIndex.NOT_FOUND)
+                return null;
+
+            return index.getChunk(KeyIndex.getChunkIndex(location)).getValueInt(KeyIndex.getSlot(location));
+        }
+
         for (ChunkSet chunkSet : chunkSets) {
             Integer value = chunkSet.getInt(key);
             if (value != null)
@@ -211,7 +495,17 @@ public class BigEntryStore implements Iterable<BigEntryStore.Entry> {
         return null;
     }
 
+    @Override
     public @Nullable Long getLong(long key) {
+        KeyIndex index = keyIndex;
+        if (index != null) {
+            long location = index.locate(key);
+            if (location == KeyIndex.NOT_FOUND)
+                return null;
+
+            return index.getChunk(KeyIndex.getChunkIndex(location)).getValueLong(KeyIndex.getSlot(location));
+        }
+
         for (ChunkSet chunkSet : chunkSets) {
             Long value = chunkSet.getLong(key);
             if (value != null)
@@ -220,6 +514,111 @@ public class BigEntryStore implements Iterable<BigEntryStore.Entry> {
         return null;
     }
 
+    @Override
+    public int getIntOrDefault(int key, int missing) {
+        KeyIndex index = keyIndex;
+        if (index != null) {
+            long location = index.locate(Integer.toUnsignedLong(key));
+            if (location == KeyIndex.NOT_FOUND)
+                return missing;
+
+            return index.getChunk(KeyIndex.getChunkIndex(location)).getValueInt(KeyIndex.getSlot(location));
+        }
+
+        for (ChunkSet chunkSet : chunkSets) {
+            int value = chunkSet.getIntOrDefault(key, missing);
+            if (value != missing || chunkSet.containsKey(Integer.toUnsignedLong(key)))
+                return value;
+        }
+        return missing;
+    }
+
+    @Override
+    public long getLongOrDefault(long key, long missing) {
+        KeyIndex index = keyIndex;
+        if (index != null) {
+            long location = index.locate(key);
+            if (location == KeyIndex.NOT_FOUND)
+                return missing;
+
+            return index.getChunk(KeyIndex.getChunkIndex(location)).getValueLong(KeyIndex.getSlot(location));
+        }
+
+        for (ChunkSet chunkSet : chunkSets) {
+            long value = chunkSet.getLongOrDefault(key, missing);
+            if (value != missing || chunkSet.containsKey(key))
+                return value;
+        }
+        return missing;
+    }
+
+    @Override
+    public boolean containsKey(long key) {
+        KeyIndex index = keyIndex;
+        if (index != null)
+            return index.locate(key) != KeyIndex.NOT_FOUND;
+
+        for (ChunkSet chunkSet : chunkSets) {
+            if (chunkSet.containsKey(key))
+                return true;
+        }
+        return false;
+    }
+
+    @Override
+    public void lookupBatch(@Nonnull KeyBatch batch, long missing) {
+        KeyIndex index = keyIndex;
+        if (index != null) {
+            lookupBatch(index, batch, missing);
+        } else if (chunkSets.size() == 1) {
+            chunkSets.get(0).lookupBatch(batch, missing);
+        } else {
+            EntryLookup.super.lookupBatch(batch, missing);
+        }
+    }
+
+    /**
+     * Looks up the keys of {@code batch} in sorted order, using {@code index}
+     * to find the chunk of each key that is past the end of the chunk of
+     * the key before it. Keys in the same chunk as the key before them are
+     * searched for after its slot, and repeated keys are only searched once.
+     */
+    private static void lookupBatch(@Nonnull KeyIndex index, @Nonnull KeyBatch batch, long missing) {
+        int[] order = batch.sortOrder();
+        Chunk chunk = null;
+        int fromSlot = 0;
+        long previousKey = 0;
+        long previousValue = missing;
+        for (int orderIndex = 0; orderIndex < batch.size(); ++orderIndex) {
+            int entry = order[orderIndex];
+            long key = batch.getKey(entry);
+            if (orderIndex > 0 && key == previousKey) {
+                batch.setValue(entry, previousValue);
+                continue;
+            }
+
+            long value = missing;
+            if (chunk != null && Long.compareUnsigned(key, chunk.getMaxValue()) <= 0) {
+                int slot = chunk.indexOfKeyFrom(key, fromSlot);
+                if (slot >= 0) {
+                    value = chunk.getValueLong(slot);
+                    fromSlot = slot + 1;
+                }
+            } else {
+                long location = index.locate(key);
+                if (location != KeyIndex.NOT_FOUND) {
+                    chunk = index.getChunk(KeyIndex.getChunkIndex(location));
+                    int slot = KeyIndex.getSlot(location);
+                    value = chunk.getValueLong(slot);
+                    fromSlot = slot + 1;
+                }
+            }
+            batch.setValue(entry, value);
+            previousKey = key;
+            previousValue = value;
+        }
+    }
+
     private void loopChunks(Consumer<Chunk> chunkConsumer) {
         for (ChunkSet chunkSet : chunkSets) {
             for (Chunk chunk : chunkSet.getChunks()) {
@@ -243,16 +642,47 @@ public class BigEntryStore implements Iterable<BigEntryStore.Entry> {
         return  (double) overlappingChunks.get() / chunkSets.size();
     }
 
-    public void write(@Nonnull FileChannel channel) throws IOException {
+    private int getWriteBufferBytes() {
         int maxBytesPerKeyOrValue = Math.max(keyType.getByteCount(), valueType.getByteCount());
-        int requiredBytes = Math.max(1024, entriesPerChunk * maxBytesPerKeyOrValue);
+        return Math.max(1024, entriesPerChunk * maxBytesPerKeyOrValue);
+    }
+
+    public void write(@Nonnull FileChannel channel) throws IOException {
         DataSink output = new DataSink.FileDataSink(
                 channel,
-                ByteBuffer.allocateDirect(requiredBytes)
+                ByteBuffer.allocateDirect(getWriteBufferBytes())
         );
         write(output);
     }
 
+    /**
+     * Computes the CRC32C of the bytes that {@link #write(DataSink)} writes
+     * for each chunk, including the header of the chunk, in the order that
+     * the chunks are written. The chunks are checksummed in parallel.
+     */
+    public @Nonnull int[] computeChunkChecksums() {
+        List<Chunk> chunks = new ArrayList<>();
+        loopChunks(chunks::add);
+
+        int[] checksums = new int[chunks.size()];
+        int bufferBytes = getWriteBufferBytes();
+        ThreadLocal<DataSink.ChecksumDataSink> sinks = ThreadLocal.withInitial(
+                () -> new DataSink.ChecksumDataSink(ByteBuffer.allocate(bufferBytes))
+        );
+        IntStream.range(0, checksums.length).parallel().forEach((index) -> {
+            DataSink.ChecksumDataSink sink = sinks.get();
+            sink.reset();
+            try {
+                chunks.get(index).write(sink);
+            } catch (IOException e) {
+                // Checksum sinks do not perform any IO.
+                throw new UncheckedIOException(e);
+            }
+            checksums[index] = sink.getChecksum();
+        });
+        return checksums;
+    }
+
     public void write(@Nonnull DataSink output) throws IOException {
         output.write((buffer) -> {
             buffer.putInt(keyType.ordinal());
@@ -276,20 +706,47 @@ public class BigEntryStore implements Iterable<BigEntryStore.Entry> {
     }
 
     public static @Nonnull BigEntryStore read(@Nonnull FileChannel channel) throws IOException {
+        return read(channel, BufferStorage.HEAP);
+    }
+
+    public static @Nonnull BigEntryStore read(
+            @Nonnull FileChannel channel,
+            @Nonnull BufferStorage storage
+    ) throws IOException {
         ByteBuffer workingBuffer = ByteBuffer.allocateDirect(1024 * 1024);
         DataSource input = new DataSource.FileDataSource(channel, workingBuffer);
-        return read(input);
+        return read(input, storage);
     }
 
     public static @Nonnull BigEntryStore read(@Nonnull DataSource input) throws IOException {
+        return read(input, BufferStorage.HEAP);
+    }
+
+    public static @Nonnull BigEntryStore read(
+            @Nonnull DataSource input,
+            @Nonnull BufferStorage storage
+    ) throws IOException {
         ValueType keyType = ValueType.values()[input.readInt()];
         ValueType valueType = ValueType.values()[input.readInt()];
         int entriesPerChunk = input.readInt();
-        BigEntryStore store = new BigEntryStore(keyType, valueType, entriesPerChunk);
-        store.readContents(input);
+        BigEntryStore store = new BigEntryStore(keyType, valueType, entriesPerChunk, storage);
+        try {
+            store.readContents(input);
+        } catch (IOException | RuntimeException e) {
+            store.close();
+            throw e;
+        }
         return store;
     }
 
+    /**
+     * Maps a store that was written to {@code file} into memory,
+     * without copying its entries onto the heap.
+     */
+    public static @Nonnull MappedBigEntryStore map(@Nonnull Path file) throws IOException {
+        return MappedBigEntryStore.map(file);
+    }
+
     public void readContents(@Nonnull DataSource input) throws IOException {
         if (!chunkSets.isEmpty())
             throw new IllegalStateException("Can only read into an empty store");
@@ -314,6 +771,232 @@ public class BigEntryStore implements Iterable<BigEntryStore.Entry> {
         public long value;
     }
 
+    /**
+     * Bulk loads a store from entries that are added in any order.
+     * The entries are collected into primitive arrays, sorted once,
+     * and then written into a single sorted set of chunks. This
+     * avoids the insertion sorts and repeated merges of
+     * {@link #addEntry(long, long)} followed by {@link #sort()}.
+     * <p>
+     * Sorting takes 16 bytes per buffered entry when both keys and values
+     * fit in 32 bits, and 32 bytes per buffered entry otherwise. To bound
+     * this, at most {@code maxBufferedEntries} entries are buffered at once.
+     * When the buffer fills, its entries are sorted into a run of chunks,
+     * and the runs are combined using the parallel k-way merge of
+     * {@link #sort()} when the store is built.
+     */
+    public static final class Builder {
+
+        /**
+         * Bounds the memory used to sort buffered entries to 256 MB.
+         */
+        public static final int DEFAULT_MAX_BUFFERED_ENTRIES = 8 * 1024 * 1024;
+
+        private static final long INT_MASK = 0xFFFFFFFFL;
+        private static final long KEY_SIGN_FLIP = 0x80000000L;
+
+        private final @Nonnull ValueType keyType;
+        private final @Nonnull ValueType valueType;
+        private final int entriesPerChunk;
+        private final int maxBufferedEntries;
+
+        /**
+         * The store that is built, which holds the runs that
+         * have been sorted and written out of the buffer.
+         */
+        private final @Nonnull BigEntryStore store;
+
+        /**
+         * When both keys and values fit in 32 bits, each entry is packed
+         * into one long so that entries can be sorted as primitives.
+         * Otherwise, keys and values are stored in separate arrays.
+         */
+        private final boolean packed;
+        private long[] keys;
+        private long[] values;
+        private int size = 0;
+        private int entryCount = 0;
+
+        public Builder(
+                @Nonnull ValueType keyType,
+                @Nonnull ValueType valueType,
+                int entriesPerChunk,
+                int initialCapacity,
+                int maxBufferedEntries,
+                @Nonnull BufferStorage storage
+        ) {
+            if (initialCapacity < 0)
+                throw new IllegalArgumentException("initialCapacity must be non-negative");
+            if (maxBufferedEntries <= 0)
+                throw new IllegalArgumentException("maxBufferedEntries must be positive");
+
+            this.keyType = keyType;
+            this.valueType = valueType;
+            this.entriesPerChunk = entriesPerChunk;
+            this.maxBufferedEntries = maxBufferedEntries;
+            this.store = new BigEntryStore(keyType, valueType, entriesPerChunk, storage);
+            this.packed = keyType.getByteCount() <= 4 && valueType.getByteCount() <= 4;
+
+            int capacity = Math.min(initialCapacity, maxBufferedEntries);
+            this.keys = new long[capacity];
+            this.values = (packed ? null : new long[capacity]);
+        }
+
+        public Builder(
+                @Nonnull ValueType keyType,
+                @Nonnull ValueType valueType,
+                int entriesPerChunk,
+                int initialCapacity,
+                @Nonnull BufferStorage storage
+        ) {
+            this(keyType, valueType, entriesPerChunk, initialCapacity, DEFAULT_MAX_BUFFERED_ENTRIES, storage);
+        }
+
+        public Builder(
+                @Nonnull ValueType keyType,
+                @Nonnull ValueType valueType,
+                int entriesPerChunk,
+                int initialCapacity
+        ) {
+            this(keyType, valueType, entriesPerChunk, initialCapacity, BufferStorage.HEAP);
+        }
+
+        public Builder(
+                @Nonnull ValueType keyType,
+                @Nonnull ValueType valueType,
+                int initialCapacity
+        ) {
+            this(keyType, valueType, DEFAULT_ENTRIES_PER_CHUNK, initialCapacity);
+        }
+
+        public int getEntryCount() {
+            return entryCount;
+        }
+
+        private void ensureCapacity(int capacity) {
+            if (capacity <= keys.length)
+                return;
+
+            int newCapacity = (int) Math.min(maxBufferedEntries, Math.max(16L, 2L * keys.length));
+            keys = Arrays.copyOf(keys, newCapacity);
+            if (values != null) {
+                values = Arrays.copyOf(values, newCapacity);
+            }
+        }
+
+        public void add(int key, int value) {
+            add(Integer.toUnsignedLong(key), Integer.toUnsignedLong(value));
+        }
+
+        public void add(long key, long value) {
+            if (entryCount == Integer.MAX_VALUE)
+                throw new IllegalStateException("Builder is full!");
+            if (size == maxBufferedEntries) {
+                flushRun();
+            }
+
+            ensureCapacity(size + 1);
+            if (packed) {
+                if ((key & ~INT_MASK) != 0 || (value & ~INT_MASK) != 0)
+                    throw new ArithmeticException("key or value cannot be represented in 32 bits");
+
+                // Flipping the sign bit of the key makes the signed sort
+                // of the packed entries order the keys as unsigned.
+                keys[size] = ((key ^ KEY_SIGN_FLIP) << 32) | value;
+            } else {
+                keys[size] = key;
+                values[size] = value;
+            }
+            size += 1;
+            entryCount += 1;
+        }
+
+        /**
+         * Sorts the buffered entries, and writes them into a new run of chunks.
+         */
+        private void flushRun() {
+            if (size == 0)
+                return;
+
+            if (packed) {
+                Arrays.parallelSort(keys, 0, size);
+            } else {
+                radixSort(keys, values, size, keyType.getByteCount());
+            }
+
+            int chunkCount = Math.toIntExact((size + (long) entriesPerChunk - 1) / entriesPerChunk);
+            ChunkSet run = store.allocateChunkSet(chunkCount);
+            for (int index = 0; index < size; ++index) {
+                if (packed) {
+                    long entry = keys[index];
+                    run.appendSortedEntry((entry >>> 32) ^ KEY_SIGN_FLIP, entry & INT_MASK);
+                } else {
+                    run.appendSortedEntry(keys[index], values[index]);
+                }
+            }
+            store.chunkSets.add(run);
+            size = 0;
+        }
+
+        /**
+         * Sorts the entries that have been added, and writes them into a
+         * new store. The builder should not be used after calling this.
+         */
+        public @Nonnull BigEntryStore build() {
+            flushRun();
+            keys = new long[0];
+            values = (packed ? null : new long[0]);
+
+            // Merge the runs, if the entries did not fit in one buffer.
+            store.sort();
+            return store;
+        }
+
+        /**
+         * Sorts {@code keys} as unsigned numbers using a least-significant
+         * digit radix sort, moving {@code values} alongside them. Passes
+         * over bytes that are the same for every key are skipped.
+         */
+        private static void radixSort(long[] keys, long[] values, int size, int keyBytes) {
+            long[] keysFrom = keys;
+            long[] valuesFrom = values;
+            long[] keysTo = new long[size];
+            long[] valuesTo = new long[size];
+            int[] offsets = new int[257];
+
+            for (int shift = 0; shift < 8 * keyBytes; shift += 8) {
+                Arrays.fill(offsets, 0);
+                for (int index = 0; index < size; ++index) {
+                    offsets[(int) ((keysFrom[index] >>> shift) & 0xFF) + 1] += 1;
+                }
+                if (offsets[(int) ((keysFrom[0] >>> shift) & 0xFF) + 1] == size)
+                    continue;
+
+                for (int digit = 1; digit < offsets.length; ++digit) {
+                    offsets[digit] += offsets[digit - 1];
+                }
+                for (int index = 0; index < size; ++index) {
+                    long key = keysFrom[index];
+                    int target = offsets[(int) ((key >>> shift) & 0xFF)]++;
+                    keysTo[target] = key;
+                    valuesTo[target] = valuesFrom[index];
+                }
+
+                long[] swapKeys = keysFrom;
+                keysFrom = keysTo;
+                keysTo = swapKeys;
+                long[] swapValues = valuesFrom;
+                valuesFrom = valuesTo;
+                valuesTo = swapValues;
+            }
+
+            if (keysFrom != keys) {
+                System.arraycopy(keysFrom, 0, keys, 0, size);
+                System.arraycopy(valuesFrom, 0, values, 0, size);
+            }
+        }
+    }
+
     public class BigMapIterator implements Iterator<Entry> {
         private int setIndex = 0;
         private int chunkIndex = 0;
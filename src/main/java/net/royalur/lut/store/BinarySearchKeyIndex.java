@@ -0,0 +1,25 @@
+package net.royalur.lut.store;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+/**
+ * Binary searches the min keys of the chunks, and then the keys within
+ * the chunk. This matches the search that is used by stores without an
+ * index, and is used as the baseline for the other indices.
+ */
+public class BinarySearchKeyIndex extends KeyIndex {
+
+    public BinarySearchKeyIndex(@Nonnull Chunk[] chunks) {
+        super(chunks);
+    }
+
+    @Override
+    public long locate(long key, @Nullable ProbeCounter probes) {
+        int chunkIndex = searchChunkBetween(key, -1, chunks.length, probes);
+        if (chunkIndex < 0 || !isWithinMaxKey(chunkIndex, key, probes))
+            return NOT_FOUND;
+
+        return searchSlotBetween(chunkIndex, key, -1, chunks[chunkIndex].getEntryCount(), probes);
+    }
+}
@@ -25,14 +25,23 @@ public class Chunk {
     public Chunk(@Nonnull BigEntryStore store) {
         this.store = store;
         this.entryCapacity = store.getEntriesPerChunk();
-        this.keyBuffer = store.getKeyType().create(entryCapacity);
-        this.valueBuffer = store.getValueType().create(entryCapacity);
+        this.keyBuffer = store.getKeyType().create(entryCapacity, store.getStorage());
+        this.valueBuffer = store.getValueType().create(entryCapacity, store.getStorage());
     }
 
     public void clear() {
         entryCount = 0;
     }
 
+    /**
+     * Frees the buffers of this chunk if they are stored outside the heap.
+     * The chunk must not be used after it is closed.
+     */
+    public void close() {
+        keyBuffer.close();
+        valueBuffer.close();
+    }
+
     public int getEntryCapacity() {
         return entryCapacity;
     }
@@ -89,6 +98,51 @@ public class Chunk {
         updateStatistics();
     }
 
+    /**
+     * Appends an entry to the end of this chunk without sorting it
+     * into place. The key must not sort before any key already in
+     * this chunk.
+     */
+    public void appendSortedEntry(long key, long value) {
+        if (entryCount >= entryCapacity)
+            throw new IllegalStateException("Chunk is full!");
+        if (entryCount > 0 && Long.compareUnsigned(key, maxValue) < 0)
+            throw new IllegalArgumentException("Entries must be appended in sorted order");
+
+        keyBuffer.set(entryCount, key);
+        valueBuffer.set(entryCount, value);
+        if (entryCount == 0) {
+            minValue = key;
+        }
+        maxValue = key;
+        entryCount += 1;
+    }
+
+    /**
+     * Writes an entry directly into the slot at {@code index}, without
+     * updating the entry count of this chunk. Once all entries have been
+     * written, {@link #finishWriting(int)} must be called.
+     */
+    public void setEntry(int index, long key, long value) {
+        keyBuffer.set(index, key);
+        valueBuffer.set(index, value);
+    }
+
+    /**
+     * Marks the first {@code entryCount} slots, which must have been
+     * written in sorted order using {@link #setEntry}, as the entries
+     * of this chunk.
+     */
+    public void finishWriting(int entryCount) {
+        if (entryCount < 0 || entryCount > entryCapacity)
+            throw new IllegalArgumentException("entryCount is out of bounds: " + entryCount);
+
+        this.entryCount = entryCount;
+        if (entryCount > 0) {
+            updateStatistics();
+        }
+    }
+
     public boolean overlaps(Chunk other) {
         return Long.compareUnsigned(getMinValue(), other.getMaxValue()) <= 0
                 && Long.compareUnsigned(getMaxValue(), other.getMinValue()) >= 0;
@@ -102,6 +156,13 @@ public class Chunk {
         return keyBuffer.indexOfBinarySearch(key, 0, entryCount);
     }
 
+    /**
+     * Searches for {@code key} in the slots from {@code fromIndex} onwards.
+     */
+    public int indexOfKeyFrom(long key, int fromIndex) {
+        return keyBuffer.indexOfBinarySearch(key, fromIndex, entryCount);
+    }
+
     public @Nullable Integer getInt(int key) {
         int entryIndex = indexOfKey(key);
         return entryIndex >= 0 ? valueBuffer.getInt(entryIndex) : null;
@@ -112,6 +173,16 @@ public class Chunk {
         return entryIndex >= 0 ? valueBuffer.getLong(entryIndex) : null;
     }
 
+    public int getIntOrDefault(int key, int missing) {
+        int entryIndex = indexOfKey(key);
+        return entryIndex >= 0 ? valueBuffer.getInt(entryIndex) : missing;
+    }
+
+    public long getLongOrDefault(long key, long missing) {
+        int entryIndex = indexOfKey(key);
+        return entryIndex >= 0 ? valueBuffer.getLong(entryIndex) : missing;
+    }
+
     public int updateEntry(int key, int value) {
         int entryIndex = indexOfKey(key);
         if (entryIndex < 0)
@@ -120,6 +191,34 @@ public class Chunk {
         return valueBuffer.set(entryIndex, value);
     }
 
+    public long updateEntry(long key, long value) {
+        int entryIndex = indexOfKey(key);
+        if (entryIndex < 0)
+            throw new NoSuchElementException();
+
+        return valueBuffer.set(entryIndex, value);
+    }
+
+    /**
+     * Returns the last value.
+     */
+    public int updateValue(int index, int value) {
+        if (index < 0 || index >= entryCount)
+            throw new IndexOutOfBoundsException();
+
+        return valueBuffer.set(index, value);
+    }
+
+    /**
+     * Returns the last value.
+     */
+    public long updateValue(int index, long value) {
+        if (index < 0 || index >= entryCount)
+            throw new IndexOutOfBoundsException();
+
+        return valueBuffer.set(index, value);
+    }
+
     public long getKeyLong(int index) {
         if (index < 0 || index >= entryCount)
             throw new IndexOutOfBoundsException();
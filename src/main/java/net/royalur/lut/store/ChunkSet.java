@@ -106,6 +106,43 @@ public class ChunkSet {
         getNextChunk().addEntry(key, value);
     }
 
+    /**
+     * Appends an entry without sorting it into place within its chunk.
+     * Entries must be appended in sorted order.
+     */
+    public void appendSortedEntry(long key, long value) {
+        checkAddEntryIsSorted(key);
+        getNextChunk().appendSortedEntry(key, value);
+    }
+
+    /**
+     * Writes an entry directly into the slot at {@code index}. Different
+     * slots may be written concurrently. Once all entries have been
+     * written, {@link #finishWriting(int)} must be called.
+     */
+    public void setEntry(int index, long key, long value) {
+        int chunkIndex = index / entriesPerChunk;
+        int entryIndex = index - chunkIndex * entriesPerChunk;
+        chunks[chunkIndex].setEntry(entryIndex, key, value);
+    }
+
+    /**
+     * Marks the first {@code entryCount} slots, which must have been
+     * written in sorted order using {@link #setEntry}, as the entries
+     * of this set.
+     */
+    public void finishWriting(int entryCount) {
+        if (entryCount < 0 || entryCount > (long) chunks.length * entriesPerChunk)
+            throw new IllegalArgumentException("entryCount is out of bounds: " + entryCount);
+
+        for (int index = 0; index < chunks.length; ++index) {
+            long remaining = entryCount - (long) index * entriesPerChunk;
+            chunks[index].finishWriting((int) Math.max(0, Math.min(entriesPerChunk, remaining)));
+        }
+        emptyChunkIndex = 0;
+        lastKeyAdded = (entryCount > 0 ? getKeyLong(entryCount - 1) : 0);
+    }
+
     public long getKeyLong(int index) {
         int chunkIndex = index / entriesPerChunk;
         int entryIndex = index - chunkIndex * entriesPerChunk;
@@ -182,6 +219,80 @@ public class ChunkSet {
         return getPossibleChunkLinearSearch(key, lower, upper);
     }
 
+    /**
+     * Returns the index of the first chunk at or after {@code fromIndex} with
+     * a max key that is not less than {@code key}, or the number of chunks
+     * if there is no such chunk. The search gallops forwards, so it is
+     * fast when looking up keys in ascending order.
+     */
+    private int findChunkFrom(long key, int fromIndex) {
+        if (fromIndex >= chunks.length)
+            return chunks.length;
+        if (Long.compareUnsigned(chunks[fromIndex].getMaxValue(), key) >= 0)
+            return fromIndex;
+
+        // The max key at lower < key <= the max key at upper.
+        int lower = fromIndex;
+        int upper = fromIndex + 1;
+        int step = 1;
+        while (upper < chunks.length && Long.compareUnsigned(chunks[upper].getMaxValue(), key) < 0) {
+            lower = upper;
+            step <<= 1;
+            upper = lower + step;
+        }
+        upper = Math.min(upper, chunks.length);
+        while (upper - lower > 1) {
+            int middle = (lower + upper) >>> 1;
+            if (Long.compareUnsigned(chunks[middle].getMaxValue(), key) < 0) {
+                lower = middle;
+            } else {
+                upper = middle;
+            }
+        }
+        return upper;
+    }
+
+    /**
+     * Looks up all keys in {@code batch}. The keys are visited in sorted
+     * order, so that their chunks are found in a single forwards pass over
+     * the chunks, each search within a chunk starts after the key before
+     * it, and repeated keys are only searched for once.
+     */
+    public void lookupBatch(@Nonnull KeyBatch batch, long missing) {
+        int[] order = batch.sortOrder();
+        int chunkIndex = 0;
+        int fromSlot = 0;
+        long previousKey = 0;
+        long previousValue = missing;
+        for (int index = 0; index < batch.size(); ++index) {
+            int entry = order[index];
+            long key = batch.getKey(entry);
+            if (index > 0 && key == previousKey) {
+                batch.setValue(entry, previousValue);
+                continue;
+            }
+
+            int keyChunkIndex = findChunkFrom(key, chunkIndex);
+            if (keyChunkIndex != chunkIndex) {
+                chunkIndex = keyChunkIndex;
+                fromSlot = 0;
+            }
+
+            long value = missing;
+            if (chunkIndex < chunks.length) {
+                Chunk chunk = chunks[chunkIndex];
+                int slot = chunk.indexOfKeyFrom(key, fromSlot);
+                if (slot >= 0) {
+                    value = chunk.getValueLong(slot);
+                    fromSlot = slot + 1;
+                }
+            }
+            batch.setValue(entry, value);
+            previousKey = key;
+            previousValue = value;
+        }
+    }
+
     public @Nullable Integer getInt(int key) {
         Chunk chunk = getPossibleChunk(key);
         return chunk == null ? null : chunk.getInt(key);
@@ -192,6 +303,21 @@ public class ChunkSet {
         return chunk == null ? null : chunk.getLong(key);
     }
 
+    public int getIntOrDefault(int key, int missing) {
+        Chunk chunk = getPossibleChunk(key);
+        return chunk == null ? missing : chunk.getIntOrDefault(key, missing);
+    }
+
+    public long getLongOrDefault(long key, long missing) {
+        Chunk chunk = getPossibleChunk(key);
+        return chunk == null ? missing : chunk.getLongOrDefault(key, missing);
+    }
+
+    public boolean containsKey(long key) {
+        Chunk chunk = getPossibleChunk(key);
+        return chunk != null && chunk.indexOfKey(key) >= 0;
+    }
+
     public void write(@Nonnull DataSink output) throws IOException {
         output.write((outputBuffer) -> {
             outputBuffer.putInt(emptyChunkIndex);
@@ -209,4 +335,14 @@ public class ChunkSet {
             chunk.read(input);
         }
     }
+
+    /**
+     * Frees the buffers of the chunks in this set if they are stored
+     * outside the heap. The set must not be used after it is closed.
+     */
+    public void close() {
+        for (Chunk chunk : chunks) {
+            chunk.close();
+        }
+    }
 }
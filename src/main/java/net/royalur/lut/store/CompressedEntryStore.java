@@ -0,0 +1,424 @@
+package net.royalur.lut.store;
+
+import net.royalur.lut.buffer.ValueType;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A read-only store of key-value entries that is read from a file of
+ * independently compressed blocks. Within each block, keys are stored
+ * as varint deltas from the previous key, and values are stored as
+ * varints of their XOR with the previous value, as neighbouring values
+ * are often equal or close. A small index of the first key and file
+ * offset of every block is held on the heap, so a lookup reads and
+ * decodes a single block. Recently decoded blocks are kept in an LRU
+ * cache so that lookups in hot regions of the table stay fast.
+ */
+public class CompressedEntryStore implements EntryLookup, Closeable {
+
+    /**
+     * Identifies compressed store files. Spells "RGUZ" in ASCII.
+     */
+    private static final int MAGIC = 0x5247555a;
+
+    private static final int VERSION = 1;
+
+    public static final int DEFAULT_ENTRIES_PER_BLOCK = 4096;
+    public static final int DEFAULT_CACHED_BLOCKS = 1024;
+
+    private static final int HEADER_BYTES = 4 * 4 + 4 + 4 + 4;
+    private static final int BLOCK_INDEX_BYTES = 8 + 8 + 4 + 4;
+
+    private final @Nonnull FileChannel channel;
+    private final @Nonnull ValueType keyType;
+    private final @Nonnull ValueType valueType;
+    private final int entryCount;
+
+    private final @Nonnull long[] blockMinKeys;
+    private final @Nonnull long[] blockOffsets;
+    private final @Nonnull int[] blockEntryCounts;
+    private final @Nonnull int[] blockByteCounts;
+
+    private final @Nonnull BlockCache cache;
+
+    /**
+     * The decoded keys and values of a block.
+     */
+    private static final class Block {
+        private final @Nonnull long[] keys;
+        private final @Nonnull long[] values;
+
+        private Block(int entryCount) {
+            this.keys = new long[entryCount];
+            this.values = new long[entryCount];
+        }
+    }
+
+    /**
+     * A cache of the most recently used blocks.
+     */
+    private static final class BlockCache extends LinkedHashMap<Integer, Block> {
+        private final int capacity;
+
+        private BlockCache(int capacity) {
+            super(16, 0.75f, true);
+            this.capacity = capacity;
+        }
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Integer, Block> eldest) {
+            return size() > capacity;
+        }
+    }
+
+    private CompressedEntryStore(
+            @Nonnull FileChannel channel,
+            @Nonnull ValueType keyType,
+            @Nonnull ValueType valueType,
+            int entryCount,
+            @Nonnull long[] blockMinKeys,
+            @Nonnull long[] blockOffsets,
+            @Nonnull int[] blockEntryCounts,
+            @Nonnull int[] blockByteCounts,
+            int cachedBlocks
+    ) {
+        this.channel = channel;
+        this.keyType = keyType;
+        this.valueType = valueType;
+        this.entryCount = entryCount;
+        this.blockMinKeys = blockMinKeys;
+        this.blockOffsets = blockOffsets;
+        this.blockEntryCounts = blockEntryCounts;
+        this.blockByteCounts = blockByteCounts;
+        this.cache = new BlockCache(cachedBlocks);
+    }
+
+    @Override
+    public @Nonnull ValueType getKeyType() {
+        return keyType;
+    }
+
+    @Override
+    public @Nonnull ValueType getValueType() {
+        return valueType;
+    }
+
+    @Override
+    public int getEntryCount() {
+        return entryCount;
+    }
+
+    public int getBlockCount() {
+        return blockMinKeys.length;
+    }
+
+    private static void putVarLong(@Nonnull ByteBuffer buffer, long value) {
+        while ((value & ~0x7fL) != 0) {
+            buffer.put((byte) ((value & 0x7f) | 0x80));
+            value >>>= 7;
+        }
+        buffer.put((byte) value);
+    }
+
+    private static long getVarLong(@Nonnull ByteBuffer buffer) {
+        long value = 0;
+        int shift = 0;
+        while (true) {
+            byte next = buffer.get();
+            value |= (long) (next & 0x7f) << shift;
+            if ((next & 0x80) == 0)
+                return value;
+
+            shift += 7;
+        }
+    }
+
+    /**
+     * Writes the entries of a sorted store to {@code channel}
+     * in blocks of up to {@code entriesPerBlock} entries.
+     */
+    public static void write(
+            @Nonnull BigEntryStore store,
+            @Nonnull FileChannel channel,
+            int entriesPerBlock
+    ) throws IOException {
+        if (!store.isKnownSorted())
+            throw new IllegalArgumentException("The entry store must be sorted to be compressed");
+        if (entriesPerBlock <= 0)
+            throw new IllegalArgumentException("entriesPerBlock must be positive");
+
+        int entryCount = store.getEntryCount();
+        int blockCount = (entryCount + entriesPerBlock - 1) / entriesPerBlock;
+        long[] blockMinKeys = new long[blockCount];
+        long[] blockOffsets = new long[blockCount];
+        int[] blockEntryCounts = new int[blockCount];
+        int[] blockByteCounts = new int[blockCount];
+
+        // Leave space for the header and index, which are written last.
+        long start = channel.position();
+        long offset = start + HEADER_BYTES + (long) BLOCK_INDEX_BYTES * blockCount;
+
+        // Each varint takes at most 10 bytes.
+        ByteBuffer blockBuffer = ByteBuffer.allocate(entriesPerBlock * 20);
+        int blockIndex = 0;
+        int entriesWritten = 0;
+        long previousKey = 0;
+        long previousValue = 0;
+        for (BigEntryStore.Entry entry : store) {
+            int blockEntryIndex = blockEntryCounts[blockIndex];
+            if (blockEntryIndex == 0) {
+                blockMinKeys[blockIndex] = entry.key;
+                previousKey = entry.key;
+                previousValue = 0;
+            } else if (Long.compareUnsigned(entry.key, previousKey) <= 0) {
+                throw new IllegalStateException("The keys of the entry store are not sorted");
+            }
+
+            putVarLong(blockBuffer, entry.key - previousKey);
+            putVarLong(blockBuffer, entry.value ^ previousValue);
+            previousKey = entry.key;
+            previousValue = entry.value;
+            blockEntryCounts[blockIndex] += 1;
+            entriesWritten += 1;
+
+            if (blockEntryCounts[blockIndex] == entriesPerBlock || entriesWritten == entryCount) {
+                blockBuffer.flip();
+                blockOffsets[blockIndex] = offset;
+                blockByteCounts[blockIndex] = blockBuffer.remaining();
+                offset += writeFully(channel, blockBuffer, offset);
+                blockBuffer.clear();
+                blockIndex += 1;
+            }
+        }
+
+        ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES + BLOCK_INDEX_BYTES * blockCount);
+        header.putInt(MAGIC);
+        header.putInt(VERSION);
+        header.putInt(store.getKeyType().ordinal());
+        header.putInt(store.getValueType().ordinal());
+        header.putInt(entryCount);
+        header.putInt(entriesPerBlock);
+        header.putInt(blockCount);
+        for (int index = 0; index < blockCount; ++index) {
+            header.putLong(blockMinKeys[index]);
+            header.putLong(blockOffsets[index]);
+            header.putInt(blockEntryCounts[index]);
+            header.putInt(blockByteCounts[index]);
+        }
+        header.flip();
+        writeFully(channel, header, start);
+        channel.position(offset);
+    }
+
+    private static int writeFully(
+            @Nonnull FileChannel channel,
+            @Nonnull ByteBuffer buffer,
+            long position
+    ) throws IOException {
+        int byteCount = buffer.remaining();
+        long writePosition = position;
+        while (buffer.hasRemaining()) {
+            writePosition += channel.write(buffer, writePosition);
+        }
+        return byteCount;
+    }
+
+    private static void readFully(
+            @Nonnull FileChannel channel,
+            @Nonnull ByteBuffer buffer,
+            long position
+    ) throws IOException {
+        long readPosition = position;
+        while (buffer.hasRemaining()) {
+            int read = channel.read(buffer, readPosition);
+            if (read < 0)
+                throw new EOFException();
+
+            readPosition += read;
+        }
+        buffer.flip();
+    }
+
+    /**
+     * Opens a store that was written by {@link #write(BigEntryStore, FileChannel, int)}.
+     * The file is kept open until the store is closed.
+     */
+    public static @Nonnull CompressedEntryStore open(@Nonnull Path file, int cachedBlocks) throws IOException {
+        FileChannel channel = FileChannel.open(file, StandardOpenOption.READ);
+        try {
+            ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES);
+            readFully(channel, header, 0);
+            if (header.getInt() != MAGIC)
+                throw new IOException("The file is not a compressed entry store");
+
+            int version = header.getInt();
+            if (version != VERSION)
+                throw new IOException("Unsupported compressed entry store version " + version);
+
+            ValueType keyType = ValueType.values()[header.getInt()];
+            ValueType valueType = ValueType.values()[header.getInt()];
+            int entryCount = header.getInt();
+            header.getInt(); // The entries per block are only needed to write.
+            int blockCount = header.getInt();
+
+            ByteBuffer index = ByteBuffer.allocate(BLOCK_INDEX_BYTES * blockCount);
+            readFully(channel, index, HEADER_BYTES);
+            long[] blockMinKeys = new long[blockCount];
+            long[] blockOffsets = new long[blockCount];
+            int[] blockEntryCounts = new int[blockCount];
+            int[] blockByteCounts = new int[blockCount];
+            for (int blockIndex = 0; blockIndex < blockCount; ++blockIndex) {
+                blockMinKeys[blockIndex] = index.getLong();
+                blockOffsets[blockIndex] = index.getLong();
+                blockEntryCounts[blockIndex] = index.getInt();
+                blockByteCounts[blockIndex] = index.getInt();
+            }
+
+            return new CompressedEntryStore(
+                    channel, keyType, valueType, entryCount,
+                    blockMinKeys, blockOffsets, blockEntryCounts, blockByteCounts,
+                    cachedBlocks
+            );
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    public static @Nonnull CompressedEntryStore open(@Nonnull Path file) throws IOException {
+        return open(file, DEFAULT_CACHED_BLOCKS);
+    }
+
+    /**
+     * Finds the only block that may contain the key.
+     * @return The index of the block, or -1 if no block may contain the key.
+     */
+    private int findBlock(long key) {
+        int lower = 0;
+        int upper = blockMinKeys.length;
+        while (lower < upper) {
+            int middleIndex = lower + (upper - lower) / 2;
+            if (Long.compareUnsigned(blockMinKeys[middleIndex], key) <= 0) {
+                lower = middleIndex + 1;
+            } else {
+                upper = middleIndex;
+            }
+        }
+        return lower - 1;
+    }
+
+    private @Nonnull Block readBlock(int blockIndex) {
+        ByteBuffer buffer = ByteBuffer.allocate(blockByteCounts[blockIndex]);
+        try {
+            readFully(channel, buffer, blockOffsets[blockIndex]);
+        } catch (IOException e) {
+            throw new IllegalStateException("Unable to read block " + blockIndex, e);
+        }
+
+        Block block = new Block(blockEntryCounts[blockIndex]);
+        long key = blockMinKeys[blockIndex];
+        long value = 0;
+        for (int index = 0; index < block.keys.length; ++index) {
+            key += getVarLong(buffer);
+            value ^= getVarLong(buffer);
+            block.keys[index] = key;
+            block.values[index] = value;
+        }
+        return block;
+    }
+
+    private @Nonnull Block getBlock(int blockIndex) {
+        synchronized (cache) {
+            Block block = cache.get(blockIndex);
+            if (block != null)
+                return block;
+        }
+
+        // Blocks are decoded outside the lock, so a block may
+        // occasionally be decoded by two threads at once.
+        Block block = readBlock(blockIndex);
+        synchronized (cache) {
+            cache.put(blockIndex, block);
+        }
+        return block;
+    }
+
+    private int indexOfKey(@Nonnull Block block, long key) {
+        int lower = 0;
+        int upper = block.keys.length;
+        while (lower < upper) {
+            int middleIndex = lower + (upper - lower) / 2;
+            long current = block.keys[middleIndex];
+            if (current == key)
+                return middleIndex;
+
+            if (Long.compareUnsigned(current, key) > 0) {
+                upper = middleIndex;
+            } else {
+                lower = middleIndex + 1;
+            }
+        }
+        return -1;
+    }
+
+    @Override
+    public @Nullable Integer getInt(int key) {
+        Long value = getLong(Integer.toUnsignedLong(key));
+        return value == null ? null : (int) (long) value;
+    }
+
+    @Override
+    public @Nullable Long getLong(long key) {
+        int blockIndex = findBlock(key);
+        if (blockIndex < 0)
+            return null;
+
+        Block block = getBlock(blockIndex);
+        int entryIndex = indexOfKey(block, key);
+        return entryIndex >= 0 ? block.values[entryIndex] : null;
+    }
+
+    @Override
+    public int getIntOrDefault(int key, int missing) {
+        long keyUnsigned = Integer.toUnsignedLong(key);
+        int blockIndex = findBlock(keyUnsigned);
+        if (blockIndex < 0)
+            return missing;
+
+        Block block = getBlock(blockIndex);
+        int entryIndex = indexOfKey(block, keyUnsigned);
+        return entryIndex >= 0 ? (int) block.values[entryIndex] : missing;
+    }
+
+    @Override
+    public long getLongOrDefault(long key, long missing) {
+        int blockIndex = findBlock(key);
+        if (blockIndex < 0)
+            return missing;
+
+        Block block = getBlock(blockIndex);
+        int entryIndex = indexOfKey(block, key);
+        return entryIndex >= 0 ? block.values[entryIndex] : missing;
+    }
+
+    @Override
+    public boolean containsKey(long key) {
+        int blockIndex = findBlock(key);
+        return blockIndex >= 0 && indexOfKey(getBlock(blockIndex), key) >= 0;
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+}
@@ -0,0 +1,177 @@
+package net.royalur.lut.store;
+
+import net.royalur.lut.DataSink;
+import net.royalur.lut.DataSource;
+import net.royalur.lut.buffer.ValueBuffer;
+import net.royalur.lut.buffer.ValueType;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * A table of values that is directly indexed by a dense range of keys,
+ * such as the ranks produced by {@link net.royalur.lut.StateRanking}.
+ * No keys are stored, and lookups are a single array access.
+ */
+public class DenseStateTable implements EntryLookup {
+
+    public static final int DEFAULT_ENTRIES_PER_PAGE_BITS = 16;
+
+    private final @Nonnull ValueType valueType;
+    private final long entryCount;
+    private final int entriesPerPageBits;
+    private final int entriesPerPageMask;
+    private final @Nonnull ValueBuffer[] pages;
+
+    public DenseStateTable(
+            @Nonnull ValueType valueType,
+            long entryCount,
+            int entriesPerPageBits
+    ) {
+        if (entryCount < 0)
+            throw new IllegalArgumentException("entryCount must be non-negative");
+        if (entriesPerPageBits <= 0 || entriesPerPageBits > 30)
+            throw new IllegalArgumentException("entriesPerPageBits must be in the range [1, 30]");
+
+        this.valueType = valueType;
+        this.entryCount = entryCount;
+        this.entriesPerPageBits = entriesPerPageBits;
+        this.entriesPerPageMask = (1 << entriesPerPageBits) - 1;
+
+        int entriesPerPage = 1 << entriesPerPageBits;
+        long pageCount = (entryCount + entriesPerPage - 1) >>> entriesPerPageBits;
+        this.pages = new ValueBuffer[Math.toIntExact(pageCount)];
+        for (int index = 0; index < pages.length; ++index) {
+            pages[index] = valueType.create(entriesPerPage);
+        }
+    }
+
+    public DenseStateTable(@Nonnull ValueType valueType, long entryCount) {
+        this(valueType, entryCount, DEFAULT_ENTRIES_PER_PAGE_BITS);
+    }
+
+    @Override
+    public @Nonnull ValueType getKeyType() {
+        return entryCount > Integer.toUnsignedLong(-1) ? ValueType.LONG : ValueType.INT;
+    }
+
+    @Override
+    public @Nonnull ValueType getValueType() {
+        return valueType;
+    }
+
+    @Override
+    public int getEntryCount() {
+        return Math.toIntExact(entryCount);
+    }
+
+    public long getEntryCountLong() {
+        return entryCount;
+    }
+
+    public int getEntriesPerPage() {
+        return 1 << entriesPerPageBits;
+    }
+
+    private void checkIndex(long index) {
+        if (index < 0 || index >= entryCount)
+            throw new IndexOutOfBoundsException("Index " + index + " is out of bounds for " + entryCount);
+    }
+
+    public int getValueInt(long index) {
+        checkIndex(index);
+        return pages[(int) (index >>> entriesPerPageBits)].getInt((int) index & entriesPerPageMask);
+    }
+
+    public long getValueLong(long index) {
+        checkIndex(index);
+        return pages[(int) (index >>> entriesPerPageBits)].getLong((int) index & entriesPerPageMask);
+    }
+
+    /**
+     * Returns the last value.
+     */
+    public int setValue(long index, int value) {
+        checkIndex(index);
+        return pages[(int) (index >>> entriesPerPageBits)].set((int) index & entriesPerPageMask, value);
+    }
+
+    /**
+     * Returns the last value.
+     */
+    public long setValue(long index, long value) {
+        checkIndex(index);
+        return pages[(int) (index >>> entriesPerPageBits)].set((int) index & entriesPerPageMask, value);
+    }
+
+    /**
+     * Returns the value at the unsigned index {@code key},
+     * or null if the key is outside of this table.
+     */
+    @Override
+    public @Nullable Integer getInt(int key) {
+        long index = Integer.toUnsignedLong(key);
+        return index < entryCount ? getValueInt(index) : null;
+    }
+
+    @Override
+    public @Nullable Long getLong(long key) {
+        return key >= 0 && key < entryCount ? getValueLong(key) : null;
+    }
+
+    @Override
+    public int getIntOrDefault(int key, int missing) {
+        long index = Integer.toUnsignedLong(key);
+        return index < entryCount ? getValueInt(index) : missing;
+    }
+
+    @Override
+    public long getLongOrDefault(long key, long missing) {
+        return key >= 0 && key < entryCount ? getValueLong(key) : missing;
+    }
+
+    @Override
+    public boolean containsKey(long key) {
+        return key >= 0 && key < entryCount;
+    }
+
+    public void write(@Nonnull FileChannel channel) throws IOException {
+        int requiredBytes = Math.max(1024, getEntriesPerPage() * valueType.getByteCount());
+        DataSink output = new DataSink.FileDataSink(
+                channel,
+                ByteBuffer.allocateDirect(requiredBytes)
+        );
+        write(output);
+    }
+
+    public void write(@Nonnull DataSink output) throws IOException {
+        output.write((buffer) -> {
+            buffer.putInt(valueType.ordinal());
+            buffer.putLong(entryCount);
+            buffer.putInt(entriesPerPageBits);
+        });
+        for (ValueBuffer page : pages) {
+            page.writeContents(output);
+        }
+    }
+
+    public static @Nonnull DenseStateTable read(@Nonnull FileChannel channel) throws IOException {
+        ByteBuffer workingBuffer = ByteBuffer.allocateDirect(1024 * 1024);
+        DataSource input = new DataSource.FileDataSource(channel, workingBuffer);
+        return read(input);
+    }
+
+    public static @Nonnull DenseStateTable read(@Nonnull DataSource input) throws IOException {
+        ValueType valueType = ValueType.values()[input.readInt()];
+        long entryCount = input.readLong();
+        int entriesPerPageBits = input.readInt();
+        DenseStateTable table = new DenseStateTable(valueType, entryCount, entriesPerPageBits);
+        for (ValueBuffer page : table.pages) {
+            page.readContents(input);
+        }
+        return table;
+    }
+}
@@ -0,0 +1,111 @@
+package net.royalur.lut.store;
+
+import net.royalur.lut.buffer.ValueType;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+/**
+ * A read-only view of a store of key-value entries.
+ */
+public interface EntryLookup {
+
+    @Nonnull ValueType getKeyType();
+
+    @Nonnull ValueType getValueType();
+
+    int getEntryCount();
+
+    /**
+     * Returns the value associated with {@code key}, or null if
+     * there is no entry for the key.
+     */
+    @Nullable Integer getInt(int key);
+
+    /**
+     * Returns the value associated with {@code key}, or null if
+     * there is no entry for the key.
+     */
+    @Nullable Long getLong(long key);
+
+    /**
+     * Returns the value associated with {@code key}, or {@code missing}
+     * if there is no entry for the key. Unlike {@link #getInt(int)},
+     * this does not box the value.
+     */
+    default int getIntOrDefault(int key, int missing) {
+        Integer value = getInt(key);
+        return value != null ? value : missing;
+    }
+
+    /**
+     * Returns the value associated with {@code key}, or {@code missing}
+     * if there is no entry for the key. Unlike {@link #getLong(long)},
+     * this does not box the value.
+     */
+    default long getLongOrDefault(long key, long missing) {
+        Long value = getLong(key);
+        return value != null ? value : missing;
+    }
+
+    /**
+     * Returns whether there is an entry for {@code key}.
+     */
+    default boolean containsKey(long key) {
+        return getLong(key) != null;
+    }
+
+    /**
+     * Looks up the value of each key in {@code keys}, and writes it to
+     * the same index in {@code outValues}, or {@code missing} if there
+     * is no entry for the key.
+     * @return The number of keys that were found.
+     */
+    default int lookupBatch(@Nonnull int[] keys, @Nonnull int[] outValues, int missing) {
+        if (outValues.length < keys.length)
+            throw new IllegalArgumentException("outValues is smaller than keys");
+
+        int foundCount = 0;
+        for (int index = 0; index < keys.length; ++index) {
+            int value = getIntOrDefault(keys[index], missing);
+            outValues[index] = value;
+            if (value != missing || containsKey(Integer.toUnsignedLong(keys[index]))) {
+                foundCount += 1;
+            }
+        }
+        return foundCount;
+    }
+
+    /**
+     * Looks up the value of each key in {@code keys}, and writes it to
+     * the same index in {@code outValues}, or {@code missing} if there
+     * is no entry for the key.
+     * @return The number of keys that were found.
+     */
+    default int lookupBatch(@Nonnull long[] keys, @Nonnull long[] outValues, long missing) {
+        if (outValues.length < keys.length)
+            throw new IllegalArgumentException("outValues is smaller than keys");
+
+        int foundCount = 0;
+        for (int index = 0; index < keys.length; ++index) {
+            long value = getLongOrDefault(keys[index], missing);
+            outValues[index] = value;
+            if (value != missing || containsKey(keys[index])) {
+                foundCount += 1;
+            }
+        }
+        return foundCount;
+    }
+
+    /**
+     * Looks up the values of all keys in {@code batch}, which can then be
+     * read using {@link KeyBatch#getValue(int)}. Keys that have no entry
+     * are given the value {@code missing}. Stores may resolve the keys of
+     * a batch together, which is faster than looking them up one at a time.
+     */
+    default void lookupBatch(@Nonnull KeyBatch batch, long missing) {
+        for (int index = 0; index < batch.size(); ++index) {
+            batch.setValue(index, getLongOrDefault(batch.getKey(index), missing));
+        }
+    }
+}
@@ -0,0 +1,102 @@
+package net.royalur.lut.store;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+/**
+ * Interpolation searches the min keys of the chunks, and then the keys
+ * within the chunk. Each interpolation step that fails to at
+ * least halve the range that is searched is followed by a bisection,
+ * so that skewed keys cannot degrade the search to a linear scan.
+ */
+public class InterpolationKeyIndex extends KeyIndex {
+
+    public InterpolationKeyIndex(@Nonnull Chunk[] chunks) {
+        super(chunks);
+    }
+
+    private int searchChunk(long key, @Nullable ProbeCounter probes) {
+        int lower = 0;
+        int upper = minKeys.length - 1;
+        ProbeCounter.add(probes, 1);
+        if (Long.compareUnsigned(key, minKeys[lower]) < 0)
+            return -1;
+
+        ProbeCounter.add(probes, 1);
+        if (Long.compareUnsigned(key, minKeys[upper]) >= 0)
+            return upper;
+
+        // The min key at lower <= key < the min key at upper.
+        boolean bisect = false;
+        while (upper - lower > 1) {
+            int range = upper - lower;
+            int middle;
+            if (bisect) {
+                middle = (lower + upper) >>> 1;
+            } else {
+                double fraction = toUnsignedDouble(key - minKeys[lower])
+                        / toUnsignedDouble(minKeys[upper] - minKeys[lower]);
+
+                middle = lower + (int) (fraction * range);
+                middle = Math.max(lower + 1, Math.min(upper - 1, middle));
+            }
+
+            ProbeCounter.add(probes, 1);
+            if (Long.compareUnsigned(minKeys[middle], key) <= 0) {
+                lower = middle;
+            } else {
+                upper = middle;
+            }
+            bisect = !bisect && 2 * (upper - lower) > range;
+        }
+        return lower;
+    }
+
+    private long searchSlot(int chunkIndex, long key, @Nullable ProbeCounter probes) {
+        if (!isWithinMaxKey(chunkIndex, key, probes))
+            return NOT_FOUND;
+
+        Chunk chunk = chunks[chunkIndex];
+        int lower = 0;
+        int upper = chunk.getEntryCount() - 1;
+        long lowerKey = minKeys[chunkIndex];
+        long upperKey = maxKeys[chunkIndex];
+        if (key == upperKey)
+            return searchSlotBetween(chunkIndex, key, upper, upper + 1, probes);
+
+        // The key at lower <= key < the key at upper.
+        boolean bisect = false;
+        while (upper - lower > 1) {
+            int range = upper - lower;
+            int middle;
+            if (bisect) {
+                middle = (lower + upper) >>> 1;
+            } else {
+                double fraction = toUnsignedDouble(key - lowerKey) / toUnsignedDouble(upperKey - lowerKey);
+                middle = lower + (int) (fraction * range);
+                middle = Math.max(lower + 1, Math.min(upper - 1, middle));
+            }
+
+            ProbeCounter.add(probes, 1);
+            long middleKey = chunk.getKeyLong(middle);
+            if (Long.compareUnsigned(middleKey, key) <= 0) {
+                lower = middle;
+                lowerKey = middleKey;
+            } else {
+                upper = middle;
+                upperKey = middleKey;
+            }
+            bisect = !bisect && 2 * (upper - lower) > range;
+        }
+        return searchSlotBetween(chunkIndex, key, lower, lower + 1, probes);
+    }
+
+    @Override
+    public long locate(long key, @Nullable ProbeCounter probes) {
+        int chunkIndex = searchChunk(key, probes);
+        if (chunkIndex < 0)
+            return NOT_FOUND;
+
+        return searchSlot(chunkIndex, key, probes);
+    }
+}
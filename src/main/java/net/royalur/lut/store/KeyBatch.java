@@ -0,0 +1,133 @@
+package net.royalur.lut.store;
+
+import javax.annotation.Nonnull;
+import java.util.Arrays;
+
+/**
+ * A batch of keys that are looked up together using
+ * {@link EntryLookup#lookupBatch(KeyBatch, long)}.
+ * A batch may be reused without allocating memory.
+ */
+public final class KeyBatch {
+
+    /**
+     * Batches up to this size are sorted using an insertion sort.
+     */
+    private static final int INSERTION_SORT_THRESHOLD = 32;
+
+    private @Nonnull long[] keys;
+    private @Nonnull long[] values;
+    private int size = 0;
+
+    // Scratch space used to sort the keys.
+    private @Nonnull int[] order;
+    private @Nonnull int[] sortScratch;
+
+    public KeyBatch(int initialCapacity) {
+        int capacity = Math.max(1, initialCapacity);
+        this.keys = new long[capacity];
+        this.values = new long[capacity];
+        this.order = new int[capacity];
+        this.sortScratch = new int[capacity];
+    }
+
+    public KeyBatch() {
+        this(64);
+    }
+
+    public void clear() {
+        size = 0;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Adds {@code key} to this batch.
+     * @return The index of the key in this batch.
+     */
+    public int add(long key) {
+        if (size >= keys.length) {
+            int capacity = 2 * keys.length;
+            keys = Arrays.copyOf(keys, capacity);
+            values = Arrays.copyOf(values, capacity);
+            order = new int[capacity];
+            sortScratch = new int[capacity];
+        }
+        keys[size] = key;
+        size += 1;
+        return size - 1;
+    }
+
+    public long getKey(int index) {
+        return keys[index];
+    }
+
+    /**
+     * Returns the value that was looked up for the key at {@code index}.
+     */
+    public long getValue(int index) {
+        return values[index];
+    }
+
+    public void setValue(int index, long value) {
+        values[index] = value;
+    }
+
+    /**
+     * Returns the indices of the keys in this batch, sorted
+     * by their keys in unsigned ascending order.
+     */
+    @Nonnull int[] sortOrder() {
+        for (int index = 0; index < size; ++index) {
+            order[index] = index;
+        }
+
+        // Insertion sort small runs, and then merge the runs.
+        for (int start = 0; start < size; start += INSERTION_SORT_THRESHOLD) {
+            insertionSort(order, start, Math.min(size, start + INSERTION_SORT_THRESHOLD));
+        }
+        int[] from = order;
+        int[] to = sortScratch;
+        for (int width = INSERTION_SORT_THRESHOLD; width < size; width *= 2) {
+            for (int start = 0; start < size; start += 2 * width) {
+                int middle = Math.min(size, start + width);
+                int end = Math.min(size, start + 2 * width);
+                merge(from, to, start, middle, end);
+            }
+            int[] swap = from;
+            from = to;
+            to = swap;
+        }
+        if (from != order) {
+            System.arraycopy(from, 0, order, 0, size);
+        }
+        return order;
+    }
+
+    private void insertionSort(int[] indices, int start, int end) {
+        for (int index = start + 1; index < end; ++index) {
+            int value = indices[index];
+            long key = keys[value];
+            int target = index;
+            while (target > start && Long.compareUnsigned(keys[indices[target - 1]], key) > 0) {
+                indices[target] = indices[target - 1];
+                target -= 1;
+            }
+            indices[target] = value;
+        }
+    }
+
+    private void merge(int[] from, int[] to, int start, int middle, int end) {
+        int left = start;
+        int right = middle;
+        for (int index = start; index < end; ++index) {
+            if (right >= end || (left < middle && Long.compareUnsigned(keys[from[left]], keys[from[right]]) <= 0)) {
+                to[index] = from[left++];
+            } else {
+                to[index] = from[right++];
+            }
+        }
+    }
+}
@@ -0,0 +1,290 @@
+package net.royalur.lut.store;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.util.function.Function;
+
+/**
+ * An index over the chunks of a sorted {@link BigEntryStore} that
+ * locates the chunk and the slot within that chunk that hold a key.
+ * Indices are built once over the min and max keys of each chunk,
+ * and must be rebuilt if the chunks are modified.
+ */
+public abstract class KeyIndex {
+
+    /**
+     * The location returned when a key could not be found.
+     */
+    public static final long NOT_FOUND = -1;
+
+    protected final @Nonnull Chunk[] chunks;
+    protected final @Nonnull long[] minKeys;
+    protected final @Nonnull long[] maxKeys;
+
+    /**
+     * @param chunks Non-empty chunks that are sorted, and that do not overlap.
+     */
+    protected KeyIndex(@Nonnull Chunk[] chunks) {
+        this.chunks = chunks;
+        this.minKeys = new long[chunks.length];
+        this.maxKeys = new long[chunks.length];
+        for (int index = 0; index < chunks.length; ++index) {
+            Chunk chunk = chunks[index];
+            if (chunk.getEntryCount() == 0)
+                throw new IllegalArgumentException("Chunks must not be empty");
+
+            minKeys[index] = chunk.getMinValue();
+            maxKeys[index] = chunk.getMaxValue();
+        }
+    }
+
+    public int getChunkCount() {
+        return chunks.length;
+    }
+
+    public @Nonnull Chunk getChunk(int index) {
+        return chunks[index];
+    }
+
+    public static int getChunkIndex(long location) {
+        return (int) (location >>> 32);
+    }
+
+    public static int getSlot(long location) {
+        return (int) location;
+    }
+
+    private static long toLocation(int chunkIndex, int slot) {
+        return ((long) chunkIndex << 32) | Integer.toUnsignedLong(slot);
+    }
+
+    /**
+     * Returns the location of {@code key} as a chunk index and slot, which
+     * can be read using {@link #getChunkIndex} and {@link #getSlot}, or
+     * {@link #NOT_FOUND} if the key is not in the indexed chunks.
+     */
+    public long locate(long key) {
+        return locate(key, null);
+    }
+
+    /**
+     * The same as {@link #locate(long)}, except that the number of stored
+     * keys that were compared against {@code key} is added to {@code probes}.
+     */
+    public abstract long locate(long key, @Nullable ProbeCounter probes);
+
+    /**
+     * Converts an unsigned long to a double.
+     */
+    protected static double toUnsignedDouble(long value) {
+        if (value >= 0)
+            return value;
+
+        return (value >>> 1) * 2.0 + (value & 1);
+    }
+
+    /**
+     * Returns the index of the last chunk with a min key that is not
+     * greater than {@code key}, or -1 if there is no such chunk. The
+     * search starts at {@code guess} and gallops outwards, so it is
+     * fast when the guess is close.
+     */
+    protected int searchChunkNear(long key, int guess, @Nullable ProbeCounter probes) {
+        int last = minKeys.length - 1;
+        int index = Math.max(0, Math.min(last, guess));
+
+        // Find the bounds lower < answer + 1 <= upper.
+        int lower;
+        int upper;
+        ProbeCounter.add(probes, 1);
+        if (Long.compareUnsigned(minKeys[index], key) <= 0) {
+            lower = index;
+            upper = index + 1;
+            int step = 1;
+            while (upper <= last) {
+                ProbeCounter.add(probes, 1);
+                if (Long.compareUnsigned(minKeys[upper], key) > 0)
+                    break;
+
+                lower = upper;
+                step <<= 1;
+                upper = lower + step;
+            }
+            upper = Math.min(upper, last + 1);
+        } else {
+            upper = index;
+            lower = index - 1;
+            int step = 1;
+            while (lower >= 0) {
+                ProbeCounter.add(probes, 1);
+                if (Long.compareUnsigned(minKeys[lower], key) <= 0)
+                    break;
+
+                upper = lower;
+                step <<= 1;
+                lower = upper - step;
+            }
+            lower = Math.max(lower, -1);
+        }
+        return searchChunkBetween(key, lower, upper, probes);
+    }
+
+    /**
+     * Returns the index of the last chunk with a min key that is not
+     * greater than {@code key}, given that the min key of the chunk at
+     * {@code lower} is not greater than {@code key}, and the min key of
+     * the chunk at {@code upper} is greater than {@code key}. Either bound
+     * may be outside the chunks.
+     */
+    protected int searchChunkBetween(long key, int lower, int upper, @Nullable ProbeCounter probes) {
+        while (upper - lower > 1) {
+            int middle = (lower + upper) >>> 1;
+            ProbeCounter.add(probes, 1);
+            if (Long.compareUnsigned(minKeys[middle], key) <= 0) {
+                lower = middle;
+            } else {
+                upper = middle;
+            }
+        }
+        return lower;
+    }
+
+    /**
+     * Finds {@code key} within the chunk at {@code chunkIndex}, starting
+     * the search from the slot {@code guess}.
+     */
+    protected long searchSlotNear(int chunkIndex, long key, int guess, @Nullable ProbeCounter probes) {
+        if (!isWithinMaxKey(chunkIndex, key, probes))
+            return NOT_FOUND;
+
+        Chunk chunk = chunks[chunkIndex];
+        int last = chunk.getEntryCount() - 1;
+        int index = Math.max(0, Math.min(last, guess));
+
+        // Gallop to bounds where the key at lower <= key < the key at upper.
+        int lower;
+        int upper;
+        ProbeCounter.add(probes, 1);
+        long current = chunk.getKeyLong(index);
+        if (current == key)
+            return toLocation(chunkIndex, index);
+
+        if (Long.compareUnsigned(current, key) < 0) {
+            lower = index;
+            upper = index + 1;
+            int step = 1;
+            while (upper <= last) {
+                ProbeCounter.add(probes, 1);
+                if (Long.compareUnsigned(chunk.getKeyLong(upper), key) > 0)
+                    break;
+
+                lower = upper;
+                step <<= 1;
+                upper = lower + step;
+            }
+            upper = Math.min(upper, last + 1);
+        } else {
+            upper = index;
+            lower = index - 1;
+            int step = 1;
+            while (lower >= 0) {
+                ProbeCounter.add(probes, 1);
+                if (Long.compareUnsigned(chunk.getKeyLong(lower), key) <= 0)
+                    break;
+
+                upper = lower;
+                step <<= 1;
+                lower = upper - step;
+            }
+            lower = Math.max(lower, -1);
+        }
+        return searchSlotBetween(chunkIndex, key, lower, upper, probes);
+    }
+
+    /**
+     * Binary searches for {@code key} within the chunk at {@code chunkIndex},
+     * given that the key at slot {@code lower} is not greater than
+     * {@code key}, and the key at slot {@code upper} is greater than
+     * {@code key}. Either bound may be outside the chunk.
+     */
+    protected long searchSlotBetween(
+            int chunkIndex, long key, int lower, int upper, @Nullable ProbeCounter probes
+    ) {
+        Chunk chunk = chunks[chunkIndex];
+        while (upper - lower > 1) {
+            int middle = (lower + upper) >>> 1;
+            ProbeCounter.add(probes, 1);
+            if (Long.compareUnsigned(chunk.getKeyLong(middle), key) <= 0) {
+                lower = middle;
+            } else {
+                upper = middle;
+            }
+        }
+        if (lower < 0 || chunk.getKeyLong(lower) != key)
+            return NOT_FOUND;
+
+        return toLocation(chunkIndex, lower);
+    }
+
+    /**
+     * Returns whether {@code key} may be in the chunk at {@code chunkIndex},
+     * given that it is not less than the min key of the chunk.
+     */
+    protected boolean isWithinMaxKey(int chunkIndex, long key, @Nullable ProbeCounter probes) {
+        ProbeCounter.add(probes, 1);
+        return Long.compareUnsigned(key, maxKeys[chunkIndex]) <= 0;
+    }
+
+    /**
+     * Counts the number of stored keys that are compared against the
+     * keys that are looked up, for benchmarking indices.
+     */
+    public static final class ProbeCounter {
+        private long probes = 0;
+
+        public long getProbes() {
+            return probes;
+        }
+
+        public void reset() {
+            probes = 0;
+        }
+
+        static void add(@Nullable ProbeCounter counter, int probes) {
+            if (counter != null) {
+                counter.probes += probes;
+            }
+        }
+    }
+
+    /**
+     * The types of indices that can be built over a store.
+     */
+    public enum Type {
+        /**
+         * Binary searches the chunks, and then the slots within a chunk.
+         */
+        BINARY_SEARCH(BinarySearchKeyIndex::new),
+
+        /**
+         * Interpolation searches the chunks, and then the slots within a chunk.
+         */
+        INTERPOLATION(InterpolationKeyIndex::new),
+
+        /**
+         * Fits a piecewise-linear model from keys to their positions,
+         * which predicts both the chunk and the slot of a key.
+         */
+        PIECEWISE_LINEAR(PiecewiseLinearKeyIndex::new);
+
+        private final @Nonnull Function<Chunk[], KeyIndex> builderFn;
+
+        Type(@Nonnull Function<Chunk[], KeyIndex> builderFn) {
+            this.builderFn = builderFn;
+        }
+
+        public @Nonnull KeyIndex build(@Nonnull Chunk[] chunks) {
+            return builderFn.apply(chunks);
+        }
+    }
+}
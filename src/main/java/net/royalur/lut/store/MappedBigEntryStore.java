@@ -0,0 +1,339 @@
+package net.royalur.lut.store;
+
+import net.royalur.lut.buffer.ValueType;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A read-only store of key-value entries that is served directly from
+ * a memory-mapped file written by {@link BigEntryStore#write(FileChannel)}.
+ * The entries are never copied onto the heap, so opening a store is
+ * near-instant, and several processes mapping the same file will share
+ * the operating system's page cache.
+ */
+public class MappedBigEntryStore implements EntryLookup {
+
+    /**
+     * The maximum number of bytes that may be held in one mapped region.
+     */
+    private static final long MAX_REGION_BYTES = Integer.MAX_VALUE;
+
+    private final @Nonnull ValueType keyType;
+    private final @Nonnull ValueType valueType;
+    private final int entriesPerChunk;
+    private final int entryCount;
+
+    private final @Nonnull MappedByteBuffer[] regions;
+
+    /**
+     * The non-empty chunks of chunk set i are in the range
+     * [chunkSetStarts[i], chunkSetEnds[i]).
+     */
+    private final @Nonnull int[] chunkSetStarts;
+    private final @Nonnull int[] chunkSetEnds;
+    private final @Nonnull int[] chunkRegions;
+    private final @Nonnull int[] chunkKeyOffsets;
+    private final @Nonnull int[] chunkValueOffsets;
+    private final @Nonnull int[] chunkEntryCounts;
+    private final @Nonnull long[] chunkMinKeys;
+    private final @Nonnull long[] chunkMaxKeys;
+
+    private MappedBigEntryStore(
+            @Nonnull ValueType keyType,
+            @Nonnull ValueType valueType,
+            int entriesPerChunk,
+            @Nonnull MappedByteBuffer[] regions,
+            @Nonnull int[] chunkSetStarts,
+            @Nonnull int[] chunkSetEnds,
+            @Nonnull int[] chunkRegions,
+            @Nonnull int[] chunkKeyOffsets,
+            @Nonnull int[] chunkValueOffsets,
+            @Nonnull int[] chunkEntryCounts,
+            @Nonnull long[] chunkMinKeys,
+            @Nonnull long[] chunkMaxKeys
+    ) {
+        this.keyType = keyType;
+        this.valueType = valueType;
+        this.entriesPerChunk = entriesPerChunk;
+        this.regions = regions;
+        this.chunkSetStarts = chunkSetStarts;
+        this.chunkSetEnds = chunkSetEnds;
+        this.chunkRegions = chunkRegions;
+        this.chunkKeyOffsets = chunkKeyOffsets;
+        this.chunkValueOffsets = chunkValueOffsets;
+        this.chunkEntryCounts = chunkEntryCounts;
+        this.chunkMinKeys = chunkMinKeys;
+        this.chunkMaxKeys = chunkMaxKeys;
+
+        int entryCount = 0;
+        for (int chunkEntryCount : chunkEntryCounts) {
+            entryCount += chunkEntryCount;
+        }
+        this.entryCount = entryCount;
+    }
+
+    public int getEntriesPerChunk() {
+        return entriesPerChunk;
+    }
+
+    @Override
+    public @Nonnull ValueType getKeyType() {
+        return keyType;
+    }
+
+    @Override
+    public @Nonnull ValueType getValueType() {
+        return valueType;
+    }
+
+    @Override
+    public int getEntryCount() {
+        return entryCount;
+    }
+
+    public int getChunkCount() {
+        return chunkEntryCounts.length;
+    }
+
+    public int getRegionCount() {
+        return regions.length;
+    }
+
+    /**
+     * Returns the number of bytes of the file that are mapped into memory.
+     * The operating system only keeps the pages that are read resident,
+     * and shares them with other processes that map the same file.
+     */
+    public long getMappedByteCount() {
+        long byteCount = 0;
+        for (MappedByteBuffer region : regions) {
+            byteCount += region.capacity();
+        }
+        return byteCount;
+    }
+
+    private static long readUnsigned(@Nonnull ByteBuffer buffer, int offset, @Nonnull ValueType type) {
+        switch (type) {
+            case LONG: return buffer.getLong(offset);
+            case INT: return Integer.toUnsignedLong(buffer.getInt(offset));
+            case SHORT: return Short.toUnsignedLong(buffer.getShort(offset));
+            case BYTE: return Byte.toUnsignedLong(buffer.get(offset));
+            default: throw new IllegalStateException("Unknown value type " + type);
+        }
+    }
+
+    /**
+     * Finds the chunk within the given chunk set that may contain the key.
+     * @return The index of the chunk, or -1 if no chunk may contain the key.
+     */
+    private int getPossibleChunk(int chunkSetIndex, long key) {
+        int lower = chunkSetStarts[chunkSetIndex];
+        int upper = chunkSetEnds[chunkSetIndex];
+        while (lower < upper) {
+            int middleIndex = lower + (upper - lower) / 2;
+            if (Long.compareUnsigned(chunkMaxKeys[middleIndex], key) < 0) {
+                lower = middleIndex + 1;
+            } else {
+                upper = middleIndex;
+            }
+        }
+        if (lower >= chunkSetEnds[chunkSetIndex])
+            return -1;
+        if (Long.compareUnsigned(chunkMinKeys[lower], key) > 0)
+            return -1;
+
+        return lower;
+    }
+
+    /**
+     * Finds the index of the entry with the given key in a chunk.
+     * @return The index of the entry, or -1 if the key is not in the chunk.
+     */
+    private int indexOfKey(int chunkIndex, long key) {
+        ByteBuffer region = regions[chunkRegions[chunkIndex]];
+        int keyOffset = chunkKeyOffsets[chunkIndex];
+        int keyBytes = keyType.getByteCount();
+
+        int lower = 0;
+        int upper = chunkEntryCounts[chunkIndex];
+        while (lower < upper) {
+            int middleIndex = lower + (upper - lower) / 2;
+            long current = readUnsigned(region, keyOffset + middleIndex * keyBytes, keyType);
+            int comparison = Long.compareUnsigned(current, key);
+            if (comparison == 0)
+                return middleIndex;
+
+            if (comparison > 0) {
+                upper = middleIndex;
+            } else {
+                lower = middleIndex + 1;
+            }
+        }
+        return -1;
+    }
+
+    private long readValueLong(int chunkIndex, int entryIndex) {
+        ByteBuffer region = regions[chunkRegions[chunkIndex]];
+        int offset = chunkValueOffsets[chunkIndex] + entryIndex * valueType.getByteCount();
+        return readUnsigned(region, offset, valueType);
+    }
+
+    private int readValueInt(int chunkIndex, int entryIndex) {
+        if (valueType == ValueType.LONG)
+            throw new UnsupportedOperationException("This store has long values");
+
+        return (int) readValueLong(chunkIndex, entryIndex);
+    }
+
+    /**
+     * Finds the chunk and entry that hold {@code key}.
+     * @return The chunk index in the high 32 bits and the entry index in
+     *         the low 32 bits, or -1 if the key is not in this store.
+     */
+    private long locate(long key) {
+        for (int chunkSetIndex = 0; chunkSetIndex < chunkSetEnds.length; ++chunkSetIndex) {
+            int chunkIndex = getPossibleChunk(chunkSetIndex, key);
+            if (chunkIndex < 0)
+                continue;
+
+            int entryIndex = indexOfKey(chunkIndex, key);
+            if (entryIndex >= 0)
+                return ((long) chunkIndex << 32) | entryIndex;
+        }
+        return -1;
+    }
+
+    @Override
+    public @Nullable Integer getInt(int key) {
+        long location = locate(Integer.toUnsignedLong(key));
+        return location >= 0 ? readValueInt((int) (location >>> 32), (int) location) : null;
+    }
+
+    @Override
+    public @Nullable Long getLong(long key) {
+        long location = locate(key);
+        return location >= 0 ? readValueLong((int) (location >>> 32), (int) location) : null;
+    }
+
+    @Override
+    public int getIntOrDefault(int key, int missing) {
+        long location = locate(Integer.toUnsignedLong(key));
+        return location >= 0 ? readValueInt((int) (location >>> 32), (int) location) : missing;
+    }
+
+    @Override
+    public long getLongOrDefault(long key, long missing) {
+        long location = locate(key);
+        return location >= 0 ? readValueLong((int) (location >>> 32), (int) location) : missing;
+    }
+
+    @Override
+    public boolean containsKey(long key) {
+        return locate(key) >= 0;
+    }
+
+    /**
+     * Maps the store in {@code file} into memory.
+     * @param file A file written by {@link BigEntryStore#write(FileChannel)}.
+     * @return A read-only store backed by the mapped file.
+     */
+    public static @Nonnull MappedBigEntryStore map(@Nonnull Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            return map(channel);
+        }
+    }
+
+    /**
+     * Maps the store in {@code channel} into memory. The mapping remains
+     * valid after the channel is closed.
+     */
+    public static @Nonnull MappedBigEntryStore map(@Nonnull FileChannel channel) throws IOException {
+        return map(channel, 0);
+    }
+
+    /**
+     * Maps the store that starts at {@code offset} in {@code channel}
+     * into memory. The mapping remains valid after the channel is closed.
+     */
+    public static @Nonnull MappedBigEntryStore map(@Nonnull FileChannel channel, long offset) throws IOException {
+        StoreLayout layout = StoreLayout.read(channel, offset);
+        ValueType keyType = layout.getKeyType();
+        ValueType valueType = layout.getValueType();
+        int entriesPerChunk = layout.getEntriesPerChunk();
+        int chunkSetCount = layout.getChunkSetCount();
+        int chunkCount = layout.getChunkCount();
+        long keyBytes = layout.getKeyBytes();
+        long chunkBytes = layout.getChunkBytes();
+        if (chunkBytes > MAX_REGION_BYTES)
+            throw new IOException("Chunks are too large to be mapped");
+
+        int[] chunkSetStarts = new int[chunkSetCount + 1];
+        for (int setIndex = 0; setIndex <= chunkSetCount; ++setIndex) {
+            chunkSetStarts[setIndex] = layout.getChunkSetStart(setIndex);
+        }
+        long[] chunkFileOffsets = new long[chunkCount];
+        for (int index = 0; index < chunkCount; ++index) {
+            chunkFileOffsets[index] = layout.getChunkOffset(index);
+        }
+
+        // Group consecutive chunks into regions so that no chunk straddles two regions.
+        List<MappedByteBuffer> regions = new ArrayList<>();
+        int[] chunkRegions = new int[chunkCount];
+        int[] chunkKeyOffsets = new int[chunkCount];
+        int[] chunkValueOffsets = new int[chunkCount];
+        int[] chunkEntryCounts = new int[chunkCount];
+        long[] chunkMinKeys = new long[chunkCount];
+        long[] chunkMaxKeys = new long[chunkCount];
+
+        int chunkIndex = 0;
+        while (chunkIndex < chunkCount) {
+            long regionStart = chunkFileOffsets[chunkIndex];
+            int regionEndChunk = chunkIndex + 1;
+            while (regionEndChunk < chunkCount
+                    && chunkFileOffsets[regionEndChunk] + chunkBytes - regionStart <= MAX_REGION_BYTES) {
+                regionEndChunk += 1;
+            }
+            long regionSize = chunkFileOffsets[regionEndChunk - 1] + chunkBytes - regionStart;
+            MappedByteBuffer region = channel.map(FileChannel.MapMode.READ_ONLY, regionStart, regionSize);
+
+            int regionIndex = regions.size();
+            regions.add(region);
+            for (; chunkIndex < regionEndChunk; ++chunkIndex) {
+                int chunkOffset = (int) (chunkFileOffsets[chunkIndex] - regionStart);
+                chunkRegions[chunkIndex] = regionIndex;
+                chunkEntryCounts[chunkIndex] = region.getInt(chunkOffset);
+                chunkMinKeys[chunkIndex] = region.getLong(chunkOffset + 4);
+                chunkMaxKeys[chunkIndex] = region.getLong(chunkOffset + 12);
+                chunkKeyOffsets[chunkIndex] = chunkOffset + StoreLayout.CHUNK_HEADER_BYTES;
+                chunkValueOffsets[chunkIndex] = (int) (chunkOffset + StoreLayout.CHUNK_HEADER_BYTES + keyBytes);
+            }
+        }
+
+        // Chunks are filled in order, so any empty chunks are at the end of their set.
+        int[] chunkSetEnds = new int[chunkSetCount];
+        for (int setIndex = 0; setIndex < chunkSetCount; ++setIndex) {
+            int end = chunkSetStarts[setIndex];
+            while (end < chunkSetStarts[setIndex + 1] && chunkEntryCounts[end] > 0) {
+                end += 1;
+            }
+            chunkSetEnds[setIndex] = end;
+        }
+
+        return new MappedBigEntryStore(
+                keyType, valueType, entriesPerChunk,
+                regions.toArray(new MappedByteBuffer[0]),
+                chunkSetStarts, chunkSetEnds, chunkRegions,
+                chunkKeyOffsets, chunkValueOffsets,
+                chunkEntryCounts, chunkMinKeys, chunkMaxKeys
+        );
+    }
+}
@@ -0,0 +1,207 @@
+package net.royalur.lut.store;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.util.Arrays;
+
+/**
+ * A learned index that fits a piecewise-linear model from every key in
+ * the chunks to its position, counting entries across all chunks. Each
+ * segment of the model predicts the position of a key to within
+ * {@link #MAX_ERROR} entries, which gives both the chunk and the slot
+ * of the key. The prediction is then corrected by short galloping
+ * searches over the min keys of the chunks and the keys in the chunk.
+ * <p>
+ * The keys of game encodings are made up of bit fields, such as the
+ * piece counts in the high bits of Finkel keys, which makes their
+ * distribution lumpy. A piecewise model follows each lump separately,
+ * whereas interpolating between the keys of a chunk cannot.
+ */
+public class PiecewiseLinearKeyIndex extends KeyIndex {
+
+    /**
+     * The maximum error of the predicted position of each key.
+     */
+    public static final int MAX_ERROR = 16;
+
+    /**
+     * The maximum number of bits of the keys used to look up segments.
+     */
+    private static final int MAX_RADIX_BITS = 20;
+
+    private final @Nonnull int[] chunkStarts;
+    private final @Nonnull long[] segmentKeys;
+    private final @Nonnull int[] segmentStarts;
+    private final @Nonnull double[] segmentSlopes;
+
+    /**
+     * Maps the high bits of keys, relative to the first key, to the first
+     * segment that starts with those or higher bits. This narrows the
+     * search for the segment of a key to the segments that share its bits.
+     */
+    private final @Nonnull int[] radixTable;
+    private final int radixShift;
+
+    public PiecewiseLinearKeyIndex(@Nonnull Chunk[] chunks) {
+        super(chunks);
+
+        int entryCount = 0;
+        this.chunkStarts = new int[chunks.length];
+        for (int index = 0; index < chunks.length; ++index) {
+            chunkStarts[index] = entryCount;
+            entryCount = Math.addExact(entryCount, chunks[index].getEntryCount());
+        }
+
+        SegmentBuilder builder = new SegmentBuilder();
+        int position = 0;
+        for (Chunk chunk : chunks) {
+            for (int slot = 0; slot < chunk.getEntryCount(); ++slot) {
+                builder.add(chunk.getKeyLong(slot), position);
+                position += 1;
+            }
+        }
+        builder.finish();
+
+        this.segmentKeys = Arrays.copyOf(builder.keys, builder.segmentCount);
+        this.segmentStarts = Arrays.copyOf(builder.starts, builder.segmentCount);
+        this.segmentSlopes = Arrays.copyOf(builder.slopes, builder.segmentCount);
+
+        long keyRange = maxKeys[chunks.length - 1] - segmentKeys[0];
+        int radixBits = Math.min(MAX_RADIX_BITS, 33 - Integer.numberOfLeadingZeros(segmentKeys.length));
+        this.radixShift = Math.max(0, 64 - Long.numberOfLeadingZeros(keyRange) - radixBits);
+        this.radixTable = new int[(int) (keyRange >>> radixShift) + 2];
+        int segment = 0;
+        for (int prefix = 0; prefix < radixTable.length; ++prefix) {
+            while (segment < segmentKeys.length && getRadixPrefix(segmentKeys[segment]) < prefix) {
+                segment += 1;
+            }
+            radixTable[prefix] = segment;
+        }
+    }
+
+    private long getRadixPrefix(long key) {
+        return (key - segmentKeys[0]) >>> radixShift;
+    }
+
+    public int getSegmentCount() {
+        return segmentKeys.length;
+    }
+
+    /**
+     * Returns the index of the last segment that starts at or before
+     * {@code key}, or -1 if the key comes before all segments.
+     */
+    private int searchSegment(long key, @Nullable ProbeCounter probes) {
+        ProbeCounter.add(probes, 1);
+        if (Long.compareUnsigned(key, segmentKeys[0]) < 0)
+            return -1;
+
+        // Keys past the last segment are clamped to the last prefix.
+        long prefix = Math.min(getRadixPrefix(key), radixTable.length - 2);
+        int lower = radixTable[(int) prefix] - 1;
+        int upper = radixTable[(int) prefix + 1];
+        if (getRadixPrefix(key) > prefix) {
+            upper = segmentKeys.length;
+        }
+        while (upper - lower > 1) {
+            int middle = (lower + upper) >>> 1;
+            ProbeCounter.add(probes, 1);
+            if (Long.compareUnsigned(segmentKeys[middle], key) <= 0) {
+                lower = middle;
+            } else {
+                upper = middle;
+            }
+        }
+        return lower;
+    }
+
+    private int getSegmentEnd(int segment) {
+        if (segment + 1 < segmentStarts.length)
+            return segmentStarts[segment + 1] - 1;
+
+        Chunk lastChunk = chunks[chunks.length - 1];
+        return chunkStarts[chunks.length - 1] + lastChunk.getEntryCount() - 1;
+    }
+
+    @Override
+    public long locate(long key, @Nullable ProbeCounter probes) {
+        int segment = searchSegment(key, probes);
+        if (segment < 0)
+            return NOT_FOUND;
+
+        int start = segmentStarts[segment];
+        double offset = segmentSlopes[segment] * toUnsignedDouble(key - segmentKeys[segment]);
+        int position = (int) Math.min(getSegmentEnd(segment), start + Math.round(offset));
+
+        // Chunks are usually full, so this is usually the correct chunk.
+        int chunkGuess = Math.min(chunks.length - 1, position / chunks[0].getEntryCapacity());
+        while (chunkGuess > 0 && chunkStarts[chunkGuess] > position) {
+            chunkGuess -= 1;
+        }
+
+        int chunkIndex = searchChunkNear(key, chunkGuess, probes);
+        if (chunkIndex < 0)
+            return NOT_FOUND;
+
+        return searchSlotNear(chunkIndex, key, position - chunkStarts[chunkIndex], probes);
+    }
+
+    /**
+     * Greedily grows each segment while a line through its first point
+     * can remain within the maximum error of all of its points.
+     */
+    private static final class SegmentBuilder {
+        private long[] keys = new long[16];
+        private int[] starts = new int[16];
+        private double[] slopes = new double[16];
+        private int segmentCount = 0;
+
+        private boolean open = false;
+        private long startKey;
+        private int startPosition;
+        private double minSlope;
+        private double maxSlope;
+
+        void add(long key, int position) {
+            if (open) {
+                double dx = toUnsignedDouble(key - startKey);
+                int dy = position - startPosition;
+                if (dx == 0) {
+                    if (dy <= MAX_ERROR)
+                        return;
+                } else {
+                    double lowSlope = (dy - MAX_ERROR) / dx;
+                    double highSlope = (dy + MAX_ERROR) / dx;
+                    if (lowSlope <= maxSlope && highSlope >= minSlope) {
+                        minSlope = Math.max(minSlope, lowSlope);
+                        maxSlope = Math.min(maxSlope, highSlope);
+                        return;
+                    }
+                }
+                finish();
+            }
+
+            open = true;
+            startKey = key;
+            startPosition = position;
+            minSlope = 0;
+            maxSlope = Double.POSITIVE_INFINITY;
+        }
+
+        void finish() {
+            if (!open)
+                return;
+
+            if (segmentCount >= keys.length) {
+                keys = Arrays.copyOf(keys, 2 * segmentCount);
+                starts = Arrays.copyOf(starts, 2 * segmentCount);
+                slopes = Arrays.copyOf(slopes, 2 * segmentCount);
+            }
+            keys[segmentCount] = startKey;
+            starts[segmentCount] = startPosition;
+            slopes[segmentCount] = (maxSlope == Double.POSITIVE_INFINITY ? 0 : (minSlope + maxSlope) / 2);
+            segmentCount += 1;
+            open = false;
+        }
+    }
+}
@@ -0,0 +1,190 @@
+package net.royalur.lut.store;
+
+import net.royalur.lut.buffer.ValueType;
+
+import javax.annotation.Nonnull;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * The positions of the chunks of a store that was written by
+ * {@link BigEntryStore#write(FileChannel)}. Every chunk is written
+ * with its full capacity, so the layout of the whole store can be
+ * found from the counts of chunks in its header.
+ */
+public final class StoreLayout {
+
+    static final int STORE_HEADER_BYTES = 3 * 4;
+    static final int CHUNK_SET_HEADER_BYTES = 4 + 8;
+    static final int CHUNK_HEADER_BYTES = 4 + 8 + 8;
+
+    private final @Nonnull ValueType keyType;
+    private final @Nonnull ValueType valueType;
+    private final int entriesPerChunk;
+
+    /**
+     * The chunks of chunk set i are in the range
+     * [chunkSetStarts[i], chunkSetStarts[i + 1]).
+     */
+    private final @Nonnull int[] chunkSetStarts;
+    private final @Nonnull long[] chunkOffsets;
+    private final long chunkBytes;
+    private final long endOffset;
+
+    private StoreLayout(
+            @Nonnull ValueType keyType,
+            @Nonnull ValueType valueType,
+            int entriesPerChunk,
+            @Nonnull int[] chunkSetStarts,
+            @Nonnull long[] chunkOffsets,
+            long chunkBytes,
+            long endOffset
+    ) {
+        this.keyType = keyType;
+        this.valueType = valueType;
+        this.entriesPerChunk = entriesPerChunk;
+        this.chunkSetStarts = chunkSetStarts;
+        this.chunkOffsets = chunkOffsets;
+        this.chunkBytes = chunkBytes;
+        this.endOffset = endOffset;
+    }
+
+    public @Nonnull ValueType getKeyType() {
+        return keyType;
+    }
+
+    public @Nonnull ValueType getValueType() {
+        return valueType;
+    }
+
+    public int getEntriesPerChunk() {
+        return entriesPerChunk;
+    }
+
+    public int getChunkSetCount() {
+        return chunkSetStarts.length - 1;
+    }
+
+    /**
+     * Returns the index of the first chunk of the chunk set at
+     * {@code chunkSetIndex}, or the chunk count if the index is
+     * the chunk set count.
+     */
+    public int getChunkSetStart(int chunkSetIndex) {
+        return chunkSetStarts[chunkSetIndex];
+    }
+
+    public int getChunkCount() {
+        return chunkOffsets.length;
+    }
+
+    /**
+     * Returns the position in the file of the chunk at {@code chunkIndex},
+     * counting the chunks of all chunk sets in order.
+     */
+    public long getChunkOffset(int chunkIndex) {
+        return chunkOffsets[chunkIndex];
+    }
+
+    /**
+     * Returns the number of bytes in each chunk, including its header.
+     */
+    public long getChunkBytes() {
+        return chunkBytes;
+    }
+
+    public long getKeyBytes() {
+        return (long) entriesPerChunk * keyType.getByteCount();
+    }
+
+    /**
+     * Returns the position in the file just after the end of the store.
+     */
+    public long getEndOffset() {
+        return endOffset;
+    }
+
+    /**
+     * Reads the layout of the store that starts at {@code offset} in {@code channel}.
+     * @throws IOException If the header of the store is not valid, or if the
+     *                     file is too short to hold all of the chunks.
+     */
+    public static @Nonnull StoreLayout read(@Nonnull FileChannel channel, long offset) throws IOException {
+        ByteBuffer header = readFully(channel, offset, STORE_HEADER_BYTES + 4);
+        ValueType keyType = readValueType(header.getInt());
+        ValueType valueType = readValueType(header.getInt());
+        int entriesPerChunk = header.getInt();
+        int chunkSetCount = header.getInt();
+        if (entriesPerChunk <= 0 || chunkSetCount < 0)
+            throw new IOException("The header of the store is corrupt");
+
+        long chunkCountsOffset = offset + STORE_HEADER_BYTES + 4;
+        if (chunkCountsOffset + 4L * chunkSetCount > channel.size())
+            throw new IOException("The header of the store is corrupt");
+
+        ByteBuffer chunkCountsBuffer = readFully(channel, chunkCountsOffset, 4 * chunkSetCount);
+        int[] chunkSetStarts = new int[chunkSetCount + 1];
+        for (int index = 0; index < chunkSetCount; ++index) {
+            int chunkCount = chunkCountsBuffer.getInt();
+            if (chunkCount <= 0)
+                throw new IOException("The header of the store is corrupt");
+
+            chunkSetStarts[index + 1] = Math.addExact(chunkSetStarts[index], chunkCount);
+        }
+        int chunkCount = chunkSetStarts[chunkSetCount];
+
+        long keyBytes = (long) entriesPerChunk * keyType.getByteCount();
+        long valueBytes = (long) entriesPerChunk * valueType.getByteCount();
+        long chunkBytes = CHUNK_HEADER_BYTES + keyBytes + valueBytes;
+
+        long[] chunkOffsets = new long[chunkCount];
+        long chunkOffset = chunkCountsOffset + 4L * chunkSetCount;
+        for (int setIndex = 0; setIndex < chunkSetCount; ++setIndex) {
+            chunkOffset += CHUNK_SET_HEADER_BYTES;
+            for (int index = chunkSetStarts[setIndex]; index < chunkSetStarts[setIndex + 1]; ++index) {
+                chunkOffsets[index] = chunkOffset;
+                chunkOffset += chunkBytes;
+            }
+        }
+
+        long fileSize = channel.size();
+        if (chunkOffset > fileSize) {
+            throw new IOException(
+                    "File is truncated: expected " + chunkOffset + " bytes, but it has " + fileSize
+            );
+        }
+        return new StoreLayout(
+                keyType, valueType, entriesPerChunk,
+                chunkSetStarts, chunkOffsets, chunkBytes, chunkOffset
+        );
+    }
+
+    private static @Nonnull ValueType readValueType(int ordinal) throws IOException {
+        ValueType[] types = ValueType.values();
+        if (ordinal < 0 || ordinal >= types.length)
+            throw new IOException("Unknown value type " + ordinal);
+
+        return types[ordinal];
+    }
+
+    /**
+     * Reads {@code byteCount} bytes from {@code position} in {@code channel},
+     * without changing the position of the channel.
+     */
+    public static @Nonnull ByteBuffer readFully(
+            @Nonnull FileChannel channel,
+            long position,
+            int byteCount
+    ) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(byteCount);
+        while (buffer.hasRemaining()) {
+            int read = channel.read(buffer, position + buffer.position());
+            if (read < 0)
+                throw new EOFException();
+        }
+        buffer.flip();
+        return buffer;
+    }
+}
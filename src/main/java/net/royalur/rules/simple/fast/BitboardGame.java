@@ -0,0 +1,381 @@
+package net.royalur.rules.simple.fast;
+
+import net.royalur.model.GameSettings;
+import net.royalur.model.Tile;
+import net.royalur.model.shape.BoardShape;
+
+import javax.annotation.Nonnull;
+import java.util.List;
+
+/**
+ * A simple game with the same rules as {@link FastSimpleGame}, that stores
+ * the pieces of each player as a bitboard over the indices of their path.
+ * Bit {@code i} of {@link #lightBoard} is set when light has a piece at
+ * index {@code i} of its path, and the same holds for {@link #darkBoard}.
+ * This makes copying a game a handful of field copies, and lets moves be
+ * found using shifts and masks instead of scanning the board.
+ * <p>
+ * The paths of the players may share tiles at different path indices,
+ * so captures are found using precomputed tables that map the path
+ * indices of one player onto the path indices of the other.
+ */
+public class BitboardGame {
+
+    /**
+     * The maximum length of a path, so that every path index fits in a long.
+     */
+    public static final int MAX_PATH_LENGTH = 63;
+
+    public final boolean areRosettesSafe;
+    public final boolean rosettesGrantExtraRoll;
+    public final boolean capturesGrantExtraRoll;
+    public final int startingPieceCount;
+
+    private final @Nonnull PathInfo lightPath;
+    private final @Nonnull PathInfo darkPath;
+
+    /**
+     * The pieces of each player on the board, indexed by their path index.
+     */
+    public long lightBoard;
+    public long darkBoard;
+
+    /**
+     * The number of pieces that each player has not yet moved onto the board.
+     */
+    public int lightPieces;
+    public int darkPieces;
+
+    public int lightScore;
+    public int darkScore;
+
+    public boolean isLightTurn;
+    public int rollValue;
+    public boolean isFinished;
+
+    public BitboardGame(@Nonnull GameSettings<?> settings) {
+        this.areRosettesSafe = settings.areRosettesSafe();
+        this.rosettesGrantExtraRoll = settings.doRosettesGrantExtraRolls();
+        this.capturesGrantExtraRoll = settings.doCapturesGrantExtraRolls();
+        this.startingPieceCount = settings.getStartingPieceCount();
+
+        BoardShape shape = settings.getBoardShape();
+        List<Tile> light = settings.getPaths().getLight();
+        List<Tile> dark = settings.getPaths().getDark();
+        this.lightPath = new PathInfo(shape, light, dark);
+        this.darkPath = new PathInfo(shape, dark, light);
+
+        this.isLightTurn = true;
+        this.rollValue = -1;
+        this.isFinished = false;
+    }
+
+    /**
+     * The precomputed masks and tables for the path of one player.
+     */
+    private static final class PathInfo {
+
+        private final int length;
+
+        /**
+         * The tile index on a {@link FastSimpleBoard} of each path index.
+         */
+        private final @Nonnull int[] tiles;
+
+        /**
+         * The path indices of this path that are on rosettes.
+         */
+        private final long rosetteMask;
+
+        /**
+         * The path index of the opponent for each path index of this
+         * path, or -1 if the opponent's path does not include the tile.
+         */
+        private final @Nonnull int[] opponentIndices;
+
+        /**
+         * The path indices of this path, and of the opponent's path,
+         * of the rosettes that are on both paths.
+         */
+        private final @Nonnull int[] sharedRosettes;
+        private final @Nonnull int[] opponentSharedRosettes;
+
+        private PathInfo(
+                @Nonnull BoardShape shape,
+                @Nonnull List<Tile> path,
+                @Nonnull List<Tile> opponentPath
+        ) {
+            if (path.size() > MAX_PATH_LENGTH) {
+                throw new IllegalArgumentException(
+                        "Paths may contain at most " + MAX_PATH_LENGTH + " tiles"
+                );
+            }
+
+            this.length = path.size();
+            this.tiles = new int[length];
+            this.opponentIndices = new int[length];
+
+            long rosetteMask = 0;
+            int sharedRosetteCount = 0;
+            for (int index = 0; index < length; ++index) {
+                Tile tile = path.get(index);
+                tiles[index] = tile.getXIndex() + tile.getYIndex() * shape.getWidth();
+                opponentIndices[index] = opponentPath.indexOf(tile);
+                if (shape.isRosette(tile)) {
+                    rosetteMask |= 1L << index;
+                    if (opponentIndices[index] >= 0) {
+                        sharedRosetteCount += 1;
+                    }
+                }
+            }
+            this.rosetteMask = rosetteMask;
+
+            this.sharedRosettes = new int[sharedRosetteCount];
+            this.opponentSharedRosettes = new int[sharedRosetteCount];
+            int sharedRosetteIndex = 0;
+            for (int index = 0; index < length; ++index) {
+                if ((rosetteMask & (1L << index)) != 0 && opponentIndices[index] >= 0) {
+                    sharedRosettes[sharedRosetteIndex] = index;
+                    opponentSharedRosettes[sharedRosetteIndex] = opponentIndices[index];
+                    sharedRosetteIndex += 1;
+                }
+            }
+        }
+    }
+
+    public int getPathLength(boolean isLight) {
+        return (isLight ? lightPath : darkPath).length;
+    }
+
+    public void copyFrom(@Nonnull BitboardGame other) {
+        this.lightBoard = other.lightBoard;
+        this.darkBoard = other.darkBoard;
+        this.lightPieces = other.lightPieces;
+        this.darkPieces = other.darkPieces;
+        this.lightScore = other.lightScore;
+        this.darkScore = other.darkScore;
+        this.isLightTurn = other.isLightTurn;
+        this.rollValue = other.rollValue;
+        this.isFinished = other.isFinished;
+    }
+
+    /**
+     * Copies the state of {@code game}, which must have the same settings as this game.
+     */
+    public void copyFrom(@Nonnull FastSimpleGame game) {
+        int[] pieces = game.board.pieces;
+        long lightBoard = 0;
+        for (int index = 0; index < lightPath.length; ++index) {
+            if (pieces[lightPath.tiles[index]] == index + 1) {
+                lightBoard |= 1L << index;
+            }
+        }
+        long darkBoard = 0;
+        for (int index = 0; index < darkPath.length; ++index) {
+            if (pieces[darkPath.tiles[index]] == -(index + 1)) {
+                darkBoard |= 1L << index;
+            }
+        }
+        this.lightBoard = lightBoard;
+        this.darkBoard = darkBoard;
+        this.lightPieces = game.light.pieces;
+        this.darkPieces = game.dark.pieces;
+        this.lightScore = game.light.score;
+        this.darkScore = game.dark.score;
+        this.isLightTurn = game.isLightTurn;
+        this.rollValue = game.rollValue;
+        this.isFinished = game.isFinished;
+    }
+
+    /**
+     * Copies the state of this game into {@code game}, which must have the same settings.
+     */
+    public void copyTo(@Nonnull FastSimpleGame game) {
+        int[] pieces = game.board.pieces;
+        game.board.clear();
+        for (long board = lightBoard; board != 0; board &= board - 1) {
+            int index = Long.numberOfTrailingZeros(board);
+            pieces[lightPath.tiles[index]] = index + 1;
+        }
+        for (long board = darkBoard; board != 0; board &= board - 1) {
+            int index = Long.numberOfTrailingZeros(board);
+            pieces[darkPath.tiles[index]] = -(index + 1);
+        }
+        game.light.pieces = lightPieces;
+        game.light.score = lightScore;
+        game.dark.pieces = darkPieces;
+        game.dark.score = darkScore;
+        game.isLightTurn = isLightTurn;
+        game.rollValue = rollValue;
+        game.isFinished = isFinished;
+    }
+
+    /**
+     * Checks whether a roll of the dice is expected.
+     * This may return true when the game has already
+     * finished. Therefore, if the game may have finished,
+     * you should check that first.
+     * @return Whether a roll of the dice is expected.
+     */
+    public boolean isWaitingForRoll() {
+        return rollValue < 0;
+    }
+
+    /**
+     * Checks whether moving a piece is expected.
+     * This may return true when the game has already
+     * finished. Therefore, if the game may have finished,
+     * you should check that first.
+     * @return Whether moving a piece is expected.
+     */
+    public boolean isWaitingForMove() {
+        return rollValue >= 0;
+    }
+
+    /**
+     * Populates {@code moveList} with all available moves in the current
+     * state of the game, in the same order as {@link FastSimpleGame}.
+     */
+    public void findAvailableMoves(@Nonnull FastSimpleMoveList moveList) {
+        moveList.clear();
+
+        int rollValue = this.rollValue;
+        if (rollValue < 0)
+            throw new IllegalStateException("No roll has been made");
+
+        boolean isLightTurn = this.isLightTurn;
+        PathInfo path = (isLightTurn ? lightPath : darkPath);
+        long own = (isLightTurn ? lightBoard : darkBoard);
+        int pathLength = path.length;
+
+        // Check if a piece can be taken off the board.
+        if (rollValue <= pathLength) {
+            int scorePathIndex = pathLength - rollValue;
+            if ((own & (1L << scorePathIndex)) != 0) {
+                moveList.add(scorePathIndex);
+            }
+        }
+        if (rollValue > pathLength)
+            return;
+
+        // Destinations are blocked by the player's own pieces,
+        // and by opponent pieces on rosettes if they are safe.
+        long blocked = own;
+        if (areRosettesSafe) {
+            long opponent = (isLightTurn ? darkBoard : lightBoard);
+            int[] sharedRosettes = path.sharedRosettes;
+            int[] opponentSharedRosettes = path.opponentSharedRosettes;
+            for (int index = 0; index < sharedRosettes.length; ++index) {
+                if ((opponent & (1L << opponentSharedRosettes[index])) != 0) {
+                    blocked |= 1L << sharedRosettes[index];
+                }
+            }
+        }
+
+        // Introduce a piece to the board.
+        int turnPieces = (isLightTurn ? lightPieces : darkPieces);
+        if (turnPieces > 0 && (blocked & (1L << (rollValue - 1))) == 0) {
+            moveList.add(-1);
+        }
+
+        // Move pieces on the board to other tiles on the board.
+        long sourceMask = (1L << (pathLength - rollValue)) - 1;
+        long movable = own & ~(blocked >>> rollValue) & sourceMask;
+        while (movable != 0) {
+            moveList.add(Long.numberOfTrailingZeros(movable));
+            movable &= movable - 1;
+        }
+    }
+
+    public void applyRoll(int rollValue, @Nonnull FastSimpleMoveList moveList) {
+        if (this.rollValue >= 0)
+            throw new IllegalStateException("A roll has already been made");
+
+        // Swap turn when rolling a zero.
+        if (rollValue == 0) {
+            isLightTurn = !isLightTurn;
+            moveList.clear();
+            return;
+        }
+
+        // Determine if the player has any available moves.
+        this.rollValue = rollValue;
+        findAvailableMoves(moveList);
+        if (moveList.moveCount == 0) {
+            isLightTurn = !isLightTurn;
+            this.rollValue = -1;
+        }
+    }
+
+    public void applyMove(int pathIndex) {
+        int rollValue = this.rollValue;
+        if (rollValue < 0)
+            throw new IllegalStateException("No roll has been made");
+
+        // We are using the roll now, so clear it.
+        this.rollValue = -1;
+
+        boolean isLightTurn = this.isLightTurn;
+        PathInfo path = (isLightTurn ? lightPath : darkPath);
+        long own = (isLightTurn ? lightBoard : darkBoard);
+
+        if (pathIndex >= 0) {
+            // Moving a piece on the board.
+            own &= ~(1L << pathIndex);
+        } else if (isLightTurn) {
+            // Introducing a piece to the board.
+            lightPieces -= 1;
+        } else {
+            darkPieces -= 1;
+        }
+
+        int destPathIndex = pathIndex + rollValue;
+        if (destPathIndex >= path.length) {
+            // Scoring a piece.
+            int score;
+            if (isLightTurn) {
+                lightBoard = own;
+                score = ++lightScore;
+            } else {
+                darkBoard = own;
+                score = ++darkScore;
+            }
+            if (score >= startingPieceCount) {
+                isFinished = true;
+                return;
+            }
+            this.isLightTurn = !isLightTurn;
+            return;
+        }
+
+        // Capture an opponent's piece on the destination.
+        boolean captured = false;
+        int opponentIndex = path.opponentIndices[destPathIndex];
+        if (opponentIndex >= 0) {
+            long opponentBit = 1L << opponentIndex;
+            if (isLightTurn && (darkBoard & opponentBit) != 0) {
+                darkBoard &= ~opponentBit;
+                darkPieces += 1;
+                captured = true;
+            } else if (!isLightTurn && (lightBoard & opponentBit) != 0) {
+                lightBoard &= ~opponentBit;
+                lightPieces += 1;
+                captured = true;
+            }
+        }
+
+        own |= 1L << destPathIndex;
+        if (isLightTurn) {
+            lightBoard = own;
+        } else {
+            darkBoard = own;
+        }
+
+        // Determine whose turn it should be.
+        boolean onRosette = (path.rosetteMask & (1L << destPathIndex)) != 0;
+        boolean grantRoll = (rosettesGrantExtraRoll && onRosette) || (capturesGrantExtraRoll && captured);
+        if (!grantRoll) {
+            this.isLightTurn = !isLightTurn;
+        }
+    }
+}
@@ -11,9 +11,51 @@ import java.util.List;
  * A simple game that is optimised for speed.
  * This speed comes at the cost of error checking,
  * convenience, and tracking of game history.
+ * <p>
+ * Rolls and moves return an undo token that can be passed to
+ * {@link #undoRoll(int)} or {@link #undoMove(int)} to restore the
+ * state of the game before they were applied. This allows searches
+ * of the game tree to explore every move using a single game,
+ * instead of copying the game before every roll and move.
+ * <p>
+ * Rolls and moves, and their undoing, also maintain {@link #hash}, a
+ * Zobrist hash of the position. Writing the fields of the game directly,
+ * as the encodings' decoders and {@link net.royalur.lut.StateLUT}'s state
+ * enumeration do, leaves the hash stale, so that these bulk writes do not
+ * pay to rebuild it. Code that reads the hash after such writes must call
+ * {@link #recomputeHash()} first.
  */
 public class FastSimpleGame {
 
+    /**
+     * The maximum length of a path, so that the path indices
+     * and rolls of moves fit in their undo tokens.
+     */
+    public static final int MAX_PATH_LENGTH = 254;
+
+    /*
+     * The layout of undo tokens. The lowest 8 bits hold the path index
+     * of the moved piece plus one, the next 8 bits hold the roll, and the
+     * highest 14 bits hold the captured piece as a signed value.
+     */
+    private static final int UNDO_ROLL_SHIFT = 8;
+    private static final int UNDO_BYTE_MASK = 0xFF;
+    private static final int UNDO_LIGHT_TURN = 1 << 16;
+    private static final int UNDO_FINISHED = 1 << 17;
+    private static final int UNDO_CAPTURE_SHIFT = 18;
+
+    /*
+     * The layout of the entries of move tables. The lowest 14 bits hold
+     * the tile index of the destination of the move, if it is on the board,
+     * the next two bits mark what the destination is, and the highest bits
+     * hold the tile index of the piece that is moved, if it is on the board.
+     */
+    private static final int MOVE_DEST_TILE_MASK = 0x3FFF;
+    private static final int MOVE_DEST_ROSETTE = 1 << 14;
+    private static final int MOVE_SCORES = 1 << 15;
+    private static final int MOVE_SOURCE_TILE_SHIFT = 16;
+    private static final int MAX_TILE_COUNT = MOVE_DEST_TILE_MASK + 1;
+
     public final boolean areRosettesSafe;
     public final boolean rosettesGrantExtraRoll;
     public final boolean capturesGrantExtraRoll;
@@ -27,6 +69,23 @@ public class FastSimpleGame {
     public int rollValue;
     public boolean isFinished;
 
+    /**
+     * A Zobrist hash of the pieces on the board, the pieces left to play
+     * and the score of each player, and whose turn it is. The roll is not
+     * included, so this is only a key for the positions that are waiting
+     * for a roll, or for the positions after the same roll.
+     */
+    public long hash;
+
+    private final @Nonnull ZobristKeys zobrist;
+
+    /**
+     * The destination of moving a piece by each roll from each path index
+     * of each player, as created by {@link #createMoveTable(FastSimpleBoard, int[])}.
+     */
+    private final @Nonnull int[] lightMoveTable;
+    private final @Nonnull int[] darkMoveTable;
+
     public FastSimpleGame(@Nonnull GameSettings<?> settings) {
         this.areRosettesSafe = settings.areRosettesSafe();
         this.rosettesGrantExtraRoll = settings.doRosettesGrantExtraRolls();
@@ -36,13 +95,80 @@ public class FastSimpleGame {
 
         int[] lightPath = tilesToIndices(board, settings.getPaths().getLight());
         int[] darkPath = tilesToIndices(board, settings.getPaths().getDark());
+        if (lightPath.length > MAX_PATH_LENGTH || darkPath.length > MAX_PATH_LENGTH) {
+            throw new IllegalArgumentException(
+                    "Paths may contain at most " + MAX_PATH_LENGTH + " tiles"
+            );
+        }
+        if (board.pieces.length > MAX_TILE_COUNT)
+            throw new IllegalArgumentException("Boards may contain at most " + MAX_TILE_COUNT + " tiles");
 
         this.light = new FastSimplePlayer(lightPath, true);
         this.dark = new FastSimplePlayer(darkPath, false);
+        this.lightMoveTable = createMoveTable(board, lightPath);
+        this.darkMoveTable = createMoveTable(board, darkPath);
 
         this.isLightTurn = true;
         this.rollValue = -1;
         this.isFinished = false;
+
+        this.zobrist = new ZobristKeys(board.pieces.length, startingPieceCount);
+        this.hash = calculateHash();
+    }
+
+    /**
+     * Creates a table of the source and destination tiles of moving a piece
+     * by each roll from each path index of {@code path}. The entry for moving
+     * a piece from {@code pathIndex}, or introducing one if it is -1, by
+     * {@code roll} is at {@code roll * (path.length + 1) + pathIndex + 1},
+     * so that the moves of one roll are next to each other. Rolls up to one
+     * more than the length of the path are included, which is the largest
+     * roll that any piece can move by. Moves past the end of the path are
+     * never available, and are marked as scoring a piece. The row for a
+     * roll of zero is never read, as there are no moves for a roll of zero.
+     */
+    private static @Nonnull int[] createMoveTable(@Nonnull FastSimpleBoard board, @Nonnull int[] path) {
+        int rowLength = path.length + 1;
+        int[] table = new int[(path.length + 2) * rowLength];
+        for (int roll = 0; roll <= path.length + 1; ++roll) {
+            for (int pathIndex = -1; pathIndex < path.length; ++pathIndex) {
+                int entry = 0;
+                if (pathIndex >= 0) {
+                    entry |= path[pathIndex] << MOVE_SOURCE_TILE_SHIFT;
+                }
+
+                int destPathIndex = pathIndex + roll;
+                if (destPathIndex >= 0 && destPathIndex < path.length) {
+                    int destTileIndex = path[destPathIndex];
+                    entry |= destTileIndex;
+                    if (board.isTileRosette(destTileIndex)) {
+                        entry |= MOVE_DEST_ROSETTE;
+                    }
+                } else {
+                    entry |= MOVE_SCORES;
+                }
+                table[roll * rowLength + pathIndex + 1] = entry;
+            }
+        }
+        return table;
+    }
+
+    /**
+     * Checks whether the destination of {@code move}, an entry of a move
+     * table, can be moved to by a piece of the player with {@code sign}.
+     */
+    private static boolean isDestFree(
+            @Nonnull int[] boardPieces,
+            int move,
+            int sign,
+            boolean areRosettesSafe
+    ) {
+        int destPiece = boardPieces[move & MOVE_DEST_TILE_MASK];
+        if (destPiece == 0)
+            return true;
+
+        // Can't capture your own pieces, or pieces on rosettes if they are safe.
+        return destPiece * sign < 0 && !(areRosettesSafe && (move & MOVE_DEST_ROSETTE) != 0);
     }
 
     public @Nonnull FastSimplePlayer getPlayer(boolean isLight) {
@@ -60,6 +186,7 @@ public class FastSimpleGame {
         this.isLightTurn = other.isLightTurn;
         this.rollValue = other.rollValue;
         this.isFinished = other.isFinished;
+        this.hash = other.hash;
     }
 
     public void copyFrom(
@@ -75,6 +202,39 @@ public class FastSimpleGame {
         this.isLightTurn = (game.getTurn() == PlayerType.LIGHT);
         this.rollValue = (game.isWaitingForMove() ? game.getRoll().value() : -1);
         this.isFinished = game.isFinished();
+        recomputeHash();
+    }
+
+    /**
+     * Calculates the hash of this game from scratch,
+     * without relying on the value of {@link #hash}.
+     * @return The hash of this game.
+     */
+    public long calculateHash() {
+        long hash = 0;
+        int[] boardPieces = board.pieces;
+        for (int tileIndex = 0; tileIndex < boardPieces.length; ++tileIndex) {
+            hash ^= zobrist.piece(boardPieces[tileIndex], tileIndex);
+        }
+        hash ^= zobrist.pieces(true, light.pieces);
+        hash ^= zobrist.pieces(false, dark.pieces);
+        hash ^= zobrist.score(true, light.score);
+        hash ^= zobrist.score(false, dark.score);
+        if (isLightTurn) {
+            hash ^= zobrist.lightTurnKey;
+        }
+        return hash;
+    }
+
+    /**
+     * Sets {@link #hash} to the hash of this game calculated from scratch.
+     * This must be called before reading the hash after changing the
+     * fields of this game directly.
+     * @return The hash of this game.
+     */
+    public long recomputeHash() {
+        this.hash = calculateHash();
+        return hash;
     }
 
     /**
@@ -108,67 +268,68 @@ public class FastSimpleGame {
         int rollValue = this.rollValue;
         if (rollValue < 0)
             throw new IllegalStateException("No roll has been made");
+        // No piece can move by zero, and the move table's row for a roll of zero is not valid.
+        if (rollValue == 0)
+            return;
 
         FastSimplePlayer turnPlayer = getTurnPlayer();
         int turnPlayerSign = turnPlayer.sign;
         int[] path = turnPlayer.path;
         int[] boardPieces = board.pieces;
 
+        // No piece can move further than off the end of the path.
+        int scorePathIndex = path.length - rollValue;
+        if (scorePathIndex < 0)
+            return;
+
+        // The moves of this roll, starting with introducing a piece.
+        int[] moveTable = (turnPlayer.isLight ? lightMoveTable : darkMoveTable);
+        int rowStart = rollValue * (path.length + 1);
+
         // Check if a piece can be taken off the board.
-        if (rollValue <= path.length) {
-            int scorePathIndex = path.length - rollValue;
-            int scoreTileIndex = path[scorePathIndex];
-            int scorePiece = boardPieces[scoreTileIndex];
-            if (scorePiece == turnPlayerSign * (scorePathIndex + 1)) {
-                moveList.add(scorePathIndex);
-            }
+        int scoreMove = moveTable[rowStart + scorePathIndex + 1];
+        int scorePiece = boardPieces[scoreMove >>> MOVE_SOURCE_TILE_SHIFT];
+        if (scorePiece == turnPlayerSign * (scorePathIndex + 1)) {
+            moveList.add(scorePathIndex);
         }
 
-        // Check for pieces on the board that can be moved to another tile on the board.
+        // Check if a piece can be introduced to the board.
         boolean areRosettesSafe = this.areRosettesSafe;
-        boolean turnPlayerHasPieces = (turnPlayer.pieces > 0);
-        for (int pathIndex = -1; pathIndex < path.length - rollValue; ++pathIndex) {
-
-            if (pathIndex >= 0) {
-                // Move a piece on the board.
-                int tileIndex = path[pathIndex];
-                int piece = boardPieces[tileIndex];
-                if (piece != turnPlayerSign * (pathIndex + 1))
-                    continue;
-
-            } else if (!turnPlayerHasPieces) {
-                // Can't introduce a piece to the board.
+        if (turnPlayer.pieces > 0 && isDestFree(boardPieces, moveTable[rowStart], turnPlayerSign, areRosettesSafe)) {
+            moveList.add(-1);
+        }
+
+        // Check for pieces on the board that can be moved to another tile on the board.
+        for (int pathIndex = 0; pathIndex < scorePathIndex; ++pathIndex) {
+            int move = moveTable[rowStart + pathIndex + 1];
+            int piece = boardPieces[move >>> MOVE_SOURCE_TILE_SHIFT];
+            if (piece != turnPlayerSign * (pathIndex + 1))
                 continue;
-            }
 
-            // Check if the destination is free.
-            int destPathIndex = pathIndex + rollValue;
-            int destTileIndex = path[destPathIndex];
-            int destPiece = boardPieces[destTileIndex];
-            if (destPiece != 0) {
-                // Can't capture your own pieces.
-                if (destPiece * turnPlayerSign > 0)
-                    continue;
-
-                // Can't capture pieces on rosettes if they are safe.
-                if (areRosettesSafe && board.isTileRosette(destTileIndex))
-                    continue;
+            if (isDestFree(boardPieces, move, turnPlayerSign, areRosettesSafe)) {
+                moveList.add(pathIndex);
             }
-
-            // Add the move to the list.
-            moveList.add(pathIndex);
         }
     }
 
-    public void applyRoll(int rollValue, @Nonnull FastSimpleMoveList moveList) {
+    /**
+     * Applies a roll of the dice, and populates {@code moveList}
+     * with the moves that are available after the roll.
+     * @return A token that can be passed to {@link #undoRoll(int)}
+     *         to restore the state of the game before the roll.
+     */
+    public int applyRoll(int rollValue, @Nonnull FastSimpleMoveList moveList) {
         if (this.rollValue >= 0)
             throw new IllegalStateException("A roll has already been made");
 
+        int undoToken = (isLightTurn ? UNDO_LIGHT_TURN : 0);
+
         // Swap turn when rolling a zero.
         if (rollValue == 0) {
             isLightTurn = !isLightTurn;
+            hash ^= zobrist.lightTurnKey;
             moveList.clear();
-            return;
+            return undoToken;
         }
 
         // Determine if the player has any available moves.
@@ -176,8 +337,23 @@ public class FastSimpleGame {
         findAvailableMoves(moveList);
         if (moveList.moveCount == 0) {
             isLightTurn = !isLightTurn;
+            hash ^= zobrist.lightTurnKey;
             this.rollValue = -1;
         }
+        return undoToken;
+    }
+
+    /**
+     * Restores the state of the game before the roll that returned {@code undoToken}.
+     * Any moves applied after the roll must be undone first.
+     */
+    public void undoRoll(int undoToken) {
+        boolean wasLightTurn = (undoToken & UNDO_LIGHT_TURN) != 0;
+        if (isLightTurn != wasLightTurn) {
+            isLightTurn = wasLightTurn;
+            hash ^= zobrist.lightTurnKey;
+        }
+        this.rollValue = -1;
     }
 
     public boolean shouldGrantRoll(int destTileIndex, int capturedPiece) {
@@ -187,55 +363,144 @@ public class FastSimpleGame {
         return capturesGrantExtraRoll && capturedPiece != 0;
     }
 
-    public void applyMove(int pathIndex) {
+    /**
+     * Moves the piece at {@code pathIndex} of the path of the
+     * current player, or introduces a piece if it is -1.
+     * @return A token that can be passed to {@link #undoMove(int)}
+     *         to restore the state of the game before the move.
+     */
+    public int applyMove(int pathIndex) {
         int rollValue = this.rollValue;
         if (rollValue < 0)
             throw new IllegalStateException("No roll has been made");
 
+        int undoToken = (pathIndex + 1) | (rollValue << UNDO_ROLL_SHIFT);
+        if (isLightTurn) {
+            undoToken |= UNDO_LIGHT_TURN;
+        }
+        if (isFinished) {
+            undoToken |= UNDO_FINISHED;
+        }
+
         // We are using the roll now, so clear it.
         this.rollValue = -1;
 
         FastSimplePlayer turnPlayer = this.getTurnPlayer();
+        boolean isLight = turnPlayer.isLight;
         int turnPlayerSign = turnPlayer.sign;
         int[] path = turnPlayer.path;
         int[] boardPieces = this.board.pieces;
+        ZobristKeys zobrist = this.zobrist;
+        long hash = this.hash;
 
         if (pathIndex >= 0) {
             // Moving a piece on the board.
             int sourceTileIndex = path[pathIndex];
             boardPieces[sourceTileIndex] = 0;
+            hash ^= zobrist.tile(isLight, sourceTileIndex);
 
         } else {
             // Introducing a piece to the board.
+            hash ^= zobrist.pieces(isLight, turnPlayer.pieces);
             turnPlayer.pieces -= 1;
+            hash ^= zobrist.pieces(isLight, turnPlayer.pieces);
         }
 
-        int destPathIndex = pathIndex + rollValue;
-        int destTileIndex = -1;
+        int[] moveTable = (isLight ? lightMoveTable : darkMoveTable);
+        int move = moveTable[rollValue * (path.length + 1) + pathIndex + 1];
         int capturedPiece = 0;
 
-        if (destPathIndex < path.length) {
+        if ((move & MOVE_SCORES) == 0) {
             // Moving a piece on the board.
-            destTileIndex = path[destPathIndex];
+            int destTileIndex = move & MOVE_DEST_TILE_MASK;
             capturedPiece = boardPieces[destTileIndex];
             if (capturedPiece != 0) {
-                getPlayer(capturedPiece > 0).pieces += 1;
+                FastSimplePlayer capturedPlayer = getPlayer(capturedPiece > 0);
+                hash ^= zobrist.tile(capturedPlayer.isLight, destTileIndex);
+                hash ^= zobrist.pieces(capturedPlayer.isLight, capturedPlayer.pieces);
+                capturedPlayer.pieces += 1;
+                hash ^= zobrist.pieces(capturedPlayer.isLight, capturedPlayer.pieces);
+                undoToken |= capturedPiece << UNDO_CAPTURE_SHIFT;
             }
-            boardPieces[destTileIndex] = turnPlayerSign * (destPathIndex + 1);
+            boardPieces[destTileIndex] = turnPlayerSign * (pathIndex + rollValue + 1);
+            hash ^= zobrist.tile(isLight, destTileIndex);
 
         } else {
             // Scoring a piece.
+            hash ^= zobrist.score(isLight, turnPlayer.score);
             turnPlayer.score += 1;
+            hash ^= zobrist.score(isLight, turnPlayer.score);
             if (turnPlayer.score >= startingPieceCount) {
                 isFinished = true;
-                return;
+                this.hash = hash;
+                return undoToken;
             }
         }
 
         // Determine whose turn it should be.
-        if (!shouldGrantRoll(destTileIndex, capturedPiece)) {
+        boolean grantRoll = (rosettesGrantExtraRoll && (move & MOVE_DEST_ROSETTE) != 0)
+                || (capturesGrantExtraRoll && capturedPiece != 0);
+        if (!grantRoll) {
             isLightTurn = !isLightTurn;
+            hash ^= zobrist.lightTurnKey;
         }
+        this.hash = hash;
+        return undoToken;
+    }
+
+    /**
+     * Restores the state of the game before the move that returned {@code undoToken}.
+     * Moves must be undone in the reverse order that they were applied.
+     */
+    public void undoMove(int undoToken) {
+        int pathIndex = (undoToken & UNDO_BYTE_MASK) - 1;
+        int rollValue = (undoToken >>> UNDO_ROLL_SHIFT) & UNDO_BYTE_MASK;
+        boolean wasLightTurn = (undoToken & UNDO_LIGHT_TURN) != 0;
+        int capturedPiece = undoToken >> UNDO_CAPTURE_SHIFT;
+
+        FastSimplePlayer turnPlayer = getPlayer(wasLightTurn);
+        int[] path = turnPlayer.path;
+        int[] boardPieces = this.board.pieces;
+        ZobristKeys zobrist = this.zobrist;
+        long hash = this.hash;
+
+        int[] moveTable = (wasLightTurn ? lightMoveTable : darkMoveTable);
+        int move = moveTable[rollValue * (path.length + 1) + pathIndex + 1];
+        if ((move & MOVE_SCORES) == 0) {
+            // Put back any piece that was captured.
+            int destTileIndex = move & MOVE_DEST_TILE_MASK;
+            boardPieces[destTileIndex] = capturedPiece;
+            hash ^= zobrist.tile(wasLightTurn, destTileIndex);
+            if (capturedPiece != 0) {
+                FastSimplePlayer capturedPlayer = getPlayer(capturedPiece > 0);
+                hash ^= zobrist.tile(capturedPlayer.isLight, destTileIndex);
+                hash ^= zobrist.pieces(capturedPlayer.isLight, capturedPlayer.pieces);
+                capturedPlayer.pieces -= 1;
+                hash ^= zobrist.pieces(capturedPlayer.isLight, capturedPlayer.pieces);
+            }
+        } else {
+            hash ^= zobrist.score(wasLightTurn, turnPlayer.score);
+            turnPlayer.score -= 1;
+            hash ^= zobrist.score(wasLightTurn, turnPlayer.score);
+        }
+
+        if (pathIndex >= 0) {
+            int sourceTileIndex = path[pathIndex];
+            boardPieces[sourceTileIndex] = turnPlayer.sign * (pathIndex + 1);
+            hash ^= zobrist.tile(wasLightTurn, sourceTileIndex);
+        } else {
+            hash ^= zobrist.pieces(wasLightTurn, turnPlayer.pieces);
+            turnPlayer.pieces += 1;
+            hash ^= zobrist.pieces(wasLightTurn, turnPlayer.pieces);
+        }
+
+        if (isLightTurn != wasLightTurn) {
+            hash ^= zobrist.lightTurnKey;
+        }
+        this.hash = hash;
+        this.isLightTurn = wasLightTurn;
+        this.rollValue = rollValue;
+        this.isFinished = (undoToken & UNDO_FINISHED) != 0;
     }
 
     private static @Nonnull int[] tilesToIndices(
@@ -0,0 +1,92 @@
+package net.royalur.rules.simple.fast;
+
+import javax.annotation.Nonnull;
+
+/**
+ * The random keys that are combined to form the Zobrist hash of a
+ * {@link FastSimpleGame}. The keys are generated from a fixed seed,
+ * so games with the same board and piece count always have the same
+ * keys, and their hashes can be compared across games and threads.
+ */
+final class ZobristKeys {
+
+    private static final long SEED = 0x5DEECE66DL;
+
+    private final @Nonnull long[] lightTileKeys;
+    private final @Nonnull long[] darkTileKeys;
+    private final @Nonnull long[] lightPiecesKeys;
+    private final @Nonnull long[] darkPiecesKeys;
+    private final @Nonnull long[] lightScoreKeys;
+    private final @Nonnull long[] darkScoreKeys;
+
+    /**
+     * Piece counts and scores are masked by this before they are
+     * used as indices, so that invalid states cannot index outside
+     * of the keys. Valid counts and scores are never masked.
+     */
+    private final int countMask;
+
+    final long lightTurnKey;
+
+    ZobristKeys(int tileCount, int startingPieceCount) {
+        this.countMask = Integer.highestOneBit(Math.max(1, startingPieceCount)) * 2 - 1;
+
+        long[] state = {SEED};
+        this.lightTileKeys = generate(state, tileCount);
+        this.darkTileKeys = generate(state, tileCount);
+        this.lightPiecesKeys = generate(state, countMask + 1);
+        this.darkPiecesKeys = generate(state, countMask + 1);
+        this.lightScoreKeys = generate(state, countMask + 1);
+        this.darkScoreKeys = generate(state, countMask + 1);
+        this.lightTurnKey = nextKey(state);
+    }
+
+    private static @Nonnull long[] generate(@Nonnull long[] state, int count) {
+        long[] keys = new long[count];
+        for (int index = 0; index < count; ++index) {
+            keys[index] = nextKey(state);
+        }
+        return keys;
+    }
+
+    /**
+     * Generates keys using SplitMix64.
+     */
+    private static long nextKey(@Nonnull long[] state) {
+        long z = (state[0] += 0x9E3779B97F4A7C15L);
+        z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+        z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+        return z ^ (z >>> 31);
+    }
+
+    /**
+     * Gets the key of a piece of light or dark on the tile at {@code tileIndex}.
+     */
+    long tile(boolean isLight, int tileIndex) {
+        return (isLight ? lightTileKeys : darkTileKeys)[tileIndex];
+    }
+
+    /**
+     * Gets the key of {@code piece} on the tile at {@code tileIndex},
+     * or zero if {@code piece} is zero.
+     */
+    long piece(int piece, int tileIndex) {
+        if (piece == 0)
+            return 0;
+        return tile(piece > 0, tileIndex);
+    }
+
+    /**
+     * Gets the key of light or dark having {@code count} pieces left to play.
+     */
+    long pieces(boolean isLight, int count) {
+        return (isLight ? lightPiecesKeys : darkPiecesKeys)[count & countMask];
+    }
+
+    /**
+     * Gets the key of light or dark having scored {@code score} pieces.
+     */
+    long score(boolean isLight, int score) {
+        return (isLight ? lightScoreKeys : darkScoreKeys)[score & countMask];
+    }
+}
@@ -0,0 +1,253 @@
+package net.royalur;
+
+import com.google.gson.Gson;
+import net.royalur.agent.FinkelLUTAgent;
+import net.royalur.lut.GameEncoding;
+import net.royalur.lut.LUTLibrary;
+import net.royalur.lut.LUTRegistry;
+import net.royalur.lut.StateLUT;
+import net.royalur.model.GameSettings;
+import net.royalur.model.Move;
+import net.royalur.model.Piece;
+import net.royalur.model.PlayerState;
+import net.royalur.model.Tile;
+import net.royalur.model.dice.Roll;
+import net.royalur.rules.simple.fast.FastSimpleGame;
+import net.royalur.rules.simple.fast.FastSimpleMoveList;
+
+import javax.annotation.Nonnull;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Measures the throughput and latency of deciding the moves of requests to
+ * {@code /jsonEndpoint}, by decoding them into a full {@link Game} as the
+ * service used to, and by decoding them straight into a {@link FastSimpleGame}
+ * using {@link FastDecisionService}. Requests are decided by every core at
+ * once, and the time spent in HTTP handling is not included.
+ */
+public class DecisionLoadTest {
+
+    private static final String RULESET = "finkel3";
+    private static final int POSITION_COUNT = 10_000;
+    private static final long WARMUP_MS = 3_000;
+    private static final long MEASURE_MS = 10_000;
+
+    private static final Gson GSON = new Gson();
+
+    private final @Nonnull LUTLibrary library;
+    private final @Nonnull LUTLibrary.Ruleset ruleset;
+    private final @Nonnull String[] requests;
+
+    public DecisionLoadTest(
+            @Nonnull LUTLibrary library,
+            @Nonnull String rulesetName,
+            @Nonnull String[] requests
+    ) {
+        this.library = library;
+        this.ruleset = library.getRuleset(rulesetName);
+        this.requests = requests;
+    }
+
+    @FunctionalInterface
+    private interface RequestHandler {
+        @Nonnull String handle(@Nonnull String request) throws IOException;
+    }
+
+    /**
+     * Decides the move of {@code request} as the service did before
+     * {@link FastDecisionService}, without printing the board.
+     */
+    @Nonnull String decideUsingModel(@Nonnull String request) throws IOException {
+        Main.YourClass position = GSON.fromJson(request, Main.YourClass.class);
+        return decideUsingModel(ruleset.getSettings(), position);
+    }
+
+    private <R extends Roll> @Nonnull String decideUsingModel(
+            @Nonnull GameSettings<R> settings,
+            @Nonnull Main.YourClass position
+    ) throws IOException {
+        Game<Piece, PlayerState, R> game = Main.decodeGame(settings, position);
+        LUTRegistry registry = ruleset.getRegistry();
+        Move<Piece> move;
+        try (LUTRegistry.Lease lease = registry.acquire()) {
+            FinkelLUTAgent<Piece, PlayerState, R> agent = new FinkelLUTAgent<>(
+                    settings, lease.getStates(), registry.getEncoding()
+            );
+            move = agent.decideMove(game, game.findAvailableMoves());
+        }
+        Tile dest = move.getDestOrNull();
+        return dest == null ? "null" : dest.getXIndex() + "," + dest.getYIndex();
+    }
+
+    private void measure(@Nonnull String name, @Nonnull RequestHandler handler) throws InterruptedException {
+        int threadCount = Runtime.getRuntime().availableProcessors();
+        Thread[] threads = new Thread[threadCount];
+        long[][] latencies = new long[threadCount][];
+        int[] counts = new int[threadCount];
+        AtomicBoolean measuring = new AtomicBoolean(false);
+        AtomicBoolean stopped = new AtomicBoolean(false);
+
+        for (int threadIndex = 0; threadIndex < threadCount; ++threadIndex) {
+            int thread = threadIndex;
+            threads[thread] = new Thread(() -> {
+                long[] threadLatencies = new long[1 << 16];
+                int count = 0;
+                int requestIndex = thread * (requests.length / threadCount);
+                while (!stopped.get()) {
+                    String request = requests[requestIndex];
+                    requestIndex = (requestIndex + 1) % requests.length;
+
+                    long start = System.nanoTime();
+                    try {
+                        handler.handle(request);
+                    } catch (IOException e) {
+                        throw new RuntimeException(e);
+                    }
+                    long latency = System.nanoTime() - start;
+
+                    if (measuring.get()) {
+                        if (count == threadLatencies.length) {
+                            threadLatencies = Arrays.copyOf(threadLatencies, 2 * count);
+                        }
+                        threadLatencies[count++] = latency;
+                    }
+                }
+                latencies[thread] = threadLatencies;
+                counts[thread] = count;
+            });
+            threads[thread].start();
+        }
+
+        Thread.sleep(WARMUP_MS);
+        measuring.set(true);
+        long start = System.nanoTime();
+        Thread.sleep(MEASURE_MS);
+        stopped.set(true);
+        double durationSeconds = (System.nanoTime() - start) / 1e9;
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        int total = 0;
+        for (int count : counts) {
+            total += count;
+        }
+        long[] all = new long[total];
+        int offset = 0;
+        for (int thread = 0; thread < threadCount; ++thread) {
+            System.arraycopy(latencies[thread], 0, all, offset, counts[thread]);
+            offset += counts[thread];
+        }
+        Arrays.sort(all);
+        System.out.printf(
+                "%-24s %14.0f %12.1f %12.1f\n",
+                name, total / durationSeconds,
+                all[(int) (0.50 * (total - 1))] / 1e3,
+                all[(int) (0.99 * (total - 1))] / 1e3
+        );
+    }
+
+    public void run() throws InterruptedException {
+        FastDecisionService service = new FastDecisionService(library);
+        System.out.printf(
+                "%,d positions decided by %d threads\n\n",
+                requests.length, Runtime.getRuntime().availableProcessors()
+        );
+        System.out.printf("%-24s %14s %12s %12s\n", "Path", "requests/s", "p50 (us)", "p99 (us)");
+        measure("Game model", this::decideUsingModel);
+        measure("FastSimpleGame", service::decide);
+    }
+
+    /**
+     * Creates requests for the positions reached by playing random games.
+     */
+    static @Nonnull String[] createRequests(
+            @Nonnull GameSettings<?> settings,
+            @Nonnull String rulesetName,
+            int count,
+            long seed
+    ) {
+        Random random = new Random(seed);
+        float[] probabilities = settings.getDice().createDice().getRollProbabilities();
+        FastSimpleGame game = new FastSimpleGame(settings);
+        FastSimpleMoveList moveList = new FastSimpleMoveList();
+        String[] requests = new String[count];
+
+        int created = 0;
+        while (created < requests.length) {
+            game.board.clear();
+            game.light.pieces = settings.getStartingPieceCount();
+            game.light.score = 0;
+            game.dark.pieces = settings.getStartingPieceCount();
+            game.dark.score = 0;
+            game.isLightTurn = true;
+            game.rollValue = -1;
+            game.isFinished = false;
+            game.recomputeHash();
+
+            while (!game.isFinished && created < requests.length) {
+                game.applyRoll(sampleRoll(random, probabilities), moveList);
+                if (!game.isWaitingForMove())
+                    continue;
+
+                requests[created++] = toRequest(game, rulesetName);
+                game.applyMove(moveList.moves[random.nextInt(moveList.moveCount)]);
+            }
+        }
+        return requests;
+    }
+
+    private static int sampleRoll(@Nonnull Random random, @Nonnull float[] probabilities) {
+        float sample = random.nextFloat();
+        for (int roll = 0; roll < probabilities.length - 1; ++roll) {
+            sample -= probabilities[roll];
+            if (sample < 0)
+                return roll;
+        }
+        return probabilities.length - 1;
+    }
+
+    private static @Nonnull String toRequest(@Nonnull FastSimpleGame game, @Nonnull String rulesetName) {
+        StringBuilder board = new StringBuilder();
+        for (int piece : game.board.pieces) {
+            board.append(piece > 0 ? 'L' : (piece < 0 ? 'D' : '.'));
+        }
+        return "{\"settings\":\"" + rulesetName + "\""
+                + ",\"game\":\"" + board + "\""
+                + ",\"roll\":" + game.rollValue
+                + ",\"light_turn\":" + game.isLightTurn
+                + ",\"light_score\":" + game.light.score
+                + ",\"dark_score\":" + game.dark.score
+                + ",\"light_left\":" + game.light.pieces
+                + ",\"dark_left\":" + game.dark.pieces
+                + "}";
+    }
+
+    /**
+     * Runs the load test for the Finkel rules with 3 pieces per player.
+     */
+    public static void main(String[] args) throws IOException, InterruptedException {
+        GameSettings<?> settings = GameSettings.FINKEL.withStartingPieceCount(3);
+        File directory = Files.createTempDirectory("decision-load-test").toFile();
+        directory.deleteOnExit();
+
+        LUTLibrary library = new LUTLibrary(directory);
+        library.register(RULESET, settings);
+        File file = library.getTableFile(settings);
+        file.deleteOnExit();
+
+        StateLUT lut = new StateLUT(settings);
+        GameEncoding encoding = lut.createEncoding();
+        lut.readOrPopulateStateStore(encoding, file);
+        library.getRuleset(RULESET).startLoading().join();
+
+        String[] requests = createRequests(settings, RULESET, POSITION_COUNT, 42);
+        new DecisionLoadTest(library, RULESET, requests).run();
+        library.close();
+    }
+}
@@ -0,0 +1,137 @@
+package net.royalur;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import net.royalur.lut.GameEncoding;
+import net.royalur.lut.LUTLibrary;
+import net.royalur.lut.StateLUT;
+import net.royalur.lut.ValueCodec;
+import net.royalur.lut.store.BigEntryStore;
+import net.royalur.model.GameSettings;
+import org.junit.jupiter.api.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+
+public class FastDecisionServiceTest {
+
+    private static final String RULESET = "finkel2";
+
+    /**
+     * Creates a library with a table for the Finkel rules with 2 pieces,
+     * where every state is given a different value, so that there is
+     * only ever one best move.
+     */
+    private static LUTLibrary createLibrary(GameSettings<?> settings) throws IOException {
+        File directory = Files.createTempDirectory("decisions").toFile();
+        directory.deleteOnExit();
+        LUTLibrary library = new LUTLibrary(directory);
+        library.register(RULESET, settings);
+
+        StateLUT lut = new StateLUT(settings);
+        GameEncoding encoding = lut.createEncoding();
+        File populated = new File(directory, "populated.rgu");
+        populated.deleteOnExit();
+        BigEntryStore states = lut.readOrPopulateStateStore(encoding, populated);
+
+        BigEntryStore scored = new BigEntryStore(states.getKeyType(), states.getValueType());
+        for (BigEntryStore.Entry entry : states) {
+            float value = (entry.key * 0x9E3779B97F4A7C15L >>> 40) / (float) (1 << 24) * 200 - 100;
+            scored.addEntry(entry.key, ValueCodec.FLOAT32.encode(value));
+        }
+        scored.sort();
+
+        File file = library.getTableFile(settings);
+        file.deleteOnExit();
+        lut.writeStateStore(scored, encoding, file);
+        library.getRuleset(RULESET).startLoading().join();
+        return library;
+    }
+
+    @Test
+    public void testMatchesModel() throws Exception {
+        GameSettings<?> settings = GameSettings.FINKEL.withStartingPieceCount(2);
+        LUTLibrary library = createLibrary(settings);
+        String[] requests = DecisionLoadTest.createRequests(settings, RULESET, 2000, 7);
+        DecisionLoadTest model = new DecisionLoadTest(library, RULESET, requests);
+        FastDecisionService service = new FastDecisionService(library);
+
+        for (String request : requests) {
+            assertEquals(model.decideUsingModel(request), service.decide(request), request);
+        }
+
+        // Batches decide the same moves, in the same order.
+        List<FastDecisionService.Decision> decisions = service.decideBatch(
+                "[" + String.join(",", requests) + "]", new ForkJoinPool(4)
+        );
+        assertEquals(requests.length, decisions.size());
+        for (int index = 0; index < requests.length; ++index) {
+            assertNull(decisions.get(index).getError());
+            assertEquals(model.decideUsingModel(requests[index]), decisions.get(index).getMove());
+        }
+        library.close();
+    }
+
+    @Test
+    public void testInvalidRequests() throws Exception {
+        GameSettings<?> settings = GameSettings.FINKEL.withStartingPieceCount(2);
+        LUTLibrary library = createLibrary(settings);
+        FastDecisionService service = new FastDecisionService(library);
+        String position = "\"game\":\"L.......................\",\"roll\":2,\"light_turn\":true,"
+                + "\"light_score\":0,\"dark_score\":0,\"light_left\":1,\"dark_left\":2";
+
+        assertThrows(IllegalArgumentException.class, () -> service.decide("{" + position));
+        assertThrows(IllegalArgumentException.class, () -> service.decide("{\"roll\":\"two\"}"));
+        assertThrows(IllegalArgumentException.class, () -> service.decide("{\"game\":\"\",\"roll\":0}"));
+        assertThrows(
+                IllegalArgumentException.class,
+                () -> service.decide("{\"settings\":\"unknown\"," + position + "}")
+        );
+
+        // Positions that cannot occur in a game are rejected, rather than looked up.
+        String[] impossible = {
+                // A light piece on dark's side of the board.
+                "\"game\":\"..L.....................\",\"roll\":2,\"light_turn\":true,"
+                        + "\"light_score\":0,\"dark_score\":0,\"light_left\":1,\"dark_left\":2",
+                // Too few pieces.
+                "\"game\":\"L.......................\",\"roll\":2,\"light_turn\":true,"
+                        + "\"light_score\":0,\"dark_score\":0,\"light_left\":0,\"dark_left\":2",
+                // Too many pieces, which would overflow the piece counts of the encoding.
+                "\"game\":\"L.......................\",\"roll\":2,\"light_turn\":true,"
+                        + "\"light_score\":0,\"dark_score\":0,\"light_left\":8,\"dark_left\":2",
+                // A roll larger than the dice can roll.
+                "\"game\":\"L.......................\",\"roll\":5,\"light_turn\":true,"
+                        + "\"light_score\":0,\"dark_score\":0,\"light_left\":1,\"dark_left\":2",
+                // A finished game.
+                "\"game\":\"........................\",\"roll\":2,\"light_turn\":false,"
+                        + "\"light_score\":2,\"dark_score\":0,\"light_left\":0,\"dark_left\":2",
+        };
+        for (String invalid : impossible) {
+            assertThrows(
+                    IllegalArgumentException.class,
+                    () -> service.decide("{\"settings\":\"" + RULESET + "\"," + invalid + "}"),
+                    invalid
+            );
+        }
+        String move = service.decide("{\"settings\":\"" + RULESET + "\"," + position + "}");
+
+        // Invalid positions in a batch are reported without failing the batch.
+        List<FastDecisionService.Decision> decisions = service.decideBatch(
+                "[{\"settings\":\"" + RULESET + "\"," + position + "},"
+                        + "{\"settings\":\"unknown\"," + position + "},"
+                        + "{\"settings\":\"" + RULESET + "\",\"game\":\"\",\"roll\":-1}]",
+                ForkJoinPool.commonPool()
+        );
+        assertEquals(move, decisions.get(0).getMove());
+        assertEquals("Unknown ruleset unknown", decisions.get(1).getError());
+        assertNotNull(decisions.get(2).getError());
+        assertThrows(
+                IllegalArgumentException.class,
+                () -> service.decideBatch("{}", ForkJoinPool.commonPool())
+        );
+        library.close();
+    }
+}
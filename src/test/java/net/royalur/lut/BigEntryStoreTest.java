@@ -2,10 +2,22 @@ package net.royalur.lut;
 
 import static org.junit.jupiter.api.Assertions.*;
 
+import net.royalur.lut.buffer.BufferStorage;
+import net.royalur.lut.buffer.ValueBuffer;
 import net.royalur.lut.buffer.ValueType;
 import net.royalur.lut.store.BigEntryStore;
+import net.royalur.lut.store.KeyBatch;
+import net.royalur.lut.store.KeyIndex;
 import org.junit.jupiter.api.Test;
 
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.Random;
+
 public class BigEntryStoreTest {
 
     @Test
@@ -54,4 +66,299 @@ public class BigEntryStoreTest {
         assertEquals(5, map.getInt(10));
         assertEquals(6, map.getInt(11));
     }
+
+    private static void assertSortedAndEqual(BigEntryStore store, long[] keys, long[] values) {
+        assertTrue(store.isKnownSorted());
+        assertEquals(keys.length, store.getEntryCount());
+
+        long lastKey = 0;
+        int entryCount = 0;
+        for (BigEntryStore.Entry entry : store) {
+            assertTrue(entryCount == 0 || Long.compareUnsigned(lastKey, entry.key) < 0);
+            lastKey = entry.key;
+            entryCount += 1;
+        }
+        assertEquals(keys.length, entryCount);
+
+        for (int index = 0; index < keys.length; ++index) {
+            assertEquals(values[index], store.getLong(keys[index]));
+        }
+    }
+
+    @Test
+    public void testBuilder() {
+        Random random = new Random(42);
+        int entryCount = 10_000;
+        long[] keys = new long[entryCount];
+        long[] values = new long[entryCount];
+        BigEntryStore.Builder builder = new BigEntryStore.Builder(ValueType.INT, ValueType.INT, 64, 16);
+        for (int index = 0; index < entryCount; ++index) {
+            // Spread the keys over the full unsigned range, without duplicates.
+            keys[index] = Integer.toUnsignedLong(index * 0x9E3779B1);
+            values[index] = Integer.toUnsignedLong(random.nextInt());
+            builder.add(keys[index], values[index]);
+        }
+        assertEquals(entryCount, builder.getEntryCount());
+        assertSortedAndEqual(builder.build(), keys, values);
+    }
+
+    @Test
+    public void testBuilderLongKeys() {
+        Random random = new Random(42);
+        int entryCount = 10_000;
+        long[] keys = new long[entryCount];
+        long[] values = new long[entryCount];
+        BigEntryStore.Builder builder = new BigEntryStore.Builder(ValueType.LONG, ValueType.SHORT, 64, 0);
+        for (int index = 0; index < entryCount; ++index) {
+            keys[index] = index * 0x9E3779B97F4A7C15L;
+            values[index] = random.nextInt(1 << 16);
+            builder.add(keys[index], values[index]);
+        }
+        assertSortedAndEqual(builder.build(), keys, values);
+    }
+
+    @Test
+    public void testBuilderMergesRuns() {
+        Random random = new Random(42);
+        int entryCount = 10_000;
+        long[] keys = new long[entryCount];
+        long[] values = new long[entryCount];
+        for (ValueType keyType : new ValueType[] {ValueType.INT, ValueType.LONG}) {
+            // Only 1000 entries are sorted at a time, so the entries are merged from ten runs.
+            BigEntryStore.Builder builder = new BigEntryStore.Builder(
+                    keyType, ValueType.INT, 64, 0, 1000, BufferStorage.HEAP
+            );
+            for (int index = 0; index < entryCount; ++index) {
+                keys[index] = Integer.toUnsignedLong(index * 0x9E3779B1);
+                values[index] = Integer.toUnsignedLong(random.nextInt());
+                builder.add(keys[index], values[index]);
+            }
+            assertEquals(entryCount, builder.getEntryCount());
+            BigEntryStore store = builder.build();
+            assertTrue(store.isKnownSorted());
+            assertSortedAndEqual(store, keys, values);
+        }
+    }
+
+    @Test
+    public void testBuilderEmpty() {
+        BigEntryStore store = new BigEntryStore.Builder(ValueType.INT, ValueType.INT, 0).build();
+        assertEquals(0, store.getEntryCount());
+        assertNull(store.getInt(5));
+    }
+
+    @Test
+    public void testBuilderMatchesSort() {
+        Random random = new Random(7);
+        BigEntryStore sorted = new BigEntryStore(ValueType.INT, ValueType.INT, 8);
+        BigEntryStore.Builder builder = new BigEntryStore.Builder(ValueType.INT, ValueType.INT, 8, 0);
+        for (int index = 0; index < 1000; ++index) {
+            int key = random.nextInt();
+            int value = random.nextInt();
+            sorted.addEntry(key, value);
+            builder.add(key, value);
+        }
+        sorted.sort();
+
+        Iterator<BigEntryStore.Entry> expected = sorted.iterator();
+        for (BigEntryStore.Entry entry : builder.build()) {
+            BigEntryStore.Entry expectedEntry = expected.next();
+            assertEquals(expectedEntry.key, entry.key);
+            assertEquals(expectedEntry.value, entry.value);
+        }
+        assertFalse(expected.hasNext());
+    }
+
+    @Test
+    public void testSortLarge() {
+        // Large enough that the merge is split into parallel partitions.
+        Random random = new Random(11);
+        int entryCount = 300_000;
+        long[] keys = new long[entryCount];
+        long[] values = new long[entryCount];
+        BigEntryStore store = new BigEntryStore(ValueType.INT, ValueType.INT, 256);
+        for (int index = 0; index < entryCount; ++index) {
+            keys[index] = Integer.toUnsignedLong(index * 0x9E3779B1);
+            values[index] = Integer.toUnsignedLong(random.nextInt());
+            store.addEntry(keys[index], values[index]);
+        }
+        assertFalse(store.isKnownSorted());
+
+        store.sort();
+        assertSortedAndEqual(store, keys, values);
+
+        // Adding entries after sorting should continue to work.
+        store.addEntry(0xFFFFFFFFL, 3);
+        store.sort();
+        assertEquals(entryCount + 1, store.getEntryCount());
+        assertEquals(3, store.getLong(0xFFFFFFFFL));
+    }
+
+    @Test
+    public void testSortKeepsDuplicates() {
+        BigEntryStore store = new BigEntryStore(ValueType.INT, ValueType.INT, 2);
+        for (int index = 0; index < 9; ++index) {
+            store.addEntry(index % 3, index);
+        }
+        store.sort();
+        assertEquals(9, store.getEntryCount());
+
+        int entryCount = 0;
+        for (BigEntryStore.Entry entry : store) {
+            assertEquals(entryCount / 3, entry.key);
+            assertEquals(entry.key, entry.value % 3);
+            entryCount += 1;
+        }
+    }
+
+    private static void assertPrimitiveLookups(BigEntryStore store) {
+        assertEquals(3, store.getIntOrDefault(5, -1));
+        assertEquals(0, store.getIntOrDefault(11, -1));
+        assertEquals(-1, store.getIntOrDefault(7, -1));
+        assertEquals(15, store.getLongOrDefault(Integer.toUnsignedLong(-10), -1));
+        assertEquals(-1, store.getLongOrDefault(0, -1));
+        assertTrue(store.containsKey(5));
+        assertTrue(store.containsKey(Integer.toUnsignedLong(-10)));
+        assertFalse(store.containsKey(7));
+
+        // The missing value may equal a stored value.
+        assertEquals(0, store.getIntOrDefault(11, 0));
+
+        int[] keys = {5, 7, 11, -10, 10};
+        int[] values = new int[keys.length];
+        assertEquals(4, store.lookupBatch(keys, values, 0));
+        assertArrayEquals(new int[] {3, 0, 0, 15, 5}, values);
+
+        long[] longKeys = {Integer.toUnsignedLong(-10), 6};
+        long[] longValues = new long[longKeys.length];
+        assertEquals(1, store.lookupBatch(longKeys, longValues, -1));
+        assertArrayEquals(new long[] {15, -1}, longValues);
+    }
+
+    @Test
+    public void testPrimitiveLookups() {
+        BigEntryStore store = new BigEntryStore(ValueType.INT, ValueType.INT, 2);
+        store.addEntry(5, 3);
+        store.addEntry(10, 5);
+        store.addEntry(11, 0);
+        store.addEntry(-10, 15);
+        store.addEntry(20, 7);
+        assertFalse(store.isKnownSorted());
+        assertPrimitiveLookups(store);
+
+        store.sort();
+        assertPrimitiveLookups(store);
+
+        store.buildKeyIndex(KeyIndex.Type.PIECEWISE_LINEAR);
+        assertPrimitiveLookups(store);
+    }
+
+    private static void assertBatchMatchesLookups(BigEntryStore store, long[] keys) {
+        KeyBatch batch = new KeyBatch(4);
+        for (int round = 0; round < 2; ++round) {
+            batch.clear();
+            for (long key : keys) {
+                batch.add(key);
+            }
+            store.lookupBatch(batch, -1);
+            assertEquals(keys.length, batch.size());
+            for (int index = 0; index < keys.length; ++index) {
+                assertEquals(keys[index], batch.getKey(index));
+                assertEquals(store.getLongOrDefault(keys[index], -1), batch.getValue(index));
+            }
+        }
+    }
+
+    @Test
+    public void testLookupBatch() {
+        Random random = new Random(13);
+        BigEntryStore.Builder builder = new BigEntryStore.Builder(ValueType.INT, ValueType.INT, 16, 0);
+        for (int key = 0; key < 1000; ++key) {
+            builder.add(Integer.toUnsignedLong(7 * key + 3), random.nextInt(1 << 20));
+        }
+        BigEntryStore store = builder.build();
+
+        // Present, missing, duplicate, and out of range keys, in a
+        // batch large enough to be sorted in several runs.
+        long[] keys = new long[200];
+        for (int index = 0; index < keys.length; ++index) {
+            keys[index] = random.nextInt(7 * 1000 + 20);
+        }
+        keys[0] = 0;
+        keys[1] = 3;
+        keys[2] = 3;
+        keys[3] = 0xFFFFFFFFL;
+        assertBatchMatchesLookups(store, keys);
+        assertBatchMatchesLookups(store, Arrays.copyOf(keys, 5));
+        assertBatchMatchesLookups(store, new long[0]);
+
+        for (KeyIndex.Type type : KeyIndex.Type.values()) {
+            store.buildKeyIndex(type);
+            assertBatchMatchesLookups(store, keys);
+        }
+
+        // Unsorted stores look up each key separately.
+        BigEntryStore unsorted = new BigEntryStore(ValueType.INT, ValueType.INT, 16);
+        for (BigEntryStore.Entry entry : store) {
+            unsorted.addEntry(entry.key, entry.value);
+        }
+        assertFalse(unsorted.isKnownSorted());
+        assertBatchMatchesLookups(unsorted, keys);
+    }
+
+    @Test
+    public void testOffHeap() throws IOException {
+        for (ValueType valueType : ValueType.values()) {
+            Random random = new Random(17);
+            long valueMask = (valueType == ValueType.LONG ? -1L : (1L << (8 * valueType.getByteCount())) - 1);
+            BigEntryStore heap = new BigEntryStore(ValueType.LONG, valueType, 8);
+            BigEntryStore offHeap = new BigEntryStore(ValueType.LONG, valueType, 8, BufferStorage.OFF_HEAP);
+            for (int index = 0; index < 500; ++index) {
+                long key = random.nextLong();
+                long value = random.nextLong() & valueMask;
+                heap.addEntry(key, value);
+                offHeap.addEntry(key, value);
+            }
+            heap.sort();
+            offHeap.sort();
+            assertStoresEqual(heap, offHeap);
+
+            File file = File.createTempFile("store", ".rgu");
+            file.deleteOnExit();
+            try (FileOutputStream fos = new FileOutputStream(file)) {
+                offHeap.write(fos.getChannel());
+            }
+            try (FileInputStream fis = new FileInputStream(file)) {
+                BigEntryStore read = BigEntryStore.read(fis.getChannel(), BufferStorage.OFF_HEAP);
+                assertEquals(BufferStorage.OFF_HEAP, read.getStorage());
+                assertStoresEqual(heap, read);
+                read.close();
+            }
+
+            offHeap.close();
+            assertEquals(0, offHeap.getEntryCount());
+            assertNull(offHeap.getLong(heap.iterator().next().key));
+        }
+
+        // Closed buffers fail rather than reading freed memory.
+        ValueBuffer buffer = ValueType.INT.create(4, BufferStorage.OFF_HEAP);
+        buffer.set(0, 7);
+        assertEquals(7, buffer.getInt(0));
+        buffer.close();
+        assertThrows(IndexOutOfBoundsException.class, () -> buffer.getInt(0));
+        buffer.close();
+    }
+
+    private static void assertStoresEqual(BigEntryStore expected, BigEntryStore actual) {
+        assertEquals(expected.getEntryCount(), actual.getEntryCount());
+        Iterator<BigEntryStore.Entry> actualEntries = actual.iterator();
+        for (BigEntryStore.Entry entry : expected) {
+            assertTrue(actualEntries.hasNext());
+            BigEntryStore.Entry actualEntry = actualEntries.next();
+            assertEquals(entry.key, actualEntry.key);
+            assertEquals(entry.value, actualEntry.value);
+            assertEquals(entry.value, actual.getLongOrDefault(entry.key, -1));
+        }
+        assertFalse(actualEntries.hasNext());
+    }
 }
@@ -0,0 +1,105 @@
+package net.royalur.lut;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import net.royalur.lut.buffer.ValueType;
+import net.royalur.lut.store.BigEntryStore;
+import net.royalur.lut.store.CompressedEntryStore;
+import org.junit.jupiter.api.Test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Random;
+
+public class CompressedEntryStoreTest {
+
+    private static File writeCompressed(BigEntryStore store, int entriesPerBlock) throws IOException {
+        File file = File.createTempFile("store", ".rguz");
+        file.deleteOnExit();
+        try (FileOutputStream fos = new FileOutputStream(file)) {
+            CompressedEntryStore.write(store, fos.getChannel(), entriesPerBlock);
+        }
+        return file;
+    }
+
+    @Test
+    public void testGetInt() throws IOException {
+        BigEntryStore store = new BigEntryStore(ValueType.INT, ValueType.INT, 4);
+        Random random = new Random(47);
+        int[] keys = new int[137];
+        for (int index = 0; index < keys.length; ++index) {
+            keys[index] = random.nextInt();
+            store.addEntry(keys[index], index - 50);
+        }
+        store.sort();
+
+        File file = writeCompressed(store, 8);
+        try (CompressedEntryStore compressed = CompressedEntryStore.open(file.toPath(), 2)) {
+            assertEquals(keys.length, compressed.getEntryCount());
+            assertEquals(18, compressed.getBlockCount());
+            for (int index = 0; index < keys.length; ++index) {
+                assertEquals(index - 50, compressed.getInt(keys[index]));
+            }
+        }
+    }
+
+    @Test
+    public void testGetLong() throws IOException {
+        BigEntryStore store = new BigEntryStore(ValueType.LONG, ValueType.SHORT, 16);
+        for (long key = 0; key < 1000; ++key) {
+            store.addEntry((key * 3) << 35, key % 5);
+        }
+        store.sort();
+
+        File file = writeCompressed(store, 64);
+        try (CompressedEntryStore compressed = CompressedEntryStore.open(file.toPath())) {
+            for (long key = 0; key < 1000; ++key) {
+                assertEquals(key % 5, compressed.getLong((key * 3) << 35));
+                assertNull(compressed.getLong(((key * 3) << 35) + 1));
+            }
+        }
+    }
+
+    @Test
+    public void testMissing() throws IOException {
+        BigEntryStore store = new BigEntryStore(ValueType.INT, ValueType.INT, 2);
+        store.addEntry(5, 3);
+        store.addEntry(10, 5);
+        store.addEntry(-10, 15);
+        store.sort();
+
+        File file = writeCompressed(store, 2);
+        try (CompressedEntryStore compressed = CompressedEntryStore.open(file.toPath())) {
+            assertEquals(3, compressed.getInt(5));
+            assertEquals(5, compressed.getInt(10));
+            assertEquals(15, compressed.getInt(-10));
+            assertNull(compressed.getInt(0));
+            assertNull(compressed.getInt(7));
+            assertNull(compressed.getInt(-1));
+
+            assertEquals(3, compressed.getIntOrDefault(5, -1));
+            assertEquals(-1, compressed.getIntOrDefault(7, -1));
+            assertEquals(15, compressed.getLongOrDefault(Integer.toUnsignedLong(-10), -1));
+            assertTrue(compressed.containsKey(10));
+            assertFalse(compressed.containsKey(0));
+        }
+    }
+
+    @Test
+    public void testSmallerThanRawStore() throws IOException {
+        BigEntryStore store = new BigEntryStore(ValueType.INT, ValueType.INT);
+        for (int key = 0; key < 100_000; ++key) {
+            store.addEntry(key * 2, Float.floatToRawIntBits(key % 7 == 0 ? 1.5f : 0));
+        }
+        store.sort();
+
+        File raw = File.createTempFile("store", ".rgu");
+        raw.deleteOnExit();
+        try (FileOutputStream fos = new FileOutputStream(raw)) {
+            store.write(fos.getChannel());
+        }
+        File compressed = writeCompressed(store, CompressedEntryStore.DEFAULT_ENTRIES_PER_BLOCK);
+        assertTrue(compressed.length() * 2 < raw.length());
+    }
+}
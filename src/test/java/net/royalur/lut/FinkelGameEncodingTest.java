@@ -155,4 +155,57 @@ public class FinkelGameEncodingTest {
         long duration4MS = System.currentTimeMillis() - start4;
         System.out.println("Gameplay verification took " + duration4MS + " ms for " + seenStates + " states");
     }
+
+    @Test
+    public void testDecode() {
+        GameSettings<?> settings = GameSettings.FINKEL.withStartingPieceCount(3);
+        StateLUT lut = new StateLUT(settings);
+        FinkelGameEncoding encoding = new FinkelGameEncoding();
+        FastSimpleGame decoded = new FastSimpleGame(settings);
+
+        lut.loopGameStates((game) -> {
+            encoding.decode(encoding.encode(game), decoded);
+            assertArrayEquals(game.board.pieces, decoded.board.pieces);
+            assertEquals(game.isLightTurn, decoded.isLightTurn);
+            assertEquals(game.isFinished, decoded.isFinished);
+            assertEquals(game.light.pieces, decoded.light.pieces);
+            assertEquals(game.light.score, decoded.light.score);
+            assertEquals(game.dark.pieces, decoded.dark.pieces);
+            assertEquals(game.dark.score, decoded.dark.score);
+        });
+    }
+
+    @Test
+    public void testEncodeMove() {
+        for (int pieceCount = 1; pieceCount <= 3; ++pieceCount) {
+            GameSettings<?> settings = GameSettings.FINKEL.withStartingPieceCount(pieceCount);
+            StateLUT lut = new StateLUT(settings);
+            FinkelGameEncoding encoding = new FinkelGameEncoding();
+            FastSimpleMoveList moveList = new FastSimpleMoveList();
+            int maxRoll = settings.getDice().createDice().getRollProbabilities().length - 1;
+            AtomicInteger moveCount = new AtomicInteger(0);
+
+            lut.loopGameStates((game) -> {
+                if (game.isFinished)
+                    return;
+
+                for (int roll = 1; roll <= maxRoll; ++roll) {
+                    int rollUndo = game.applyRoll(roll, moveList);
+                    if (game.isWaitingForMove()) {
+                        int state = encoding.encode(game);
+                        for (int moveIndex = 0; moveIndex < moveList.moveCount; ++moveIndex) {
+                            int move = moveList.moves[moveIndex];
+                            int incremental = encoding.encodeMove(state, game, move);
+                            int moveUndo = game.applyMove(move);
+                            assertEquals(encoding.encode(game), incremental);
+                            game.undoMove(moveUndo);
+                            moveCount.incrementAndGet();
+                        }
+                    }
+                    game.undoRoll(rollUndo);
+                }
+            });
+            assertTrue(moveCount.get() > 0);
+        }
+    }
 }
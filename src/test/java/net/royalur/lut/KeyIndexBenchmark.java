@@ -0,0 +1,139 @@
+package net.royalur.lut;
+
+import net.royalur.lut.store.BigEntryStore;
+import net.royalur.lut.store.KeyIndex;
+import net.royalur.lut.store.PiecewiseLinearKeyIndex;
+import net.royalur.model.GameSettings;
+
+import javax.annotation.Nonnull;
+import java.io.File;
+import java.io.IOException;
+import java.util.Random;
+
+/**
+ * Compares the probes per lookup and the time per lookup of each
+ * {@link KeyIndex.Type} against the search used by stores without
+ * an index, using keys from a Finkel state store.
+ */
+public class KeyIndexBenchmark {
+
+    private static final int SAMPLE_COUNT = 1_000_000;
+    private static final int WARMUP_ROUNDS = 3;
+    private static final int TIMED_ROUNDS = 5;
+
+    private final @Nonnull BigEntryStore states;
+    private final @Nonnull long[] keys;
+
+    /**
+     * The sum of every value that is looked up, which is printed
+     * so that the lookups cannot be optimised away.
+     */
+    private long checksum = 0;
+
+    public KeyIndexBenchmark(@Nonnull BigEntryStore states, long seed) {
+        this.states = states;
+        this.keys = sampleKeys(states, SAMPLE_COUNT, new Random(seed));
+    }
+
+    private static @Nonnull long[] sampleKeys(@Nonnull BigEntryStore states, int sampleCount, @Nonnull Random random) {
+        int entryCount = states.getEntryCount();
+        long[] allKeys = new long[entryCount];
+        int index = 0;
+        for (BigEntryStore.Entry entry : states) {
+            allKeys[index++] = entry.key;
+        }
+
+        long[] samples = new long[sampleCount];
+        for (int sample = 0; sample < sampleCount; ++sample) {
+            samples[sample] = allKeys[random.nextInt(entryCount)];
+        }
+        return samples;
+    }
+
+    private double timeStoreLookups() {
+        long checksum = 0;
+        long start = 0;
+        for (int round = 0; round < WARMUP_ROUNDS + TIMED_ROUNDS; ++round) {
+            if (round == WARMUP_ROUNDS) {
+                start = System.nanoTime();
+            }
+            for (long key : keys) {
+                checksum += states.getLongOrDefault(key, 0);
+            }
+        }
+        double nsPerLookup = (double) (System.nanoTime() - start) / ((long) TIMED_ROUNDS * keys.length);
+        this.checksum += checksum;
+        return nsPerLookup;
+    }
+
+    private double timeIndexLookups(@Nonnull KeyIndex index) {
+        long checksum = 0;
+        long start = 0;
+        for (int round = 0; round < WARMUP_ROUNDS + TIMED_ROUNDS; ++round) {
+            if (round == WARMUP_ROUNDS) {
+                start = System.nanoTime();
+            }
+            for (long key : keys) {
+                long location = index.locate(key);
+                checksum += index.getChunk(KeyIndex.getChunkIndex(location))
+                        .getValueLong(KeyIndex.getSlot(location));
+            }
+        }
+        double nsPerLookup = (double) (System.nanoTime() - start) / ((long) TIMED_ROUNDS * keys.length);
+        this.checksum += checksum;
+        return nsPerLookup;
+    }
+
+    private double countProbesPerLookup(@Nonnull KeyIndex index) {
+        KeyIndex.ProbeCounter probes = new KeyIndex.ProbeCounter();
+        for (long key : keys) {
+            if (index.locate(key, probes) == KeyIndex.NOT_FOUND)
+                throw new IllegalStateException("The index could not find a key in the store");
+        }
+        return (double) probes.getProbes() / keys.length;
+    }
+
+    public void run() {
+        states.clearKeyIndex();
+        System.out.printf(
+                "%,d entries in %,d chunks, %,d sampled lookups\n\n",
+                states.getEntryCount(), states.getChunkCount(), keys.length
+        );
+        System.out.printf("%-18s %16s %14s\n", "Search", "Probes/lookup", "ns/lookup");
+        System.out.printf("%-18s %16s %14.1f\n", "No index", "-", timeStoreLookups());
+
+        for (KeyIndex.Type type : KeyIndex.Type.values()) {
+            KeyIndex index = states.createKeyIndex(type);
+            double probes = countProbesPerLookup(index);
+            double nsPerLookup = timeIndexLookups(index);
+            System.out.printf("%-18s %16.2f %14.1f\n", type, probes, nsPerLookup);
+
+            if (index instanceof PiecewiseLinearKeyIndex learned) {
+                System.out.printf("%-18s %,d segments\n", "", learned.getSegmentCount());
+            }
+        }
+        System.out.printf("\nChecksum of looked up values: %x\n", checksum);
+    }
+
+    /**
+     * Benchmarks the state store in args[0] if it is given, or otherwise
+     * a state store for the Finkel rules with 3 pieces per player.
+     */
+    public static void main(String[] args) throws IOException {
+        GameSettings<?> settings = GameSettings.FINKEL;
+        BigEntryStore states;
+        if (args.length > 0) {
+            states = new StateLUT(settings).readStateStore(new File(args[0]));
+        } else {
+            settings = settings.withStartingPieceCount(3);
+            StateLUT lut = new StateLUT(settings);
+            File file = File.createTempFile("key-index-benchmark", ".rgu");
+            file.deleteOnExit();
+            if (!file.delete())
+                throw new IOException("Could not delete " + file);
+
+            states = lut.readOrPopulateStateStore(lut.createEncoding(), file);
+        }
+        new KeyIndexBenchmark(states, 42).run();
+    }
+}
@@ -0,0 +1,121 @@
+package net.royalur.lut;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import net.royalur.lut.buffer.ValueType;
+import net.royalur.lut.store.BigEntryStore;
+import net.royalur.lut.store.KeyIndex;
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.NoSuchElementException;
+import java.util.Random;
+
+public class KeyIndexTest {
+
+    private static BigEntryStore buildStore(ValueType keyType, long[] keys) {
+        BigEntryStore.Builder builder = new BigEntryStore.Builder(keyType, ValueType.LONG, 64, keys.length);
+        for (int index = 0; index < keys.length; ++index) {
+            builder.add(keys[index], index);
+        }
+        return builder.build();
+    }
+
+    private static void assertLookups(BigEntryStore store, long[] keys, long[] missingKeys) {
+        for (int index = 0; index < keys.length; ++index) {
+            assertEquals(index, store.getLong(keys[index]));
+        }
+        for (long key : missingKeys) {
+            assertNull(store.getLong(key));
+        }
+    }
+
+    /**
+     * Keys made up of bit fields, similar to the keys of game encodings.
+     */
+    private static long[] createFieldKeys(Random random, int keyCount) {
+        long[] keys = new long[keyCount];
+        for (int index = 0; index < keyCount; ++index) {
+            long pieces = random.nextInt(8);
+            long board = random.nextInt(1 << (4 + 3 * (int) pieces));
+            keys[index] = (pieces << 28) | board;
+        }
+        return Arrays.stream(keys).distinct().toArray();
+    }
+
+    @Test
+    public void testFieldKeys() {
+        for (KeyIndex.Type type : KeyIndex.Type.values()) {
+            Random random = new Random(5);
+            long[] keys = createFieldKeys(random, 50_000);
+            BigEntryStore store = buildStore(ValueType.INT, keys);
+            store.buildKeyIndex(type);
+            assertNotNull(store.getKeyIndex());
+
+            long[] missingKeys = new long[1000];
+            for (int index = 0; index < missingKeys.length; ++index) {
+                missingKeys[index] = (1L << 31) + random.nextInt(1 << 30);
+            }
+            assertLookups(store, keys, missingKeys);
+        }
+    }
+
+    @Test
+    public void testUnsignedLongKeys() {
+        for (KeyIndex.Type type : KeyIndex.Type.values()) {
+            Random random = new Random(6);
+            long[] keys = random.longs(20_000).map((key) -> key & ~1L).distinct().toArray();
+            long[] missingKeys = random.longs(1000).map((key) -> key | 1L).toArray();
+            BigEntryStore store = buildStore(ValueType.LONG, keys);
+            store.buildKeyIndex(type);
+            assertLookups(store, keys, missingKeys);
+            assertNull(store.getLong(0));
+            assertNull(store.getLong(-1));
+        }
+    }
+
+    @Test
+    public void testUpdateEntry() {
+        for (KeyIndex.Type type : KeyIndex.Type.values()) {
+            BigEntryStore.Builder builder = new BigEntryStore.Builder(ValueType.INT, ValueType.INT, 4, 0);
+            for (int key = 0; key < 100; ++key) {
+                builder.add(3 * key, key);
+            }
+            BigEntryStore store = builder.build();
+            store.buildKeyIndex(type);
+
+            assertEquals(7, store.updateEntry(21, 70));
+            assertEquals(70, store.getInt(21));
+            assertThrows(NoSuchElementException.class, () -> store.updateEntry(22, 1));
+        }
+    }
+
+    @Test
+    public void testAddEntryClearsIndex() {
+        for (KeyIndex.Type type : KeyIndex.Type.values()) {
+            BigEntryStore store = buildStore(ValueType.INT, new long[] {1, 5, 9});
+            store.buildKeyIndex(type);
+            store.addEntry(3L, 7L);
+            assertNull(store.getKeyIndex());
+            assertEquals(7, store.getLong(3));
+        }
+    }
+
+    @Test
+    public void testFewerProbesOnUniformKeys() {
+        for (KeyIndex.Type type : KeyIndex.Type.values()) {
+            Random random = new Random(8);
+            long[] keys = random.ints(100_000).mapToLong(Integer::toUnsignedLong).distinct().toArray();
+            BigEntryStore store = buildStore(ValueType.INT, keys);
+            KeyIndex binary = store.createKeyIndex(KeyIndex.Type.BINARY_SEARCH);
+            KeyIndex index = store.createKeyIndex(type);
+
+            KeyIndex.ProbeCounter binaryProbes = new KeyIndex.ProbeCounter();
+            KeyIndex.ProbeCounter indexProbes = new KeyIndex.ProbeCounter();
+            for (long key : keys) {
+                assertEquals(binary.locate(key, binaryProbes), index.locate(key, indexProbes));
+            }
+            assertTrue(indexProbes.getProbes() <= binaryProbes.getProbes());
+        }
+    }
+}
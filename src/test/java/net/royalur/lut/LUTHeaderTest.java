@@ -0,0 +1,159 @@
+package net.royalur.lut;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import net.royalur.lut.LUTHeader.Verification;
+import net.royalur.lut.buffer.BufferStorage;
+import net.royalur.lut.buffer.ValueType;
+import net.royalur.lut.store.BigEntryStore;
+import net.royalur.lut.store.MappedBigEntryStore;
+import net.royalur.model.GameSettings;
+import org.junit.jupiter.api.Test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+
+public class LUTHeaderTest {
+
+    private static final GameEncoding ENCODING = new FinkelGameEncoding();
+
+    private static BigEntryStore createStore(int entryCount) {
+        BigEntryStore store = new BigEntryStore(ENCODING.getKeyType(), ValueType.INT, 16);
+        for (int key = 0; key < entryCount; ++key) {
+            store.addEntry(3L * key, key);
+        }
+        store.sort();
+        return store;
+    }
+
+    private static File createTempFile() throws IOException {
+        File file = File.createTempFile("header", ".rgu");
+        file.deleteOnExit();
+        return file;
+    }
+
+    private static void flipByte(File file, long position) throws IOException {
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            raf.seek(position);
+            int value = raf.read();
+            raf.seek(position);
+            raf.write(value ^ 0xFF);
+        }
+    }
+
+    @Test
+    public void testRoundTrip() throws IOException {
+        StateLUT lut = new StateLUT(GameSettings.FINKEL);
+        BigEntryStore store = createStore(100);
+        File file = createTempFile();
+        lut.writeStateStore(store, ENCODING, file);
+
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            assertTrue(LUTHeader.hasHeader(channel));
+            LUTHeader header = LUTHeader.read(channel);
+            assertEquals(ENCODING.getEncodingId(), header.getEncodingId());
+            assertEquals(LUTHeader.computeSettingsHash(GameSettings.FINKEL), header.getSettingsHash());
+            assertEquals(100, header.getEntryCount());
+            assertEquals(7, header.getChunkCount());
+            header.verify(channel, GameSettings.FINKEL, ENCODING, Verification.FULL);
+        }
+
+        BigEntryStore read = lut.readStateStore(file, ENCODING, BufferStorage.HEAP, Verification.FULL);
+        MappedBigEntryStore mapped = lut.mapStateStore(file, ENCODING, Verification.FULL);
+        assertEquals(100, read.getEntryCount());
+        assertEquals(100, mapped.getEntryCount());
+        for (int key = 0; key < 100; ++key) {
+            assertEquals(key, read.getLong(3L * key));
+            assertEquals(key, mapped.getLong(3L * key));
+        }
+    }
+
+    @Test
+    public void testCorruptChunk() throws IOException {
+        StateLUT lut = new StateLUT(GameSettings.FINKEL);
+        File file = createTempFile();
+        lut.writeStateStore(createStore(100), ENCODING, file);
+
+        // Corrupt the last value of the last chunk.
+        flipByte(file, file.length() - 1);
+
+        // The header is still valid, so only a full verification notices.
+        lut.mapStateStore(file, ENCODING, Verification.HEADER);
+        IOException error = assertThrows(
+                IOException.class,
+                () -> lut.mapStateStore(file, ENCODING, Verification.FULL)
+        );
+        assertEquals("Chunk 6 of the lookup table is corrupt", error.getMessage());
+        assertThrows(
+                IOException.class,
+                () -> lut.readStateStore(file, ENCODING, BufferStorage.HEAP, Verification.FULL)
+        );
+    }
+
+    @Test
+    public void testCorruptHeader() throws IOException {
+        StateLUT lut = new StateLUT(GameSettings.FINKEL);
+        File file = createTempFile();
+        lut.writeStateStore(createStore(100), ENCODING, file);
+
+        // Corrupt the entry count.
+        flipByte(file, 24);
+        IOException error = assertThrows(IOException.class, () -> lut.mapStateStore(file));
+        assertEquals("The header of the lookup table is corrupt", error.getMessage());
+    }
+
+    @Test
+    public void testTruncated() throws IOException {
+        StateLUT lut = new StateLUT(GameSettings.FINKEL);
+        File file = createTempFile();
+        lut.writeStateStore(createStore(100), ENCODING, file);
+
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            raf.setLength(raf.length() - 10);
+        }
+        assertThrows(IOException.class, () -> lut.mapStateStore(file));
+        assertThrows(IOException.class, () -> lut.readStateStore(file));
+    }
+
+    @Test
+    public void testMismatch() throws IOException {
+        File file = createTempFile();
+        new StateLUT(GameSettings.FINKEL).writeStateStore(createStore(100), ENCODING, file);
+
+        StateLUT otherLUT = new StateLUT(GameSettings.FINKEL.withStartingPieceCount(5));
+        IOException error = assertThrows(IOException.class, () -> otherLUT.mapStateStore(file));
+        assertEquals("The lookup table was solved for different game settings", error.getMessage());
+
+        StateLUT lut = new StateLUT(GameSettings.FINKEL);
+        GameEncoding otherEncoding = new SimpleGameEncoding(GameSettings.FINKEL);
+        assertThrows(
+                IOException.class,
+                () -> lut.mapStateStore(file, otherEncoding, Verification.HEADER)
+        );
+    }
+
+    @Test
+    public void testSettingsHash() {
+        long finkel = LUTHeader.computeSettingsHash(GameSettings.FINKEL);
+        assertEquals(finkel, LUTHeader.computeSettingsHash(GameSettings.FINKEL));
+        assertNotEquals(finkel, LUTHeader.computeSettingsHash(GameSettings.MASTERS));
+        assertNotEquals(finkel, LUTHeader.computeSettingsHash(GameSettings.BLITZ));
+        assertNotEquals(finkel, LUTHeader.computeSettingsHash(GameSettings.FINKEL.withSafeRosettes(false)));
+    }
+
+    @Test
+    public void testLegacyFile() throws IOException {
+        File file = createTempFile();
+        try (FileOutputStream fos = new FileOutputStream(file)) {
+            createStore(100).write(fos.getChannel());
+        }
+
+        StateLUT lut = new StateLUT(GameSettings.FINKEL);
+        assertEquals(42, lut.readStateStore(file).getLong(3 * 42));
+        assertEquals(42, lut.mapStateStore(file, ENCODING, Verification.FULL).getLong(3 * 42));
+    }
+}
@@ -0,0 +1,112 @@
+package net.royalur.lut;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import net.royalur.lut.buffer.ValueType;
+import net.royalur.lut.store.BigEntryStore;
+import net.royalur.model.GameSettings;
+import org.junit.jupiter.api.Test;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+public class LUTLibraryTest {
+
+    private static void writeTable(File directory, GameSettings<?> settings, int value) throws IOException {
+        StateLUT lut = new StateLUT(settings);
+        GameEncoding encoding = lut.createEncoding();
+        BigEntryStore store = new BigEntryStore(encoding.getKeyType(), ValueType.INT, 16);
+        for (int key = 0; key < 100; ++key) {
+            store.addEntry(3L * key, value);
+        }
+        store.sort();
+
+        File file = new File(directory, LUTLibrary.getTableFileName(settings));
+        file.deleteOnExit();
+        lut.writeStateStore(store, encoding, file);
+    }
+
+    @Test
+    public void testRouting() throws Exception {
+        File directory = Files.createTempDirectory("library").toFile();
+        directory.deleteOnExit();
+        writeTable(directory, GameSettings.FINKEL, 1);
+        writeTable(directory, GameSettings.MASTERS, 2);
+
+        LUTLibrary library = LUTLibrary.createStandard(directory);
+        assertNotEquals(
+                LUTLibrary.getTableFileName(GameSettings.FINKEL),
+                LUTLibrary.getTableFileName(GameSettings.MASTERS)
+        );
+        // Deployments name the Finkel table this.
+        assertEquals("bb2cb0e4e0db0452.rgu", LUTLibrary.getTableFileName(GameSettings.FINKEL));
+        assertThrows(IllegalArgumentException.class, () -> library.getRuleset("unknown"));
+        assertThrows(IllegalArgumentException.class, () -> library.register("finkel", GameSettings.FINKEL));
+
+        // Tables are only mapped once they are used, and are loaded in the background.
+        assertTrue(library.getMappedTables().isEmpty());
+        assertEquals(0, library.getMappedByteCount());
+        library.getRuleset("masters").startLoading().get(10, TimeUnit.SECONDS);
+        try (LUTRegistry.Lease lease = library.acquire("masters")) {
+            assertEquals(2, lease.getStates().getLong(3));
+        }
+        assertEquals(1, library.getMappedTables().size());
+        long mastersBytes = library.getMappedByteCount();
+        assertTrue(mastersBytes > 0);
+
+        library.getRuleset("finkel").startLoading().get(10, TimeUnit.SECONDS);
+        try (LUTRegistry.Lease lease = library.acquire("finkel")) {
+            assertEquals(1, lease.getStates().getLong(3));
+        }
+        assertEquals(2, library.getMappedTables().size());
+        assertTrue(library.getMappedByteCount() > mastersBytes);
+        assertNull(library.getRuleset("blitz").getCurrentTable());
+
+        // Rulesets without a table can still be requested, but fail.
+        assertThrows(FileNotFoundException.class, () -> library.acquire("blitz"));
+        assertThrows(FileNotFoundException.class, () -> library.getRuleset("blitz").startLoading());
+        assertNull(library.getRuleset("blitz").getCurrentTable());
+
+        LUTRegistry.Table finkel = library.getRuleset("finkel").getCurrentTable();
+        assertNotNull(finkel);
+        library.close();
+        assertTrue(finkel.isReleased());
+        assertThrows(IllegalStateException.class, () -> library.acquire("blitz"));
+    }
+
+    @Test
+    public void testMismatchedTable() throws Exception {
+        File directory = Files.createTempDirectory("library").toFile();
+        directory.deleteOnExit();
+
+        // A Masters table stored under the name of the Finkel table is rejected.
+        writeTable(directory, GameSettings.MASTERS, 2);
+        File mastersFile = new File(directory, LUTLibrary.getTableFileName(GameSettings.MASTERS));
+        File finkelFile = new File(directory, LUTLibrary.getTableFileName(GameSettings.FINKEL));
+        finkelFile.deleteOnExit();
+        assertTrue(mastersFile.renameTo(finkelFile));
+
+        LUTLibrary library = LUTLibrary.createStandard(directory);
+        ExecutionException error = assertThrows(
+                ExecutionException.class,
+                () -> library.getRuleset("finkel").startLoading().get(10, TimeUnit.SECONDS)
+        );
+        assertInstanceOf(IOException.class, error.getCause());
+
+        // The failure is reported to requests until the table is reloaded.
+        IOException failure = assertThrows(IOException.class, () -> library.acquire("finkel"));
+        assertFalse(failure instanceof LUTLibrary.TableNotReadyException);
+        assertTrue(library.getMappedTables().isEmpty());
+
+        writeTable(directory, GameSettings.FINKEL, 1);
+        library.getRuleset("finkel").reload(null, LUTHeader.Verification.FULL).get(10, TimeUnit.SECONDS);
+        try (LUTRegistry.Lease lease = library.acquire("finkel")) {
+            assertEquals(1, lease.getStates().getLong(3));
+        }
+        library.close();
+    }
+}
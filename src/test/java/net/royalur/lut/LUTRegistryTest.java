@@ -0,0 +1,182 @@
+package net.royalur.lut;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import net.royalur.lut.buffer.ValueType;
+import net.royalur.lut.store.BigEntryStore;
+import net.royalur.model.GameSettings;
+import org.junit.jupiter.api.Test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+public class LUTRegistryTest {
+
+    private static final GameEncoding ENCODING = new FinkelGameEncoding();
+
+    private static BigEntryStore createStore(int entryCount, int value) {
+        BigEntryStore store = new BigEntryStore(ENCODING.getKeyType(), ValueType.INT, 16);
+        for (int key = 0; key < entryCount; ++key) {
+            store.addEntry(3L * key, value);
+        }
+        store.sort();
+        return store;
+    }
+
+    private static File writeStore(int entryCount, int value) throws IOException {
+        File file = File.createTempFile("registry", ".rgu");
+        file.deleteOnExit();
+        new StateLUT(GameSettings.FINKEL).writeStateStore(createStore(entryCount, value), ENCODING, file);
+        return file;
+    }
+
+    @Test
+    public void testSwap() throws Exception {
+        LUTRegistry registry = new LUTRegistry(new StateLUT(GameSettings.FINKEL), ENCODING);
+        assertThrows(IllegalStateException.class, registry::acquire);
+
+        LUTRegistry.Table first = registry.load(writeStore(100, 1), null);
+        assertEquals(1, first.getVersion());
+        assertNull(first.getChecksum());
+        LUTRegistry.Lease oldLease = registry.acquire();
+        assertEquals(1, oldLease.getStates().getLong(3));
+
+        // In-flight leases keep reading the old table after a swap.
+        LUTRegistry.Table second = registry.loadInBackground(writeStore(100, 2), null)
+                .get(10, TimeUnit.SECONDS);
+        assertEquals(2, second.getVersion());
+        assertSame(second, registry.getCurrent());
+        assertEquals(1, oldLease.getStates().getLong(3));
+        assertFalse(first.isReleased());
+
+        try (LUTRegistry.Lease newLease = registry.acquire()) {
+            assertSame(second, newLease.getTable());
+            assertEquals(2, newLease.getStates().getLong(3));
+        }
+
+        // The old table is released once its last lease is closed.
+        oldLease.close();
+        assertTrue(first.isReleased());
+        assertThrows(IllegalStateException.class, oldLease::getStates);
+        assertFalse(second.isReleased());
+
+        registry.close();
+        assertTrue(second.isReleased());
+    }
+
+    @Test
+    public void testValidation() throws Exception {
+        LUTRegistry registry = new LUTRegistry(new StateLUT(GameSettings.FINKEL), ENCODING);
+        File file = writeStore(100, 1);
+        long checksum = LUTRegistry.computeChecksum(file);
+        assertThrows(IOException.class, () -> registry.load(file, checksum + 1));
+        assertNull(registry.getCurrent());
+
+        LUTRegistry.Table table = registry.load(file, checksum);
+        assertEquals(checksum, table.getChecksum());
+
+        // Tables with a different number of states are rejected, and the
+        // current table is kept.
+        assertThrows(IOException.class, () -> registry.load(writeStore(99, 2), null));
+        ExecutionException error = assertThrows(
+                ExecutionException.class,
+                () -> registry.loadInBackground(writeStore(101, 2), null).get(10, TimeUnit.SECONDS)
+        );
+        assertInstanceOf(IOException.class, error.getCause());
+        assertSame(table, registry.getCurrent());
+        assertFalse(table.isReleased());
+
+        registry.close();
+        assertThrows(IllegalStateException.class, () -> registry.load(file, null));
+    }
+
+    @Test
+    public void testVerification() throws Exception {
+        StateLUT lut = new StateLUT(GameSettings.FINKEL);
+        File file = writeStore(100, 1);
+
+        // Corrupt the last value of the last chunk.
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            raf.seek(file.length() - 1);
+            int value = raf.read();
+            raf.seek(file.length() - 1);
+            raf.write(value ^ 0xFF);
+        }
+
+        // Loads only check the header by default, so only full loads notice.
+        LUTRegistry registry = new LUTRegistry(lut, ENCODING);
+        assertThrows(IOException.class, () -> registry.load(file, null, LUTHeader.Verification.FULL));
+        assertNull(registry.getCurrent());
+        LUTRegistry.Table table = registry.load(file, null);
+        assertSame(table, registry.getCurrent());
+
+        registry.close();
+
+        // A checksum of the whole file replaces the chunk checks.
+        LUTRegistry checked = new LUTRegistry(lut, ENCODING);
+        long checksum = LUTRegistry.computeChecksum(file);
+        assertEquals(checksum, checked.load(file, checksum, LUTHeader.Verification.FULL).getChecksum());
+        checked.close();
+    }
+
+    @Test
+    public void testReplaceByRename() throws Exception {
+        LUTRegistry registry = new LUTRegistry(new StateLUT(GameSettings.FINKEL), ENCODING);
+        File file = writeStore(100, 1);
+        LUTRegistry.Table first = registry.load(file, null);
+
+        // The file of the current table was not replaced, so it may have been written in place.
+        assertThrows(IOException.class, () -> registry.load(file, null));
+        assertSame(first, registry.getCurrent());
+
+        // Renaming a new file over the old one keeps the old table readable.
+        LUTRegistry.Lease oldLease = registry.acquire();
+        Files.move(writeStore(100, 2).toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        LUTRegistry.Table second = registry.load(file, null);
+        assertEquals(1, oldLease.getStates().getLong(3));
+        try (LUTRegistry.Lease lease = registry.acquire()) {
+            assertSame(second, lease.getTable());
+            assertEquals(2, lease.getStates().getLong(3));
+        }
+        oldLease.close();
+        registry.close();
+    }
+
+    @Test
+    public void testLegacyTables() throws Exception {
+        StateLUT lut = new StateLUT(GameSettings.FINKEL);
+        File legacyFile = File.createTempFile("legacy", ".rgu");
+        legacyFile.deleteOnExit();
+        try (FileOutputStream fos = new FileOutputStream(legacyFile)) {
+            createStore(100, 1).write(fos.getChannel());
+        }
+
+        // Tables without headers are rejected, as they cannot be checked.
+        LUTRegistry registry = new LUTRegistry(lut, ENCODING);
+        assertThrows(IOException.class, () -> registry.load(legacyFile, null));
+        assertNull(registry.getCurrent());
+
+        // Once converted, they are checked like any other table.
+        File file = File.createTempFile("converted", ".rgu");
+        file.deleteOnExit();
+        lut.addHeader(legacyFile, ENCODING, file);
+        registry.load(file, null, LUTHeader.Verification.FULL);
+        try (LUTRegistry.Lease lease = registry.acquire()) {
+            assertEquals(1, lease.getStates().getLong(3));
+        }
+        assertThrows(IOException.class, () -> lut.addHeader(file, ENCODING, file));
+
+        // Truncated legacy tables cannot be converted.
+        try (RandomAccessFile raf = new RandomAccessFile(legacyFile, "rw")) {
+            raf.setLength(raf.length() - 10);
+        }
+        assertThrows(IOException.class, () -> lut.addHeader(legacyFile, ENCODING, file));
+        registry.close();
+    }
+}
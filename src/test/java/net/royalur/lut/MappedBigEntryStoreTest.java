@@ -0,0 +1,87 @@
+package net.royalur.lut;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import net.royalur.lut.buffer.ValueType;
+import net.royalur.lut.store.BigEntryStore;
+import net.royalur.lut.store.MappedBigEntryStore;
+import org.junit.jupiter.api.Test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Random;
+
+public class MappedBigEntryStoreTest {
+
+    private static MappedBigEntryStore writeAndMap(BigEntryStore store) throws IOException {
+        File file = File.createTempFile("store", ".rgu");
+        file.deleteOnExit();
+        try (FileOutputStream fos = new FileOutputStream(file)) {
+            store.write(fos.getChannel());
+        }
+        return BigEntryStore.map(file.toPath());
+    }
+
+    @Test
+    public void testGetInt() throws IOException {
+        BigEntryStore store = new BigEntryStore(ValueType.INT, ValueType.INT, 4);
+        Random random = new Random(47);
+        int[] keys = new int[37];
+        for (int index = 0; index < keys.length; ++index) {
+            keys[index] = random.nextInt();
+            store.addEntry(keys[index], index);
+        }
+
+        MappedBigEntryStore mapped = writeAndMap(store);
+        assertEquals(keys.length, mapped.getEntryCount());
+        for (int index = 0; index < keys.length; ++index) {
+            assertEquals(index, mapped.getInt(keys[index]));
+        }
+
+        store.sort();
+        mapped = writeAndMap(store);
+        assertEquals(keys.length, mapped.getEntryCount());
+        for (int index = 0; index < keys.length; ++index) {
+            assertEquals(index, mapped.getInt(keys[index]));
+        }
+    }
+
+    @Test
+    public void testMissing() throws IOException {
+        BigEntryStore store = new BigEntryStore(ValueType.INT, ValueType.SHORT, 2);
+        store.addEntry(5, 3);
+        store.addEntry(10, 5);
+        store.addEntry(-10, 15);
+        store.sort();
+
+        MappedBigEntryStore mapped = writeAndMap(store);
+        assertEquals(3, mapped.getInt(5));
+        assertEquals(5, mapped.getInt(10));
+        assertEquals(15, mapped.getInt(-10));
+        assertNull(mapped.getInt(0));
+        assertNull(mapped.getInt(7));
+        assertNull(mapped.getInt(-1));
+
+        assertEquals(3, mapped.getIntOrDefault(5, -1));
+        assertEquals(-1, mapped.getIntOrDefault(7, -1));
+        assertEquals(15, mapped.getLongOrDefault(Integer.toUnsignedLong(-10), -1));
+        assertTrue(mapped.containsKey(10));
+        assertFalse(mapped.containsKey(0));
+    }
+
+    @Test
+    public void testGetLong() throws IOException {
+        BigEntryStore store = new BigEntryStore(ValueType.LONG, ValueType.LONG, 8);
+        for (long key = 0; key < 100; ++key) {
+            store.addEntry(key * 0x1_0000_0001L, -key);
+        }
+        store.sort();
+
+        MappedBigEntryStore mapped = writeAndMap(store);
+        for (long key = 0; key < 100; ++key) {
+            assertEquals(-key, mapped.getLong(key * 0x1_0000_0001L));
+        }
+        assertNull(mapped.getLong(1));
+    }
+}
@@ -0,0 +1,105 @@
+package net.royalur.lut;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import net.royalur.lut.buffer.ValueType;
+import net.royalur.lut.store.BigEntryStore;
+import net.royalur.model.GameSettings;
+import net.royalur.rules.simple.fast.FastSimpleGame;
+import org.junit.jupiter.api.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+public class SimpleGameEncodingTest {
+
+    private static final List<GameSettings<?>> ALL_SETTINGS = List.of(
+            GameSettings.FINKEL, GameSettings.MASTERS, GameSettings.BLITZ, GameSettings.ASEB
+    );
+
+    @Test
+    public void testKeyTypes() {
+        for (GameSettings<?> settings : ALL_SETTINGS) {
+            SimpleGameEncoding encoding = new SimpleGameEncoding(settings);
+            ValueType expectedKeyType = (encoding.getKeyCount() <= (1L << 32) ? ValueType.INT : ValueType.LONG);
+            assertEquals(expectedKeyType, encoding.getKeyType());
+        }
+        assertEquals(ValueType.INT, new SimpleGameEncoding(GameSettings.FINKEL).getKeyType());
+    }
+
+    @Test
+    public void testUniquenessAndDecode() {
+        for (GameSettings<?> baseSettings : ALL_SETTINGS) {
+            GameSettings<?> settings = baseSettings.withStartingPieceCount(3);
+            StateLUT lut = new StateLUT(settings);
+            SimpleGameEncoding encoding = new SimpleGameEncoding(settings);
+            FastSimpleGame decoded = new FastSimpleGame(settings);
+            Set<Long> keys = new HashSet<>();
+
+            lut.loopGameStates((game) -> {
+                long key = encoding.encodeGameLong(game);
+                assertTrue(key >= 0 && key < encoding.getKeyCount());
+                assertTrue(keys.add(key));
+
+                encoding.decodeGame(key, decoded);
+                assertArrayEquals(game.board.pieces, decoded.board.pieces);
+                assertEquals(game.isLightTurn, decoded.isLightTurn);
+                assertEquals(game.isFinished, decoded.isFinished);
+                assertEquals(game.light.pieces, decoded.light.pieces);
+                assertEquals(game.light.score, decoded.light.score);
+                assertEquals(game.dark.pieces, decoded.dark.pieces);
+                assertEquals(game.dark.score, decoded.dark.score);
+            });
+            assertEquals(lut.countStates(), keys.size());
+        }
+    }
+
+    @Test
+    public void testSolveAllRulesets() throws IOException {
+        for (GameSettings<?> baseSettings : ALL_SETTINGS) {
+            GameSettings<?> settings = baseSettings.withStartingPieceCount(2);
+            StateLUT lut = new StateLUT(settings);
+            GameEncoding encoding = new SimpleGameEncoding(settings);
+
+            File file = File.createTempFile("states", ".rgu");
+            file.deleteOnExit();
+            SolverCheckpoint.getCheckpointFile(file).deleteOnExit();
+            assertTrue(file.delete());
+
+            BigEntryStore states = lut.readOrPopulateStateStore(encoding, file);
+            lut.iterate(settings, encoding, states, file, (stats) -> {});
+
+            BigEntryStore solved = lut.readStateStore(file);
+            assertEquals(lut.countStates(), solved.getEntryCount());
+        }
+    }
+
+    @Test
+    public void testSymmetricEncoding() {
+        for (GameSettings<?> baseSettings : ALL_SETTINGS) {
+            GameSettings<?> settings = baseSettings.withStartingPieceCount(3);
+            if (!SymmetricGameEncoding.isSymmetric(settings))
+                continue;
+
+            StateLUT lut = new StateLUT(settings);
+            SimpleGameEncoding encoding = new SimpleGameEncoding(settings);
+            SymmetricGameEncoding symmetricEncoding = new SymmetricGameEncoding(settings, encoding);
+            FastSimpleGame mirrored = new FastSimpleGame(settings);
+
+            lut.loopGameStates((game) -> {
+                mirrored.copyFrom(game);
+                SymmetricGameEncoding.mirror(mirrored);
+                assertEquals(symmetricEncoding.encodeGameLong(game), symmetricEncoding.encodeGameLong(mirrored));
+                assertNotEquals(symmetricEncoding.isMirrored(game), symmetricEncoding.isMirrored(mirrored));
+
+                // Encoding must not modify the game.
+                long key = encoding.encodeGameLong(mirrored);
+                symmetricEncoding.encodeGameLong(mirrored);
+                assertEquals(key, encoding.encodeGameLong(mirrored));
+            });
+        }
+    }
+}
@@ -0,0 +1,266 @@
+package net.royalur.lut;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import net.royalur.lut.buffer.BufferStorage;
+import net.royalur.lut.store.BigEntryStore;
+import net.royalur.model.GameSettings;
+import org.junit.jupiter.api.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicLong;
+
+public class StateLUTTest {
+
+    private static final GameSettings<?> SETTINGS = GameSettings.FINKEL.withStartingPieceCount(2);
+
+    private static File createTempFile() throws IOException {
+        File file = File.createTempFile("states", ".rgu");
+        file.deleteOnExit();
+        SolverCheckpoint.getCheckpointFile(file).deleteOnExit();
+        if (!file.delete())
+            throw new IOException("Could not delete " + file);
+        return file;
+    }
+
+    private static void assertSameValues(
+            StateLUT lut, GameEncoding encoding,
+            BigEntryStore expected, BigEntryStore actual, float tolerance
+    ) {
+        lut.loopGameStates((game) -> {
+            float expectedValue = StateLUT.lookupValue(encoding, expected, game);
+            float actualValue = StateLUT.lookupValue(encoding, actual, game);
+            assertEquals(expectedValue, actualValue, tolerance);
+        });
+    }
+
+    @Test
+    public void testParallelLoopVisitsAllStates() {
+        StateLUT lut = new StateLUT(SETTINGS);
+        StateRanking ranking = new StateRanking(SETTINGS);
+        boolean[] visited = new boolean[Math.toIntExact(ranking.getStateCount())];
+        AtomicLong visitCount = new AtomicLong();
+
+        ForkJoinPool pool = new ForkJoinPool(4);
+        try {
+            lut.loopGameStatesInParallel(pool, (game) -> {
+                int rank = ranking.encodeGame(game);
+                synchronized (visited) {
+                    assertFalse(visited[rank]);
+                    visited[rank] = true;
+                }
+                visitCount.incrementAndGet();
+            });
+        } finally {
+            pool.shutdown();
+        }
+        assertEquals(ranking.getStateCount(), visitCount.get());
+    }
+
+    @Test
+    public void testParallelIterationMatchesSerial() throws IOException {
+        StateLUT lut = new StateLUT(SETTINGS);
+        FinkelGameEncoding encoding = new FinkelGameEncoding();
+
+        File serialFile = createTempFile();
+        BigEntryStore serialStates = lut.readOrPopulateStateStore(encoding, serialFile);
+        lut.iterate(SETTINGS, encoding, serialStates, serialFile);
+
+        File parallelFile = createTempFile();
+        BigEntryStore parallelStates = lut.readOrPopulateStateStore(encoding, parallelFile);
+        ForkJoinPool pool = new ForkJoinPool(4);
+        try {
+            lut.iterateInParallel(SETTINGS, encoding, parallelStates, parallelFile, pool);
+        } finally {
+            pool.shutdown();
+        }
+
+        assertSameValues(lut, encoding, serialStates, parallelStates, 0.01f);
+    }
+
+    @Test
+    public void testOrderedIterationMatchesSerial() throws IOException {
+        StateLUT lut = new StateLUT(SETTINGS);
+        FinkelGameEncoding encoding = new FinkelGameEncoding();
+
+        List<SweepStats> serialSweeps = new ArrayList<>();
+        File serialFile = createTempFile();
+        BigEntryStore serialStates = lut.readOrPopulateStateStore(encoding, serialFile);
+        lut.iterate(SETTINGS, encoding, serialStates, serialFile, serialSweeps::add);
+
+        List<SweepStats> orderedSweeps = new ArrayList<>();
+        File orderedFile = createTempFile();
+        BigEntryStore orderedStates = lut.readOrPopulateStateStore(encoding, orderedFile);
+        lut.iterateOrdered(SETTINGS, encoding, orderedStates, orderedFile, orderedSweeps::add);
+
+        assertSameValues(lut, encoding, serialStates, orderedStates, 0.01f);
+        assertTrue(orderedSweeps.size() <= serialSweeps.size());
+    }
+
+    @Test
+    public void testSweepStats() throws IOException {
+        StateLUT lut = new StateLUT(SETTINGS);
+        FinkelGameEncoding encoding = new FinkelGameEncoding();
+        AtomicLong unfinishedStates = new AtomicLong();
+        lut.loopGameStates((game) -> {
+            if (!game.isFinished) {
+                unfinishedStates.incrementAndGet();
+            }
+        });
+
+        List<SweepStats> sweeps = new ArrayList<>();
+        File file = createTempFile();
+        BigEntryStore states = lut.readOrPopulateStateStore(encoding, file);
+        lut.iterate(SETTINGS, encoding, states, file, sweeps::add);
+
+        assertFalse(sweeps.isEmpty());
+        for (SweepStats stats : sweeps) {
+            long histogramTotal = 0;
+            for (long count : stats.getResidualHistogram()) {
+                histogramTotal += count;
+            }
+            assertEquals(stats.getStateCount(), histogramTotal);
+            assertTrue(stats.getMeanDelta() <= stats.getMaxDelta());
+            if (stats.isFullSweep()) {
+                assertEquals(unfinishedStates.get(), stats.getStateCount());
+            }
+        }
+
+        SweepStats last = sweeps.get(sweeps.size() - 1);
+        assertTrue(last.isFullSweep());
+        assertTrue(last.getMaxDelta() <= 0.01);
+    }
+
+    @Test
+    public void testResumeFromCheckpoint() throws IOException {
+        StateLUT lut = new StateLUT(SETTINGS);
+        FinkelGameEncoding encoding = new FinkelGameEncoding();
+
+        File expectedFile = createTempFile();
+        BigEntryStore expectedStates = lut.readOrPopulateStateStore(encoding, expectedFile);
+        lut.iterate(SETTINGS, encoding, expectedStates, expectedFile, (stats) -> {});
+
+        // Stop the solver part-way through, after it has written a checkpoint.
+        File outputFile = createTempFile();
+        File checkpointFile = SolverCheckpoint.getCheckpointFile(outputFile);
+        BigEntryStore states = lut.readOrPopulateStateStore(encoding, outputFile);
+        assertThrows(IllegalStateException.class, () -> {
+            lut.iterate(SETTINGS, encoding, states, outputFile, (stats) -> {
+                if (stats.getIteration() == 12)
+                    throw new IllegalStateException("Simulated crash");
+            });
+        });
+
+        SolverCheckpoint checkpoint = SolverCheckpoint.read(checkpointFile);
+        assertEquals(10, checkpoint.getIteration());
+        assertFalse(checkpoint.areLayersFinished());
+        assertEquals(SolverCheckpoint.SweepMode.SERIAL, checkpoint.getSweepMode());
+
+        lut.resume(outputFile, encoding, (stats) -> assertTrue(stats.getIteration() >= 10 || stats.isFullSweep()));
+        BigEntryStore resumedStates = lut.readStateStore(outputFile);
+        assertSameValues(lut, encoding, expectedStates, resumedStates, 0);
+
+        SolverCheckpoint finalCheckpoint = SolverCheckpoint.read(checkpointFile);
+        assertTrue(finalCheckpoint.areLayersFinished());
+        assertEquals(10, finalCheckpoint.getFullSweeps());
+    }
+
+    @Test
+    public void testOffHeapStateStore() throws IOException {
+        StateLUT lut = new StateLUT(SETTINGS);
+        FinkelGameEncoding encoding = new FinkelGameEncoding();
+
+        // Populated and read stores are both held off the heap.
+        File file = createTempFile();
+        BigEntryStore populated = lut.readOrPopulateStateStore(encoding, file, BufferStorage.OFF_HEAP);
+        BigEntryStore read = lut.readOrPopulateStateStore(encoding, file, BufferStorage.OFF_HEAP);
+        BigEntryStore heap = lut.readOrPopulateStateStore(encoding, file);
+        assertEquals(BufferStorage.OFF_HEAP, populated.getStorage());
+        assertEquals(BufferStorage.OFF_HEAP, read.getStorage());
+        assertSameValues(lut, encoding, heap, populated, 0);
+        assertSameValues(lut, encoding, heap, read, 0);
+        populated.close();
+        read.close();
+    }
+
+    @Test
+    public void testResumeUsesCheckpointedSweepAndSettings() throws IOException {
+        StateLUT lut = new StateLUT(SETTINGS);
+        FinkelGameEncoding encoding = new FinkelGameEncoding();
+
+        File outputFile = createTempFile();
+        File checkpointFile = SolverCheckpoint.getCheckpointFile(outputFile);
+        BigEntryStore states = lut.readOrPopulateStateStore(encoding, outputFile);
+        assertThrows(IllegalStateException.class, () -> {
+            lut.iterateOrdered(SETTINGS, encoding, states, outputFile, (stats) -> {
+                if (stats.getIteration() == 12)
+                    throw new IllegalStateException("Simulated crash");
+            });
+        });
+        assertEquals(SolverCheckpoint.SweepMode.ORDERED, SolverCheckpoint.read(checkpointFile).getSweepMode());
+
+        // Checkpoints of other settings or encodings are rejected.
+        StateLUT otherLUT = new StateLUT(SETTINGS.withSafeRosettes(false));
+        assertThrows(IOException.class, () -> otherLUT.resume(outputFile, encoding, (stats) -> {}));
+        GameEncoding otherEncoding = new SimpleGameEncoding(SETTINGS);
+        assertThrows(IOException.class, () -> lut.resume(outputFile, otherEncoding, (stats) -> {}));
+
+        lut.resume(outputFile, encoding, (stats) -> {});
+        SolverCheckpoint finalCheckpoint = SolverCheckpoint.read(checkpointFile);
+        assertTrue(finalCheckpoint.areLayersFinished());
+        assertEquals(SolverCheckpoint.SweepMode.ORDERED, finalCheckpoint.getSweepMode());
+    }
+
+    @Test
+    public void testSymmetricIterationMatchesFull() throws IOException {
+        StateLUT lut = new StateLUT(SETTINGS);
+        FinkelGameEncoding encoding = new FinkelGameEncoding();
+        SymmetricGameEncoding symmetricEncoding = new SymmetricGameEncoding(SETTINGS, encoding);
+
+        File fullFile = createTempFile();
+        BigEntryStore fullStates = lut.readOrPopulateStateStore(encoding, fullFile);
+        lut.iterate(SETTINGS, encoding, fullStates, fullFile, (stats) -> {});
+
+        File symmetricFile = createTempFile();
+        BigEntryStore symmetricStates = lut.readOrPopulateStateStore(symmetricEncoding, symmetricFile);
+        assertEquals(fullStates.getEntryCount(), 2 * symmetricStates.getEntryCount());
+        lut.iterate(SETTINGS, symmetricEncoding, symmetricStates, symmetricFile, (stats) -> {});
+
+        lut.loopGameStates((game) -> {
+            float expectedValue = StateLUT.lookupValue(encoding, fullStates, game);
+            float actualValue = StateLUT.lookupValue(symmetricEncoding, symmetricStates, game);
+            assertEquals(expectedValue, actualValue, 0.01f);
+        });
+    }
+
+    @Test
+    public void testQuantisedStore() throws IOException {
+        StateLUT lut = new StateLUT(SETTINGS);
+        FinkelGameEncoding encoding = new FinkelGameEncoding();
+
+        File file = createTempFile();
+        BigEntryStore states = lut.readOrPopulateStateStore(encoding, file);
+        lut.iterate(SETTINGS, encoding, states, file, (stats) -> {});
+
+        StateLUTQuantiser quantiser = new StateLUTQuantiser(SETTINGS);
+        for (ValueCodec codec : new ValueCodec[] {ValueCodec.FIXED16, ValueCodec.FIXED8}) {
+            BigEntryStore quantised = lut.quantiseStateStore(states, codec);
+            assertEquals(codec.getValueType(), quantised.getValueType());
+            assertEquals(states.getEntryCount(), quantised.getEntryCount());
+            assertTrue(quantised.isKnownSorted());
+
+            float maxError = ValueCodec.MAX_VALUE / (codec == ValueCodec.FIXED16 ? Short.MAX_VALUE : Byte.MAX_VALUE);
+            assertSameValues(lut, encoding, states, quantised, maxError);
+
+            StateLUTQuantiser.DecisionReport report = quantiser.compareDecisions(encoding, states, quantised);
+            assertTrue(report.getDecisionCount() > 0);
+            assertTrue(report.getChangedFraction() < 0.05);
+        }
+        assertEquals(100f, ValueCodec.FIXED8.decode(ValueCodec.FIXED8.encode(250f)));
+        assertEquals(-100f, ValueCodec.FIXED16.decode(ValueCodec.FIXED16.encode(-100f)));
+    }
+}
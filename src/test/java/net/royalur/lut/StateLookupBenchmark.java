@@ -0,0 +1,168 @@
+package net.royalur.lut;
+
+import net.royalur.lut.store.BigEntryStore;
+import net.royalur.lut.store.KeyBatch;
+import net.royalur.lut.store.KeyIndex;
+import net.royalur.model.GameSettings;
+import net.royalur.rules.simple.fast.FastSimpleGame;
+import net.royalur.rules.simple.fast.FastSimpleMoveList;
+
+import javax.annotation.Nonnull;
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * Compares the cost of looking up the states after every roll and move
+ * of each state, as value iteration does, when the keys are looked up
+ * one at a time against when they are looked up as a {@link KeyBatch}.
+ */
+public class StateLookupBenchmark {
+
+    private static final int WARMUP_ROUNDS = 2;
+    private static final int TIMED_ROUNDS = 5;
+
+    private final @Nonnull BigEntryStore states;
+
+    /**
+     * The keys of the successors of each state, with the keys of
+     * state {@code i} in [{@code stateStarts[i]}, {@code stateStarts[i + 1]}).
+     */
+    private long[] keys;
+    private int[] stateStarts;
+    private int stateCount = 0;
+
+    /**
+     * The sum of every value that is looked up, which is printed
+     * so that the lookups cannot be optimised away.
+     */
+    private long checksum = 0;
+
+    public StateLookupBenchmark(
+            @Nonnull StateLUT lut,
+            @Nonnull GameSettings<?> settings,
+            @Nonnull GameEncoding encoding,
+            @Nonnull BigEntryStore states
+    ) {
+        this.states = states;
+        this.keys = new long[1024];
+        this.stateStarts = new int[1024];
+        collectKeys(lut, settings, encoding);
+    }
+
+    private void collectKeys(
+            @Nonnull StateLUT lut,
+            @Nonnull GameSettings<?> settings,
+            @Nonnull GameEncoding encoding
+    ) {
+        int rollCount = settings.getDice().createDice().getRollProbabilities().length;
+        FastSimpleGame rollGame = new FastSimpleGame(settings);
+        FastSimpleGame moveGame = new FastSimpleGame(settings);
+        FastSimpleMoveList moveList = new FastSimpleMoveList();
+        int[] keyCount = {0};
+
+        lut.loopGameStates((game) -> {
+            if (game.isFinished || encoding.isMirrored(game))
+                return;
+
+            if (stateCount + 1 >= stateStarts.length) {
+                stateStarts = Arrays.copyOf(stateStarts, 2 * stateStarts.length);
+            }
+            stateStarts[stateCount] = keyCount[0];
+            stateCount += 1;
+
+            for (int roll = 0; roll < rollCount; ++roll) {
+                rollGame.copyFrom(game);
+                rollGame.applyRoll(roll, moveList);
+                int moveCount = (rollGame.isWaitingForMove() ? moveList.moveCount : 1);
+                if (keyCount[0] + moveCount > keys.length) {
+                    keys = Arrays.copyOf(keys, 2 * keys.length + moveCount);
+                }
+
+                if (rollGame.isWaitingForMove()) {
+                    for (int moveIndex = 0; moveIndex < moveList.moveCount; ++moveIndex) {
+                        moveGame.copyFrom(rollGame);
+                        moveGame.applyMove(moveList.moves[moveIndex]);
+                        keys[keyCount[0]++] = encoding.encodeGameLong(moveGame);
+                    }
+                } else {
+                    keys[keyCount[0]++] = encoding.encodeGameLong(rollGame);
+                }
+            }
+        });
+        stateStarts[stateCount] = keyCount[0];
+    }
+
+    private double timeSingleLookups() {
+        long checksum = 0;
+        long start = 0;
+        for (int round = 0; round < WARMUP_ROUNDS + TIMED_ROUNDS; ++round) {
+            if (round == WARMUP_ROUNDS) {
+                start = System.nanoTime();
+            }
+            for (int index = 0; index < stateStarts[stateCount]; ++index) {
+                checksum += states.getLongOrDefault(keys[index], 0);
+            }
+        }
+        double nsPerState = (double) (System.nanoTime() - start) / ((long) TIMED_ROUNDS * stateCount);
+        this.checksum += checksum;
+        return nsPerState;
+    }
+
+    private double timeBatchLookups() {
+        KeyBatch batch = new KeyBatch();
+        long checksum = 0;
+        long start = 0;
+        for (int round = 0; round < WARMUP_ROUNDS + TIMED_ROUNDS; ++round) {
+            if (round == WARMUP_ROUNDS) {
+                start = System.nanoTime();
+            }
+            for (int state = 0; state < stateCount; ++state) {
+                batch.clear();
+                for (int index = stateStarts[state]; index < stateStarts[state + 1]; ++index) {
+                    batch.add(keys[index]);
+                }
+                states.lookupBatch(batch, 0);
+                for (int index = 0; index < batch.size(); ++index) {
+                    checksum += batch.getValue(index);
+                }
+            }
+        }
+        double nsPerState = (double) (System.nanoTime() - start) / ((long) TIMED_ROUNDS * stateCount);
+        this.checksum += checksum;
+        return nsPerState;
+    }
+
+    public void run() {
+        System.out.printf(
+                "%,d states with %.1f lookups per state\n\n",
+                stateCount, (double) stateStarts[stateCount] / stateCount
+        );
+        System.out.printf("%-32s %14s\n", "Lookup", "ns/state");
+
+        states.clearKeyIndex();
+        System.out.printf("%-32s %14.1f\n", "Single keys, no index", timeSingleLookups());
+        System.out.printf("%-32s %14.1f\n", "Batch, no index", timeBatchLookups());
+
+        states.buildKeyIndex(KeyIndex.Type.PIECEWISE_LINEAR);
+        System.out.printf("%-32s %14.1f\n", "Single keys, learned index", timeSingleLookups());
+        System.out.printf("%-32s %14.1f\n", "Batch, learned index", timeBatchLookups());
+        System.out.printf("\nChecksum of looked up values: %x\n", checksum);
+    }
+
+    /**
+     * Benchmarks lookups for the Finkel rules with 3 pieces per player.
+     */
+    public static void main(String[] args) throws IOException {
+        GameSettings<?> settings = GameSettings.FINKEL.withStartingPieceCount(3);
+        StateLUT lut = new StateLUT(settings);
+        GameEncoding encoding = lut.createEncoding();
+        File file = File.createTempFile("state-lookup-benchmark", ".rgu");
+        file.deleteOnExit();
+        if (!file.delete())
+            throw new IOException("Could not delete " + file);
+
+        BigEntryStore states = lut.readOrPopulateStateStore(encoding, file);
+        new StateLookupBenchmark(lut, settings, encoding, states).run();
+    }
+}
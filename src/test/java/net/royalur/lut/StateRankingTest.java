@@ -0,0 +1,86 @@
+package net.royalur.lut;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import net.royalur.lut.buffer.ValueType;
+import net.royalur.lut.store.BigEntryStore;
+import net.royalur.lut.store.DenseStateTable;
+import net.royalur.model.GameSettings;
+import net.royalur.rules.simple.fast.FastSimpleGame;
+import org.junit.jupiter.api.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicLong;
+
+public class StateRankingTest {
+
+    private static void checkRanksMatchEnumeration(GameSettings<?> settings) {
+        StateLUT lut = new StateLUT(settings);
+        StateRanking ranking = new StateRanking(settings);
+
+        AtomicLong expectedRank = new AtomicLong(0);
+        lut.loopGameStates((game) -> {
+            assertEquals(expectedRank.getAndIncrement(), ranking.rank(game));
+        });
+        assertEquals(expectedRank.get(), ranking.getStateCount());
+    }
+
+    @Test
+    public void testRanksMatchEnumeration() {
+        checkRanksMatchEnumeration(GameSettings.FINKEL.withStartingPieceCount(3));
+        checkRanksMatchEnumeration(GameSettings.BLITZ.withStartingPieceCount(2));
+        checkRanksMatchEnumeration(GameSettings.ASEB.withStartingPieceCount(2));
+    }
+
+    @Test
+    public void testFinkelStateCount() {
+        StateRanking ranking = new StateRanking(GameSettings.FINKEL);
+        assertEquals(275_784_032L, ranking.getStateCount());
+    }
+
+    @Test
+    public void testUnsignedIntRanks() {
+        GameSettings<?> settings = GameSettings.MASTERS.withStartingPieceCount(9);
+        StateRanking ranking = new StateRanking(settings);
+        assertEquals(ValueType.INT, ranking.getKeyType());
+
+        // The states with every piece in hand have some of the highest ranks.
+        FastSimpleGame game = new FastSimpleGame(settings);
+        game.light.pieces = settings.getStartingPieceCount();
+        game.dark.pieces = settings.getStartingPieceCount();
+        long rank = ranking.rank(game);
+        assertTrue(rank > Integer.MAX_VALUE);
+        assertEquals(rank, Integer.toUnsignedLong(ranking.encodeGame(game)));
+        assertEquals(rank, ranking.encodeGameLong(game));
+    }
+
+    @Test
+    public void testDenseStateTable() throws IOException {
+        GameSettings<?> settings = GameSettings.FINKEL.withStartingPieceCount(3);
+        StateLUT lut = new StateLUT(settings);
+        StateRanking ranking = new StateRanking(settings);
+        FinkelGameEncoding encoding = new FinkelGameEncoding();
+
+        BigEntryStore states = new BigEntryStore(ValueType.INT, ValueType.INT);
+        lut.loopGameStates((game) -> {
+            int key = encoding.encode(game);
+            states.addEntry(key, key);
+        });
+        states.sort();
+
+        DenseStateTable table = lut.createDenseStateTable(ranking, encoding, states);
+        assertEquals(states.getEntryCount(), table.getEntryCount());
+
+        File file = File.createTempFile("dense", ".rgu");
+        file.deleteOnExit();
+        lut.writeDenseStateTable(table, file);
+        DenseStateTable readTable = lut.readDenseStateTable(file);
+
+        lut.loopGameStates((game) -> {
+            int key = encoding.encode(game);
+            assertEquals(key, readTable.getInt(ranking.encodeGame(game)));
+        });
+        assertNull(readTable.getInt(table.getEntryCount()));
+    }
+}
@@ -0,0 +1,144 @@
+package net.royalur.rules.simple.fast;
+
+import net.royalur.model.GameSettings;
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class BitboardGameTest {
+
+    private static final List<GameSettings<?>> SETTINGS = List.of(
+            GameSettings.FINKEL,
+            GameSettings.MASTERS,
+            GameSettings.BLITZ,
+            GameSettings.ASEB,
+            GameSettings.FINKEL.withSafeRosettes(false),
+            GameSettings.FINKEL.withCapturesGrantExtraRolls(true),
+            GameSettings.MASTERS.withSafeRosettes(true),
+            GameSettings.MASTERS.withRosettesGrantExtraRolls(false),
+            GameSettings.ASEB.withStartingPieceCount(3)
+    );
+
+    private static void assertSameState(FastSimpleGame expected, BitboardGame game, FastSimpleGame scratch) {
+        game.copyTo(scratch);
+        assertArrayEquals(expected.board.pieces, scratch.board.pieces);
+        assertEquals(expected.light.pieces, game.lightPieces);
+        assertEquals(expected.dark.pieces, game.darkPieces);
+        assertEquals(expected.light.score, game.lightScore);
+        assertEquals(expected.dark.score, game.darkScore);
+        assertEquals(expected.isLightTurn, game.isLightTurn);
+        assertEquals(expected.rollValue, game.rollValue);
+        assertEquals(expected.isFinished, game.isFinished);
+    }
+
+    private static void assertSameMoves(FastSimpleMoveList expected, FastSimpleMoveList moves) {
+        assertArrayEquals(
+                Arrays.copyOf(expected.moves, expected.moveCount),
+                Arrays.copyOf(moves.moves, moves.moveCount)
+        );
+    }
+
+    @Test
+    public void testMatchesFastSimpleGame() {
+        for (GameSettings<?> settings : SETTINGS) {
+            Random random = new Random(47);
+            FastSimpleGame expected = new FastSimpleGame(settings);
+            FastSimpleGame scratch = new FastSimpleGame(settings);
+            BitboardGame game = new BitboardGame(settings);
+            BitboardGame copy = new BitboardGame(settings);
+            FastSimpleMoveList expectedMoves = new FastSimpleMoveList();
+            FastSimpleMoveList moves = new FastSimpleMoveList();
+            int maxRoll = settings.getDice().createDice().getRollProbabilities().length - 1;
+
+            for (int gameIndex = 0; gameIndex < 200; ++gameIndex) {
+                expected.board.clear();
+                expected.light.pieces = settings.getStartingPieceCount();
+                expected.light.score = 0;
+                expected.dark.pieces = settings.getStartingPieceCount();
+                expected.dark.score = 0;
+                expected.isLightTurn = true;
+                expected.rollValue = -1;
+                expected.isFinished = false;
+                game.copyFrom(expected);
+                assertSameState(expected, game, scratch);
+
+                while (!expected.isFinished) {
+                    int roll = random.nextInt(maxRoll + 1);
+                    expected.applyRoll(roll, expectedMoves);
+                    game.applyRoll(roll, moves);
+                    assertSameMoves(expectedMoves, moves);
+                    assertSameState(expected, game, scratch);
+                    if (!expected.isWaitingForMove())
+                        continue;
+
+                    // Games copied from and to a FastSimpleGame find the same moves.
+                    copy.copyFrom(scratch);
+                    copy.findAvailableMoves(moves);
+                    assertSameMoves(expectedMoves, moves);
+
+                    int move = expectedMoves.moves[random.nextInt(expectedMoves.moveCount)];
+                    expected.applyMove(move);
+                    game.applyMove(move);
+                    assertSameState(expected, game, scratch);
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testCapturesOnSharedTiles() {
+        // The Masters paths share tiles at different path indices.
+        GameSettings<?> settings = GameSettings.MASTERS;
+        FastSimpleGame expected = new FastSimpleGame(settings);
+        BitboardGame game = new BitboardGame(settings);
+        FastSimpleGame scratch = new FastSimpleGame(settings);
+        FastSimpleMoveList expectedMoves = new FastSimpleMoveList();
+        FastSimpleMoveList moves = new FastSimpleMoveList();
+        int captureCount = 0;
+
+        int[] darkPath = expected.dark.path;
+        int[] lightPath = expected.light.path;
+        for (int darkIndex = 0; darkIndex < darkPath.length; ++darkIndex) {
+            int sharedIndex = -1;
+            for (int index = 0; index < lightPath.length; ++index) {
+                if (lightPath[index] == darkPath[darkIndex]) {
+                    sharedIndex = index;
+                }
+            }
+            int lightIndex = sharedIndex;
+            if (lightIndex < 1)
+                continue;
+
+            // Light moves a piece by one tile onto a dark piece.
+            expected.board.clear();
+            expected.board.set(lightPath[lightIndex - 1], lightIndex);
+            expected.board.set(darkPath[darkIndex], -(darkIndex + 1));
+            expected.light.pieces = 5;
+            expected.dark.pieces = 6;
+            expected.light.score = 1;
+            expected.dark.score = 0;
+            expected.isLightTurn = true;
+            expected.rollValue = -1;
+            expected.isFinished = false;
+            game.copyFrom(expected);
+
+            expected.applyRoll(1, expectedMoves);
+            game.applyRoll(1, moves);
+            assertSameMoves(expectedMoves, moves);
+            assertSameState(expected, game, scratch);
+            if (!Arrays.stream(expectedMoves.moves, 0, expectedMoves.moveCount).anyMatch((m) -> m == lightIndex - 1))
+                continue;
+
+            expected.applyMove(lightIndex - 1);
+            game.applyMove(lightIndex - 1);
+            assertSameState(expected, game, scratch);
+            assertEquals(7, game.darkPieces);
+            captureCount += 1;
+        }
+        assertTrue(captureCount > 0);
+    }
+}
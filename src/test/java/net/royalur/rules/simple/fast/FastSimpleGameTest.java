@@ -0,0 +1,144 @@
+package net.royalur.rules.simple.fast;
+
+import net.royalur.lut.StateLUT;
+import net.royalur.model.GameSettings;
+import org.junit.jupiter.api.Test;
+
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class FastSimpleGameTest {
+
+    private static final List<GameSettings<?>> SETTINGS = List.of(
+            GameSettings.FINKEL,
+            GameSettings.MASTERS,
+            GameSettings.BLITZ,
+            GameSettings.ASEB,
+            GameSettings.FINKEL.withSafeRosettes(false),
+            GameSettings.FINKEL.withCapturesGrantExtraRolls(true),
+            GameSettings.MASTERS.withRosettesGrantExtraRolls(false)
+    );
+
+    private static void assertSameState(FastSimpleGame expected, FastSimpleGame game) {
+        assertArrayEquals(expected.board.pieces, game.board.pieces);
+        assertEquals(expected.light.pieces, game.light.pieces);
+        assertEquals(expected.dark.pieces, game.dark.pieces);
+        assertEquals(expected.light.score, game.light.score);
+        assertEquals(expected.dark.score, game.dark.score);
+        assertEquals(expected.isLightTurn, game.isLightTurn);
+        assertEquals(expected.rollValue, game.rollValue);
+        assertEquals(expected.isFinished, game.isFinished);
+        assertEquals(expected.hash, game.hash);
+    }
+
+    private static void resetGame(FastSimpleGame game, GameSettings<?> settings) {
+        game.board.clear();
+        game.light.pieces = settings.getStartingPieceCount();
+        game.light.score = 0;
+        game.dark.pieces = settings.getStartingPieceCount();
+        game.dark.score = 0;
+        game.isLightTurn = true;
+        game.rollValue = -1;
+        game.isFinished = false;
+        game.recomputeHash();
+    }
+
+    @Test
+    public void testUndo() {
+        for (GameSettings<?> settings : SETTINGS) {
+            Random random = new Random(53);
+            FastSimpleGame game = new FastSimpleGame(settings);
+            FastSimpleGame before = new FastSimpleGame(settings);
+            FastSimpleMoveList moveList = new FastSimpleMoveList();
+            int maxRoll = settings.getDice().createDice().getRollProbabilities().length - 1;
+
+            for (int gameIndex = 0; gameIndex < 200; ++gameIndex) {
+                resetGame(game, settings);
+                while (!game.isFinished) {
+                    // Every roll can be undone.
+                    before.copyFrom(game);
+                    for (int roll = 0; roll <= maxRoll; ++roll) {
+                        int undoToken = game.applyRoll(roll, moveList);
+                        game.undoRoll(undoToken);
+                        assertSameState(before, game);
+                    }
+
+                    game.applyRoll(random.nextInt(maxRoll + 1), moveList);
+                    if (!game.isWaitingForMove())
+                        continue;
+
+                    // Every move can be undone.
+                    before.copyFrom(game);
+                    for (int moveIndex = 0; moveIndex < moveList.moveCount; ++moveIndex) {
+                        int undoToken = game.applyMove(moveList.moves[moveIndex]);
+                        game.undoMove(undoToken);
+                        assertSameState(before, game);
+                    }
+
+                    game.applyMove(moveList.moves[random.nextInt(moveList.moveCount)]);
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testNoMovesForRollOfZero() {
+        for (GameSettings<?> settings : SETTINGS) {
+            FastSimpleGame game = new FastSimpleGame(settings);
+            game.light.pieces = settings.getStartingPieceCount();
+            game.dark.pieces = settings.getStartingPieceCount();
+            game.isLightTurn = true;
+            game.rollValue = 0;
+
+            FastSimpleMoveList moveList = new FastSimpleMoveList();
+            game.findAvailableMoves(moveList);
+            assertEquals(0, moveList.moveCount, settings.toString());
+        }
+    }
+
+    @Test
+    public void testHashMatchesRecomputedHash() {
+        for (GameSettings<?> settings : SETTINGS) {
+            Random random = new Random(59);
+            FastSimpleGame game = new FastSimpleGame(settings);
+            FastSimpleMoveList moveList = new FastSimpleMoveList();
+            int maxRoll = settings.getDice().createDice().getRollProbabilities().length - 1;
+            assertEquals(game.calculateHash(), game.hash);
+
+            for (int gameIndex = 0; gameIndex < 200; ++gameIndex) {
+                resetGame(game, settings);
+                while (!game.isFinished) {
+                    game.applyRoll(random.nextInt(maxRoll + 1), moveList);
+                    assertEquals(game.calculateHash(), game.hash);
+                    if (!game.isWaitingForMove())
+                        continue;
+
+                    int undoToken = game.applyMove(moveList.moves[random.nextInt(moveList.moveCount)]);
+                    assertEquals(game.calculateHash(), game.hash);
+                    game.undoMove(undoToken);
+                    assertEquals(game.calculateHash(), game.hash);
+
+                    game.applyMove(moveList.moves[random.nextInt(moveList.moveCount)]);
+                    assertEquals(game.calculateHash(), game.hash);
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testHashesAreDistinct() {
+        GameSettings<?> settings = GameSettings.FINKEL.withStartingPieceCount(3);
+        StateLUT lut = new StateLUT(settings);
+        Set<Long> hashes = new HashSet<>();
+        int[] stateCount = {0};
+        lut.loopGameStates((game) -> {
+            hashes.add(game.recomputeHash());
+            stateCount[0] += 1;
+        });
+        assertEquals(stateCount[0], hashes.size());
+    }
+}
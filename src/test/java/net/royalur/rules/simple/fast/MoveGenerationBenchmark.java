@@ -0,0 +1,139 @@
+package net.royalur.rules.simple.fast;
+
+import net.royalur.model.GameSettings;
+
+import javax.annotation.Nonnull;
+import java.util.Random;
+
+/**
+ * Measures how many moves per second {@link FastSimpleGame} and
+ * {@link BitboardGame} generate, over positions that are reached by
+ * playing random games. The positions are generated before timing,
+ * so only the cost of finding the available moves is measured. Only one
+ * ruleset is measured per run, so that the code compiled for one ruleset
+ * does not affect the timings of another.
+ */
+public class MoveGenerationBenchmark {
+
+    private static final int POSITION_COUNT = 1_000;
+    private static final int WARMUP_ROUNDS = 5_000;
+    private static final int TIMED_ROUNDS = 20_000;
+
+    private final @Nonnull GameSettings<?> settings;
+    private final @Nonnull FastSimpleGame[] positions;
+
+    public MoveGenerationBenchmark(@Nonnull GameSettings<?> settings, int positionCount, long seed) {
+        this.settings = settings;
+        this.positions = createPositions(settings, positionCount, seed);
+    }
+
+    /**
+     * Plays random games, and records every position that is waiting for a move.
+     */
+    private static @Nonnull FastSimpleGame[] createPositions(
+            @Nonnull GameSettings<?> settings,
+            int count,
+            long seed
+    ) {
+        Random random = new Random(seed);
+        int maxRoll = settings.getDice().createDice().getRollProbabilities().length - 1;
+        FastSimpleGame game = new FastSimpleGame(settings);
+        FastSimpleMoveList moveList = new FastSimpleMoveList();
+        FastSimpleGame[] positions = new FastSimpleGame[count];
+
+        int created = 0;
+        while (created < count) {
+            game.board.clear();
+            game.light.pieces = settings.getStartingPieceCount();
+            game.light.score = 0;
+            game.dark.pieces = settings.getStartingPieceCount();
+            game.dark.score = 0;
+            game.isLightTurn = true;
+            game.rollValue = -1;
+            game.isFinished = false;
+            game.recomputeHash();
+
+            while (!game.isFinished && created < count) {
+                game.applyRoll(1 + random.nextInt(maxRoll), moveList);
+                if (!game.isWaitingForMove())
+                    continue;
+
+                FastSimpleGame position = new FastSimpleGame(settings);
+                position.copyFrom(game);
+                positions[created++] = position;
+                game.applyMove(moveList.moves[random.nextInt(moveList.moveCount)]);
+            }
+        }
+        return positions;
+    }
+
+    /**
+     * @return The number of moves generated per second.
+     */
+    private double timeFastSimpleGame() {
+        FastSimpleMoveList moveList = new FastSimpleMoveList();
+        long moveCount = 0;
+        long start = 0;
+        for (int round = 0; round < WARMUP_ROUNDS + TIMED_ROUNDS; ++round) {
+            if (round == WARMUP_ROUNDS) {
+                start = System.nanoTime();
+                moveCount = 0;
+            }
+            for (FastSimpleGame position : positions) {
+                position.findAvailableMoves(moveList);
+                moveCount += moveList.moveCount;
+            }
+        }
+        return moveCount / ((System.nanoTime() - start) / 1e9);
+    }
+
+    /**
+     * @return The number of moves generated per second.
+     */
+    private double timeBitboardGame() {
+        BitboardGame[] games = new BitboardGame[positions.length];
+        for (int index = 0; index < positions.length; ++index) {
+            games[index] = new BitboardGame(settings);
+            games[index].copyFrom(positions[index]);
+        }
+
+        FastSimpleMoveList moveList = new FastSimpleMoveList();
+        long moveCount = 0;
+        long start = 0;
+        for (int round = 0; round < WARMUP_ROUNDS + TIMED_ROUNDS; ++round) {
+            if (round == WARMUP_ROUNDS) {
+                start = System.nanoTime();
+                moveCount = 0;
+            }
+            for (BitboardGame game : games) {
+                game.findAvailableMoves(moveList);
+                moveCount += moveList.moveCount;
+            }
+        }
+        return moveCount / ((System.nanoTime() - start) / 1e9);
+    }
+
+    public void run() {
+        System.out.printf("%-16s %14s\n", "Game", "M moves/s");
+        System.out.printf("%-16s %14.1f\n", "FastSimpleGame", timeFastSimpleGame() / 1e6);
+        System.out.printf("%-16s %14.1f\n", "BitboardGame", timeBitboardGame() / 1e6);
+    }
+
+    /**
+     * Runs the benchmark for the ruleset named by the first argument,
+     * which may be finkel, masters, blitz, or aseb, and defaults to finkel.
+     */
+    public static void main(String[] args) {
+        String name = (args.length > 0 ? args[0] : "finkel");
+        GameSettings<?> settings = switch (name) {
+            case "finkel" -> GameSettings.FINKEL;
+            case "masters" -> GameSettings.MASTERS;
+            case "blitz" -> GameSettings.BLITZ;
+            case "aseb" -> GameSettings.ASEB;
+            default -> throw new IllegalArgumentException("Unknown ruleset " + name);
+        };
+
+        System.out.printf("%,d positions of the %s rules\n\n", POSITION_COUNT, name);
+        new MoveGenerationBenchmark(settings, POSITION_COUNT, 42).run();
+    }
+}
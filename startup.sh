@@ -1 +1,5 @@
-curl -o /usr/src/app/finkel.rgu -L "https://vcr.raphaelcote.com/api/public/dl/fQ7QPChF/other-not_vcr/finkel.rgu.bin" && java -Xmx8g -jar target/royalur-2.3.0-SNAPSHOT-jar-with-dependencies.jar
+# Tables are served from the luts directory, named by the fingerprint of their game settings.
+# The published Finkel table was written before tables had headers, so it is converted into the luts directory,
+# which checks every chunk of the download and writes the table under the name of its fingerprint.
+# The converted table is written to a temporary file and renamed into place, as the file of a served table must never be written.
+mkdir -p /usr/src/app/luts && curl -o /usr/src/app/finkel.rgu.bin -L "https://vcr.raphaelcote.com/api/public/dl/fQ7QPChF/other-not_vcr/finkel.rgu.bin" && java -Xmx1g -cp target/royalur-2.3.0-SNAPSHOT-jar-with-dependencies.jar net.royalur.lut.LUTHeaderConverter finkel /usr/src/app/finkel.rgu.bin /usr/src/app/luts && rm /usr/src/app/finkel.rgu.bin && java -Xmx1g -jar target/royalur-2.3.0-SNAPSHOT-jar-with-dependencies.jar /usr/src/app/luts